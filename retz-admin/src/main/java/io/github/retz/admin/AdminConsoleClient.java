@@ -134,6 +134,16 @@ public class AdminConsoleClient implements AdminConsoleMXBean, AutoCloseable {
         }
     }
 
+    @Override
+    public String getGcStatus() {
+        try {
+            return (String) client.getAttribute(objectName, "GcStatus");
+        } catch (Exception e) {
+            LOG.error("Failed to get GC status", e);
+            return "{}";
+        }
+    }
+
     @Override
     public void close() throws IOException {
         client.close();
@@ -28,6 +28,9 @@ public class CommandGC implements SubCommand {
     @Parameter(names = "--leeway", description = "Leeway seconds")
     private int leeway = -1;
 
+    @Parameter(names = "--status", description = "Only show status of the last GC")
+    private boolean status = false;
+
     @Override
     public String description() {
         return "Garbage collection";
@@ -42,11 +45,13 @@ public class CommandGC implements SubCommand {
     public int handle(FileConfiguration fileConfig, boolean verbose) throws Throwable  {
         int port = fileConfig.getJmxPort();
         try (AdminConsoleClient client = new AdminConsoleClient(new JmxClient("localhost", port))) {
-            if (leeway < 0) {
-                client.gc();
-            } else {
-                client.gc(leeway);
+            if (!status) {
+                boolean ok = (leeway < 0) ? client.gc() : client.gc(leeway);
+                if (!ok) {
+                    LOG.error("GC failed; see server log for details");
+                }
             }
+            LOG.info(client.getGcStatus());
             return 0;
         }
     }
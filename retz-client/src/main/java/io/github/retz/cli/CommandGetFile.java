@@ -41,7 +41,7 @@ public class CommandGetFile implements SubCommand {
     static final Logger LOG = LoggerFactory.getLogger(CommandGetFile.class);
 
     @Parameter(names = {"-i", "--id", "-id"}, description = "Job ID whose state and details you want", required = true)
-    private int id;
+    private long id;
 
     @Parameter(names = {"-R", "--resultdir"}, description = "Local directory to save the file ('-' to print)")
     private String resultDir = "-";
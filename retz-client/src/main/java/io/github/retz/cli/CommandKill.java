@@ -28,7 +28,7 @@ public class CommandKill implements SubCommand {
     static final Logger LOG = LoggerFactory.getLogger(CommandKill.class);
 
     @Parameter(names = {"-i", "--id", "-id"}, description = "Job ID which you want to kill", required = true)
-    private int id;
+    private long id;
 
     @Override
     public String description() {
@@ -18,16 +18,14 @@ package io.github.retz.cli;
 
 import com.beust.jcommander.Parameter;
 import io.github.retz.protocol.ErrorResponse;
-import io.github.retz.protocol.KillResponse;
-import io.github.retz.protocol.ListJobResponse;
+import io.github.retz.protocol.KillMatchingResponse;
 import io.github.retz.protocol.Response;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.web.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -38,6 +36,9 @@ public class CommandKillall implements SubCommand {
     @Parameter(names = {"-t", "--tag"}, description = "Job tag which you want to kill all", required = true)
     private String tag;
 
+    @Parameter(names = "--states", description = "States of jobs to kill separated by comma")
+    private String states = "QUEUED,STARTING,STARTED";
+
     @Override
     public String description() {
         return "Kill a group of jobs";
@@ -52,64 +53,39 @@ public class CommandKillall implements SubCommand {
     public int handle(ClientCLIConfig fileConfig, boolean verbose) throws Throwable {
         LOG.debug("Configuration: {}", fileConfig.toString());
 
+        List<Job.JobState> jobStates = Arrays.stream(states.split(","))
+                .map(String::trim).map(Job.JobState::valueOf).collect(Collectors.toList());
+
         try (Client webClient = Client.newBuilder(fileConfig.getUri())
                 .setAuthenticator(fileConfig.getAuthenticator())
                 .checkCert(!fileConfig.insecure())
                 .setVerboseLog(verbose)
                 .build()) {
 
-            Optional<String> maybeTag = Optional.of(tag);
-            Job.JobState[] states = {Job.JobState.QUEUED, Job.JobState.STARTED, Job.JobState.STARTING};
-
-            for (Job.JobState state : states) {
-                int r = killGroup(webClient, state, maybeTag, verbose);
-                if (r < 0) {
-                    return r;
+            // Jobs are matched and killed at server side, chunk by chunk
+            int killed = 0;
+            int signaled = 0;
+            int scanned = 0;
+            long after = -1;
+            KillMatchingResponse r;
+            do {
+                Response res = webClient.killMatching(Optional.of(tag), jobStates, after);
+                if (res instanceof ErrorResponse) {
+                    LOG.error("{} ({} jobs killed so far)", res.status(), killed);
+                    return -1;
                 }
-            }
-            return 0;
-        }
-    }
-
-    // Maybe move this to ClientHelper?
-    int killGroup(Client c, Job.JobState state, Optional<String> maybeTag, boolean verbose) throws IOException {
-        ListJobResponse r;
-        int total = 0;
-        do {
-            Response res = c.list(state, maybeTag);
-            if (res instanceof ErrorResponse) {
-                LOG.error(res.status());
-                return -1;
-            }
-            r = (ListJobResponse) res;
-
-            List<Job> failed = new ArrayList<>();
-            List<Job> killed = new ArrayList<>();
-            for (Job job : r.jobs()) {
-                Response response = c.kill(job.id());
-                if (response instanceof ErrorResponse) {
-                    failed.add(job);
-                } else if (response instanceof KillResponse) {
-                    killed.add(job);
-                } else {
-                    throw new AssertionError(response.getClass().getCanonicalName());
+                r = (KillMatchingResponse) res;
+                killed += r.killed();
+                signaled += r.signaled();
+                scanned += r.scanned();
+                after = r.next();
+                if (verbose || r.more()) {
+                    LOG.info("{} jobs killed ({} running) in {} jobs examined", killed, signaled, scanned);
                 }
-            }
-
-            total += r.jobs().size();
-            LOG.info("{}: {} jobs killed, {} jobs failed", state, killed.size(), failed.size());
-
-            if (verbose) {
-                String k = killed.stream().map(job -> Long.toString(job.id())).collect(Collectors.joining(", "));
-                LOG.info("Jobs killed: {}", k);
-            }
-            if (!failed.isEmpty()) {
-                String f = failed.stream().map(job -> Long.toString(job.id())).collect(Collectors.joining(", "));
-                LOG.error("Failed to kill jobs: [{}]", f);
-            }
+            } while (r.more());
 
-        } while (r.more());
-        return total;
+            LOG.info("{} jobs with tag '{}' killed, {} of them were running", killed, tag, signaled);
+            return 0;
+        }
     }
 }
-
@@ -71,7 +71,7 @@ public class CommandList implements SubCommand {
                 jobStates = parseStates(states);
             }
 
-            Map<Integer, Job> jobMap = new LinkedHashMap<>();
+            Map<Long, Job> jobMap = new LinkedHashMap<>();
             for (Job.JobState s : jobStates) {
                 if (verbose) {
                     LOG.info("Fetching jobs@{}", s);
@@ -37,7 +37,7 @@ public class CommandListFiles implements SubCommand {
     static final Logger LOG = LoggerFactory.getLogger(CommandListFiles.class);
 
     @Parameter(names = {"-i", "--id", "-id"}, description = "Job ID whose state and details you want", required = true)
-    private int id;
+    private long id;
 
     @Parameter(names = "--path", description = "Remote sandbox path to list")
     private String path = ListFilesRequest.DEFAULT_SANDBOX_PATH; // This cannot be empty string or '.' as SparkJava's router doesn't route them
@@ -18,18 +18,23 @@ package io.github.retz.cli;
 
 import com.beust.jcommander.Parameter;
 import io.github.retz.protocol.Response;
+import io.github.retz.protocol.ScheduleBatchRequest;
+import io.github.retz.protocol.ScheduleBatchResponse;
 import io.github.retz.protocol.ScheduleResponse;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.web.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
+import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public class CommandSchedule implements SubCommand {
     static final Logger LOG = LoggerFactory.getLogger(CommandSchedule.class);
 
@@ -46,8 +51,10 @@ public class CommandSchedule implements SubCommand {
     int disk = 32;
     @Parameter(names = {"--ports", "-ports"}, description = "Number of ports (up to 1000) required to the job; Ports will be given as $PORT0, $PORT1, ...")
     int ports = 0;
-    @Parameter(names = {"-c", "--command", "-cmd"}, required = true, description = "Remote command")
+    @Parameter(names = {"-c", "--command", "-cmd"}, description = "Remote command")
     private String remoteCmd;
+    @Parameter(names = "--from-file", description = "File with a remote command per line, to schedule all at once ('-' for stdin)")
+    private String fromFile;
     @Parameter(names = {"-A", "--appname"}, required = true, description = "Application name you loaded")
     private String appName;
     @Parameter(names = {"--prio", "--priority"}, description = "Job priority")
@@ -71,20 +78,23 @@ public class CommandSchedule implements SubCommand {
 
     @Override
     public int handle(ClientCLIConfig fileConfig, boolean verbose) throws IOException {
+        if ((remoteCmd == null) == (fromFile == null)) {
+            LOG.error("Either --command or --from-file must be specified");
+            return -1;
+        }
         Properties envProps = SubCommand.parseKeyValuePairs(envs);
 
-        Job job = new Job(appName, remoteCmd, envProps, cpu, mem, disk, gpu, ports);
-        job.setPriority(priority);
-        job.setName(name);
-        job.addTags(tags);
-        job.setAttributes(attributes);
-
         try (Client webClient = Client.newBuilder(fileConfig.getUri())
                 .setAuthenticator(fileConfig.getAuthenticator())
                 .checkCert(!fileConfig.insecure())
                 .setVerboseLog(verbose)
                 .build()) {
 
+            if (fromFile != null) {
+                return scheduleAll(webClient, readCommands(fromFile), envProps, verbose);
+            }
+
+            Job job = newJob(remoteCmd, envProps);
             if (verbose) {
                 LOG.info("Sending job {} to App {}", job.cmd(), job.appid());
             }
@@ -99,5 +109,56 @@ public class CommandSchedule implements SubCommand {
         }
         return -1;
     }
-}
 
+    private Job newJob(String cmd, Properties envProps) {
+        Job job = new Job(appName, cmd, envProps, cpu, mem, disk, gpu, ports);
+        job.setPriority(priority);
+        job.setName(name);
+        job.addTags(tags);
+        job.setAttributes(attributes);
+        return job;
+    }
+
+    private int scheduleAll(Client webClient, List<String> commands, Properties envProps, boolean verbose) throws IOException {
+        if (commands.isEmpty()) {
+            LOG.error("No command found in {}", fromFile);
+            return -1;
+        }
+        int scheduled = 0;
+        for (int i = 0; i < commands.size(); i += ScheduleBatchRequest.MAX_JOBS) {
+            List<Job> jobs = new ArrayList<>();
+            for (String cmd : commands.subList(i, Math.min(i + ScheduleBatchRequest.MAX_JOBS, commands.size()))) {
+                jobs.add(newJob(cmd, envProps));
+            }
+            if (verbose) {
+                LOG.info("Sending {} jobs to App {}", jobs.size(), appName);
+            }
+            Response res = webClient.scheduleBatch(jobs);
+            if (!(res instanceof ScheduleBatchResponse)) {
+                LOG.error("Error: {} ({} of {} jobs scheduled)", res.status(), scheduled, commands.size());
+                return -1;
+            }
+            List<Job> registered = ((ScheduleBatchResponse) res).jobs();
+            scheduled += registered.size();
+            LOG.info("Jobs (id={}..{}): {} registered at {}", registered.get(0).id(),
+                    registered.get(registered.size() - 1).id(), res.status(), registered.get(0).scheduled());
+        }
+        return 0;
+    }
+
+    // Non-empty lines except those starting with '#'
+    static List<String> readCommands(String file) throws IOException {
+        InputStream in = "-".equals(file) ? System.in : new FileInputStream(file);
+        List<String> commands = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String cmd = line.trim();
+                if (!cmd.isEmpty() && !cmd.startsWith("#")) {
+                    commands.add(cmd);
+                }
+            }
+        }
+        return commands;
+    }
+}
@@ -144,7 +144,20 @@ public class Client implements Closeable {
         return  Optional.ofNullable(Pb2Retz.convert(res.getJob()));
     }
 
-    public Optional<Job> getJob(int id) {
+    // All jobs must be of the same application
+    public List<Job> scheduleBatch(List<Job> jobs) {
+        ScheduleBatchRequest request = ScheduleBatchRequest.newBuilder()
+                .addAllJobs(jobs.stream().map(Retz2Pb::convert).collect(Collectors.toList()))
+                .build();
+        ScheduleBatchResponse res = blockingStub.scheduleBatch(request);
+        if (!res.getError().isEmpty()) {
+            LOG.error(res.getError());
+            return Collections.emptyList();
+        }
+        return res.getJobsList().stream().map(Pb2Retz::convert).collect(Collectors.toList());
+    }
+
+    public Optional<Job> getJob(long id) {
         GetJobRequest request = GetJobRequest.newBuilder()
                 .setId(id)
                 .build();
@@ -156,19 +169,39 @@ public class Client implements Closeable {
         return Optional.empty();
     }
 
-    public void kill(int id) {
+    public void kill(long id) {
         KillRequest request = KillRequest.newBuilder()
                 .setId(id).build();
         KillResponse res = blockingStub.kill(request);
         LOG.debug(res.getError());
     }
 
-    public long getFile(int id, String path, OutputStream out) throws IOException {
+    // @return number of jobs killed, or -1 on error
+    public int killMatching(Optional<String> tag, List<Job.JobState> states) {
+        KillMatchingRequest request = KillMatchingRequest.newBuilder()
+                .setTag(tag.orElse(""))
+                .addAllStates(states.stream().map(Retz2Pb::convert).collect(Collectors.toList()))
+                .build();
+        int killed = 0;
+        Iterator<KillMatchingResponse> it = blockingStub.killMatching(request);
+        while (it.hasNext()) {
+            KillMatchingResponse res = it.next();
+            if (!res.getError().isEmpty()) {
+                LOG.error(res.getError());
+                return -1;
+            }
+            killed += res.getKilled();
+            LOG.debug("{} jobs killed so far ({} signaled in the last chunk)", killed, res.getSignaled());
+        }
+        return killed;
+    }
+
+    public long getFile(long id, String path, OutputStream out) throws IOException {
         return getFile(id, path, 0, -1, out);
     }
 
-    // So far this won't be implemented because server side downloader is not yet ready
-    private long getFile(int id, String path, long offset, long length, OutputStream out) throws IOException {
+    // Negative length means up to the end of the file
+    public long getFile(long id, String path, long offset, long length, OutputStream out) throws IOException {
         GetFileRequest request = GetFileRequest.newBuilder()
                 .setId(id)
                 .setFile(path)
@@ -179,17 +212,44 @@ public class Client implements Closeable {
         long bytes = 0;
         while(iter.hasNext()) {
             GetFileResponse res = iter.next();
-            out.write(res.getContent().toByteArray());
-            // Not implemented yet; offset will be always 0
-            //if (offset + bytes != res.getOffset()) {
-            //    LOG.error("offset alignment got wrong: {} + {} != {}", offset, bytes, res.getOffset());
-            //}
+            if (!res.getError().isEmpty()) {
+                LOG.debug(res.getError());
+                continue;
+            }
+            if (offset + bytes != res.getOffset()) {
+                throw new IOException("offset alignment got wrong: " + offset + " + " + bytes + " != " + res.getOffset());
+            }
+            res.getContent().writeTo(out);
             bytes += res.getContent().size();
         }
         return bytes;
     }
 
-    public List<DirEntry> listFiles(int id, String path) {
+    // Follows a file until the job finishes, and returns the job in its final state
+    public Optional<Job> tailFile(long id, String path, long offset, OutputStream out) throws IOException {
+        TailFileRequest request = TailFileRequest.newBuilder()
+                .setId(id)
+                .setFile(path)
+                .setOffset(offset)
+                .build();
+        Iterator<TailFileResponse> iter = blockingStub.tailFile(request);
+        Optional<Job> job = Optional.empty();
+        while (iter.hasNext()) {
+            TailFileResponse res = iter.next();
+            if (!res.getError().isEmpty()) {
+                LOG.debug(res.getError());
+                continue;
+            }
+            res.getContent().writeTo(out);
+            out.flush();
+            if (res.hasJob()) {
+                job = Optional.of(Pb2Retz.convert(res.getJob()));
+            }
+        }
+        return job;
+    }
+
+    public List<DirEntry> listFiles(long id, String path) {
         ListFilesRequest request = ListFilesRequest.newBuilder()
                 .setId(id)
                 .setPath(path)
@@ -23,8 +23,10 @@ import feign.FeignException;
 import io.github.retz.auth.AuthHeader;
 import io.github.retz.auth.Authenticator;
 import io.github.retz.cli.TimestampHelper;
+import io.github.retz.misc.Triad;
 import io.github.retz.protocol.*;
 import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.ByteRange;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.exception.UnknownServerResponseException;
 import io.github.retz.web.feign.Retz;
@@ -41,15 +43,18 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
 
 public class Client implements AutoCloseable {
 
     public static final String VERSION_STRING;
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int TAIL_BUFFER_SIZE = 8192;
 
     static final Logger LOG = LoggerFactory.getLogger(Client.class);
 
@@ -131,6 +136,16 @@ public class Client implements AutoCloseable {
         return Retz.tryOrErrorResponse(() -> retz.schedule(Objects.requireNonNull(job)));
     }
 
+    // All jobs must be of the same application; at most ScheduleBatchRequest.MAX_JOBS jobs
+    public Response scheduleBatch(List<Job> jobs) throws IOException {
+        for (Job job : jobs) {
+            if (job.priority() < -20 || 19 < job.priority()) {
+                throw new IllegalArgumentException("Priority must be [-19, 20]");
+            }
+        }
+        return Retz.tryOrErrorResponse(() -> retz.scheduleBatch(Objects.requireNonNull(jobs)));
+    }
+
     public Response getJob(long id) throws IOException {
         return Retz.tryOrErrorResponse(() -> retz.getJob(id));
     }
@@ -142,17 +157,107 @@ public class Client implements AutoCloseable {
 
     // @return int content size written to OutputStream
     public long getBinaryFile(long id, String file, OutputStream out) throws IOException {
-        String date = TimestampHelper.now();
+        HttpURLConnection conn = openDownload(id, file, Optional.empty());
+        try {
+            long size = conn.getContentLengthLong();
+            if (size < 0) {
+                throw new IOException("Illegal content length:" + size);
+            } else if (size == 0) {
+                // no bytes to save;
+                return 0;
+            }
+            return IOUtils.copyLarge(conn.getInputStream(), out, 0, size);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // Fetches part of a file; the server may serve whole content if it ignores the range
+    // @return bytes written to OutputStream, total size of the file, and whether the server reads
+    // ranges without reading all before them, i.e. splitting a download into ranges pays
+    public Triad<Long, Long, Boolean> getBinaryFile(long id, String file, ByteRange range, OutputStream out) throws IOException {
+        HttpURLConnection conn = openDownload(id, file, Optional.of(range));
+        try {
+            boolean seekable = ByteRange.UNIT.equals(conn.getHeaderField("Accept-Ranges"));
+            if (conn.getResponseCode() == 416) {
+                // Range not satisfiable, e.g. the file is shorter than the range start
+                return new Triad<>(0L, ByteRange.parseTotal(conn.getHeaderField("Content-Range")), seekable);
+            }
+            long size = conn.getContentLengthLong();
+            if (size < 0) {
+                throw new IOException("Illegal content length:" + size);
+            }
+            long total = size;
+            if (conn.getResponseCode() == 206) {
+                total = ByteRange.parseTotal(conn.getHeaderField("Content-Range"));
+            } else if (range.first() != 0) {
+                throw new IOException("Server does not support ranged download");
+            }
+            long written = IOUtils.copyLarge(conn.getInputStream(), out, 0, size);
+            return new Triad<>(written, total, seekable);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // Follows a file from offset until the job finishes or the server closes the stream for
+    // idleness, writing bytes to 'out' as they come
+    // @return bytes written to OutputStream
+    public long tailFile(long id, String file, long offset, OutputStream out) throws IOException {
+        return tailFile(id, file, offset, out, () -> false);
+    }
+
+    // Same as above, but also stops as soon as 'stop' returns true or throws, checked as bytes come
+    public long tailFile(long id, String file, long offset, OutputStream out, Callable<Boolean> stop) throws IOException {
+        String resource = "/job/" + id + "/tail?path=" + encodePath(file) + "&offset=" + offset;
+        HttpURLConnection conn = openStream(resource, Optional.empty());
+        try (InputStream in = conn.getInputStream()) {
+            byte[] buffer = new byte[TAIL_BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                out.flush();
+                total += read;
+                if (shouldStop(stop)) {
+                    break;
+                }
+            }
+            return total;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static boolean shouldStop(Callable<Boolean> stop) {
+        try {
+            return stop.call();
+        } catch (Exception e) {
+            LOG.debug("Stopping: {}", e.toString());
+            return true;
+        }
+    }
+
+    private static String encodePath(String file) {
         // Encode path forcibly since we return decoded path by list files
-        String encodedFile = file;
         try {
-            encodedFile = URLEncoder.encode(file, StandardCharsets.UTF_8.toString());
+            return URLEncoder.encode(file, StandardCharsets.UTF_8.toString());
         } catch (UnsupportedEncodingException e) {
+            return file;
         }
-        String resource = "/job/" + id + "/download?path=" + encodedFile;
+    }
+
+    private HttpURLConnection openDownload(long id, String file, Optional<ByteRange> range) throws IOException {
+        String resource = "/job/" + id + "/download?path=" + encodePath(file);
+        LOG.info("Fetching {} {}", resource, range.map(ByteRange::toString).orElse(""));
+        return openStream(resource, range);
+    }
+
+    private HttpURLConnection openStream(String resource, Optional<ByteRange> range) throws IOException {
+        String date = TimestampHelper.now();
         AuthHeader header = authenticator.header("GET", "", date, resource);
         URL url = new URL(uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort() + resource); // TODO url-encode!
-        LOG.info("Fetching {}", url);
+        LOG.debug("Opening {}", url);
         HttpURLConnection conn;
 
         conn = (HttpURLConnection) url.openConnection();
@@ -174,17 +279,24 @@ public class Client implements AutoCloseable {
         conn.setRequestProperty("Authorization", header.buildHeader());
         conn.setRequestProperty("Date", date);
         conn.setRequestProperty("Content-md5", "");
+        if (range.isPresent()) {
+            conn.setRequestProperty("Range", range.get().toRangeHeader());
+        }
         conn.setDoInput(true);
         String s2s = authenticator.string2sign("GET", "", date, resource);
         LOG.debug("Authorization: {} / S2S={}", header.buildHeader(), s2s);
 
-        if (conn.getResponseCode() != 200) {
+        int statusCode = conn.getResponseCode();
+        if (statusCode == 200 || statusCode == 206 || (statusCode == 416 && range.isPresent())) {
+            return conn;
+        }
+        try {
             if (verboseLog) {
                 LOG.warn("HTTP Response:", conn.getResponseMessage());
             }
-            if (conn.getResponseCode() < 200) {
+            if (statusCode < 200) {
                 throw new AssertionError(conn.getResponseMessage());
-            } else if (conn.getResponseCode() == 404) {
+            } else if (statusCode == 404) {
                 throw new FileNotFoundException(url.toString());
             } else {
                 String message;
@@ -198,17 +310,6 @@ public class Client implements AutoCloseable {
                 }
                 throw new UnknownServerResponseException(message);
             }
-        }
-
-        long size = conn.getContentLengthLong();
-        if (size < 0) {
-            throw new IOException("Illegal content length:" + size);
-        } else if (size == 0) {
-            // no bytes to save;
-            return 0;
-        }
-        try {
-            return IOUtils.copyLarge(conn.getInputStream(), out, 0, size);
         } finally {
             conn.disconnect();
         }
@@ -262,6 +363,11 @@ public class Client implements AutoCloseable {
         return Retz.tryOrErrorResponse(() -> retz.kill(id));
     }
 
+    // Kills a chunk of jobs with id greater than 'after'; repeat with KillMatchingResponse#next() while more
+    public Response killMatching(Optional<String> tag, List<Job.JobState> states, long after) throws IOException {
+        return Retz.tryOrErrorResponse(() -> retz.killMatching(new KillMatchingRequest(tag, states, after)));
+    }
+
     public Response getApp(String appid) throws IOException {
         return Retz.tryOrErrorResponse(() -> retz.getApp(appid));
     }
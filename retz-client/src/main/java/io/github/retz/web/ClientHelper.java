@@ -16,7 +16,9 @@
  */
 package io.github.retz.web;
 
+import io.github.retz.misc.Triad;
 import io.github.retz.protocol.*;
+import io.github.retz.protocol.data.ByteRange;
 import io.github.retz.protocol.data.DirEntry;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.exception.JobNotFoundException;
@@ -25,11 +27,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Callable;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.*;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -37,6 +40,7 @@ public final class ClientHelper {
     static final Logger LOG = LoggerFactory.getLogger(ClientHelper.class);
     static final int MAX_INTERVAL_MSEC = 32768;
     static final int INITAL_INTERVAL_MSEC = 512;
+    static final long RANGE_CHUNK_SIZE = 16L * 1024 * 1024;
 
     private ClientHelper() {
         throw new UnsupportedOperationException();
@@ -85,7 +89,7 @@ public final class ClientHelper {
         return false;
     }
 
-    public static void getWholeFile(Client c, int id, String filename, String resultDir)
+    public static void getWholeFile(Client c, long id, String filename, String resultDir)
             throws IOException {
         try {
             getWholeFileWithTerminator(c, id, filename, resultDir, null);
@@ -94,7 +98,7 @@ public final class ClientHelper {
         }
     }
 
-    public static void getWholeFileWithTerminator(Client c, int id, String filename, String resultDir, Callable<Boolean> terminator)
+    public static void getWholeFileWithTerminator(Client c, long id, String filename, String resultDir, Callable<Boolean> terminator)
             throws IOException, TimeoutException {
         String path = resultDir + "/" + filename;
         try (FileOutputStream out = new FileOutputStream(path)) {
@@ -109,7 +113,7 @@ public final class ClientHelper {
 
     // Gets whole file until the job finishes and streams out to 'out'!!!
     // Throws FileNotFoundException when no file found, unlike getFile
-    public static Optional<Job> getWholeFile(Client c, int id, String filename, boolean poll, OutputStream out)
+    public static Optional<Job> getWholeFile(Client c, long id, String filename, boolean poll, OutputStream out)
             throws JobNotFoundException, IOException {
         try {
             return getWholeFileWithTerminator(c, id, filename, poll, out, null);
@@ -140,6 +144,14 @@ public final class ClientHelper {
             }
         }
 
+        if (poll) {
+            current = tailWholeFile(c, id, filename, offset, out, terminator);
+            if (!ClientHelper.fileExists(c, id, filename)) {
+                throw new FileNotFoundException(filename);
+            }
+            return current;
+        }
+
         int interval = INITAL_INTERVAL_MSEC;
         Job.JobState currentState = Job.JobState.QUEUED;
 
@@ -199,15 +211,110 @@ public final class ClientHelper {
         return current;
     }
 
+    // Follows the file with server-side tailing; a stream ends when the job finishes or the server
+    // closes it for idleness, then it's resumed from the offset until a stream after finish drains it.
+    // The terminator is also checked as bytes come, so that a stream of a busy job can be stopped.
+    static Optional<Job> tailWholeFile(Client c, long id, String filename, long offset, OutputStream out, Callable<Boolean> terminator)
+            throws IOException, TimeoutException {
+        boolean finished = false;
+        Callable<Boolean> stop = terminator == null ? () -> false : terminator;
+        while (true) {
+            long bytesRead = c.tailFile(id, filename, offset, out, finished ? () -> false : stop);
+            offset += bytesRead;
+
+            Response res = c.getJob(id);
+            if (!(res instanceof GetJobResponse)) {
+                LOG.error(res.status());
+                throw new IOException(res.status());
+            }
+            Optional<Job> current = ((GetJobResponse) res).job();
+            if (!current.isPresent()) {
+                return current;
+            }
+            Job.JobState state = current.get().state();
+            if (state == Job.JobState.FINISHED || state == Job.JobState.KILLED) {
+                // Only a stream started after finish has surely drained the file
+                if (finished) {
+                    return current;
+                }
+                finished = true;
+                continue;
+            }
+
+            try {
+                if (terminator != null && terminator.call()) {
+                    throw new TimeoutException("Timeout at getWholeFile");
+                }
+            } catch (TimeoutException e) {
+                throw e;
+            } catch (Exception e) {
+                LOG.error(e.toString(), e);
+                return current; // I don't know how to handle it
+            }
+        }
+    }
+
     // This interface is still in experiment, which may be changed even in patch release.
+    // Fetches a file in a single stream
     public static void getWholeBinaryFile(Client c, long id, String path, String output) throws IOException {
         String fullpath = FilenameUtils.concat(output, FilenameUtils.getName(path));
         LOG.info("Saving {} as {}", path, fullpath);
-        try (FileOutputStream out = new FileOutputStream(fullpath)) {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fullpath))) {
             c.getBinaryFile(id, path, out);
         }
     }
 
+    // Fetches a file by ranges of RANGE_CHUNK_SIZE in parallel and writes them at their offsets,
+    // only if the server reads a range without reading all before it. Otherwise, as with Mesos
+    // agents, every range would read the file from its head; the rest is fetched in one stream.
+    public static void getWholeBinaryFile(Client c, long id, String path, String output, int parallelism) throws IOException {
+        String fullpath = FilenameUtils.concat(output, FilenameUtils.getName(path));
+        LOG.info("Saving {} as {}", path, fullpath);
+        try (RandomAccessFile file = new RandomAccessFile(fullpath, "rw");
+             FileChannel channel = file.getChannel()) {
+            channel.truncate(0);
+
+            // The first range also tells the total size of the file and whether ranges pay
+            Triad<Long, Long, Boolean> first = c.getBinaryFile(id, path,
+                    new ByteRange(0, RANGE_CHUNK_SIZE - 1), new PositionedOutputStream(channel, 0));
+            long total = first.center();
+            if (total < 0) {
+                throw new IOException("Unknown size of " + path);
+            }
+            if (first.left() >= total) {
+                return;
+            }
+            if (!first.right() || parallelism <= 1) {
+                c.getBinaryFile(id, path, new ByteRange(first.left(), total - 1),
+                        new PositionedOutputStream(channel, first.left()));
+                return;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+            try {
+                List<Future<Triad<Long, Long, Boolean>>> futures = new ArrayList<>();
+                for (long offset = first.left(); offset < total; offset += RANGE_CHUNK_SIZE) {
+                    ByteRange range = new ByteRange(offset, Math.min(offset + RANGE_CHUNK_SIZE, total) - 1);
+                    futures.add(executor.submit(() ->
+                            c.getBinaryFile(id, path, range, new PositionedOutputStream(channel, range.first()))));
+                }
+                for (Future<Triad<Long, Long, Boolean>> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while downloading " + path, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
     public static void getWholeBinaryFile(Client c, long id, String path, OutputStream out) throws IOException {
         c.getBinaryFile(id, path, out);
     }
@@ -283,4 +390,28 @@ public final class ClientHelper {
         } catch (InterruptedException e) {
         }
     }
+
+    // Writes to a fixed region of a file so that ranges can be written concurrently
+    private static class PositionedOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private long position;
+
+        PositionedOutputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
 }
@@ -23,9 +23,11 @@ import feign.jackson.JacksonDecoder;
 import feign.jackson.JacksonEncoder;
 import feign.slf4j.Slf4jLogger;
 import io.github.retz.auth.Authenticator;
+import io.github.retz.protocol.KillMatchingRequest;
 import io.github.retz.protocol.ListJobRequest;
 import io.github.retz.protocol.LoadAppRequest;
 import io.github.retz.protocol.Response;
+import io.github.retz.protocol.ScheduleBatchRequest;
 import io.github.retz.protocol.ScheduleRequest;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
@@ -34,6 +36,7 @@ import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Supplier;
@@ -64,6 +67,14 @@ public interface Retz {
     @Headers({"Content-Type: application/json", "Accept: application/json"})
     Response schedule(ScheduleRequest request);
 
+    default Response scheduleBatch(List<Job> jobs) {
+        return scheduleBatch(new ScheduleBatchRequest(jobs));
+    }
+
+    @RequestLine("POST /jobs/batch")
+    @Headers({"Content-Type: application/json", "Accept: application/json"})
+    Response scheduleBatch(ScheduleBatchRequest request);
+
     @RequestLine("GET /job/{id}")
     @Headers({"Content-Type: application/json", "Accept: application/json"})
     Response getJob(@Param("id") long id);
@@ -92,6 +103,10 @@ public interface Retz {
     @Headers({"Content-Type: application/json", "Accept: application/json"})
     Response kill(@Param("id") long id);
 
+    @RequestLine("POST /jobs/kill")
+    @Headers({"Content-Type: application/json", "Accept: application/json"})
+    Response killMatching(KillMatchingRequest request);
+
     @RequestLine("GET /app/{appid}")
     @Headers({"Content-Type: application/json", "Accept: application/json"})
     Response getApp(@Param("appid") String appid);
@@ -28,4 +28,5 @@ public interface AdminConsoleMXBean {
 
     boolean gc();
     boolean gc(int leeway);
+    String getGcStatus();
 }
@@ -17,51 +17,59 @@
 package io.github.retz.cli;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 
 public final class TimestampHelper {
-    // Use ISO8601-like extended format
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+    // Use ISO8601-like extended format; DateTimeFormatter is immutable and thread-safe
+    private static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+    private static final DateTimeFormatter PARSER = DateTimeFormatter.ofPattern(PATTERN);
+    private static final DateTimeFormatter FORMATTER = PARSER.withZone(ZoneId.systemDefault());
 
     private TimestampHelper() {
         throw new UnsupportedOperationException();
     }
 
     public static String now() {
-        synchronized (DATE_FORMAT) {
-            return DATE_FORMAT.format(nowDate());
-        }
+        return FORMATTER.format(Instant.now());
     }
 
     public static String past(int seconds) {
-        return past(Calendar.getInstance().getTime().getTime(), seconds);
+        return past(System.currentTimeMillis(), seconds);
     }
 
     // Returns duration in second
     public static long diffMillisec(String lhs, String rhs) throws ParseException {
-        synchronized (DATE_FORMAT) {
-            Date l = DATE_FORMAT.parse(lhs);
-            Date r = DATE_FORMAT.parse(rhs);
-            // Date#getTime returns timestamp since 1970 in milliseconds
-            return l.getTime() - r.getTime();
+        return toEpochMillis(lhs) - toEpochMillis(rhs);
+    }
+
+    public static long toEpochMillis(String timestamp) throws ParseException {
+        try {
+            return OffsetDateTime.parse(timestamp, PARSER).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            ParseException pe = new ParseException(e.getMessage(), e.getErrorIndex());
+            pe.initCause(e);
+            throw pe;
         }
     }
 
+    public static String fromEpochMillis(long epochMillis) {
+        return FORMATTER.format(Instant.ofEpochMilli(epochMillis));
+    }
+
     static Date nowDate() {
-        return Calendar.getInstance().getTime();
+        return new Date();
     }
 
     static String now(Date date) {
-        synchronized (DATE_FORMAT) {
-            return DATE_FORMAT.format(date);
-        }
+        return FORMATTER.format(date.toInstant());
     }
 
     static String past(long timestampMsec, int seconds) {
-        synchronized (DATE_FORMAT) {
-            return DATE_FORMAT.format(new Date(timestampMsec - seconds * 1000));
-        }
+        return fromEpochMillis(timestampMsec - seconds * 1000L);
     }
 }
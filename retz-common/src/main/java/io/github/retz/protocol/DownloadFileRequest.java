@@ -27,20 +27,20 @@ import java.util.Objects;
 
 // Request to get text file; maps to files/read API of Mesos
 public class DownloadFileRequest extends Request {
-    private int id;
+    private long id;
     private String file;
     //private long offset;
     //private long length;
 
     @JsonCreator
-    public DownloadFileRequest(@JsonProperty(value = "id", required = true) int id,
+    public DownloadFileRequest(@JsonProperty(value = "id", required = true) long id,
                                @JsonProperty(value = "file", required = true) String file) {
         this.id = id;
         this.file = Objects.requireNonNull(file);
     }
 
     @JsonGetter("id")
-    public int id() {
+    public long id() {
         return id;
     }
 
@@ -29,13 +29,13 @@ import java.util.Optional;
 
 // Request to get text file; maps to files/read API of Mesos
 public class GetFileRequest extends Request {
-    private int id;
+    private long id;
     private String file;
     private long offset;
     private long length;
 
     @JsonCreator
-    public GetFileRequest(@JsonProperty(value = "id", required = true) int id,
+    public GetFileRequest(@JsonProperty(value = "id", required = true) long id,
                           @JsonProperty(value = "file", required = true) String file,
                           @JsonProperty(value = "offset") long offset,
                           @JsonProperty(value = "length") long length) {
@@ -46,7 +46,7 @@ public class GetFileRequest extends Request {
     }
 
     @JsonGetter("id")
-    public int id() {
+    public long id() {
         return id;
     }
 
@@ -24,15 +24,15 @@ import java.util.Objects;
 import java.util.Optional;
 
 public class GetJobRequest extends Request {
-    private int id;
+    private long id;
 
     @JsonCreator
-    public GetJobRequest(@JsonProperty(value = "id", required = true) int id) {
+    public GetJobRequest(@JsonProperty(value = "id", required = true) long id) {
         this.id = id;
     }
 
     @JsonGetter("id")
-    public int id() {
+    public long id() {
         return id;
     }
 
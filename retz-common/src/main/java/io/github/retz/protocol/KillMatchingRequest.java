@@ -0,0 +1,78 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.github.retz.protocol.data.Job;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+// Kills all jobs of the user in any of the states and with the tag, at server side.
+// Each request processes a chunk of jobs with id greater than 'after'; clients repeat
+// with 'next' in the response while 'more' is true.
+public class KillMatchingRequest extends Request {
+    private Optional<String> tag;
+    private List<Job.JobState> states;
+    private long after;
+
+    @JsonCreator
+    public KillMatchingRequest(@JsonProperty("tag") Optional<String> tag,
+                               @JsonProperty(value = "states", required = true) List<Job.JobState> states,
+                               @JsonProperty("after") long after) {
+        this.tag = tag == null ? Optional.empty() : tag;
+        this.states = Objects.requireNonNull(states);
+        this.after = after;
+    }
+
+    @JsonGetter("tag")
+    public Optional<String> tag() {
+        return tag;
+    }
+
+    @JsonGetter("states")
+    public List<Job.JobState> states() {
+        return states;
+    }
+
+    @JsonGetter("after")
+    public long after() {
+        return after;
+    }
+
+    @Override
+    public String resource() {
+        return "/jobs/kill";
+    }
+
+    @Override
+    public String method() {
+        return POST;
+    }
+
+    @Override
+    public boolean hasPayload() {
+        return true;
+    }
+
+    public static String resourcePattern() {
+        return "/jobs/kill";
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class KillMatchingResponse extends Response {
+    private int killed;   // jobs changed to KILLED in this chunk
+    private int signaled; // of those, running ones to which kill was sent to Mesos
+    private int scanned;  // jobs in the states examined in this chunk
+    private long next;    // 'after' for the next request
+    private boolean more;
+
+    @JsonCreator
+    public KillMatchingResponse(@JsonProperty("killed") int killed,
+                                @JsonProperty("signaled") int signaled,
+                                @JsonProperty("scanned") int scanned,
+                                @JsonProperty("next") long next,
+                                @JsonProperty("more") boolean more) {
+        this.killed = killed;
+        this.signaled = signaled;
+        this.scanned = scanned;
+        this.next = next;
+        this.more = more;
+    }
+
+    @JsonGetter("killed")
+    public int killed() {
+        return killed;
+    }
+
+    @JsonGetter("signaled")
+    public int signaled() {
+        return signaled;
+    }
+
+    @JsonGetter("scanned")
+    public int scanned() {
+        return scanned;
+    }
+
+    @JsonGetter("next")
+    public long next() {
+        return next;
+    }
+
+    @JsonGetter("more")
+    public boolean more() {
+        return more;
+    }
+}
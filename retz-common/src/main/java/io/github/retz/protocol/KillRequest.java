@@ -21,15 +21,15 @@ import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class KillRequest extends Request {
-    private int id;
+    private long id;
 
     @JsonCreator
-    public KillRequest(@JsonProperty("id") int id) {
+    public KillRequest(@JsonProperty("id") long id) {
         this.id = id;
     }
 
     @JsonGetter
-    public int id() {
+    public long id() {
         return id;
     }
 
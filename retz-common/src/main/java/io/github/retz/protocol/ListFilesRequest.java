@@ -28,18 +28,18 @@ import java.util.Objects;
 public class ListFilesRequest extends Request {
     public static final String DEFAULT_SANDBOX_PATH = "$MESOS_SANDBOX";
 
-    private int id;
+    private long id;
     private String path;
 
     @JsonCreator
-    public ListFilesRequest(@JsonProperty(value = "id", required = true) int id,
+    public ListFilesRequest(@JsonProperty(value = "id", required = true) long id,
                             @JsonProperty(value = "path", required = true) String dir) {
         this.id = id;
         this.path = Objects.requireNonNull(dir);
     }
 
     @JsonGetter("id")
-    public int id() {
+    public long id() {
         return id;
     }
 
@@ -26,11 +26,14 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo.Id;
 @JsonSubTypes({
         @Type(name = "list", value = ListJobRequest.class),
         @Type(name = "schedule", value = ScheduleRequest.class),
+        @Type(name = "schedule-batch", value = ScheduleBatchRequest.class),
         @Type(name = "get-job", value = GetJobRequest.class),
         @Type(name = "get-file", value = GetFileRequest.class),
         @Type(name = "download-file", value = DownloadFileRequest.class),
+        @Type(name = "tail-file", value = TailFileRequest.class),
         @Type(name = "list-files", value = ListFilesRequest.class),
         @Type(name = "kill", value = KillRequest.class),
+        @Type(name = "kill-matching", value = KillMatchingRequest.class),
         @Type(name = "get-app", value = GetAppRequest.class),
         @Type(name = "load-app", value = LoadAppRequest.class),
         @Type(name = "unload-app", value = UnloadAppRequest.class),
@@ -0,0 +1,89 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+// Request to follow a file in the sandbox; the response is a chunked stream of raw bytes
+// from the offset, which ends when the job finishes or the server stops it for idleness
+public class TailFileRequest extends Request {
+    private long id;
+    private String file;
+    private long offset;
+
+    @JsonCreator
+    public TailFileRequest(@JsonProperty(value = "id", required = true) long id,
+                           @JsonProperty(value = "file", required = true) String file,
+                           @JsonProperty(value = "offset") long offset) {
+        this.id = id;
+        this.file = Objects.requireNonNull(file);
+        this.offset = offset;
+    }
+
+    @JsonGetter("id")
+    public long id() {
+        return id;
+    }
+
+    @JsonGetter("file")
+    public String file() {
+        return file;
+    }
+
+    @JsonGetter("offset")
+    public long offset() {
+        return offset;
+    }
+
+    @Override
+    public String resource() {
+        String encodedFile = file;
+        try {
+            encodedFile = URLEncoder.encode(file, StandardCharsets.UTF_8.toString());
+        } catch (UnsupportedEncodingException e) {
+        }
+
+        StringBuilder builder = new StringBuilder("/job/")
+                .append(id)
+                .append("/tail")
+                .append("?path=").append(encodedFile)
+                .append("&offset=").append(offset);
+
+        return builder.toString();
+    }
+
+    @Override
+    public String method() {
+        return GET;
+    }
+
+    @Override
+    public boolean hasPayload() {
+        return false;
+    }
+
+    public static String resourcePattern() {
+        return "/job/:id/tail";
+    }
+}
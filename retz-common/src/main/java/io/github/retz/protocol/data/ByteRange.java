@@ -0,0 +1,124 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol.data;
+
+import java.util.Optional;
+
+// A single HTTP byte range (RFC 7233) with both ends inclusive, used by binary download
+public class ByteRange {
+    public static final String UNIT = "bytes";
+    // Accept-Ranges value of servers which cannot read a range without reading all before it
+    public static final String NONE = "none";
+
+    private final long first;
+    private final long last;
+
+    public ByteRange(long first, long last) {
+        if (first < 0 || last < first) {
+            throw new IllegalArgumentException("Invalid byte range: " + first + "-" + last);
+        }
+        this.first = first;
+        this.last = last;
+    }
+
+    public long first() {
+        return first;
+    }
+
+    public long last() {
+        return last;
+    }
+
+    public long length() {
+        return last - first + 1;
+    }
+
+    // Value for 'Range' request header
+    public String toRangeHeader() {
+        return UNIT + "=" + first + "-" + last;
+    }
+
+    // Value for 'Content-Range' response header
+    public String toContentRange(long total) {
+        return UNIT + " " + first + "-" + last + "/" + total;
+    }
+
+    public static String unsatisfiedContentRange(long total) {
+        return UNIT + " */" + total;
+    }
+
+    // Parses 'bytes=0-99', 'bytes=100-' and 'bytes=-500' against the total size.
+    // Returns empty when the header is absent, malformed or has multiple ranges, where
+    // the whole content is to be returned. Throws IllegalArgumentException if unsatisfiable.
+    public static Optional<ByteRange> parseRangeHeader(String header, long total) {
+        if (header == null || !header.startsWith(UNIT + "=")) {
+            return Optional.empty();
+        }
+        String spec = header.substring(UNIT.length() + 1).trim();
+        if (spec.contains(",")) {
+            return Optional.empty();
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return Optional.empty();
+        }
+        String head = spec.substring(0, dash).trim();
+        String tail = spec.substring(dash + 1).trim();
+        try {
+            if (head.isEmpty()) {
+                // Suffix range: last N bytes
+                long suffix = Long.parseLong(tail);
+                if (suffix <= 0 || total == 0) {
+                    throw new IllegalArgumentException("Unsatisfiable range: " + header);
+                }
+                return Optional.of(new ByteRange(Math.max(0, total - suffix), total - 1));
+            }
+            long first = Long.parseLong(head);
+            long last = tail.isEmpty() ? total - 1 : Math.min(Long.parseLong(tail), total - 1);
+            if (first >= total) {
+                throw new IllegalArgumentException("Unsatisfiable range: " + header);
+            }
+            if (last < first) {
+                return Optional.empty();
+            }
+            return Optional.of(new ByteRange(first, last));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    // Parses total size from 'bytes 0-99/1234'; returns -1 if unknown
+    public static long parseTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0 || contentRange.endsWith("*")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toRangeHeader();
+    }
+}
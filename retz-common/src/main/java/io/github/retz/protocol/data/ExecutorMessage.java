@@ -0,0 +1,100 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol.data;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Sent from a resident Retz executor to the scheduler as Mesos framework message.
+// Jobs themselves arrive at the executor as tasks; this carries executor lifecycle and
+// the slices it is accounting for, which cgroups no longer tell per job.
+public class ExecutorMessage {
+    public enum Type {
+        REGISTERED, // executor is up and takes tasks of the application
+        USAGE, // periodic report of running jobs
+        EXITING // executor is idle and going away; do not send more tasks
+    }
+
+    private final Type type;
+    private final String appid;
+    private final int jobs;
+    private final double cpu;
+    private final int memMB;
+    private final int rssMB;
+
+    @JsonCreator
+    public ExecutorMessage(@JsonProperty(value = "type", required = true) Type type,
+                           @JsonProperty(value = "appid", required = true) String appid,
+                           @JsonProperty("jobs") int jobs,
+                           @JsonProperty("cpu") double cpu,
+                           @JsonProperty("memMB") int memMB,
+                           @JsonProperty("rssMB") int rssMB) {
+        this.type = type;
+        this.appid = appid;
+        this.jobs = jobs;
+        this.cpu = cpu;
+        this.memMB = memMB;
+        this.rssMB = rssMB;
+    }
+
+    @JsonGetter("type")
+    public Type type() {
+        return type;
+    }
+
+    @JsonGetter("appid")
+    public String appid() {
+        return appid;
+    }
+
+    // Number of jobs running as child processes
+    @JsonGetter("jobs")
+    public int jobs() {
+        return jobs;
+    }
+
+    // Sum of cpu slices assigned to running jobs
+    @JsonGetter("cpu")
+    public double cpu() {
+        return cpu;
+    }
+
+    // Sum of memory slices assigned to running jobs
+    @JsonGetter("memMB")
+    public int memMB() {
+        return memMB;
+    }
+
+    // Resident memory actually used by running jobs and their descendants
+    @JsonGetter("rssMB")
+    public int rssMB() {
+        return rssMB;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder("ExecutorMessage{")
+                .append("type=").append(type)
+                .append(",appid=").append(appid)
+                .append(",jobs=").append(jobs)
+                .append(",cpu=").append(cpu)
+                .append(",mem=").append(memMB).append("MB")
+                .append(",rss=").append(rssMB).append("MB}")
+                .toString();
+    }
+}
@@ -37,7 +37,7 @@ public class Job {
     private String finished;
     private Properties props;
     private int result = -1;
-    private int id;
+    private long id;
     private String url;
     private String reason;
     private int retry; // How many retry now we have
@@ -82,7 +82,7 @@ public class Job {
                @JsonProperty("finished") String finished,
                @JsonProperty("env") Properties props,
                @JsonProperty("result") int result,
-               @JsonProperty(value = "id", required = true) int id,
+               @JsonProperty(value = "id", required = true) long id,
                @JsonProperty("url") String url,
                @JsonProperty("reason") String reason,
                @JsonProperty("retry") int retry,
@@ -149,7 +149,7 @@ public class Job {
     }
 
     @JsonGetter("id")
-    public int id() {
+    public long id() {
         return id;
     }
 
@@ -213,7 +213,7 @@ public class Job {
         return state;
     }
 
-    public void schedule(int id, String now) {
+    public void schedule(long id, String now) {
         this.id = id;
         this.scheduled = now;
         this.state = QUEUED;
@@ -233,6 +233,12 @@ public class Job {
         this.state = STARTING;
     }
 
+    // Agent is known when the task is launched, before any status update
+    public void starting(String taskId, String slaveId, Optional<String> maybeUrl, String now) {
+        this.slaveId = slaveId;
+        starting(taskId, maybeUrl, now);
+    }
+
     public void started(String taskId, String slaveId, Optional<String> maybeUrl, String now) {
         this.started = now;
         this.taskId = taskId;
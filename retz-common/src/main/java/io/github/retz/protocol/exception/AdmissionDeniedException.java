@@ -0,0 +1,32 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol.exception;
+
+// Jobs are not accepted now as the queue is full or submitted too fast; retry later
+public class AdmissionDeniedException extends Exception {
+    private final long retryAfterSec;
+
+    public AdmissionDeniedException(String message, long retryAfterSec) {
+        super(message);
+        this.retryAfterSec = retryAfterSec;
+    }
+
+    // Seconds after which retry may be admitted; 0 if unknown
+    public long retryAfterSec() {
+        return retryAfterSec;
+    }
+}
@@ -20,6 +20,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.sql.Time;
+import java.text.ParseException;
 import java.util.Date;
 
 import static org.junit.Assert.assertEquals;
@@ -40,4 +41,20 @@ public class TimestampHelperTest {
             System.err.println(t + " - " + p + " = " + TimestampHelper.diffMillisec(t, p));
         }
     }
+
+    @Test
+    public void epochMillis() throws Exception {
+        assertEquals(1483196400000L, TimestampHelper.toEpochMillis("2017-01-01T00:00:00.000+09:00"));
+        assertEquals(1483196400000L, TimestampHelper.toEpochMillis("2016-12-31T15:00:00.000Z"));
+
+        long now = System.currentTimeMillis();
+        assertEquals(now, TimestampHelper.toEpochMillis(TimestampHelper.fromEpochMillis(now)));
+        String t = TimestampHelper.now();
+        assertEquals(t, TimestampHelper.fromEpochMillis(TimestampHelper.toEpochMillis(t)));
+    }
+
+    @Test(expected = ParseException.class)
+    public void invalid() throws Exception {
+        TimestampHelper.toEpochMillis("2017/01/01 00:00:00");
+    }
 }
@@ -0,0 +1,83 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol;
+
+import io.github.retz.protocol.data.ByteRange;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class ByteRangeTest {
+
+    @Test
+    public void parse() {
+        ByteRange r = ByteRange.parseRangeHeader("bytes=0-99", 1000).get();
+        assertEquals(0, r.first());
+        assertEquals(99, r.last());
+        assertEquals(100, r.length());
+        assertEquals("bytes 0-99/1000", r.toContentRange(1000));
+
+        r = ByteRange.parseRangeHeader("bytes=900-", 1000).get();
+        assertEquals(900, r.first());
+        assertEquals(999, r.last());
+
+        r = ByteRange.parseRangeHeader("bytes=-300", 1000).get();
+        assertEquals(700, r.first());
+        assertEquals(999, r.last());
+
+        // Clipped at the end of the content
+        r = ByteRange.parseRangeHeader("bytes=500-5000", 1000).get();
+        assertEquals(999, r.last());
+        r = ByteRange.parseRangeHeader("bytes=-5000", 1000).get();
+        assertEquals(0, r.first());
+
+        assertEquals("bytes=0-999", r.toRangeHeader());
+    }
+
+    @Test
+    public void wholeContent() {
+        assertFalse(ByteRange.parseRangeHeader(null, 1000).isPresent());
+        assertFalse(ByteRange.parseRangeHeader("bytes=0-1,5-10", 1000).isPresent());
+        assertFalse(ByteRange.parseRangeHeader("items=0-1", 1000).isPresent());
+        assertFalse(ByteRange.parseRangeHeader("bytes=abc-", 1000).isPresent());
+        assertFalse(ByteRange.parseRangeHeader("bytes=10-5", 1000).isPresent());
+    }
+
+    @Test
+    public void unsatisfiable() {
+        for (String header : new String[]{"bytes=1000-", "bytes=2000-3000", "bytes=-0"}) {
+            try {
+                Optional<ByteRange> r = ByteRange.parseRangeHeader(header, 1000);
+                fail(header + " => " + r);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        assertEquals("bytes */1000", ByteRange.unsatisfiedContentRange(1000));
+    }
+
+    @Test
+    public void total() {
+        assertEquals(1234, ByteRange.parseTotal("bytes 0-99/1234"));
+        assertEquals(0, ByteRange.parseTotal("bytes */0"));
+        assertEquals(-1, ByteRange.parseTotal("bytes 0-99/*"));
+        assertEquals(-1, ByteRange.parseTotal(null));
+    }
+}
@@ -53,7 +53,7 @@ public class ProtocolTest {
             Job job = mapper.readValue(jobString, Job.class);
             assertThat(job.cmd(), is("yaess/bin/yaess-batch.sh ...."));
             assertThat(job.result(), is(0));
-            assertThat(job.id(), is(1));
+            assertThat(job.id(), is(1L));
         }
         {
             String jobString = "{ \"appid\" : \"myid\", \"cmd\":\"yaess/bin/yaess-batch.sh ....\", \"scheduled\":\"2016-05-15:20:20:20Z\", \"id\":2, \"state\":\"STARTED\", \"resources\":{\"cpu\":1,\"memMB\":128}}";
@@ -111,7 +111,7 @@ public class ProtocolTest {
             Request req = mapper.readValue(json, Request.class);
             assertThat(req, instanceOf(GetJobRequest.class));
             GetJobRequest getJobRequest = (GetJobRequest) req;
-            assertThat(23, is(getJobRequest.id()));
+            assertThat(23L, is(getJobRequest.id()));
         }
 
         {
@@ -119,7 +119,14 @@ public class ProtocolTest {
             Request req = mapper.readValue(json, Request.class);
             assertThat(req, instanceOf(KillRequest.class));
             KillRequest kreq = (KillRequest) req;
-            assertThat(kreq.id(), is(2));
+            assertThat(kreq.id(), is(2L));
+        }
+        {
+            // Ids beyond 32bit
+            String json = "{\"command\":\"get-job\", \"id\":4294967296}";
+            GetJobRequest getJobRequest = (GetJobRequest) mapper.readValue(json, Request.class);
+            assertThat(getJobRequest.id(), is(4294967296L));
+            assertThat(getJobRequest.resource(), is("/job/4294967296"));
         }
     }
 
@@ -145,7 +152,7 @@ public class ProtocolTest {
             assertThat(res, instanceOf(ScheduleResponse.class));
             ScheduleResponse sres = (ScheduleResponse) res;
             assertNotNull(sres.job);
-            assertThat(sres.job.id(), is(23));
+            assertThat(sres.job.id(), is(23L));
         }
         {
             String json = "{\"command\":\"get-job\",\"job\":{\"appid\":\"foobar\", \"cmd\":\"Mmmmmmmmmy commmmmand1!!!!!\",\"scheduled\":null,\"started\":null,\"finished\":null,\"result\":0,\"id\":0,\"url\":null, \"resources\":{\"cpu\":1,\"memMB\":128}, \"state\":\"STARTED\"}}";
@@ -153,7 +160,7 @@ public class ProtocolTest {
             Response res = mapper.readValue(json, Response.class);
             assertThat(res, instanceOf(GetJobResponse.class));
             GetJobResponse getJobResponse = (GetJobResponse) res;
-            assertThat(getJobResponse.job().get().id(), is(0));
+            assertThat(getJobResponse.job().get().id(), is(0L));
             assertThat(getJobResponse.job().get().cmd(), is("Mmmmmmmmmy commmmmand1!!!!!"));
         }
         {
@@ -187,6 +194,15 @@ public class ProtocolTest {
             GetJobResponse getJobResponse = new GetJobResponse(Optional.of(job));
             mapper.writeValueAsString(getJobResponse);
         }
+        {
+            ExecutorMessage message = new ExecutorMessage(ExecutorMessage.Type.USAGE, "foobar-app", 3, 1.5, 384, 120);
+            ExecutorMessage decoded = mapper.readValue(mapper.writeValueAsBytes(message), ExecutorMessage.class);
+            assertThat(decoded.type(), is(ExecutorMessage.Type.USAGE));
+            assertThat(decoded.appid(), is("foobar-app"));
+            assertThat(decoded.jobs(), is(3));
+            assertThat(decoded.memMB(), is(384));
+            assertThat(decoded.rssMB(), is(120));
+        }
         // Hanc marginis exiguitas non caperet.
     }
 
@@ -0,0 +1,187 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.executor;
+
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// A job running as a child process of the executor, with the cpu/mem slice of its task
+final class ChildJob {
+    private static final Logger LOG = LoggerFactory.getLogger(ChildJob.class);
+
+    private final Protos.TaskID taskId;
+    private final Protos.CommandInfo command;
+    private final double cpu;
+    private final int memMB;
+    private final long graceMsec;
+    private Process process;
+    private int pid = -1;
+    private volatile boolean killed = false;
+    private volatile boolean exceeded = false;
+    private volatile long cpuTicks = 0;
+    private volatile long rssBytes = 0;
+    private volatile long maxRssBytes = 0;
+
+    ChildJob(Protos.TaskID taskId, Protos.CommandInfo command, double cpu, int memMB, long graceMsec) {
+        this.taskId = taskId;
+        this.command = command;
+        this.cpu = cpu;
+        this.memMB = memMB;
+        this.graceMsec = graceMsec;
+    }
+
+    // Job output goes to tasks/<taskid>/{stdout,stderr} in the executor sandbox, where the
+    // scheduler points the job URL to; working directory is the sandbox with application files
+    // @return false if the job has been killed before started, which is never spawned
+    synchronized boolean start(File sandbox) throws IOException {
+        if (killed) {
+            return false;
+        }
+        File dir = new File(new File(sandbox, "tasks"), taskId.getValue());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        List<String> args = new ArrayList<>();
+        if (command.getShell()) {
+            args.add("/bin/sh");
+            args.add("-c");
+            args.add(command.getValue());
+        } else {
+            args.add(command.getValue());
+            args.addAll(command.getArgumentsList());
+        }
+        ProcessBuilder pb = new ProcessBuilder(args)
+                .directory(sandbox)
+                .redirectOutput(new File(dir, "stdout"))
+                .redirectError(new File(dir, "stderr"));
+        for (Protos.Environment.Variable v : command.getEnvironment().getVariablesList()) {
+            pb.environment().put(v.getName(), v.getValue());
+        }
+        pb.environment().put("MESOS_TASK_ID", taskId.getValue());
+        process = pb.start();
+        pid = ProcStat.pid(process);
+        LOG.info("Started job {} as pid {} with cpu={}, mem={}MB: {}", taskId.getValue(), pid, cpu, memMB, command.getValue());
+        return true;
+    }
+
+    int waitFor() throws InterruptedException {
+        return process.waitFor();
+    }
+
+    // Updates usage from a /proc snapshot and returns whether the job is within its memory slice
+    boolean account(List<ProcStat> stats) {
+        if (pid < 0) {
+            return true;
+        }
+        List<ProcStat> tree = ProcStat.tree(pid, stats);
+        if (tree.isEmpty()) {
+            return true;
+        }
+        cpuTicks = Math.max(cpuTicks, ProcStat.cpuTicks(tree));
+        rssBytes = ProcStat.rssBytes(tree);
+        maxRssBytes = Math.max(maxRssBytes, rssBytes);
+        if (rssBytes > memMB * 1024L * 1024L) {
+            exceeded = true;
+        }
+        return !exceeded;
+    }
+
+    // SIGTERM to the whole process tree; SIGKILL if 'force'
+    void signal(boolean force) {
+        Process process;
+        int pid;
+        synchronized (this) {
+            killed = true;
+            if (this.process == null) {
+                // Not yet started; start() sees 'killed' and never spawns it
+                return;
+            }
+            process = this.process;
+            pid = this.pid;
+        }
+        if (pid < 0) {
+            if (force) {
+                process.destroyForcibly();
+            } else {
+                process.destroy();
+            }
+            return;
+        }
+        List<String> pids = ProcStat.tree(pid, ProcStat.all()).stream()
+                .map(s -> Integer.toString(s.pid)).collect(Collectors.toList());
+        if (pids.isEmpty()) {
+            return;
+        }
+        List<String> args = new ArrayList<>();
+        args.add("kill");
+        args.add(force ? "-KILL" : "-TERM");
+        args.addAll(pids);
+        try {
+            new ProcessBuilder(args).inheritIO().start().waitFor();
+        } catch (IOException e) {
+            LOG.warn("Cannot signal job {}: {}", taskId.getValue(), e.toString());
+            process.destroyForcibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    synchronized boolean isAlive() {
+        return process != null && process.isAlive();
+    }
+
+    Protos.TaskID taskId() {
+        return taskId;
+    }
+
+    double cpu() {
+        return cpu;
+    }
+
+    int memMB() {
+        return memMB;
+    }
+
+    long graceMsec() {
+        return graceMsec;
+    }
+
+    boolean killed() {
+        return killed;
+    }
+
+    boolean exceeded() {
+        return exceeded;
+    }
+
+    long rssBytes() {
+        return rssBytes;
+    }
+
+    // Usage summary for the final status message
+    String usage() {
+        return String.format("cpu=%.2fs, maxrss=%dMB", (double) cpuTicks / ProcStat.CLOCK_TICKS_PER_SEC,
+                maxRssBytes / 1024 / 1024);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cgroup-free accounting of jobs: all jobs of a resident executor share its container, so
+ * cpu time and resident memory of each job are summed up over the process tree rooted at
+ * its child process, reading /proc/[pid]/stat directly.
+ */
+final class ProcStat {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcStat.class);
+    // Linux on x86_64 and ARM; USER_HZ and page size are not exposed to Java
+    static final long CLOCK_TICKS_PER_SEC = 100;
+    static final long PAGE_SIZE = 4096;
+
+    private static final File PROC = new File("/proc");
+
+    final int pid;
+    final int ppid;
+    final long cpuTicks; // utime + stime
+    final long rssPages;
+
+    ProcStat(int pid, int ppid, long cpuTicks, long rssPages) {
+        this.pid = pid;
+        this.ppid = ppid;
+        this.cpuTicks = cpuTicks;
+        this.rssPages = rssPages;
+    }
+
+    // Parses a line of /proc/[pid]/stat; the command name may contain spaces and parentheses
+    static ProcStat parse(String line) {
+        int open = line.indexOf('(');
+        int close = line.lastIndexOf(')');
+        if (open < 0 || close < open) {
+            throw new IllegalArgumentException("Malformed stat: " + line);
+        }
+        int pid = Integer.parseInt(line.substring(0, open).trim());
+        // Fields from 'state' (3rd) on
+        String[] fields = line.substring(close + 1).trim().split("\\s+");
+        if (fields.length < 22) {
+            throw new IllegalArgumentException("Too few fields in stat: " + line);
+        }
+        int ppid = Integer.parseInt(fields[1]);
+        long utime = Long.parseLong(fields[11]);
+        long stime = Long.parseLong(fields[12]);
+        long rss = Long.parseLong(fields[21]);
+        return new ProcStat(pid, ppid, utime + stime, rss);
+    }
+
+    static List<ProcStat> all() {
+        List<ProcStat> stats = new ArrayList<>();
+        String[] entries = PROC.list();
+        if (entries == null) {
+            return stats;
+        }
+        for (String entry : entries) {
+            if (entry.isEmpty() || !Character.isDigit(entry.charAt(0))) {
+                continue;
+            }
+            try {
+                byte[] bytes = Files.readAllBytes(new File(new File(PROC, entry), "stat").toPath());
+                stats.add(parse(new String(bytes, StandardCharsets.UTF_8)));
+            } catch (IOException | IllegalArgumentException e) {
+                // Process exited while listing
+            }
+        }
+        return stats;
+    }
+
+    // The root process and all of its descendants, root first
+    static List<ProcStat> tree(int root, List<ProcStat> stats) {
+        Map<Integer, List<ProcStat>> children = new HashMap<>();
+        ProcStat top = null;
+        for (ProcStat s : stats) {
+            children.computeIfAbsent(s.ppid, k -> new ArrayList<>()).add(s);
+            if (s.pid == root) {
+                top = s;
+            }
+        }
+        List<ProcStat> tree = new ArrayList<>();
+        if (top == null) {
+            return tree;
+        }
+        Deque<ProcStat> queue = new ArrayDeque<>();
+        queue.add(top);
+        while (!queue.isEmpty()) {
+            ProcStat s = queue.poll();
+            tree.add(s);
+            queue.addAll(children.getOrDefault(s.pid, new ArrayList<>()));
+        }
+        return tree;
+    }
+
+    static long cpuTicks(List<ProcStat> tree) {
+        return tree.stream().mapToLong(s -> s.cpuTicks).sum();
+    }
+
+    static long rssBytes(List<ProcStat> tree) {
+        return tree.stream().mapToLong(s -> s.rssPages).sum() * PAGE_SIZE;
+    }
+
+    // Java 8 does not tell pid of a child process but UNIXProcess has it
+    static int pid(Process process) {
+        try {
+            Field f = process.getClass().getDeclaredField("pid");
+            f.setAccessible(true);
+            return f.getInt(process);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            LOG.warn("Cannot get pid of {}: {}", process, e.toString());
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.executor;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.github.retz.protocol.data.ExecutorMessage;
+import org.apache.mesos.Executor;
+import org.apache.mesos.ExecutorDriver;
+import org.apache.mesos.MesosExecutorDriver;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived executor for high-rate short jobs. The scheduler sends all jobs of an
+ * application on an agent to a single instance of this executor, which stays resident and
+ * runs them as child processes in its own sandbox; container setup and fetching application
+ * files are paid only once. Each job is accounted for by its cpu/mem slice without a cgroup
+ * of its own, and the executor exits after it has been idle for a while.
+ */
+public class RetzExecutor implements Executor {
+    public static final String IDLE_TIMEOUT_ENV = "RETZ_EXECUTOR_IDLE_SEC";
+    static final int DEFAULT_IDLE_TIMEOUT_SEC = 60;
+    private static final Logger LOG = LoggerFactory.getLogger(RetzExecutor.class);
+    private static final long SAMPLE_INTERVAL_MSEC = 1000;
+    // Same as the command executor, for tasks without kill policy
+    private static final long DEFAULT_GRACE_PERIOD_MSEC = 3000;
+    // Report usage to the scheduler every this many samples
+    private static final int REPORT_INTERVAL = 30;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, ChildJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService waiters = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "retz-job");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "retz-executor-monitor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final long idleTimeoutMsec;
+    private final File sandbox;
+    private String appid = "";
+    private long lastActive;
+    private int samples = 0;
+    private boolean exiting = false;
+
+    public RetzExecutor(int idleTimeoutSec, File sandbox) {
+        mapper.registerModule(new Jdk8Module());
+        this.idleTimeoutMsec = idleTimeoutSec * 1000L;
+        this.sandbox = sandbox;
+        this.lastActive = System.currentTimeMillis();
+    }
+
+    @Override
+    public void registered(ExecutorDriver driver, Protos.ExecutorInfo executorInfo,
+                           Protos.FrameworkInfo frameworkInfo, Protos.SlaveInfo slaveInfo) {
+        // The scheduler puts application ID in 'source'
+        appid = executorInfo.getSource();
+        LOG.info("Registered as {} for application {} on {}", executorInfo.getExecutorId().getValue(), appid,
+                slaveInfo.getHostname());
+        send(driver, ExecutorMessage.Type.REGISTERED);
+        monitor.scheduleWithFixedDelay(() -> monitor(driver), SAMPLE_INTERVAL_MSEC, SAMPLE_INTERVAL_MSEC,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void reregistered(ExecutorDriver driver, Protos.SlaveInfo slaveInfo) {
+        LOG.info("Re-registered to {}", slaveInfo.getHostname());
+        send(driver, ExecutorMessage.Type.REGISTERED);
+    }
+
+    @Override
+    public void disconnected(ExecutorDriver driver) {
+        LOG.warn("Disconnected from agent");
+    }
+
+    @Override
+    public void launchTask(ExecutorDriver driver, Protos.TaskInfo task) {
+        Protos.CommandInfo command;
+        try {
+            // Command of a job is carried as task data, as a task with an executor can't have one
+            command = Protos.CommandInfo.parseFrom(task.getData());
+        } catch (InvalidProtocolBufferException e) {
+            update(driver, task.getTaskId(), Protos.TaskState.TASK_ERROR, "Invalid job command: " + e.getMessage(), null);
+            return;
+        }
+        double cpu = 0;
+        int memMB = 0;
+        for (Protos.Resource r : task.getResourcesList()) {
+            if ("cpus".equals(r.getName())) {
+                cpu += r.getScalar().getValue();
+            } else if ("mem".equals(r.getName())) {
+                memMB += (int) r.getScalar().getValue();
+            }
+        }
+        long graceMsec = DEFAULT_GRACE_PERIOD_MSEC;
+        if (task.hasKillPolicy() && task.getKillPolicy().hasGracePeriod()) {
+            graceMsec = task.getKillPolicy().getGracePeriod().getNanoseconds() / 1000000;
+        }
+        ChildJob job = new ChildJob(task.getTaskId(), command, cpu, memMB, graceMsec);
+        synchronized (this) {
+            if (exiting) {
+                // Launched while exiting for idleness; the scheduler retries it elsewhere
+                update(driver, task.getTaskId(), Protos.TaskState.TASK_LOST, "Executor is exiting",
+                        Protos.TaskStatus.Reason.REASON_EXECUTOR_TERMINATED);
+                return;
+            }
+            jobs.put(task.getTaskId().getValue(), job);
+            lastActive = System.currentTimeMillis();
+        }
+        waiters.submit(() -> run(driver, job));
+    }
+
+    private void run(ExecutorDriver driver, ChildJob job) {
+        try {
+            if (!job.start(sandbox)) {
+                finish(driver, job, Protos.TaskState.TASK_KILLED, "Killed before started", null);
+                return;
+            }
+        } catch (IOException e) {
+            finish(driver, job, Protos.TaskState.TASK_FAILED, "Cannot start job: " + e.getMessage(), null);
+            return;
+        }
+        update(driver, job.taskId(), Protos.TaskState.TASK_RUNNING, null, null);
+        try {
+            int code = job.waitFor();
+            if (job.exceeded()) {
+                finish(driver, job, Protos.TaskState.TASK_FAILED, "Memory slice of " + job.memMB() + "MB exceeded ("
+                        + job.usage() + ")", Protos.TaskStatus.Reason.REASON_CONTAINER_LIMITATION_MEMORY);
+            } else if (job.killed()) {
+                finish(driver, job, Protos.TaskState.TASK_KILLED, "Killed (" + job.usage() + ")", null);
+            } else if (code == 0) {
+                finish(driver, job, Protos.TaskState.TASK_FINISHED, "Exited with 0 (" + job.usage() + ")", null);
+            } else {
+                finish(driver, job, Protos.TaskState.TASK_FAILED, "Exited with " + code + " (" + job.usage() + ")",
+                        Protos.TaskStatus.Reason.REASON_COMMAND_EXECUTOR_FAILED);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.signal(true);
+            finish(driver, job, Protos.TaskState.TASK_KILLED, "Executor is shutting down", null);
+        }
+    }
+
+    private void finish(ExecutorDriver driver, ChildJob job, Protos.TaskState state, String message,
+                        Protos.TaskStatus.Reason reason) {
+        synchronized (this) {
+            jobs.remove(job.taskId().getValue());
+            lastActive = System.currentTimeMillis();
+        }
+        update(driver, job.taskId(), state, message, reason);
+    }
+
+    @Override
+    public void killTask(ExecutorDriver driver, Protos.TaskID taskId) {
+        ChildJob job = jobs.get(taskId.getValue());
+        if (job == null) {
+            LOG.warn("Kill request for unknown task {}", taskId.getValue());
+            update(driver, taskId, Protos.TaskState.TASK_LOST, "Unknown task", null);
+            return;
+        }
+        LOG.info("Killing job {}", taskId.getValue());
+        job.signal(false);
+        monitor.schedule(() -> {
+            if (job.isAlive()) {
+                job.signal(true);
+            }
+        }, job.graceMsec(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void frameworkMessage(ExecutorDriver driver, byte[] data) {
+        LOG.info("Framework message ({} bytes)", data.length);
+    }
+
+    @Override
+    public void shutdown(ExecutorDriver driver) {
+        LOG.info("Shutting down with {} jobs", jobs.size());
+        for (ChildJob job : jobs.values()) {
+            job.signal(true);
+        }
+        waiters.shutdownNow();
+        monitor.shutdownNow();
+    }
+
+    @Override
+    public void error(ExecutorDriver driver, String message) {
+        LOG.error(message);
+    }
+
+    // Samples /proc for all jobs at once, kills those beyond their memory slice, and
+    // exits after being idle long enough
+    private void monitor(ExecutorDriver driver) {
+        try {
+            if (!jobs.isEmpty()) {
+                List<ProcStat> stats = ProcStat.all();
+                for (ChildJob job : jobs.values()) {
+                    if (!job.account(stats) && !job.killed()) {
+                        LOG.warn("Job {} exceeded memory slice {}MB: rss={} bytes", job.taskId().getValue(),
+                                job.memMB(), job.rssBytes());
+                        job.signal(true);
+                    }
+                }
+            }
+            if (++samples % REPORT_INTERVAL == 0 && !jobs.isEmpty()) {
+                send(driver, ExecutorMessage.Type.USAGE);
+            }
+            synchronized (this) {
+                if (exiting || !jobs.isEmpty() || System.currentTimeMillis() - lastActive < idleTimeoutMsec) {
+                    return;
+                }
+                exiting = true;
+            }
+            LOG.info("Idle for {} seconds, exiting", idleTimeoutMsec / 1000);
+            send(driver, ExecutorMessage.Type.EXITING);
+            driver.stop();
+        } catch (Throwable t) {
+            LOG.error("Monitoring jobs failed", t);
+        }
+    }
+
+    private void send(ExecutorDriver driver, ExecutorMessage.Type type) {
+        double cpu = 0;
+        int memMB = 0;
+        long rss = 0;
+        for (ChildJob job : jobs.values()) {
+            cpu += job.cpu();
+            memMB += job.memMB();
+            rss += job.rssBytes();
+        }
+        ExecutorMessage message = new ExecutorMessage(type, appid, jobs.size(), cpu, memMB, (int) (rss / 1024 / 1024));
+        try {
+            driver.sendFrameworkMessage(mapper.writeValueAsBytes(message));
+        } catch (JsonProcessingException e) {
+            LOG.error("Cannot encode {}: {}", message, e.toString());
+        }
+    }
+
+    private void update(ExecutorDriver driver, Protos.TaskID taskId, Protos.TaskState state, String message,
+                        Protos.TaskStatus.Reason reason) {
+        Protos.TaskStatus.Builder builder = Protos.TaskStatus.newBuilder()
+                .setTaskId(taskId)
+                .setState(state)
+                .setSource(Protos.TaskStatus.Source.SOURCE_EXECUTOR);
+        if (message != null) {
+            builder.setMessage(message);
+        }
+        if (reason != null) {
+            builder.setReason(reason);
+        }
+        LOG.info("Job {}: {} {}", taskId.getValue(), state, message == null ? "" : message);
+        driver.sendStatusUpdate(builder.build());
+    }
+
+    public static void main(String... argv) {
+        int idleTimeoutSec = DEFAULT_IDLE_TIMEOUT_SEC;
+        String env = System.getenv(IDLE_TIMEOUT_ENV);
+        if (env != null) {
+            try {
+                idleTimeoutSec = Integer.parseInt(env);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid {}={}, using {}", IDLE_TIMEOUT_ENV, env, idleTimeoutSec);
+            }
+        }
+        // Mesos starts executors in their sandbox
+        File sandbox = new File(System.getProperty("user.dir"));
+        MesosExecutorDriver driver = new MesosExecutorDriver(new RetzExecutor(idleTimeoutSec, sandbox));
+        Protos.Status status = driver.run();
+        LOG.info("Executor driver stopped: {}", status);
+        System.exit(status == Protos.Status.DRIVER_STOPPED ? 0 : 1);
+    }
+}
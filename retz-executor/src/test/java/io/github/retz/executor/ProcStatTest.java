@@ -0,0 +1,62 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.executor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class ProcStatTest {
+    @Test
+    public void parse() {
+        // Command name with spaces and parentheses
+        String line = "4242 (my (weird) job) S 4200 4242 4200 0 -1 4194560 1234 0 0 0 150 50 0 0 20 0 1 0 "
+                + "123456 123456789 2560 18446744073709551615 1 1 0 0 0 0 0 0 0 0 0 0 17 3 0 0 0 0 0\n";
+        ProcStat stat = ProcStat.parse(line);
+        assertThat(stat.pid, is(4242));
+        assertThat(stat.ppid, is(4200));
+        assertThat(stat.cpuTicks, is(200L));
+        assertThat(stat.rssPages, is(2560L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformed() {
+        ProcStat.parse("4242 (truncated S 1 2");
+    }
+
+    @Test
+    public void tree() {
+        List<ProcStat> stats = Arrays.asList(
+                new ProcStat(1, 0, 10, 100),
+                new ProcStat(10, 1, 1, 10),
+                new ProcStat(11, 10, 2, 20),
+                new ProcStat(12, 11, 3, 30),
+                new ProcStat(20, 1, 4, 40));
+        List<ProcStat> tree = ProcStat.tree(10, stats);
+        assertThat(tree.stream().map(s -> s.pid).collect(Collectors.toList()), contains(10, 11, 12));
+        assertThat(ProcStat.cpuTicks(tree), is(6L));
+        assertThat(ProcStat.rssBytes(tree), is(60L * ProcStat.PAGE_SIZE));
+
+        assertThat(ProcStat.tree(99, stats).isEmpty(), is(true));
+    }
+}
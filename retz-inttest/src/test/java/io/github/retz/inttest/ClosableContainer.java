@@ -264,6 +264,10 @@ public final class ClosableContainer implements AutoCloseable {
         return cmd("psql", "-c", "select 1", "-U", "retz");
     }
 
+    public String psql(String sql) throws InterruptedException, UnsupportedEncodingException {
+        return cmd("psql", "-c", sql, "-U", "retz");
+    }
+
     private String cmd(String... cmds) throws InterruptedException, UnsupportedEncodingException {
         ExecCreateCmdResponse checkPs1 = dockerClient.execCreateCmd(containerId).withAttachStdout(true)
                 .withAttachStderr(true).withCmd(cmds).exec();
@@ -26,6 +26,7 @@ import io.github.retz.web.Client;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 import java.net.URI;
 import java.util.*;
@@ -33,11 +34,24 @@ import java.util.*;
 import static io.github.retz.inttest.IntTestBase.RETZ_HOST;
 import static io.github.retz.inttest.IntTestBase.RETZ_PORT;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 
 public class PostgresTest extends PersistenceTest {
+    // Same shapes as QueryPlanTest in retz-server
+    private static final List<String> HOT_QUERIES = Arrays.asList(
+            "SELECT * FROM jobs WHERE state='QUEUED' ORDER BY priority ASC, id ASC",
+            "SELECT * FROM jobs WHERE state='QUEUED' ORDER BY id ASC LIMIT 10",
+            "SELECT count(id) FROM jobs WHERE state = 'STARTED'",
+            "SELECT id, json FROM jobs WHERE state = 'FINISHED'",
+            "SELECT json FROM jobs WHERE state='STARTING' OR state='STARTED'",
+            "SELECT j.json FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = 'user0' AND j.state='FINISHED' ORDER BY j.id DESC LIMIT 10",
+            "SELECT * FROM jobs WHERE 1483196400000 <= finished_at AND finished_at < 1483282800000",
+            "SELECT MIN(id), MAX(id) FROM jobs WHERE finished_at < 1483196400000 AND (state='FINISHED' OR state='KILLED')",
+            "SELECT json FROM jobs WHERE taskid='task-1'",
+            "SELECT j.json, a.json FROM jobs j, applications a WHERE id = 1 AND j.appid = a.appid");
 
     @Before
     public void before() {
@@ -52,5 +66,16 @@ public class PostgresTest extends PersistenceTest {
     ClientCLIConfig makeClientConfig() throws Exception {
         return new ClientCLIConfig("src/test/resources/retz-c.properties");
     }
-}
 
+    @Test
+    public void queryPlans() throws Exception {
+        // Tables are tiny here; with sequential scans disabled the planner still
+        // falls back to one only when there is no usable index
+        for (String query : HOT_QUERIES) {
+            String plan = container.psql("SET enable_seqscan = off; EXPLAIN " + query);
+            System.err.println(plan);
+            assertTrue(plan, plan.contains("QUERY PLAN"));
+            assertFalse("Full scan: " + query + "\n" + plan, plan.contains("Seq Scan"));
+        }
+    }
+}
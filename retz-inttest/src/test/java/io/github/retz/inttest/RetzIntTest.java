@@ -144,7 +144,7 @@ public class RetzIntTest extends IntTestBase {
         response = client.schedule(job);
         assertThat(response, instanceOf(ScheduleResponse.class));
         ScheduleResponse scheduleResponse = (ScheduleResponse) response;
-        int id = scheduleResponse.job().id();
+        long id = scheduleResponse.job().id();
         System.err.println(id);
 
         {
@@ -0,0 +1,101 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import io.github.retz.protocol.exception.JobNotFoundException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Short queries through the connection pool on H2 in memory, with and without prepared
+// statements cached, where borrowing and preparing are a large part of each query.
+// Pool wait time is printed at teardown.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class DatabaseBenchmark {
+    static final int JOBS = 10000;
+
+    // Prepared statements cached in the pool, 0 for none
+    @Param({"0", "50"})
+    public int statements;
+
+    private Database db;
+    private User user;
+
+    @Setup
+    public void setup() throws IOException {
+        db = new Database();
+        db.initOnMem("bench-" + statements, statements);
+        user = db.createUser("benchmark");
+        db.addApplication(new Application("benchapp", Collections.emptyList(), Collections.emptyList(),
+                Optional.empty(), user.keyId(), 0, new MesosContainer(), true));
+        List<Job> jobs = new ArrayList<>(JOBS);
+        for (long id = 1; id <= JOBS; id++) {
+            Job job = new Job("benchapp", "bin/run.sh --input /data/input-" + id, new Properties(), 2, 1024, 100);
+            job.schedule(id, TimestampHelper.now());
+            jobs.add(job);
+        }
+        db.safeAddJobs("benchapp", jobs);
+    }
+
+    @TearDown
+    public void teardown() {
+        PoolMetrics metrics = db.poolMetrics;
+        System.out.printf("%nstatements=%d: %d connections borrowed, mean wait %d us, max wait %d us%n",
+                statements, metrics.borrowedConnections(), metrics.meanWaitMicros(), metrics.maxWaitMicros());
+        db.clear();
+        db.stop();
+    }
+
+    @Benchmark
+    public void getJob(Blackhole bh) throws IOException {
+        bh.consume(db.getJob(randomId()));
+    }
+
+    @Benchmark
+    public void listJobs(Blackhole bh) throws IOException {
+        bh.consume(db.listJobs(user.keyId(), Job.JobState.QUEUED, Optional.empty(), 10));
+    }
+
+    // Read, compare and swap of a row, as every status update of a task does
+    @Benchmark
+    public void transition(Blackhole bh) throws IOException, JobNotFoundException {
+        bh.consume(db.transition(randomId(), job -> {
+            job.setPriority(job.priority() == 0 ? 1 : 0);
+            return Optional.of(job);
+        }));
+    }
+
+    private static long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, JOBS + 1);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Job;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Encoding and decoding 100k job rows in each storage format, as listing and planning
+// do for every row they read. Stored size of all rows is printed at setup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageCodecBenchmark {
+    static final int ROWS = 100000;
+
+    // Deflating threshold does not matter for JSON
+    @Param({"json", "protobuf", "protobuf-deflate"})
+    public String format;
+
+    // Number of environment variables per job
+    @Param({"0", "50"})
+    public int env;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private StorageCodec codec;
+    private Job[] jobs;
+    private String[] json;
+    private byte[][] body;
+
+    @Setup
+    public void setup() throws IOException {
+        mapper.registerModule(new Jdk8Module());
+        codec = StorageCodec.create(format.startsWith("protobuf") ? StorageCodec.Type.PROTOBUF : StorageCodec.Type.JSON,
+                mapper, format.equals("protobuf-deflate") ? 256 : 0);
+
+        jobs = new Job[ROWS];
+        json = new String[ROWS];
+        body = new byte[ROWS][];
+        long size = 0;
+        for (int i = 0; i < ROWS; i++) {
+            jobs[i] = job(i, env);
+            if (codec.type() == StorageCodec.Type.JSON) {
+                json[i] = mapper.writeValueAsString(jobs[i]);
+                size += json[i].getBytes(StandardCharsets.UTF_8).length;
+            } else {
+                body[i] = ((ProtobufCodec) codec).encode(jobs[i]);
+                size += body[i].length;
+            }
+        }
+        System.out.printf("%n%s, env=%d: %d rows in %d bytes, %.1f bytes/row%n",
+                format, env, ROWS, size, (double) size / ROWS);
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            if (body[i] != null) {
+                bh.consume(ProtobufCodec.decodeJob(body[i]));
+            } else {
+                bh.consume(mapper.readValue(json[i], Job.class));
+            }
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole bh) throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            if (codec.type() == StorageCodec.Type.JSON) {
+                bh.consume(mapper.writeValueAsString(jobs[i]));
+            } else {
+                bh.consume(((ProtobufCodec) codec).encode(jobs[i]));
+            }
+        }
+    }
+
+    static Job job(long id, int env) {
+        Properties props = new Properties();
+        for (int i = 0; i < env; i++) {
+            props.setProperty("RETZ_BENCH_VARIABLE_" + i, "/opt/app/lib/" + i + "/classes:/opt/app/conf");
+        }
+        Job job = new Job("benchapp", "bin/run.sh --input /data/input-" + id + " --verbose", props, 2, 1024, 100);
+        job.schedule(id, TimestampHelper.now());
+        job.addTags("nightly", "batch-" + (id % 100));
+        job.starting("retz-task-" + id, "slave-" + (id % 1000), Optional.of("http://mesos-agent:5051/files/browse?path=/var/lib/mesos/" + id), TimestampHelper.now());
+        job.started("retz-task-" + id, "slave-" + (id % 1000), Optional.empty(), TimestampHelper.now());
+        job.finished(TimestampHelper.now(), Optional.empty(), 0);
+        return job;
+    }
+}
@@ -22,6 +22,8 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.migration.DBMigration;
 import io.github.retz.misc.LogUtil;
+import io.github.retz.misc.Pair;
+import io.github.retz.misc.Triad;
 import io.github.retz.planner.AppJobPair;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
@@ -36,21 +38,37 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.sql.*;
 import java.text.MessageFormat;
+import java.text.ParseException;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class Database {
     private static final Logger LOG = LoggerFactory.getLogger(Database.class);
+    // Attempts of a compare-and-swap on a job before giving up on concurrent writers
+    static final int MAX_CAS_ATTEMPTS = 16;
+    // Prepared statements cached in the pool unless configured
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 50;
     private static Database database = new Database();
 
     private final ObjectMapper mapper = new ObjectMapper();
-    private final DataSource dataSource = new DataSource();
+    final PoolMetrics poolMetrics = new PoolMetrics();
+    // Every borrow from this pool is counted, not only those of this class
+    private final DataSource dataSource = new MeteredDataSource(poolMetrics);
     private final DBMigration dbMigrator = new DBMigration((javax.sql.DataSource) dataSource);
+    private int statementCacheSize = 0;
+    private StorageCodec codec;
+    private Optional<RowConverter> converter = Optional.empty();
+    private Optional<Replica> replica = Optional.empty();
+    private JobCollector collector;
+    private JobIdAllocator idAllocator;
     String databaseURL = null;
 
     Database() {
         mapper.registerModule(new Jdk8Module());
+        codec = StorageCodec.create(StorageCodec.Type.JSON, mapper, 0);
+        collector = new JobCollector(dataSource, codec);
+        idAllocator = new JobIdAllocator(dataSource, JobIdAllocator.DEFAULT_BLOCK_SIZE);
     }
 
     public static Database getInstance() {
@@ -61,6 +79,10 @@ public class Database {
         return getInstance().dataSource;
     }
 
+    public static PoolMetrics getPoolMetrics() {
+        return getInstance().poolMetrics;
+    }
+
     public static DBMigration getMigrator() {
         return getInstance().dbMigrator;
     }
@@ -74,7 +96,7 @@ public class Database {
     public void validate() throws Exception {
         Objects.requireNonNull(databaseURL);
         Objects.requireNonNull(dataSource);
-        try (Connection conn = dataSource.getConnection();
+        try (Connection conn = getConnection();
              Statement s = conn.createStatement();
              ResultSet r = s.executeQuery("select 1")) {
             if (!r.next()) {
@@ -98,8 +120,29 @@ public class Database {
             }
         }
 
+        setPoolProperties(props, config.getDatabasePoolMax(), config.getDatabasePoolIdle(),
+                config.getDatabasePoolWait(), config.getDatabaseStatements());
+        statementCacheSize = config.getDatabaseStatements();
+
+        codec = StorageCodec.create(config.getDatabaseCodec(), mapper, config.getDatabaseCodecCompress());
         init(props, true);
 
+        if (config.getDatabaseReplicaURL().isPresent()) {
+            PoolProperties replicaProps = new PoolProperties();
+            replicaProps.setUrl(config.getDatabaseReplicaURL().get());
+            replicaProps.setDriverClassName(props.getDriverClassName());
+            replicaProps.setUsername(props.getUsername());
+            replicaProps.setPassword(props.getPassword());
+            replicaProps.setJmxEnabled(true);
+            setPoolProperties(replicaProps, props.getMaxActive(), props.getMinIdle(),
+                    props.getMaxWait(), config.getDatabaseStatements());
+            setReplica(replicaProps, config.getDatabaseReplicaStaleness());
+        }
+
+        collector = newJobCollector(config.getGcBatchSize(), config.getGcPause(),
+                config.getGcParallelism(), config.getGcArchiveDir());
+        idAllocator = new JobIdAllocator(dataSource, config.getJobIdBlockSize());
+
         if (getUser(config.getAccessKey()).isPresent()) {
             LOG.info("admin user is {}", config.getAccessKey());
         } else {
@@ -109,11 +152,18 @@ public class Database {
     }
 
     void initOnMem(String name) throws IOException {
+        initOnMem(name, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    void initOnMem(String name, int statements) throws IOException {
         PoolProperties props = new PoolProperties();
         databaseURL = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
         props.setUrl(databaseURL);
         props.setDriverClassName("org.h2.Driver");
+        setPoolProperties(props, props.getMaxActive(), props.getMinIdle(), props.getMaxWait(), statements);
+        statementCacheSize = statements;
         LOG.info("URL={}, Driver={}", props.getUrl(), props.getDriverClassName());
+        codec = StorageCodec.create(StorageCodec.Type.JSON, mapper, 0);
         init(props, false);
     }
 
@@ -128,10 +178,71 @@ public class Database {
         } catch (SQLException | IOException e) {
             throw new IOException("Database.init() failed", e);
         }
+        // Blocks reserved from another database must not be used
+        idAllocator = new JobIdAllocator(dataSource, JobIdAllocator.DEFAULT_BLOCK_SIZE);
+        setCodec(codec);
+    }
+
+    // Autocommit is on as connections are borrowed, so that only transactions turn it off; the
+    // pool puts it back only on connections changed. Transactions must commit by themselves, as
+    // anything left uncommitted is rolled back on return by RollbackOnReturn. Prepared statements
+    // are kept open as closed, up to 'statements' in the whole pool, and reused as the same SQL
+    // is prepared again on the same connection.
+    static void setPoolProperties(PoolProperties props, int maxActive, int idle, int maxWaitMsec, int statements) {
+        props.setMaxActive(maxActive);
+        props.setMaxIdle(idle);
+        props.setMinIdle(idle);
+        props.setInitialSize(idle);
+        props.setMaxWait(maxWaitMsec);
+        props.setDefaultAutoCommit(true);
+        String interceptors = RollbackOnReturn.class.getName() + ";ConnectionState";
+        if (statements > 0) {
+            interceptors += ";StatementCache(prepared=true,callable=false,max=" + statements + ")";
+        }
+        props.setJdbcInterceptors(interceptors);
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    private Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    // Queries of clients and administrators go to the replica while it's no more stale than the bound
+    void setReplica(PoolProperties props, long maxStalenessMsec) {
+        replica.ifPresent(Replica::stop);
+        replica = Optional.of(new Replica(dataSource, props, maxStalenessMsec));
+    }
+
+    Optional<Replica> getReplica() {
+        return replica;
+    }
+
+    // Connection for queries which may be stale within the bound of the replica, if any;
+    // scheduling and state transitions must never use this
+    private Connection getStaleConnection() throws SQLException {
+        if (replica.isPresent() && replica.get().isFresh()) {
+            return replica.get().getConnection();
+        }
+        return getConnection();
+    }
+
+    // Rows are written by this codec from now on, and rows in other format are converted as read
+    void setCodec(StorageCodec c) {
+        converter.ifPresent(RowConverter::stop);
+        codec = c;
+        converter = Optional.of(new RowConverter(dataSource, codec));
+        codec.setConverter(converter);
+        LOG.info("Jobs and applications are written as {}", codec.type());
     }
 
     public void stop() {
         LOG.info("Stopping database {}", databaseURL);
+        converter.ifPresent(RowConverter::stop);
+        replica.ifPresent(Replica::stop);
+        replica = Optional.empty();
 
         while (dataSource.getNumActive() > 0) {
             try {
@@ -159,10 +270,8 @@ public class Database {
         List<User> ret = new ArrayList<>();
         //try (Connection conn = DriverManager.getConnection(databaseURL)) {
         //try (Connection conn = pool.getConnection();
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection()) {
+        try (Connection conn = getStaleConnection();
              PreparedStatement p = conn.prepareStatement("SELECT * FROM users")) {
-            conn.setAutoCommit(true);
-
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
                     User u = mapper.readValue(res.getString("json"), User.class);
@@ -187,10 +296,8 @@ public class Database {
 
     public boolean addUser(User u) throws IOException {
         //try (Connection conn = DriverManager.getConnection(databaseURL)) {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
+        try (Connection conn = getConnection(); //pool.getConnection();
              PreparedStatement p = conn.prepareStatement("INSERT INTO users(key_id, secret, enabled, json) values(?, ?, ?, ?)")) {
-            conn.setAutoCommit(true);
-
             p.setString(1, u.keyId());
             p.setString(2, u.secret());
             p.setBoolean(3, true);
@@ -214,7 +321,7 @@ public class Database {
 
     public Optional<User> getUser(String keyId) throws IOException {
         //try (Connection conn = DriverManager.getConnection(databaseURL)) {
-        try (Connection conn = dataSource.getConnection()) { //pool.getConnection()) {
+        try (Connection conn = getConnection()) { //pool.getConnection()) {
             conn.setAutoCommit(false);
             Optional<User> u = getUser(conn, keyId);
             conn.commit();
@@ -243,7 +350,7 @@ public class Database {
     }
 
     public void enableUser(String keyId, boolean enabled) throws IOException {
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             conn.setAutoCommit(false);
             Optional<User> user = getUser(conn, keyId);
             if (user.isPresent()) {
@@ -262,7 +369,7 @@ public class Database {
 
     public List<Application> getAllApplications(String id) throws IOException {
         List<Application> ret = Collections.emptyList();
-        try (Connection conn = dataSource.getConnection()) { //pool.getConnection()) {
+        try (Connection conn = getStaleConnection()) {
             conn.setAutoCommit(false);
             ret = getApplications(conn, id);
             conn.commit();
@@ -277,7 +384,7 @@ public class Database {
             throw new AssertionError("autocommit must be false");
         }
         List<Application> ret = new ArrayList<>();
-        String sql = "SELECT * FROM applications";
+        String sql = "SELECT json, body FROM applications";
         if (id != null) {
             sql += " WHERE owner=?";
         }
@@ -287,8 +394,7 @@ public class Database {
             }
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    String json = res.getString("json");
-                    Application app = mapper.readValue(json, Application.class);
+                    Application app = codec.getApplication(res, 1, 2);
                     ret.add(app);
                 }
             }
@@ -297,8 +403,8 @@ public class Database {
     }
 
     public boolean addApplication(Application a) throws IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("INSERT INTO applications(appid, owner, json) values(?, ?, ?)")) {
+        try (Connection conn = getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement("INSERT INTO applications(appid, owner, json, body) values(?, ?, ?, ?)")) {
             conn.setAutoCommit(false);
 
             Optional<User> u = getUser(conn, a.getOwner());
@@ -315,7 +421,7 @@ public class Database {
             deleteApplication(conn, a.getAppid());
             p.setString(1, a.getAppid());
             p.setString(2, a.getOwner());
-            p.setString(3, mapper.writeValueAsString(a));
+            codec.setApplication(p, 3, 4, a);
             p.execute();
             conn.commit();
             return true;
@@ -327,22 +433,20 @@ public class Database {
     }
 
     public Optional<Application> getApplication(String appid) throws IOException {
-        try (Connection conn = dataSource.getConnection()) { //pool.getConnection()) {
-            conn.setAutoCommit(true);
+        try (Connection conn = getConnection()) { //pool.getConnection()) {
             return getApplication(conn, appid);
         } catch (SQLException e) {
             throw new IOException(MessageFormat.format("Database.getApplication({0}) failed", appid), e);
         }
     }
 
-    private Optional<Application> getApplication(Connection conn, String appid) throws SQLException, IOException {
-        try (PreparedStatement p = conn.prepareStatement("SELECT * FROM applications WHERE appid = ?")) {
+    Optional<Application> getApplication(Connection conn, String appid) throws SQLException, IOException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM applications WHERE appid = ?")) {
 
             p.setString(1, appid);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    Application app = mapper.readValue(json, Application.class);
+                    Application app = codec.getApplication(res, 1, 2);
                     if (!appid.equals(app.getAppid())) {
                         LOG.error("{} != {} in Database", appid, app.getAppid());
                         throw new AssertionError("Appid in JSON must be equal to the column");
@@ -356,7 +460,7 @@ public class Database {
     }
 
     public void safeDeleteApplication(String appid) throws IOException {
-        try (Connection conn = dataSource.getConnection()) { //pool.getConnection()) {
+        try (Connection conn = getConnection()) { //pool.getConnection()) {
             conn.setAutoCommit(false);
             // TODO: check there are no non-finished Jobs
             // TODO: THINK: what about finished jobs??????
@@ -382,56 +486,224 @@ public class Database {
 
     public List<Job> listJobs(String owner, Job.JobState state, Optional<String> tag, int limit) throws IOException {
         List<Job> ret = new ArrayList<>();
-        String prefix = "SELECT j.json FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ?";
+        String prefix = "SELECT j.json, j.body FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ?";
         String sql = prefix + " AND j.state=? ORDER BY j.id DESC LIMIT ?";
 
-        try (Connection conn = dataSource.getConnection(); // pool.getConnection();
+        try (Connection conn = getStaleConnection();
              PreparedStatement p = conn.prepareStatement(sql)) {
             p.setString(1, owner);
             p.setString(2, state.toString());
             p.setInt(3, limit);
 
-            conn.setAutoCommit(true);
-
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    String json = res.getString(1);
-                    Job job = mapper.readValue(json, Job.class);
-                    assert job.state() == state;
-                    if (tag.isPresent() && !job.tags().contains(tag.get())) {
-                        continue;
-                    }
-                    ret.add(job);
+                    ret.add(codec.getJob(res, 1, 2));
                 }
             }
+            new JobEvents(conn).fold(ret);
+            if (JobHistory.isTerminal(state)) {
+                ret = JobHistory.merge(ret, new JobHistory(conn, codec).listJobs(owner, state, limit), limit);
+            }
+            if (tag.isPresent()) {
+                ret = ret.stream().filter(job -> job.tags().contains(tag.get())).collect(Collectors.toList());
+            }
+            assert ret.stream().allMatch(job -> job.state() == state);
             return ret;
         } catch (SQLException e) {
             throw new IOException(MessageFormat.format("Database.listJobs({0}, {1}) failed", owner, state), e);
         }
     }
 
+    // Marks up to 'limit' jobs of the owner with id > after, in any of the states and with the tag, as KILLED
+    // in a single transaction. Tags are only in JSON, so rows are filtered here and updated with a JDBC batch;
+    // the state condition in UPDATE skips jobs whose state has changed since they were read.
+    // @return killed jobs with their states before kill, number of rows scanned, and the last id scanned
+    public Triad<List<Pair<Job.JobState, Job>>, Integer, Long> killMatching(String owner, Optional<String> tag, List<Job.JobState> states,
+                                                                           long after, int limit, String reason) throws IOException {
+        if (states.isEmpty()) {
+            return new Triad<>(Collections.emptyList(), 0, after);
+        }
+        String in = states.stream().map(s -> "?").collect(Collectors.joining(", "));
+        String sql = "SELECT j.json, j.body FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ? AND j.id > ? AND j.state IN ("
+                + in + ") ORDER BY j.id ASC LIMIT ?";
+
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+
+            List<Job> scannedJobs = new ArrayList<>();
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                int i = 1;
+                p.setString(i++, owner);
+                p.setLong(i++, after);
+                for (Job.JobState state : states) {
+                    p.setString(i++, state.toString());
+                }
+                p.setInt(i, limit);
+                try (ResultSet res = p.executeQuery()) {
+                    while (res.next()) {
+                        scannedJobs.add(codec.getJob(res, 1, 2));
+                    }
+                }
+            }
+            JobEvents events = new JobEvents(conn);
+            events.fold(scannedJobs);
+
+            List<Pair<Job.JobState, Job>> matched = new ArrayList<>();
+            int scanned = scannedJobs.size();
+            long last = after;
+            for (Job job : scannedJobs) {
+                last = job.id();
+                if (!tag.isPresent() || job.tags().contains(tag.get())) {
+                    matched.add(new Pair<>(job.state(), job));
+                }
+            }
+
+            List<Pair<Job.JobState, Job>> killed = new ArrayList<>();
+            if (!matched.isEmpty()) {
+                String now = TimestampHelper.now();
+                try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET state=?, finished_at=?, json=?, body=?, version=version+1 WHERE id=? AND state=?")) {
+                    for (Pair<Job.JobState, Job> pair : matched) {
+                        Job job = pair.right();
+                        job.killed(now, Optional.empty(), reason);
+                        p.setString(1, job.state().toString());
+                        Jobs.setTimestamp(p, 2, job.finished());
+                        codec.setJob(p, 3, 4, job);
+                        p.setLong(5, job.id());
+                        p.setString(6, pair.left().toString());
+                        p.addBatch();
+                    }
+                    int[] counts = p.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] != 0) { // SUCCESS_NO_INFO is negative
+                            killed.add(matched.get(i));
+                            events.markFolded(matched.get(i).right().id());
+                        }
+                    }
+                }
+            }
+            conn.commit();
+            return new Triad<>(killed, scanned, last);
+
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.killMatching({0}, {1}, {2}) failed", owner, tag, states), e);
+        }
+    }
+
+    // Queues kills of running tasks for the scheduler, from servers without Mesos driver
+    public void enqueueKills(List<String> taskIds) throws IOException {
+        if (taskIds.isEmpty()) {
+            return;
+        }
+        try (Connection conn = getConnection();
+             PreparedStatement p = conn.prepareStatement("INSERT INTO kill_requests(taskid, requested_at) VALUES (?, ?)")) {
+            conn.setAutoCommit(false);
+            long now = System.currentTimeMillis();
+            for (String taskId : taskIds) {
+                p.setString(1, taskId);
+                p.setLong(2, now);
+                p.addBatch();
+            }
+            p.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.enqueueKills({0}) failed", taskIds), e);
+        }
+    }
+
+    // Queues a cancel of the job for the scheduler, which makes the transition and the kill
+    public void enqueueCancel(long id, String reason) throws IOException {
+        try (Connection conn = getConnection();
+             PreparedStatement p = conn.prepareStatement(
+                     "INSERT INTO kill_requests(taskid, requested_at, job_id, reason) VALUES ('', ?, ?, ?)")) {
+            p.setLong(1, System.currentTimeMillis());
+            p.setLong(2, id);
+            p.setString(3, reason);
+            p.execute();
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.enqueueCancel({0}) failed", id), e);
+        }
+    }
+
+    // Takes out queued cancels in requested order as pairs of job id and reason; a job may
+    // appear more than once
+    public List<Pair<Long, String>> takeCancelRequests(int limit) throws IOException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            List<Pair<Long, String>> cancels = new ArrayList<>();
+            try (PreparedStatement p = conn.prepareStatement(
+                    "SELECT job_id, reason FROM kill_requests WHERE job_id IS NOT NULL ORDER BY requested_at ASC LIMIT ?")) {
+                p.setInt(1, limit);
+                try (ResultSet res = p.executeQuery()) {
+                    while (res.next()) {
+                        cancels.add(new Pair<>(res.getLong(1), res.getString(2)));
+                    }
+                }
+            }
+            if (!cancels.isEmpty()) {
+                try (PreparedStatement p = conn.prepareStatement("DELETE FROM kill_requests WHERE job_id = ?")) {
+                    for (Pair<Long, String> cancel : cancels) {
+                        p.setLong(1, cancel.left());
+                        p.addBatch();
+                    }
+                    p.executeBatch();
+                }
+            }
+            conn.commit();
+            return cancels;
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.takeCancelRequests({0}) failed", limit), e);
+        }
+    }
+
+    // Takes out queued kills in requested order; a task may appear more than once
+    public List<String> takeKillRequests(int limit) throws IOException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            List<String> taskIds = new ArrayList<>();
+            try (PreparedStatement p = conn.prepareStatement(
+                    "SELECT taskid FROM kill_requests WHERE job_id IS NULL ORDER BY requested_at ASC LIMIT ?")) {
+                p.setInt(1, limit);
+                try (ResultSet res = p.executeQuery()) {
+                    while (res.next()) {
+                        taskIds.add(res.getString(1));
+                    }
+                }
+            }
+            if (!taskIds.isEmpty()) {
+                try (PreparedStatement p = conn.prepareStatement("DELETE FROM kill_requests WHERE taskid = ? AND job_id IS NULL")) {
+                    for (String taskId : taskIds) {
+                        p.setString(1, taskId);
+                        p.addBatch();
+                    }
+                    p.executeBatch();
+                }
+            }
+            conn.commit();
+            return taskIds;
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.takeKillRequests({0}) failed", limit), e);
+        }
+    }
+
     // This is for debug purpose
     List<Job> getAllJobs(String id) throws IOException {
         List<Job> ret = new ArrayList<>();
-        String sql = "SELECT j.json FROM jobs j";
+        String sql = "SELECT j.json, j.body FROM jobs j";
         if (id != null) {
-            sql = "SELECT j.json FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ?";
+            sql = "SELECT j.json, j.body FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ?";
         }
-        try (Connection conn = dataSource.getConnection(); // pool.getConnection();
+        try (Connection conn = getConnection(); // pool.getConnection();
              PreparedStatement p = conn.prepareStatement(sql)) {
             if (id != null) {
                 p.setString(1, id);
             }
-            conn.setAutoCommit(true);
-
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    //String json = res.getString("j.json");
-                    String json = res.getString(1);
-                    Job job = mapper.readValue(json, Job.class);
+                    Job job = codec.getJob(res, 1, 2);
                     ret.add(job);
                 }
             }
+            new JobEvents(conn).fold(ret);
         } catch (SQLException e) {
             throw new IOException("Database.getAllJobs() failed", e);
         }
@@ -441,126 +713,173 @@ public class Database {
     // Selects all "finished" jobs
     public List<Job> finishedJobs(String start, String end) throws IOException {
         List<Job> ret = new ArrayList<>();
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE ? <= finished AND finished < ?")) {
-            conn.setAutoCommit(true);
-
-            p.setString(1, start);
-            p.setString(2, end);
+        try (Connection conn = getStaleConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE ? <= finished_at AND finished_at < ?")) {
+            long from = TimestampHelper.toEpochMillis(start);
+            long to = TimestampHelper.toEpochMillis(end);
+            p.setLong(1, from);
+            p.setLong(2, to);
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    String json = res.getString("json");
-                    Job job = mapper.readValue(json, Job.class);
+                    Job job = codec.getJob(res, 1, 2);
                     if (job == null) {
                         throw new AssertionError("Cannot be null!!");
                     }
                     ret.add(job);
                 }
             }
+            new JobEvents(conn).fold(ret);
+            // Jobs moved in between are already in the list
+            Set<Long> ids = ret.stream().map(Job::id).collect(Collectors.toSet());
+            for (Job job : new JobHistory(conn, codec).finishedJobs(from, to)) {
+                if (!ids.contains(job.id())) {
+                    ret.add(job);
+                }
+            }
             return ret;
-        } catch (SQLException | IOException e) {
+        } catch (SQLException | IOException | ParseException e) {
             throw new IOException(MessageFormat.format("Database.finishedJobs({0}, {1}) failed", start, end), e);
         }
     }
 
     // orderBy must not have any duplication
     public List<Job> findAll(List<String> orderBy, int limit) throws IOException {
+        try (Connection conn = getConnection()) { //pool.getConnection();
+            return findAll(conn, orderBy, limit);
+        } catch (SQLException | IOException e) {
+            throw new IOException("Database.findAll() failed", e);
+        }
+    }
+
+    List<Job> findAll(Connection conn, List<String> orderBy, int limit) throws SQLException, IOException {
         List<Job> ret = new ArrayList<>();
         String orders = orderBy.stream().map(s -> s + " ASC").collect(Collectors.joining(", "));
-        String sql = "SELECT * FROM jobs WHERE state='QUEUED' ORDER BY " + orders;
+        String sql = "SELECT json, body FROM jobs WHERE state='QUEUED' ORDER BY " + orders;
         if (limit >= 0) {
             sql += " LIMIT " + limit;
         }
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement(sql)) {
-            try (ResultSet res = p.executeQuery()) {
-                while (res.next()) {
-                    String json = res.getString("json");
-                    Job job = mapper.readValue(json, Job.class);
-                    if (job == null) {
-                        throw new AssertionError("Cannot be null!!");
-                    }
-                    ret.add(job);
+        try (PreparedStatement p = conn.prepareStatement(sql);
+             ResultSet res = p.executeQuery()) {
+            while (res.next()) {
+                Job job = codec.getJob(res, 1, 2);
+                if (job == null) {
+                    throw new AssertionError("Cannot be null!!");
                 }
+                ret.add(job);
             }
-            return ret;
-        } catch (SQLException | IOException e) {
-            throw new IOException("Database.findAll() failed", e);
         }
+        new JobEvents(conn).fold(ret);
+        return ret;
     }
 
     public List<Job> findFit(List<String> orderBy, int cpu, int memMB) throws IOException {
+        try (Connection conn = getConnection()) { //pool.getConnection();
+            return findFit(conn, orderBy, cpu, memMB);
+        } catch (SQLException | IOException e) {
+            throw new IOException(MessageFormat.format("Database.findFit({0}, {1}) failed", cpu, memMB), e);
+        }
+    }
+
+    List<Job> findFit(Connection conn, List<String> orderBy, int cpu, int memMB) throws SQLException, IOException {
         List<Job> ret = new ArrayList<>();
         String orders = orderBy.stream().map(s -> s + " ASC").collect(Collectors.joining(", "));
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE state='QUEUED' ORDER BY " + orders)) {
-            conn.setAutoCommit(true);
-
-            try (ResultSet res = p.executeQuery()) {
-                int totalCpu = 0;
-                int totalMem = 0;
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE state='QUEUED' ORDER BY " + orders);
+             ResultSet res = p.executeQuery()) {
+            int totalCpu = 0;
+            int totalMem = 0;
 
-                while (res.next() && totalCpu <= cpu && totalMem <= memMB) {
-                    String json = res.getString("json");
-                    Job job = mapper.readValue(json, Job.class);
+            while (res.next() && totalCpu <= cpu && totalMem <= memMB) {
+                Job job = codec.getJob(res, 1, 2);
 
-                    if (job == null) {
-                        throw new AssertionError("Cannot be null!!");
-                    } else if (totalCpu + job.resources().getCpu() <= cpu && totalMem + job.resources().getMemMB() <= memMB) {
-                        ret.add(job);
-                        totalCpu += job.resources().getCpu();
-                        totalMem += job.resources().getMemMB();
-                    } else {
-                        break;
-                    }
+                if (job == null) {
+                    throw new AssertionError("Cannot be null!!");
+                } else if (totalCpu + job.resources().getCpu() <= cpu && totalMem + job.resources().getMemMB() <= memMB) {
+                    ret.add(job);
+                    totalCpu += job.resources().getCpu();
+                    totalMem += job.resources().getMemMB();
+                } else {
+                    break;
                 }
             }
-            return ret;
-        } catch (SQLException | IOException e) {
-            throw new IOException(MessageFormat.format("Database.findFit({0}, {1}) failed", cpu, memMB), e);
         }
+        new JobEvents(conn).fold(ret);
+        return ret;
     }
 
     public List<Job> queued(int limit) throws IOException {
+        try (Connection conn = getConnection()) { //pool.getConnection();
+            return queued(conn, limit);
+        } catch (SQLException | IOException e) {
+            throw new IOException("Database.queued() failed", e);
+        }
+    }
+
+    List<Job> queued(Connection conn, int limit) throws SQLException, IOException {
         List<Job> ret = new ArrayList<>();
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE state='QUEUED' ORDER BY id ASC LIMIT ?")) {
-            conn.setAutoCommit(true);
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE state='QUEUED' ORDER BY id ASC LIMIT ?")) {
             p.setInt(1, limit);
 
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    String json = res.getString("json");
-                    Job job = mapper.readValue(json, Job.class);
+                    Job job = codec.getJob(res, 1, 2);
 
-                    if (job == null || job.state() != Job.JobState.QUEUED) {
+                    if (job == null) {
                         throw new AssertionError("Cannot be null!!");
-                    } else {
-                        ret.add(job);
                     }
+                    ret.add(job);
                 }
             }
-            return ret;
-        } catch (SQLException | IOException e) {
-            throw new IOException("Database.queued() failed", e);
         }
+        new JobEvents(conn).fold(ret);
+        if (ret.stream().anyMatch(job -> job.state() != Job.JobState.QUEUED)) {
+            throw new AssertionError("Job state in JSON and column differ");
+        }
+        return ret;
     }
 
-    private void addJob(Connection conn, Job j) throws SQLException, JsonProcessingException {
-        try (PreparedStatement p = conn.prepareStatement("INSERT INTO jobs(name, id, appid, priority, taskid, state, json) values(?, ?, ?, ?, ?, ?, ?)")) {
-            p.setString(1, j.name());
-            p.setLong(2, j.id());
-            p.setString(3, j.appid());
-            p.setInt(4, j.priority());
-            p.setString(5, j.taskId());
-            p.setString(6, j.state().toString());
-            p.setString(7, mapper.writeValueAsString(j));
+    // Starts a scheduling round on a connection of its own; see Round
+    public Round beginRound() throws IOException {
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            return new Round(this, conn);
+        } catch (SQLException e) {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e2) {
+                    LOG.warn("Closing connection failed: {}", e2.toString());
+                }
+            }
+            throw new IOException("Database.beginRound() failed", e);
+        }
+    }
+
+    private static final String INSERT_JOB = "INSERT INTO jobs(name, id, appid, priority, taskid, state, started_at, finished_at, slave_id, json, body) values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private void addJob(Connection conn, Job j) throws SQLException, IOException {
+        try (PreparedStatement p = conn.prepareStatement(INSERT_JOB)) {
+            setJob(p, j);
             p.execute();
         }
     }
 
+    private void setJob(PreparedStatement p, Job j) throws SQLException, IOException {
+        p.setString(1, j.name());
+        p.setLong(2, j.id());
+        p.setString(3, j.appid());
+        p.setInt(4, j.priority());
+        p.setString(5, j.taskId());
+        p.setString(6, j.state().toString());
+        Jobs.setTimestamp(p, 7, j.started());
+        Jobs.setTimestamp(p, 8, j.finished());
+        p.setString(9, j.slaveId());
+        codec.setJob(p, 10, 11, j);
+    }
+
     public void safeAddJob(Job j) throws IOException {
-        try (Connection conn = dataSource.getConnection()) { //pool.getConnection()) {
+        try (Connection conn = getConnection()) { //pool.getConnection()) {
             conn.setAutoCommit(false);
 
             Optional<Application> app = getApplication(conn, j.appid());
@@ -576,65 +895,112 @@ public class Database {
         }
     }
 
-    public Optional<AppJobPair> getAppJob(int id) throws IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT j.json, a.json FROM jobs j, applications a WHERE id = ? AND j.appid = a.appid")) {
-            conn.setAutoCommit(true);
-            p.setInt(1, id);
+    // Adds jobs of one application with JDBC batches in a single transaction
+    public void safeAddJobs(String appid, List<Job> jobs) throws IOException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+
+            Optional<Application> app = getApplication(conn, appid);
+            if (!app.isPresent()) {
+                throw new IllegalStateException("No such application: " + appid);
+            }
+
+            try (PreparedStatement p = conn.prepareStatement(INSERT_JOB)) {
+                int count = 0;
+                for (Job j : jobs) {
+                    if (!appid.equals(j.appid())) {
+                        throw new IllegalArgumentException("Job " + j.id() + " is not of application " + appid);
+                    }
+                    setJob(p, j);
+                    p.addBatch();
+                    if (++count % INSERT_BATCH_SIZE == 0) {
+                        p.executeBatch();
+                    }
+                }
+                p.executeBatch();
+            }
+            conn.commit();
+
+        } catch (SQLException | IOException e) {
+            throw new IOException(MessageFormat.format("Database.safeAddJobs({0}, {1}) failed", appid, jobs.size()), e);
+        }
+    }
+
+    // Jobs just scheduled may not be in the replica yet, which are looked up in primary again
+    public Optional<AppJobPair> getAppJob(long id) throws IOException {
+        try {
+            if (replica.isPresent()) {
+                try (Connection conn = getStaleConnection()) {
+                    Optional<AppJobPair> pair = getAppJob(conn, id);
+                    if (pair.isPresent()) {
+                        return pair;
+                    }
+                }
+            }
+            try (Connection conn = getConnection()) {
+                return getAppJob(conn, id);
+            }
+        } catch (SQLException | IOException e) {
+            throw new IOException(MessageFormat.format("Database.getAppJob({0}) failed", id), e);
+        }
+    }
+
+    private Optional<AppJobPair> getAppJob(Connection conn, long id) throws SQLException, IOException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT j.json, j.body, a.json, a.body FROM jobs j, applications a WHERE id = ? AND j.appid = a.appid")) {
+            p.setLong(1, id);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String jjson = res.getString(1);
-                    Job job = mapper.readValue(jjson, Job.class);
+                    Job job = codec.getJob(res, 1, 2);
                     if (id != job.id()) {
                         LOG.error("{} != {} in Database", id, job.id());
                         throw new AssertionError("id in JSON must be equal to the column");
                     }
-                    String ajson = res.getString(2);
-                    Application app = mapper.readValue(ajson, Application.class);
+                    Application app = codec.getApplication(res, 3, 4);
+                    new JobEvents(conn).fold(Optional.of(job));
 
                     return Optional.of(new AppJobPair(Optional.of(app), job));
                 }
-                // No such application
-                return Optional.empty();
             }
-        } catch (SQLException | IOException e) {
-            throw new IOException(MessageFormat.format("Database.getAppJob({0}) failed", id), e);
+            Optional<Job> job = new JobHistory(conn, codec).getJob(id);
+            if (job.isPresent()) {
+                Optional<Application> app = getApplication(conn, job.get().appid());
+                if (app.isPresent()) {
+                    return Optional.of(new AppJobPair(app, job.get()));
+                }
+            }
+            // No such application
+            return Optional.empty();
         }
     }
 
-    public Optional<Job> getJob(int id) throws IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE id = ?")) {
-            conn.setAutoCommit(true);
-            p.setInt(1, id);
+    public Optional<Job> getJob(long id) throws IOException {
+        try (Connection conn = getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE id = ?")) {
+            p.setLong(1, id);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    Job job = mapper.readValue(json, Job.class);
+                    Job job = codec.getJob(res, 1, 2);
                     if (id != job.id()) {
                         LOG.error("{} != {} in Database", id, job.id());
                         throw new AssertionError("id in JSON must be equal to the column");
                     }
-                    return Optional.of(job);
+                    return new JobEvents(conn).fold(Optional.of(job));
                 }
-                // No such application
-                return Optional.empty();
             }
+            return new JobHistory(conn, codec).getJob(id);
         } catch (SQLException | IOException e) {
             throw new IOException(MessageFormat.format("Database.getJob({0}) failed", id), e);
         }
     }
 
     public Optional<Job> getJobFromTaskId(String taskId) throws IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE taskid=?")) {
-            conn.setAutoCommit(true);
-
+        try (Connection conn = getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE taskid=?")) {
             p.setString(1, taskId);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    Job job = mapper.readValue(json, Job.class);
+                    Job job = codec.getJob(res, 1, 2);
+                    new JobEvents(conn).fold(Optional.of(job));
                     if (!taskId.equals(job.taskId())) {
                         LOG.error("{} != {} in Database", taskId, job.taskId());
                         throw new AssertionError("id in JSON must be equal to the column");
@@ -651,66 +1017,151 @@ public class Database {
     }
 
     // Delete all jobs that has ID smaller than id
-    public void deleteAllJob(int maxId) throws IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("DELETE FROM jobs WHERE id < ?")) {
-            conn.setAutoCommit(true);
-            p.setInt(1, maxId);
+    public void deleteAllJob(long maxId) throws IOException {
+        try (Connection conn = getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement("DELETE FROM jobs WHERE id < ?");
+             PreparedStatement q = conn.prepareStatement("DELETE FROM job_events WHERE job_id < ?");
+             PreparedStatement r = conn.prepareStatement("DELETE FROM " + JobHistory.TABLE + " WHERE id < ?")) {
+            p.setLong(1, maxId);
             p.execute();
+            q.setLong(1, maxId);
+            q.execute();
+            r.setLong(1, maxId);
+            r.execute();
         } catch (SQLException e) {
             throw new IOException(MessageFormat.format("Database.deleteAllJob({0}) failed", maxId), e);
         }
     }
 
-    public void deleteOldJobs(int leeway) throws IOException {
-        try (Connection conn = dataSource.getConnection()) {
-            conn.setAutoCommit(false);
-            new Jobs(conn, mapper).collect(leeway);
-        } catch (SQLException e) {
-            throw new IOException(MessageFormat.format("Database.deleteOldJobs({0}) failed", leeway), e);
-        }
+    // @return number of deleted jobs
+    public long deleteOldJobs(int leeway) throws IOException {
+        return collector.collect(leeway);
+    }
+
+    public GcStatus getGcStatus() {
+        return collector.status();
+    }
+
+    JobCollector newJobCollector(int batchSize, int pauseMsec, int parallelism, Optional<String> archiveDir) {
+        return new JobCollector(dataSource, codec, batchSize, pauseMsec, parallelism, archiveDir);
     }
 
     public void setJobStarting(long id, Optional<String> maybeUrl, String taskId) throws IOException, JobNotFoundException {
-        updateJob(id, job -> {
-            job.starting(taskId, maybeUrl, TimestampHelper.now());
-            LOG.info("TaskId of id={}: {} / {}", id, taskId, job.taskId());
+        setJobStarting(id, maybeUrl, taskId, Optional.empty());
+    }
+
+    public void setJobStarting(long id, Optional<String> maybeUrl, String taskId, Optional<String> slaveId) throws IOException, JobNotFoundException {
+        transition(id, job -> {
+            job.starting(taskId, slaveId.orElse(job.slaveId()), maybeUrl, TimestampHelper.now());
             return Optional.of(job);
         });
     }
 
+    // Applies the function to the current job and records the result as a transition event,
+    // only if the row has not been changed since read; otherwise the function is applied again
+    // to the job read again. The function returns empty if no transition is to be made.
+    // @return the job transitioned, or empty if none
+    public Optional<Job> transition(long id, Function<Job, Optional<Job>> fun) throws IOException, JobNotFoundException {
+        return compareAndSwap(id, fun, true);
+    }
+
+    // Records a transition already applied to the job as an event, instead of rewriting
+    // the whole row; see JobEvents
+    public void appendEvent(Job job) throws IOException, JobNotFoundException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            if (!new JobEvents(conn).append(job)) {
+                conn.rollback();
+                throw new JobNotFoundException(job.id());
+            }
+            conn.commit();
+            LOG.info("Job (id={}) status updated to {}", job.id(), job.state());
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.appendEvent({0}) failed", job.id()), e);
+        }
+    }
+
+    // Folds events older than 'age' seconds back into JSON of jobs, 'batch' jobs at a time
+    // @return number of jobs compacted
+    public int compactEvents(int age, int batch) throws IOException {
+        long before = System.currentTimeMillis() - age * 1000L;
+        int total = 0;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            JobEvents events = new JobEvents(conn);
+            int n;
+            do {
+                n = events.compact(codec, before, batch);
+                total += n;
+            } while (n == batch);
+            return total;
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.compactEvents({0}) failed", age), e);
+        }
+    }
+
+    // Moves FINISHED and KILLED jobs to history, 'batch' jobs at a time; see JobHistory
+    // @return number of jobs moved
+    public int moveToHistory(int batch) throws IOException {
+        int total = 0;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            JobHistory history = new JobHistory(conn, codec);
+            int n;
+            do {
+                n = history.move(batch);
+                conn.commit();
+                total += n;
+            } while (n == batch);
+            return total;
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.moveToHistory({0}) failed", batch), e);
+        }
+    }
+
+    // Same as transition, but rewrites the whole row with the result
     public void updateJob(long id, Function<Job, Optional<Job>> fun) throws IOException, JobNotFoundException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE id=?")) {
+        compareAndSwap(id, fun, false);
+    }
+
+    private Optional<Job> compareAndSwap(long id, Function<Job, Optional<Job>> fun, boolean asEvent) throws IOException, JobNotFoundException {
+        try (Connection conn = getConnection()) {
             conn.setAutoCommit(false);
-            p.setLong(1, id);
-            try (ResultSet set = p.executeQuery()) {
-                if (set.next()) {
-                    String json = set.getString("json");
-                    Job job = mapper.readValue(json, Job.class);
-                    Optional<Job> result = fun.apply(job);
-                    if (result.isPresent()) {
-                        // addJob..
-                        new Jobs(conn, mapper).updateJob(job);
-                        conn.commit();
-                        LOG.info("Job (id={}) status updated to {}", job.id(), job.state());
-                    }
-                } else {
+            Jobs jobs = new Jobs(conn, codec);
+            for (int attempt = 1; attempt <= MAX_CAS_ATTEMPTS; attempt++) {
+                Optional<Pair<Job, Long>> current = jobs.getVersioned(id);
+                if (!current.isPresent()) {
+                    conn.rollback();
                     throw new JobNotFoundException(id);
                 }
+                Optional<Job> result = fun.apply(current.get().left());
+                if (!result.isPresent()) {
+                    conn.rollback();
+                    return result;
+                }
+                Job job = result.get();
+                long version = current.get().right();
+                boolean swapped = asEvent ? new JobEvents(conn).append(job, version) : jobs.updateJob(job, version);
+                if (swapped) {
+                    conn.commit();
+                    LOG.info("Job (id={}) status updated to {}", job.id(), job.state());
+                    return result;
+                }
+                conn.rollback();
+                LOG.debug("Job (id={}) has been changed since version {}: retrying ({}/{})", id, version, attempt, MAX_CAS_ATTEMPTS);
             }
-        } catch (SQLException | IOException e) {
-            throw new IOException(MessageFormat.format("Database.updateJob({0}) failed", id), e);
+            throw new IOException(MessageFormat.format("Job (id={0}) kept being changed in {1} attempts", id, MAX_CAS_ATTEMPTS));
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Database.compareAndSwap({0}) failed", id), e);
         }
     }
 
     public int countJobs() throws IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
+        try (Connection conn = getConnection(); //pool.getConnection();
              PreparedStatement p = conn.prepareStatement("SELECT count(id) FROM jobs")) {
-            conn.setAutoCommit(true);
             try (ResultSet set = p.executeQuery()) {
                 if (set.next()) {
-                    return set.getInt(1);
+                    return set.getInt(1) + new JobHistory(conn, codec).count();
                 }
             }
             return -1;
@@ -727,11 +1178,44 @@ public class Database {
         return countByState(Job.JobState.QUEUED);
     }
 
+    // Numbers of queued jobs by owner of their applications
+    public Map<String, Integer> countQueuedByOwner() throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        try (Connection conn = getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement(
+                     "SELECT a.owner, count(j.id) FROM jobs j, applications a WHERE j.state = 'QUEUED' AND j.appid = a.appid GROUP BY a.owner")) {
+            try (ResultSet set = p.executeQuery()) {
+                while (set.next()) {
+                    counts.put(set.getString(1), set.getInt(2));
+                }
+            }
+            return counts;
+        } catch (SQLException e) {
+            throw new IOException("Database.countQueuedByOwner() failed", e);
+        }
+    }
+
+    // Publishes counts of queued jobs to the other servers
+    public void setQueuedByOwner(Map<String, Integer> counts) throws IOException {
+        try (Connection conn = getConnection()) {
+            new Property(conn).setQueuedByOwner(counts);
+        } catch (SQLException e) {
+            throw new IOException("Database.setQueuedByOwner() failed", e);
+        }
+    }
+
+    // @return counts of queued jobs last published, with the epoch that changes on every publish
+    public Optional<Pair<Map<String, Integer>, Integer>> getQueuedByOwner() throws IOException {
+        try (Connection conn = getConnection()) {
+            return new Property(conn).getQueuedByOwner();
+        } catch (SQLException e) {
+            throw new IOException("Database.getQueuedByOwner() failed", e);
+        }
+    }
+
     private int countByState(Job.JobState state) throws IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
+        try (Connection conn = getConnection(); //pool.getConnection();
              PreparedStatement p = conn.prepareStatement("SELECT count(id) FROM jobs WHERE state = ?")) {
-            conn.setAutoCommit(true);
-
             p.setString(1, state.toString());
             try (ResultSet set = p.executeQuery()) {
                 if (set.next()) {
@@ -744,18 +1228,21 @@ public class Database {
         }
     }
 
-    public int getLatestJobId() throws IOException {
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
+    // Issues n consecutive job ids unique among all servers sharing this database; returns the first
+    public long issueJobIds(int n) throws IOException {
+        return idAllocator.issue(n);
+    }
+
+    public long getLatestJobId() throws IOException {
+        try (Connection conn = getConnection(); //pool.getConnection();
              PreparedStatement p = conn.prepareStatement("SELECT id FROM jobs ORDER BY id DESC LIMIT 1")) {
-            conn.setAutoCommit(true);
+            long latest = new JobHistory(conn, codec).getLatestJobId();
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    int id = res.getInt("id");
-                    return id;
+                    return Math.max(latest, res.getLong("id"));
                 }
             }
-            // No such application
-            return 0;
+            return latest;
         } catch (SQLException e) {
             throw new IOException("Database.getLatestJobId() failed", e);
         }
@@ -768,20 +1255,59 @@ public class Database {
         return jobs;
     }
 
+    // Task ids of running jobs, with ids of agents where they run; null if not known yet.
+    // This reads no JSON, so cheap enough for reconciliation of large clusters.
+    public List<Pair<String, String>> getRunningTasks() throws IOException {
+        List<Pair<String, String>> tasks = new ArrayList<>();
+        try (Connection conn = getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT taskid, slave_id FROM jobs WHERE state IN ('STARTING', 'STARTED')")) {
+            try (ResultSet set = p.executeQuery()) {
+                while (set.next()) {
+                    String taskId = set.getString("taskid");
+                    if (taskId != null) {
+                        tasks.add(new Pair<>(taskId, set.getString("slave_id")));
+                    }
+                }
+            }
+            return tasks;
+        } catch (SQLException e) {
+            throw new IOException("Database.getRunningTasks() failed", e);
+        }
+    }
+
+    // Pairs of task id and owner of the application of all running jobs, owner being null
+    // if the application has been removed
+    public List<Pair<String, String>> getRunningOwners() throws IOException {
+        List<Pair<String, String>> tasks = new ArrayList<>();
+        try (Connection conn = getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement(
+                     "SELECT j.taskid, a.owner FROM jobs j LEFT OUTER JOIN applications a ON j.appid = a.appid WHERE j.state IN ('STARTING', 'STARTED')")) {
+            try (ResultSet set = p.executeQuery()) {
+                while (set.next()) {
+                    String taskId = set.getString(1);
+                    if (taskId != null) {
+                        tasks.add(new Pair<>(taskId, set.getString(2)));
+                    }
+                }
+            }
+            return tasks;
+        } catch (SQLException e) {
+            throw new IOException("Database.getRunningOwners() failed", e);
+        }
+    }
+
     private List<Job> getByState(Job.JobState state) throws IOException {
         List<Job> jobs = new ArrayList<>();
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT id, json FROM jobs WHERE state = ?")) {
-            conn.setAutoCommit(true);
-
+        try (Connection conn = getConnection(); //pool.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE state = ?")) {
             p.setString(1, state.toString());
             try (ResultSet set = p.executeQuery()) {
                 while (set.next()) {
-                    String json = set.getString("json");
-                    Job job = mapper.readValue(json, Job.class);
+                    Job job = codec.getJob(set, 1, 2);
                     jobs.add(job);
                 }
             }
+            new JobEvents(conn).fold(jobs);
             return jobs;
         } catch (SQLException e) {
             throw new IOException(MessageFormat.format("Database.getByState({0}) failed", state), e);
@@ -789,8 +1315,7 @@ public class Database {
     }
 
     public boolean setFrameworkId(String value) throws IOException {
-        try (Connection conn = dataSource.getConnection()) {
-            conn.setAutoCommit(true);
+        try (Connection conn = getConnection()) {
             LOG.info("setting new framework: {}", value);
             return new Property(conn).setFrameworkId(value);
         } catch (SQLException e) {
@@ -799,7 +1324,7 @@ public class Database {
     }
 
     public Optional<String> getFrameworkId() throws IOException {
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             return new Property(conn).getFrameworkId();
         } catch (SQLException e) {
             throw new IOException("Database.getFrameworkId() failed", e);
@@ -807,7 +1332,7 @@ public class Database {
     }
 
     public void deleteAllProperties() throws IOException {
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             conn.setAutoCommit(false);
             new Property(conn).deleteAll();
             conn.commit();
@@ -817,9 +1342,9 @@ public class Database {
     }
 
     public void updateJobs(List<Job> list) throws IOException {
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             conn.setAutoCommit(false);
-            Jobs jobs = new Jobs(conn, mapper);
+            Jobs jobs = new Jobs(conn, codec);
             for (Job job : list) {
                 jobs.updateJob(job);
             }
@@ -830,10 +1355,10 @@ public class Database {
         }
     }
 
-    public void retryJobs(List<Integer> ids) throws IOException {
-        try (Connection conn = dataSource.getConnection()) {
+    public void retryJobs(List<Long> ids) throws IOException {
+        try (Connection conn = getConnection()) {
             conn.setAutoCommit(false);
-            new Jobs(conn, mapper).doRetry(ids);
+            new Jobs(conn, codec).doRetry(ids);
             conn.commit();
         } catch (SQLException | IOException e) {
             throw new IOException(MessageFormat.format("Database.updateJobs({0}) failed", ids), e);
@@ -0,0 +1,96 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+
+import java.util.Optional;
+
+// Snapshot of job GC progress, exposed via AdminConsole
+public class GcStatus {
+    private final boolean running;
+    private final String lastStarted;
+    private final String lastFinished;
+    private final long batches;
+    private final long deleted;
+    private final long archived;
+    private final long totalDeleted;
+    private final double throughput;
+    private final Optional<String> archive;
+
+    GcStatus(boolean running, String lastStarted, String lastFinished, long batches, long deleted,
+             long archived, long totalDeleted, double throughput, Optional<String> archive) {
+        this.running = running;
+        this.lastStarted = lastStarted;
+        this.lastFinished = lastFinished;
+        this.batches = batches;
+        this.deleted = deleted;
+        this.archived = archived;
+        this.totalDeleted = totalDeleted;
+        this.throughput = throughput;
+        this.archive = archive;
+    }
+
+    @JsonGetter("running")
+    public boolean running() {
+        return running;
+    }
+
+    @JsonGetter("lastStarted")
+    public String lastStarted() {
+        return lastStarted;
+    }
+
+    @JsonGetter("lastFinished")
+    public String lastFinished() {
+        return lastFinished;
+    }
+
+    // Batches done in the current or last run
+    @JsonGetter("batches")
+    public long batches() {
+        return batches;
+    }
+
+    // Jobs deleted in the current or last run
+    @JsonGetter("deleted")
+    public long deleted() {
+        return deleted;
+    }
+
+    @JsonGetter("archived")
+    public long archived() {
+        return archived;
+    }
+
+    // Jobs deleted since the server started
+    @JsonGetter("totalDeleted")
+    public long totalDeleted() {
+        return totalDeleted;
+    }
+
+    // Deleted jobs per second in the current or last run
+    @JsonGetter("throughput")
+    public double throughput() {
+        return throughput;
+    }
+
+    @JsonGetter("archive")
+    public Optional<String> archive() {
+        return archive;
+    }
+}
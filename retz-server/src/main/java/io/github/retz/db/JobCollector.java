@@ -0,0 +1,222 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.misc.Pair;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Deletes old finished jobs in bounded id-range batches, each in its own short
+ * transaction with a pause in between, so that GC never holds long locks against
+ * scheduler queries. The id space is split into partitions which are collected in
+ * parallel when parallelism is more than one. Optionally jobs are written to
+ * gzipped newline-delimited JSON files before they are deleted.
+ */
+public class JobCollector {
+    private static final Logger LOG = LoggerFactory.getLogger(JobCollector.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_PAUSE_MSEC = 100;
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    private final DataSource dataSource;
+    private final StorageCodec codec;
+    private final int batchSize;
+    private final int pauseMsec;
+    private final int parallelism;
+    private final Optional<String> archiveDir;
+
+    // Progress of the current or last run
+    private volatile boolean running = false;
+    private volatile String lastStarted = null;
+    private volatile String lastFinished = null;
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
+    private volatile Optional<String> lastArchive = Optional.empty();
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong deleted = new AtomicLong(0);
+    private final AtomicLong archived = new AtomicLong(0);
+    private final AtomicLong totalDeleted = new AtomicLong(0);
+
+    JobCollector(DataSource dataSource, StorageCodec codec) {
+        this(dataSource, codec, DEFAULT_BATCH_SIZE, DEFAULT_PAUSE_MSEC, DEFAULT_PARALLELISM, Optional.empty());
+    }
+
+    JobCollector(DataSource dataSource, StorageCodec codec, int batchSize, int pauseMsec,
+                 int parallelism, Optional<String> archiveDir) {
+        this.dataSource = Objects.requireNonNull(dataSource);
+        this.codec = Objects.requireNonNull(codec);
+        if (batchSize < 1 || pauseMsec < 0 || parallelism < 1) {
+            throw new IllegalArgumentException("batch size and parallelism must be positive, pause must not be negative");
+        }
+        this.batchSize = batchSize;
+        this.pauseMsec = pauseMsec;
+        this.parallelism = parallelism;
+        this.archiveDir = Objects.requireNonNull(archiveDir);
+    }
+
+    // Only one run at a time; concurrent calls from JMX and the periodic collector wait here
+    public synchronized long collect(int leeway) throws IOException {
+        long before = System.currentTimeMillis() - leeway * 1000L;
+
+        Optional<Pair<Long, Long>> range;
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            range = new Jobs(conn, codec).collectableIdRange(before);
+            conn.commit();
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("JobCollector.collect({0}) failed", leeway), e);
+        }
+
+        begin();
+        if (!range.isPresent()) {
+            LOG.info("No jobs finished before {}", TimestampHelper.fromEpochMillis(before));
+            end();
+            return 0;
+        }
+
+        long min = range.get().left();
+        long max = range.get().right();
+        LOG.info("Deleting jobs finished before {} in id range [{}, {}], batch={}, parallelism={}",
+                TimestampHelper.fromEpochMillis(before), min, max, batchSize, parallelism);
+
+        // Contiguous partitions aligned to batches, one per worker
+        long span = max - min + 1;
+        long batchesInAll = (span + batchSize - 1) / batchSize;
+        long batchesPerPartition = (batchesInAll + parallelism - 1) / parallelism;
+        long partitionSize = batchesPerPartition * batchSize;
+        String stamp = TimestampHelper.now().replaceAll("[^0-9]", "");
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            int partition = 0;
+            for (long from = min; from <= max; from += partitionSize) {
+                long to = Math.min(from + partitionSize, max + 1);
+                Optional<File> archive = archiveDir.map(dir ->
+                        Paths.get(dir, "retz-jobs-" + stamp + "-" + futures.size() + ".ndjson.gz").toFile());
+                long f = from;
+                futures.add(executor.submit(() -> collectPartition(f, to, before, archive)));
+                partition++;
+            }
+            archiveDir.ifPresent(dir -> lastArchive = Optional.of(Paths.get(dir, "retz-jobs-" + stamp + "-*.ndjson.gz").toString()));
+
+            long count = 0;
+            for (Future<Long> future : futures) {
+                count += future.get();
+            }
+            LOG.info("Deleted {} jobs in {} batches of {} partitions ({} jobs/s)",
+                    count, batches.get(), partition, String.format("%.1f", throughput()));
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Job GC interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException(MessageFormat.format("JobCollector.collect({0}) failed", leeway), e.getCause());
+        } finally {
+            executor.shutdownNow();
+            end();
+        }
+    }
+
+    private long collectPartition(long from, long to, long before, Optional<File> archive) throws SQLException, IOException, InterruptedException {
+        Writer out = null;
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Jobs jobs = new Jobs(conn, codec);
+            long count = 0;
+            for (long lo = from; lo < to; lo += batchSize) {
+                long hi = Math.min(lo + batchSize, to);
+                if (archive.isPresent()) {
+                    if (out == null) {
+                        LOG.info("Archiving jobs to {}", archive.get());
+                        // Sync flush makes archived rows durable before their deletion commits
+                        out = new BufferedWriter(new OutputStreamWriter(
+                                new GZIPOutputStream(new FileOutputStream(archive.get()), true), UTF_8));
+                    }
+                    archived.addAndGet(jobs.archive(lo, hi, before, out));
+                    out.flush();
+                }
+                int n = jobs.collect(lo, hi, before);
+                conn.commit();
+
+                count += n;
+                deleted.addAndGet(n);
+                totalDeleted.addAndGet(n);
+                batches.incrementAndGet();
+                LOG.debug("Deleted {} jobs in id range [{}, {})", n, lo, hi);
+
+                // Empty ranges are common as ids are sparse; pause only after actual deletes
+                if (pauseMsec > 0 && n > 0 && hi < to) {
+                    Thread.sleep(pauseMsec);
+                }
+            }
+            return count;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private void begin() {
+        running = true;
+        startedAt = System.currentTimeMillis();
+        finishedAt = 0;
+        lastStarted = TimestampHelper.now();
+        lastFinished = null;
+        lastArchive = Optional.empty();
+        batches.set(0);
+        deleted.set(0);
+        archived.set(0);
+    }
+
+    private void end() {
+        finishedAt = System.currentTimeMillis();
+        lastFinished = TimestampHelper.now();
+        running = false;
+    }
+
+    private double throughput() {
+        long end = running ? System.currentTimeMillis() : finishedAt;
+        long elapsed = Math.max(1, end - startedAt);
+        return deleted.get() * 1000.0 / elapsed;
+    }
+
+    public GcStatus status() {
+        return new GcStatus(running, lastStarted, lastFinished, batches.get(), deleted.get(),
+                archived.get(), totalDeleted.get(), startedAt == 0 ? 0 : throughput(), lastArchive);
+    }
+}
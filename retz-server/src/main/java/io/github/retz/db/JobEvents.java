@@ -0,0 +1,309 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only journal of job state transitions. A transition is an INSERT to job_events and an
+ * UPDATE of the indexed columns of jobs, without reading nor rewriting JSON of the job. The
+ * current job is JSON in jobs folded with its events, and compaction folds old events back
+ * into JSON. Whoever rewrites JSON of a job must have folded its events, and marks them folded
+ * in the same transaction; see Jobs.updateJob. Folded events are kept as the history of the job
+ * for debugging, and deleted only with the job by GC. Every transition increments the row version.
+ */
+public class JobEvents {
+    private static final Logger LOG = LoggerFactory.getLogger(JobEvents.class);
+    private static final AtomicLong LAST_SEQ = new AtomicLong(0);
+
+    private final Connection conn;
+
+    public JobEvents(Connection c) {
+        this.conn = Objects.requireNonNull(c);
+    }
+
+    // Microseconds since epoch, strictly increasing within a server, so that events of a job
+    // written by different servers are still ordered by time
+    static long nextSeq() {
+        long now = System.currentTimeMillis() * 1000;
+        return LAST_SEQ.updateAndGet(last -> Math.max(last + 1, now));
+    }
+
+    private static final String UPDATE_COLUMNS = "UPDATE jobs SET state=?, taskid=?, started_at=?, finished_at=?, slave_id=?, version=version+1 WHERE id=?";
+    private static final String INSERT_EVENT = "INSERT INTO job_events(job_id, seq, state, ts, taskid, slave_id, url, reason, result) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Records a transition which has been applied to the job; false if there's no such job
+    public boolean append(Job job) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement(UPDATE_COLUMNS)) {
+            setColumns(p, job);
+            if (p.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        insert(job);
+        return true;
+    }
+
+    // Records a transition applied to the job read at the version; false if the job has been
+    // changed since then, or there's no such job
+    public boolean append(Job job, long version) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement(UPDATE_COLUMNS + " AND version=?")) {
+            setColumns(p, job);
+            p.setLong(7, version);
+            if (p.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        insert(job);
+        return true;
+    }
+
+    private void insert(Job job) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement(INSERT_EVENT)) {
+            setEvent(p, job);
+            p.execute();
+        }
+    }
+
+    // Records transitions of jobs which were all in 'from' state, with a JDBC batch for each table;
+    // false if any of them is no longer in that state, where the transaction must be rolled back
+    public boolean appendAll(List<Job> jobs, Job.JobState from) throws SQLException {
+        if (jobs.isEmpty()) {
+            return true;
+        }
+        try (PreparedStatement p = conn.prepareStatement(UPDATE_COLUMNS + " AND state=?")) {
+            for (Job job : jobs) {
+                setColumns(p, job);
+                p.setString(7, from.toString());
+                p.addBatch();
+            }
+            for (int count : p.executeBatch()) {
+                if (count == 0) { // SUCCESS_NO_INFO is negative
+                    return false;
+                }
+            }
+        }
+        try (PreparedStatement p = conn.prepareStatement(INSERT_EVENT)) {
+            for (Job job : jobs) {
+                setEvent(p, job);
+                p.addBatch();
+            }
+            p.executeBatch();
+        }
+        return true;
+    }
+
+    private static void setColumns(PreparedStatement p, Job job) throws SQLException {
+        p.setString(1, job.state().toString());
+        p.setString(2, job.taskId());
+        Jobs.setTimestamp(p, 3, job.started());
+        Jobs.setTimestamp(p, 4, job.finished());
+        p.setString(5, job.slaveId());
+        p.setLong(6, job.id());
+    }
+
+    private static void setEvent(PreparedStatement p, Job job) throws SQLException {
+        p.setLong(1, job.id());
+        p.setLong(2, nextSeq());
+        p.setString(3, job.state().toString());
+        p.setLong(4, timestamp(job));
+        p.setString(5, job.taskId());
+        p.setString(6, job.slaveId());
+        p.setString(7, job.url());
+        p.setString(8, job.reason());
+        if (job.state() == Job.JobState.FINISHED) {
+            p.setInt(9, job.result());
+        } else {
+            p.setNull(9, Types.INTEGER);
+        }
+    }
+
+    // Applies events pending for the jobs, in place
+    public void fold(List<Job> jobs) throws SQLException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        Map<Long, Job> byId = new HashMap<>();
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Job job : jobs) {
+            byId.put(job.id(), job);
+            min = Math.min(min, job.id());
+            max = Math.max(max, job.id());
+        }
+        // Events pending are few after compaction, so a range scan is cheaper than a long IN list
+        try (PreparedStatement p = conn.prepareStatement(
+                "SELECT * FROM job_events WHERE job_id >= ? AND job_id <= ? AND folded = FALSE ORDER BY job_id, seq")) {
+            p.setLong(1, min);
+            p.setLong(2, max);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    Job job = byId.get(res.getLong("job_id"));
+                    if (job != null) {
+                        apply(job, res);
+                    }
+                }
+            }
+        }
+    }
+
+    public Optional<Job> fold(Optional<Job> job) throws SQLException {
+        if (job.isPresent()) {
+            List<Job> jobs = new ArrayList<>(1);
+            jobs.add(job.get());
+            fold(jobs);
+        }
+        return job;
+    }
+
+    // Marks all events of the job folded, after its folded JSON has been written
+    public void markFolded(long id) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("UPDATE job_events SET folded = TRUE WHERE job_id=? AND folded = FALSE")) {
+            p.setLong(1, id);
+            p.execute();
+        }
+    }
+
+    // Folds events older than 'before' in epoch millis back into JSON of up to 'limit' jobs;
+    // connection must not be in autocommit mode, and is committed per job
+    public int compact(StorageCodec codec, long before, int limit) throws SQLException, IOException {
+        List<Long> ids = new ArrayList<>();
+        try (PreparedStatement p = conn.prepareStatement(
+                "SELECT DISTINCT job_id FROM job_events WHERE folded = FALSE AND ts < ? ORDER BY job_id LIMIT ?")) {
+            p.setLong(1, before);
+            p.setInt(2, limit);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    ids.add(res.getLong(1));
+                }
+            }
+        }
+        for (long id : ids) {
+            compact(codec, id);
+            conn.commit();
+        }
+        return ids.size();
+    }
+
+    private void compact(StorageCodec codec, long id) throws SQLException, IOException {
+        // Lock the row so that JSON is not overwritten by a concurrent update with older contents
+        Job job = null;
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE id=? FOR UPDATE")) {
+            p.setLong(1, id);
+            try (ResultSet res = p.executeQuery()) {
+                if (res.next()) {
+                    job = codec.getJob(res, 1, 2);
+                }
+            }
+        }
+        long last = Long.MIN_VALUE;
+        try (PreparedStatement p = conn.prepareStatement("SELECT * FROM job_events WHERE job_id=? AND folded = FALSE ORDER BY seq")) {
+            p.setLong(1, id);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    if (job != null) {
+                        apply(job, res);
+                    }
+                    last = res.getLong("seq");
+                }
+            }
+        }
+        if (job != null) {
+            try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET json=?, body=? WHERE id=?")) {
+                codec.setJob(p, 1, 2, job);
+                p.setLong(3, id);
+                p.execute();
+            }
+        } else {
+            // Moved to history with its events folded, or to be deleted by GC
+            LOG.debug("Job {} of events is no longer in jobs", id);
+        }
+        // Events appended since they were read are left for the next time
+        try (PreparedStatement p = conn.prepareStatement("UPDATE job_events SET folded = TRUE WHERE job_id=? AND seq<=? AND folded = FALSE")) {
+            p.setLong(1, id);
+            p.setLong(2, last);
+            p.execute();
+        }
+    }
+
+    private static void apply(Job job, ResultSet res) throws SQLException {
+        Job.JobState state = Job.JobState.valueOf(res.getString("state"));
+        String ts = TimestampHelper.fromEpochMillis(res.getLong("ts"));
+        String taskId = res.getString("taskid");
+        String slaveId = res.getString("slave_id");
+        Optional<String> url = Optional.ofNullable(res.getString("url"));
+        switch (state) {
+            case QUEUED:
+                job.doRetry();
+                break;
+            case STARTING:
+                job.starting(taskId, slaveId, url, ts);
+                break;
+            case STARTED:
+                job.started(taskId, slaveId, url, ts);
+                break;
+            case FINISHED:
+                job.finished(ts, url, res.getInt("result"));
+                break;
+            case KILLED:
+                job.killed(ts, url, res.getString("reason"));
+                break;
+            default:
+                throw new AssertionError("Unknown state in job_events: " + state);
+        }
+    }
+
+    // Time of the transition, which is kept in JSON as started or finished
+    private static long timestamp(Job job) throws SQLException {
+        String ts;
+        switch (job.state()) {
+            case STARTING:
+            case STARTED:
+                ts = job.started();
+                break;
+            case FINISHED:
+            case KILLED:
+                ts = job.finished();
+                break;
+            default:
+                return System.currentTimeMillis();
+        }
+        try {
+            return ts == null || ts.isEmpty() ? System.currentTimeMillis() : TimestampHelper.toEpochMillis(ts);
+        } catch (ParseException e) {
+            throw new SQLException("Invalid timestamp: " + ts, e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * FINISHED and KILLED jobs moved out of jobs table in batches, so that jobs table and its
+ * indexes only hold jobs queued or running however long jobs are retained. Jobs are moved with
+ * their events folded, and never changed after moved. Readers look up jobs table first and
+ * then this, so that a job moved in between is found in either; see Database.getJob.
+ */
+public class JobHistory {
+    private static final Logger LOG = LoggerFactory.getLogger(JobHistory.class);
+    static final String TABLE = "jobs_history";
+
+    private final Connection conn;
+    private final StorageCodec codec;
+
+    public JobHistory(Connection c, StorageCodec codec) {
+        this.conn = Objects.requireNonNull(c);
+        this.codec = Objects.requireNonNull(codec);
+    }
+
+    // Moves up to 'limit' finished or killed jobs in the transaction, which the caller commits.
+    // Jobs changed since read, e.g. a finished task reported as failed later, are left for the next time.
+    // @return number of jobs moved
+    public int move(int limit) throws SQLException, IOException {
+        if (conn.getAutoCommit()) {
+            throw new AssertionError("autocommit must be false");
+        }
+        List<Job> jobs = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+        try (PreparedStatement p = conn.prepareStatement(
+                "SELECT json, body, version FROM jobs WHERE state IN ('FINISHED', 'KILLED') ORDER BY id LIMIT ?")) {
+            p.setInt(1, limit);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    jobs.add(codec.getJob(res, 1, 2));
+                    versions.add(res.getLong(3));
+                }
+            }
+        }
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        JobEvents events = new JobEvents(conn);
+        events.fold(jobs);
+
+        // Deleted first at the versions read, so that only jobs deleted are written here
+        List<Job> moved = new ArrayList<>(jobs.size());
+        try (PreparedStatement p = conn.prepareStatement("DELETE FROM jobs WHERE id=? AND version=?")) {
+            for (int i = 0; i < jobs.size(); i++) {
+                p.setLong(1, jobs.get(i).id());
+                p.setLong(2, versions.get(i));
+                p.addBatch();
+            }
+            int[] counts = p.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) { // SUCCESS_NO_INFO is negative
+                    moved.add(jobs.get(i));
+                }
+            }
+        }
+        try (PreparedStatement p = conn.prepareStatement("INSERT INTO " + TABLE
+                + "(id, name, appid, priority, taskid, state, started_at, finished_at, slave_id, json, body) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement q = conn.prepareStatement("UPDATE job_events SET folded = TRUE WHERE job_id=? AND folded = FALSE")) {
+            for (Job job : moved) {
+                p.setLong(1, job.id());
+                p.setString(2, job.name());
+                p.setString(3, job.appid());
+                p.setInt(4, job.priority());
+                p.setString(5, job.taskId());
+                p.setString(6, job.state().toString());
+                Jobs.setTimestamp(p, 7, job.started());
+                Jobs.setTimestamp(p, 8, job.finished());
+                p.setString(9, job.slaveId());
+                codec.setJob(p, 10, 11, job);
+                p.addBatch();
+                q.setLong(1, job.id());
+                q.addBatch();
+            }
+            p.executeBatch();
+            q.executeBatch();
+        }
+        if (moved.size() < jobs.size()) {
+            LOG.debug("{} jobs changed while being moved to history", jobs.size() - moved.size());
+        }
+        return moved.size();
+    }
+
+    public Optional<Job> getJob(long id) throws SQLException, IOException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM " + TABLE + " WHERE id=?")) {
+            p.setLong(1, id);
+            try (ResultSet res = p.executeQuery()) {
+                if (res.next()) {
+                    return Optional.of(codec.getJob(res, 1, 2));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Same shape as Database.listJobs over jobs table
+    public List<Job> listJobs(String owner, Job.JobState state, int limit) throws SQLException, IOException {
+        List<Job> ret = new ArrayList<>();
+        try (PreparedStatement p = conn.prepareStatement("SELECT j.json, j.body FROM " + TABLE
+                + " j, applications a WHERE j.appid = a.appid AND a.owner = ? AND j.state=? ORDER BY j.id DESC LIMIT ?")) {
+            p.setString(1, owner);
+            p.setString(2, state.toString());
+            p.setInt(3, limit);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    ret.add(codec.getJob(res, 1, 2));
+                }
+            }
+        }
+        return ret;
+    }
+
+    // Jobs finished in [start, end) in epoch millis
+    public List<Job> finishedJobs(long start, long end) throws SQLException, IOException {
+        List<Job> ret = new ArrayList<>();
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM " + TABLE + " WHERE ? <= finished_at AND finished_at < ?")) {
+            p.setLong(1, start);
+            p.setLong(2, end);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    ret.add(codec.getJob(res, 1, 2));
+                }
+            }
+        }
+        return ret;
+    }
+
+    public int count() throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT count(id) FROM " + TABLE);
+             ResultSet res = p.executeQuery()) {
+            return res.next() ? res.getInt(1) : 0;
+        }
+    }
+
+    public long getLatestJobId() throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT id FROM " + TABLE + " ORDER BY id DESC LIMIT 1");
+             ResultSet res = p.executeQuery()) {
+            return res.next() ? res.getLong(1) : 0;
+        }
+    }
+
+    // Merges jobs read from jobs table and then from history, newest first; a job found in
+    // both, which has been moved in between, is taken from jobs table
+    static List<Job> merge(List<Job> active, List<Job> history, int limit) {
+        List<Job> ret = new ArrayList<>(Math.min(limit, active.size() + history.size()));
+        int i = 0;
+        int j = 0;
+        while (ret.size() < limit && (i < active.size() || j < history.size())) {
+            if (j >= history.size() || (i < active.size() && active.get(i).id() >= history.get(j).id())) {
+                Job job = active.get(i++);
+                if (j < history.size() && history.get(j).id() == job.id()) {
+                    j++;
+                }
+                ret.add(job);
+            } else {
+                ret.add(history.get(j++));
+            }
+        }
+        return ret;
+    }
+
+    static boolean isTerminal(Job.JobState state) {
+        return state == Job.JobState.FINISHED || state == Job.JobState.KILLED;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.misc.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues job ids from blocks reserved in 'properties' table. A block is reserved by
+ * compare-and-set on the epoch of the counter row, so that any number of server processes
+ * sharing a database never issue the same id. Ids within a block are issued without locks.
+ * Ids increase within a process, but may skip when a process exits with a block unused.
+ */
+public class JobIdAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+    private static final Logger LOG = LoggerFactory.getLogger(JobIdAllocator.class);
+    private static final int MAX_ATTEMPTS = 64;
+
+    private final DataSource dataSource;
+    private final int blockSize;
+    private volatile Block current = new Block(0, 0);
+
+    JobIdAllocator(DataSource dataSource, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.dataSource = dataSource;
+        this.blockSize = blockSize;
+    }
+
+    // Issues n consecutive ids and returns the first one
+    long issue(int n) throws IOException {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of ids must be positive: " + n);
+        }
+        while (true) {
+            Block block = current;
+            long first = block.next.getAndAdd(n);
+            if (first + n <= block.end) {
+                return first;
+            }
+            refill(block, n);
+        }
+    }
+
+    private synchronized void refill(Block exhausted, int n) throws IOException {
+        if (current != exhausted) {
+            // Another thread has already refilled
+            return;
+        }
+        int size = Math.max(blockSize, n);
+        long first = reserve(size);
+        current = new Block(first, first + size);
+    }
+
+    // Reserves 'size' ids in the database and returns the first one
+    long reserve(int size) throws IOException {
+        try (Connection conn = dataSource.getConnection()) {
+            Property property = new Property(conn);
+            for (int i = 0; i < MAX_ATTEMPTS; i++) {
+                Optional<Pair<String, Integer>> counter = property.getPropertyWithEpoch(Property.JOB_ID_COUNTER);
+                long first;
+                boolean reserved;
+                if (counter.isPresent()) {
+                    first = Long.parseLong(counter.get().left());
+                    reserved = property.compareAndSetProperty(Property.JOB_ID_COUNTER,
+                            Long.toString(first + size), counter.get().right());
+                } else {
+                    // First reservation on this database, or the counter was deleted
+                    first = latestJobId(conn) + 1;
+                    reserved = property.insertProperty(Property.JOB_ID_COUNTER, Long.toString(first + size));
+                }
+                if (reserved) {
+                    LOG.debug("Reserved job ids [{}, {})", first, first + size);
+                    return first;
+                }
+                LOG.debug("Job id counter was moved by another server: retrying");
+            }
+            throw new IOException("Too much contention on job id counter");
+        } catch (SQLException | NumberFormatException e) {
+            throw new IOException(MessageFormat.format("JobIdAllocator.reserve({0}) failed", size), e);
+        }
+    }
+
+    // Jobs finished may have been moved to history, whose ids must not be issued again
+    private static long latestJobId(Connection conn) throws SQLException {
+        long latest = 0;
+        for (String table : new String[]{"jobs", JobHistory.TABLE}) {
+            try (PreparedStatement p = conn.prepareStatement("SELECT MAX(id) FROM " + table);
+                 ResultSet res = p.executeQuery()) {
+                // MAX(id) is NULL for empty table, where getLong returns 0
+                if (res.next()) {
+                    latest = Math.max(latest, res.getLong(1));
+                }
+            }
+        }
+        return latest;
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end; // exclusive
+
+        Block(long first, long end) {
+            this.next = new AtomicLong(first);
+            this.end = end;
+        }
+    }
+}
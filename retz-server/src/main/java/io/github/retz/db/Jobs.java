@@ -16,18 +16,20 @@
  */
 package io.github.retz.db;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.retz.cli.TimestampHelper;
+import io.github.retz.misc.Pair;
 import io.github.retz.protocol.data.Job;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -37,11 +39,11 @@ public class Jobs {
     private static final Logger LOG = LoggerFactory.getLogger(Jobs.class);
 
     private Connection conn;
-    private ObjectMapper mapper;
+    private StorageCodec codec;
 
-    public Jobs(Connection c, ObjectMapper m) throws SQLException {
+    public Jobs(Connection c, StorageCodec codec) throws SQLException {
         this.conn = Objects.requireNonNull(c);
-        this.mapper = Objects.requireNonNull(m);
+        this.codec = Objects.requireNonNull(codec);
         if (conn.getAutoCommit()) {
             throw new AssertionError("autocommit must be false");
         }
@@ -49,12 +51,12 @@ public class Jobs {
 
     public List<Job> getAllRunning() throws SQLException, IOException {
         List<Job> ret = new ArrayList<>();
-        try (PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE state='STARTING' OR state='STARTED'");
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE state='STARTING' OR state='STARTED'");
              ResultSet res = p.executeQuery()) {
             while (res.next()) {
-                String json = res.getString("json");
-                ret.add(mapper.readValue(json, Job.class));
+                ret.add(codec.getJob(res, 1, 2));
             }
+            new JobEvents(conn).fold(ret);
             for (Job job : ret) {
                 job.doRetry();
                 LOG.info("Retrying job: {}", job);
@@ -64,8 +66,8 @@ public class Jobs {
         return ret;
     }
 
-    public void doRetry(List<Integer> ids) throws SQLException, IOException {
-        for (int id : ids) {
+    public void doRetry(List<Long> ids) throws SQLException, IOException {
+        for (long id : ids) {
             Optional<Job> maybeJob = getJob(id);
             if (maybeJob.isPresent()) {
                 Job job = maybeJob.get();
@@ -75,42 +77,151 @@ public class Jobs {
         }
     }
 
-    public Optional<Job> getJob(int id) throws SQLException, IOException {
-        try (PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE id=?")) {
-            p.setInt(1, id);
+    public Optional<Job> getJob(long id) throws SQLException, IOException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM jobs WHERE id=?")) {
+            p.setLong(1, id);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    return Optional.ofNullable(mapper.readValue(json, Job.class));
+                    return new JobEvents(conn).fold(Optional.of(codec.getJob(res, 1, 2)));
                 }
             }
         }
         return Optional.empty();
     }
 
-    public void updateJob(Job j) throws SQLException, JsonProcessingException {
+    // Job with the version of its row, to be written back by updateJob(Job, long)
+    public Optional<Pair<Job, Long>> getVersioned(long id) throws SQLException, IOException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT json, body, version FROM jobs WHERE id=?")) {
+            p.setLong(1, id);
+            try (ResultSet res = p.executeQuery()) {
+                if (res.next()) {
+                    Job job = codec.getJob(res, 1, 2);
+                    long version = res.getLong(3);
+                    new JobEvents(conn).fold(Optional.of(job));
+                    return Optional.of(new Pair<>(job, version));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Rewrites the whole row of a job folded with its events, which are then dropped
+    public void updateJob(Job j) throws SQLException, IOException {
+        update(j, "", 0);
+    }
+
+    // Same as above, only if the job has not been changed since read at the version
+    public boolean updateJob(Job j, long version) throws SQLException, IOException {
+        return update(j, " AND version=?", version);
+    }
+
+    private boolean update(Job j, String condition, long version) throws SQLException, IOException {
         LOG.debug("Updating job as name={}, id={}, appid={}", j.name(), j.id(), j.appid());
-        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET name=?, appid=?, priority=?, taskid=?, state=?, started=?, finished=?, json=? WHERE id=?")) {
+        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET name=?, appid=?, priority=?, taskid=?, state=?, started_at=?, finished_at=?, slave_id=?, json=?, body=?, version=version+1 WHERE id=?" + condition)) {
             p.setString(1, j.name());
             p.setString(2, j.appid());
             p.setInt(3, j.priority());
             p.setString(4, j.taskId());
             p.setString(5, j.state().toString());
-            p.setString(6, j.started());
-            p.setString(7, j.finished());
-            p.setString(8, mapper.writeValueAsString(j));
-            //p.setInt(9, j.id());
-            p.setLong(9, j.id());
-            p.execute();
+            setTimestamp(p, 6, j.started());
+            setTimestamp(p, 7, j.finished());
+            p.setString(8, j.slaveId());
+            codec.setJob(p, 9, 10, j);
+            //p.setInt(10, j.id());
+            p.setLong(11, j.id());
+            if (!condition.isEmpty()) {
+                p.setLong(12, version);
+            }
+            if (p.executeUpdate() == 0) {
+                return false;
+            }
         }
+        new JobEvents(conn).markFolded(j.id());
+        return true;
     }
 
-    public void collect(int leeway) throws SQLException {
-        String last = TimestampHelper.past(leeway);
-        try (PreparedStatement p = conn.prepareStatement("DELETE FROM jobs WHERE finished < ? AND (state='FINISHED' OR state='KILLED')")) {
-            LOG.info("Deleting old jobs finished before {}...", last);
-            p.setString(1, last);
-            p.execute(); // returns true as the result of DELETE query is null.
+    // Timestamps in Job are strings with offsets; they are stored as epoch milliseconds.
+    // Jobs converted from protobuf have empty strings for timestamps not yet set
+    static void setTimestamp(PreparedStatement p, int index, String timestamp) throws SQLException {
+        if (timestamp == null || timestamp.isEmpty()) {
+            p.setNull(index, Types.BIGINT);
+            return;
+        }
+        try {
+            p.setLong(index, TimestampHelper.toEpochMillis(timestamp));
+        } catch (ParseException e) {
+            throw new SQLException("Invalid timestamp: " + timestamp, e);
+        }
+    }
+
+    // Conditions for jobs to be collected, followed by the bound of finished timestamp in epoch millis
+    private static final String COLLECTABLE = "finished_at < ? AND (state='FINISHED' OR state='KILLED')";
+    // Jobs to be collected are either not yet moved to history or moved
+    private static final String[] COLLECTED_TABLES = {"jobs", JobHistory.TABLE};
+
+    public Optional<Pair<Long, Long>> collectableIdRange(long before) throws SQLException {
+        Optional<Pair<Long, Long>> range = Optional.empty();
+        for (String table : COLLECTED_TABLES) {
+            try (PreparedStatement p = conn.prepareStatement("SELECT MIN(id), MAX(id) FROM " + table + " WHERE " + COLLECTABLE)) {
+                p.setLong(1, before);
+                try (ResultSet res = p.executeQuery()) {
+                    if (res.next()) {
+                        long min = res.getLong(1);
+                        if (!res.wasNull()) {
+                            long max = res.getLong(2);
+                            range = Optional.of(range.map(r -> new Pair<>(Math.min(r.left(), min), Math.max(r.right(), max)))
+                                    .orElse(new Pair<>(min, max)));
+                        }
+                    }
+                }
+            }
+        }
+        return range;
+    }
+
+    // Writes jobs to be collected in [from, to) as newline-delimited JSON
+    public int archive(long from, long to, long before, Writer out) throws SQLException, IOException {
+        List<Job> jobs = new ArrayList<>();
+        for (String table : COLLECTED_TABLES) {
+            try (PreparedStatement p = conn.prepareStatement("SELECT json, body FROM " + table + " WHERE id >= ? AND id < ? AND " + COLLECTABLE + " ORDER BY id")) {
+                p.setLong(1, from);
+                p.setLong(2, to);
+                p.setLong(3, before);
+                try (ResultSet res = p.executeQuery()) {
+                    while (res.next()) {
+                        jobs.add(codec.getJob(res, 1, 2));
+                    }
+                }
+            }
+        }
+        new JobEvents(conn).fold(jobs);
+        for (Job job : jobs) {
+            out.write(codec.mapper.writeValueAsString(job));
+            out.write('\n');
+        }
+        return jobs.size();
+    }
+
+    // Deletes jobs to be collected in [from, to), with their events
+    public int collect(long from, long to, long before) throws SQLException {
+        int deleted = 0;
+        for (String table : COLLECTED_TABLES) {
+            try (PreparedStatement p = conn.prepareStatement("DELETE FROM " + table + " WHERE id >= ? AND id < ? AND " + COLLECTABLE)) {
+                p.setLong(1, from);
+                p.setLong(2, to);
+                p.setLong(3, before);
+                deleted += p.executeUpdate();
+            }
+        }
+        try (PreparedStatement p = conn.prepareStatement(
+                "DELETE FROM job_events WHERE job_id >= ? AND job_id < ? AND job_id NOT IN (SELECT id FROM jobs WHERE id >= ? AND id < ?)"
+                        + " AND job_id NOT IN (SELECT id FROM " + JobHistory.TABLE + " WHERE id >= ? AND id < ?)")) {
+            for (int i = 0; i < 3; i++) {
+                p.setLong(2 * i + 1, from);
+                p.setLong(2 * i + 2, to);
+            }
+            p.execute();
         }
+        return deleted;
     }
 }
@@ -0,0 +1,142 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.misc.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.Optional;
+
+/**
+ * Lease on the right to connect to Mesos as the scheduler, held in 'properties' table.
+ * The row value is "expiry@holder" where expiry is in epoch millis; it is taken over or
+ * extended only by compare-and-set on the epoch of the row, so at most one server holds an
+ * unexpired lease. Server clocks must be synchronized well within the lease duration.
+ */
+public class LeaderLease {
+    private static final Logger LOG = LoggerFactory.getLogger(LeaderLease.class);
+    private static final char SEPARATOR = '@';
+
+    private final DataSource dataSource;
+    private final String holder;
+    private final long durationMsec;
+    // Expiry of the lease last seen in database, whoever holds it
+    private volatile long observedExpiry = 0;
+    private volatile Optional<String> observedHolder = Optional.empty();
+
+    public LeaderLease(DataSource dataSource, String holder, long durationMsec) {
+        if (holder.indexOf(SEPARATOR) >= 0) {
+            throw new IllegalArgumentException("Lease holder must not include '" + SEPARATOR + "': " + holder);
+        }
+        if (durationMsec < 1) {
+            throw new IllegalArgumentException("Lease duration must be positive: " + durationMsec);
+        }
+        this.dataSource = dataSource;
+        this.holder = holder;
+        this.durationMsec = durationMsec;
+    }
+
+    // Acquires the lease if it is expired or already held by this server, extending it for
+    // the lease duration from now. Returns false if another server holds an unexpired lease.
+    public boolean tryAcquire() throws IOException {
+        return tryAcquire(System.currentTimeMillis());
+    }
+
+    boolean tryAcquire(long now) throws IOException {
+        try (Connection conn = dataSource.getConnection()) {
+            Property property = new Property(conn);
+            String value = encode(now + durationMsec, holder);
+
+            Optional<Pair<String, Integer>> lease = property.getPropertyWithEpoch(Property.LEADER_LEASE);
+            if (!lease.isPresent()) {
+                return acquired(property.insertProperty(Property.LEADER_LEASE, value), now);
+            }
+            observe(lease.get().left());
+            if (!holder.equals(observedHolder.orElse(null)) && now < observedExpiry) {
+                return false;
+            }
+            return acquired(property.compareAndSetProperty(Property.LEADER_LEASE, value, lease.get().right()), now);
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("LeaderLease.tryAcquire({0}) failed", holder), e);
+        }
+    }
+
+    // Expires the lease right now if held by this server, so that a standby can take over
+    // without waiting for the lease duration
+    public void release() throws IOException {
+        try (Connection conn = dataSource.getConnection()) {
+            Property property = new Property(conn);
+            Optional<Pair<String, Integer>> lease = property.getPropertyWithEpoch(Property.LEADER_LEASE);
+            if (lease.isPresent()) {
+                observe(lease.get().left());
+                if (holder.equals(observedHolder.orElse(null))
+                        && property.compareAndSetProperty(Property.LEADER_LEASE, encode(0, holder), lease.get().right())) {
+                    LOG.info("Leader lease released by {}", holder);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("LeaderLease.release({0}) failed", holder), e);
+        }
+    }
+
+    public String holder() {
+        return holder;
+    }
+
+    public long durationMsec() {
+        return durationMsec;
+    }
+
+    public long observedExpiry() {
+        return observedExpiry;
+    }
+
+    public Optional<String> observedHolder() {
+        return observedHolder;
+    }
+
+    private boolean acquired(boolean updated, long now) {
+        if (updated) {
+            observedExpiry = now + durationMsec;
+            observedHolder = Optional.of(holder);
+        }
+        return updated;
+    }
+
+    private void observe(String value) {
+        int i = value.indexOf(SEPARATOR);
+        try {
+            observedExpiry = Long.parseLong(value.substring(0, i));
+            observedHolder = Optional.of(value.substring(i + 1));
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            // Broken lease row can be taken over by anyone
+            LOG.warn("Invalid leader lease '{}': {}", value, e.toString());
+            observedExpiry = 0;
+            observedHolder = Optional.empty();
+        }
+    }
+
+    private static String encode(long expiry, String holder) {
+        return Long.toString(expiry) + SEPARATOR + holder;
+    }
+}
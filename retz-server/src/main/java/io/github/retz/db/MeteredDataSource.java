@@ -0,0 +1,46 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolExhaustedException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Pool of Database which counts every borrow into PoolMetrics, including those by
+// LeaderLease, JobIdAllocator, JobCollector, RowConverter and Replica given the pool
+final class MeteredDataSource extends DataSource {
+    private final PoolMetrics metrics;
+
+    MeteredDataSource(PoolMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection conn = super.getConnection();
+            metrics.borrowed(System.nanoTime() - start);
+            return conn;
+        } catch (PoolExhaustedException e) {
+            metrics.timedOut();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters of connections borrowed by Database from its pool; wait is the time spent in
+// borrowing, which grows as all connections are in use
+public final class PoolMetrics {
+    private final AtomicLong borrowed = new AtomicLong(0);
+    private final AtomicLong timedOut = new AtomicLong(0);
+    private final AtomicLong totalWait = new AtomicLong(0);
+    private final AtomicLong maxWait = new AtomicLong(0);
+
+    PoolMetrics() {
+    }
+
+    void borrowed(long waitNanos) {
+        borrowed.incrementAndGet();
+        totalWait.addAndGet(waitNanos);
+        maxWait.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    void timedOut() {
+        timedOut.incrementAndGet();
+    }
+
+    public long borrowedConnections() {
+        return borrowed.get();
+    }
+
+    public long timedOutRequests() {
+        return timedOut.get();
+    }
+
+    public long totalWaitMsec() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWait.get());
+    }
+
+    public long maxWaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxWait.get());
+    }
+
+    public long meanWaitMicros() {
+        long n = borrowed.get();
+        if (n == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(totalWait.get() / n);
+    }
+}
@@ -16,13 +16,19 @@
  */
 package io.github.retz.db;
 
+import io.github.retz.misc.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 
@@ -30,6 +36,20 @@ import java.util.Properties;
 // Could be different from general DAO definition :P
 public class Property {
     private static final Logger LOG = LoggerFactory.getLogger(Property.class);
+    // Next job id not reserved by any server yet; see JobIdAllocator
+    static final String JOB_ID_COUNTER = "JobIdCounter";
+    // Expiry and holder of the scheduler lease; see LeaderLease
+    static final String LEADER_LEASE = "SchedulerLeader";
+    // Prefix of epoch millis written to primary periodically by each server, to see how far
+    // a replica lags; see Replica
+    static final String REPLICA_HEARTBEAT = "ReplicaHeartbeat";
+    // Queued jobs by owner as counted by the leader, read by the other servers; see AdmissionControl
+    static final String QUEUED_BY_OWNER = "QueuedByOwner";
+    // SQLSTATE for unique constraint violation, common to H2 and PostgreSQL
+    private static final String UNIQUE_VIOLATION = "23505";
+    // SQLSTATEs for concurrent update of a row by H2, and serialization failure by PostgreSQL
+    private static final String CONCURRENT_UPDATE = "90131";
+    private static final String SERIALIZATION_FAILURE = "40001";
 
     private final Connection conn;
 
@@ -47,7 +67,6 @@ public class Property {
 
     private boolean setProperty(String key, String value) throws SQLException {
         try (PreparedStatement p = conn.prepareStatement("INSERT INTO properties(key, value, epoch) VALUES (?, ?, ?)")) {
-            conn.setAutoCommit(false);
             p.setString(1, key);
             p.setString(2, value);
             p.setInt(3, 0);
@@ -61,9 +80,8 @@ public class Property {
 
     private boolean updateProperty(String key, String value) throws SQLException {
         try (PreparedStatement p = conn.prepareStatement("UPDATE properties SET value=?, epoch=epoch+1 WHERE key=?")) {
-            conn.setAutoCommit(false);
-            p.setString(3, key);
             p.setString(1, value);
+            p.setString(2, key);
             p.execute();
             return true;
         }
@@ -81,6 +99,123 @@ public class Property {
         }
     }
 
+    Optional<Pair<String, Integer>> getPropertyWithEpoch(String key) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("SELECT value, epoch FROM properties WHERE key=?")) {
+            p.setString(1, key);
+            try (ResultSet res = p.executeQuery()) {
+                if (res.next()) {
+                    return Optional.of(new Pair<>(res.getString("value"), res.getInt("epoch")));
+                }
+                return Optional.empty();
+            }
+        }
+    }
+
+    // Key of the heartbeat written only by the server
+    static String heartbeatKey(String server) {
+        return REPLICA_HEARTBEAT + "." + server;
+    }
+
+    // Written in autocommit mode by the server that owns the key
+    void setHeartbeat(String key, long now) throws SQLException {
+        if (!updateHeartbeat(key, now)) {
+            insertProperty(key, Long.toString(now));
+        }
+    }
+
+    private boolean updateHeartbeat(String key, long now) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("UPDATE properties SET value=? WHERE key=?")) {
+            p.setString(1, Long.toString(now));
+            p.setString(2, key);
+            return p.executeUpdate() > 0;
+        }
+    }
+
+    Optional<Long> getHeartbeat(String key) throws SQLException {
+        return getProperty(key).map(Long::parseLong);
+    }
+
+    void deleteProperty(String key) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("DELETE FROM properties WHERE key=?")) {
+            p.setString(1, key);
+            p.execute();
+        }
+    }
+
+    // Written by the leader in autocommit mode; the epoch tells readers a new count was written
+    void setQueuedByOwner(Map<String, Integer> counts) throws SQLException {
+        Properties props = new Properties();
+        counts.forEach((owner, count) -> props.setProperty(owner, Integer.toString(count)));
+        StringWriter writer = new StringWriter();
+        try {
+            props.store(writer, null);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        String value = writer.toString();
+        if (!updateQueuedByOwner(value) && !insertProperty(QUEUED_BY_OWNER, value)) {
+            // Inserted by the last leader just now
+            updateQueuedByOwner(value);
+        }
+    }
+
+    private boolean updateQueuedByOwner(String value) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("UPDATE properties SET value=?, epoch=epoch+1 WHERE key=?")) {
+            p.setString(1, value);
+            p.setString(2, QUEUED_BY_OWNER);
+            return p.executeUpdate() > 0;
+        }
+    }
+
+    Optional<Pair<Map<String, Integer>, Integer>> getQueuedByOwner() throws SQLException {
+        Optional<Pair<String, Integer>> value = getPropertyWithEpoch(QUEUED_BY_OWNER);
+        if (!value.isPresent()) {
+            return Optional.empty();
+        }
+        Properties props = new Properties();
+        try {
+            props.load(new StringReader(value.get().left()));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (String owner : props.stringPropertyNames()) {
+            counts.put(owner, Integer.parseInt(props.getProperty(owner)));
+        }
+        return Optional.of(new Pair<>(counts, value.get().right()));
+    }
+
+    // Returns false if the key already exists
+    boolean insertProperty(String key, String value) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("INSERT INTO properties(key, value, epoch) VALUES (?, ?, 0)")) {
+            p.setString(1, key);
+            p.setString(2, value);
+            p.execute();
+            return true;
+        } catch (SQLException e) {
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // Updates the value only if nobody has updated it since it was read at the epoch
+    boolean compareAndSetProperty(String key, String value, int epoch) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("UPDATE properties SET value=?, epoch=? WHERE key=? AND epoch=?")) {
+            p.setString(1, value);
+            p.setInt(2, epoch == Integer.MAX_VALUE ? 0 : epoch + 1);
+            p.setString(3, key);
+            p.setInt(4, epoch);
+            return p.executeUpdate() == 1;
+        } catch (SQLException e) {
+            if (CONCURRENT_UPDATE.equals(e.getSQLState()) || SERIALIZATION_FAILURE.equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
     public Properties getAllProperties() throws SQLException {
         Properties props = new Properties();
         try (PreparedStatement p = conn.prepareStatement("SELECT key, value, epoch FROM properties")) {
@@ -0,0 +1,196 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.github.retz.protocol.converter.Pb2Retz;
+import io.github.retz.protocol.converter.Retz2Pb;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Writes jobs and applications as protobuf messages defined in retz.proto, prefixed with a
+// byte telling whether the message is deflated. Unlike the gRPC conversion, env properties
+// are kept, and absent strings are restored as null since proto3 has no field presence.
+public class ProtobufCodec extends StorageCodec {
+    static final byte PLAIN = 0;
+    static final byte DEFLATED = 1;
+
+    private final int compressThreshold;
+
+    ProtobufCodec(ObjectMapper mapper, int compressThreshold) {
+        super(mapper);
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public Type type() {
+        return Type.PROTOBUF;
+    }
+
+    @Override
+    public void setJob(PreparedStatement p, int jsonIndex, int bodyIndex, Job job) throws SQLException {
+        p.setNull(jsonIndex, Types.VARCHAR);
+        p.setBytes(bodyIndex, encode(job));
+    }
+
+    @Override
+    public void setApplication(PreparedStatement p, int jsonIndex, int bodyIndex, Application app) throws SQLException {
+        p.setNull(jsonIndex, Types.VARCHAR);
+        p.setBytes(bodyIndex, encode(app));
+    }
+
+    public byte[] encode(Job job) {
+        io.github.retz.grpcgen.Job.Builder builder = io.github.retz.grpcgen.Job.newBuilder()
+                .setCmd(job.cmd())
+                .setAppid(job.appid())
+                .addAllTags(job.tags())
+                .setResources(Retz2Pb.convert(job.resources()))
+                .setAttributes(job.attributes().orElse(""))
+                .setScheduled(nullToEmpty(job.scheduled()))
+                .setStarted(nullToEmpty(job.started()))
+                .setFinished(nullToEmpty(job.finished()))
+                .setResult(job.result())
+                .setId(job.id())
+                .setUrl(nullToEmpty(job.url()))
+                .setReason(nullToEmpty(job.reason()))
+                .setRetry(job.retry())
+                .setPriority(job.priority())
+                .setName(nullToEmpty(job.name()))
+                .setTaskId(nullToEmpty(job.taskId()))
+                .setSlaveId(nullToEmpty(job.slaveId()))
+                .setState(Retz2Pb.convert(job.state()));
+        if (job.props() != null) {
+            for (String key : job.props().stringPropertyNames()) {
+                builder.putProperties(key, job.props().getProperty(key));
+            }
+        }
+        return wrap(builder.build().toByteArray());
+    }
+
+    public byte[] encode(Application app) {
+        return wrap(Retz2Pb.convert(app).toByteArray());
+    }
+
+    public static Job decodeJob(byte[] body) throws IOException {
+        io.github.retz.grpcgen.Job gJob;
+        try {
+            gJob = io.github.retz.grpcgen.Job.parseFrom(unwrap(body));
+        } catch (InvalidProtocolBufferException e) {
+            throw new IOException("Broken job in database", e);
+        }
+        return new Job(gJob.getCmd(),
+                emptyToNull(gJob.getScheduled()), emptyToNull(gJob.getStarted()), emptyToNull(gJob.getFinished()),
+                Pb2Retz.convert(gJob.getPropertiesMap()), gJob.getResult(), gJob.getId(),
+                emptyToNull(gJob.getUrl()), emptyToNull(gJob.getReason()), gJob.getRetry(),
+                gJob.getPriority(), gJob.getAppid(), emptyToNull(gJob.getName()),
+                new HashSet<>(gJob.getTagsList()), Pb2Retz.convert(gJob.getResources()),
+                Optional.ofNullable(emptyToNull(gJob.getAttributes())),
+                emptyToNull(gJob.getTaskId()), emptyToNull(gJob.getSlaveId()), Pb2Retz.convert(gJob.getState()));
+    }
+
+    public static Application decodeApplication(byte[] body) throws IOException {
+        io.github.retz.grpcgen.Application gApp;
+        try {
+            gApp = io.github.retz.grpcgen.Application.parseFrom(unwrap(body));
+        } catch (InvalidProtocolBufferException e) {
+            throw new IOException("Broken application in database", e);
+        }
+        return new Application(gApp.getAppid(), new ArrayList<>(gApp.getLargeFilesList()), new ArrayList<>(gApp.getFilesList()),
+                Optional.ofNullable(emptyToNull(gApp.getUser())), gApp.getOwner(), gApp.getGracePeriod(),
+                Pb2Retz.convert(gApp.getContainer()), gApp.getEnabled());
+    }
+
+    private byte[] wrap(byte[] message) {
+        if (compressThreshold > 0 && message.length > compressThreshold) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(message);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(message.length / 2 + 1);
+                out.write(DEFLATED);
+                byte[] buf = new byte[4096];
+                while (!deflater.finished()) {
+                    out.write(buf, 0, deflater.deflate(buf));
+                }
+                // Not worth it for incompressible ones
+                if (out.size() < message.length) {
+                    return out.toByteArray();
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        byte[] body = new byte[message.length + 1];
+        body[0] = PLAIN;
+        System.arraycopy(message, 0, body, 1, message.length);
+        return body;
+    }
+
+    private static byte[] unwrap(byte[] body) throws IOException {
+        if (body.length < 1) {
+            throw new IOException("Empty body in database");
+        }
+        switch (body[0]) {
+            case PLAIN:
+                byte[] message = new byte[body.length - 1];
+                System.arraycopy(body, 1, message, 0, message.length);
+                return message;
+            case DEFLATED:
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(body, 1, body.length - 1);
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+                    byte[] buf = new byte[4096];
+                    while (!inflater.finished()) {
+                        int n = inflater.inflate(buf);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new IOException("Truncated body in database");
+                        }
+                        out.write(buf, 0, n);
+                    }
+                    return out.toByteArray();
+                } catch (DataFormatException e) {
+                    throw new IOException("Broken body in database", e);
+                } finally {
+                    inflater.end();
+                }
+            default:
+                throw new IOException("Unknown body format in database: " + body[0]);
+        }
+    }
+
+    private static String nullToEmpty(String s) {
+        return (s == null) ? "" : s;
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+}
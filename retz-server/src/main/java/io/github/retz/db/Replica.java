@@ -0,0 +1,106 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only replica of the database, for queries of clients and administrators which may be
+ * a bit stale. Staleness is bounded by a heartbeat: each server writes current time to the
+ * primary periodically under a key of its own, and reads back the latest one replicated. As the
+ * replica has all writes to the primary until then, it is used only while that time is within
+ * the bound from now. Heartbeats of other servers are never read, so that their clocks do not
+ * matter.
+ */
+class Replica {
+    private static final Logger LOG = LoggerFactory.getLogger(Replica.class);
+
+    private final DataSource primary;
+    private final DataSource dataSource = new DataSource();
+    private final long maxStalenessMsec;
+    private final String heartbeatKey = Property.heartbeatKey(UUID.randomUUID().toString());
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Time of the latest heartbeat replicated, in epoch millis
+    private volatile long replicated = 0;
+
+    Replica(DataSource primary, PoolProperties props, long maxStalenessMsec) {
+        this.primary = Objects.requireNonNull(primary);
+        if (maxStalenessMsec < 1) {
+            throw new IllegalArgumentException("Staleness bound must be positive");
+        }
+        this.maxStalenessMsec = maxStalenessMsec;
+        props.setDefaultReadOnly(true);
+        props.setValidationQuery("select 1;");
+        dataSource.setPoolProperties(props);
+
+        // Heartbeat several times within the bound so that a healthy replica is always used
+        long interval = Math.max(1, maxStalenessMsec / 4);
+        executor.scheduleWithFixedDelay(this::heartbeat, 0, interval, TimeUnit.MILLISECONDS);
+        LOG.info("Replica {} is used for reads up to {} msec stale", props.getUrl(), maxStalenessMsec);
+    }
+
+    boolean isFresh() {
+        return System.currentTimeMillis() - replicated <= maxStalenessMsec;
+    }
+
+    Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    String heartbeatKey() {
+        return heartbeatKey;
+    }
+
+    void heartbeat() {
+        try (Connection conn = primary.getConnection()) {
+            new Property(conn).setHeartbeat(heartbeatKey, System.currentTimeMillis());
+        } catch (SQLException e) {
+            LOG.warn("Writing heartbeat to primary failed: {}", e.toString());
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            Optional<Long> heartbeat = new Property(conn).getHeartbeat(heartbeatKey);
+            if (heartbeat.isPresent()) {
+                replicated = Math.max(replicated, heartbeat.get());
+            }
+        } catch (SQLException e) {
+            // Replica goes stale, and is not used until it comes back
+            LOG.warn("Reading heartbeat from replica failed: {}", e.toString());
+        }
+    }
+
+    void stop() {
+        executor.shutdownNow();
+        dataSource.close();
+        try (Connection conn = primary.getConnection()) {
+            new Property(conn).deleteProperty(heartbeatKey);
+        } catch (SQLException e) {
+            LOG.warn("Deleting heartbeat from primary failed: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.JdbcInterceptor;
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Rolls back what's left uncommitted as a connection is returned to the pool. The pool's own
+// rollbackOnReturn works only with defaultAutoCommit=false; otherwise ConnectionState turns
+// autocommit back on at next borrow, which commits the leftover instead. A connection that
+// can't be rolled back is discarded, not to be borrowed again.
+public class RollbackOnReturn extends JdbcInterceptor {
+    private static final Logger LOG = LoggerFactory.getLogger(RollbackOnReturn.class);
+
+    private PooledConnection pooled;
+
+    @Override
+    public void reset(ConnectionPool parent, PooledConnection con) {
+        pooled = con;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (compare(CLOSE_VAL, method) && pooled != null) {
+            // Autocommit state of the driver, not cached one in ConnectionState
+            Connection conn = pooled.getConnection();
+            try {
+                if (conn != null && !conn.getAutoCommit()) {
+                    conn.rollback();
+                }
+            } catch (SQLException e) {
+                LOG.warn("Cannot roll back connection returned: discarding", e);
+                pooled.setDiscarded(true);
+            }
+        }
+        return super.invoke(proxy, method, args);
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A scheduling round as a single transaction on one connection. Queued jobs and their
+ * applications are read from one snapshot, and transitions of jobs launched or cancelled in
+ * the round are buffered and written by {@link #commit()} with JDBC batches, so that a round
+ * takes the same number of transactions whatever number of jobs it handles.
+ */
+public class Round implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Round.class);
+
+    private final Database db;
+    private final Connection conn;
+    private final int isolation;
+    private final Map<String, Optional<Application>> applications = new HashMap<>();
+    private final List<Job> starting = new ArrayList<>();
+    private final List<Job> cancelled = new ArrayList<>();
+    private boolean committed = false;
+
+    Round(Database db, Connection conn) throws SQLException {
+        this.db = Objects.requireNonNull(db);
+        this.conn = Objects.requireNonNull(conn);
+        this.isolation = conn.getTransactionIsolation();
+        conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        conn.setAutoCommit(false);
+    }
+
+    public List<Job> findFit(List<String> orderBy, int cpu, int memMB) throws IOException {
+        try {
+            return db.findFit(conn, orderBy, cpu, memMB);
+        } catch (SQLException e) {
+            throw new IOException("Round.findFit() failed", e);
+        }
+    }
+
+    public List<Job> findAll(List<String> orderBy, int limit) throws IOException {
+        try {
+            return db.findAll(conn, orderBy, limit);
+        } catch (SQLException e) {
+            throw new IOException("Round.findAll() failed", e);
+        }
+    }
+
+    public List<Job> queued(int limit) throws IOException {
+        try {
+            return db.queued(conn, limit);
+        } catch (SQLException e) {
+            throw new IOException("Round.queued() failed", e);
+        }
+    }
+
+    // Jobs of an application mostly come in a row, so each application is read once a round
+    public Optional<Application> getApplication(String appid) throws IOException {
+        Optional<Application> app = applications.get(appid);
+        if (app == null) {
+            try {
+                app = db.getApplication(conn, appid);
+            } catch (SQLException e) {
+                throw new IOException("Round.getApplication() failed", e);
+            }
+            applications.put(appid, app);
+        }
+        return app;
+    }
+
+    // Queued job to be launched as the task at the agent
+    public void starting(Job job, String taskId, String slaveId) {
+        job.starting(taskId, slaveId, Optional.empty(), TimestampHelper.now());
+        starting.add(job);
+    }
+
+    // Queued jobs never to be launched
+    public void cancel(List<Job> jobs) {
+        for (Job job : jobs) {
+            if (job.state() != Job.JobState.KILLED) {
+                LOG.warn("Job state isn't yet KILLED: changing here from {}", job);
+                job.killed(TimestampHelper.now(), Optional.empty(), "Changed via Round.cancel check");
+            }
+            cancelled.add(job);
+        }
+    }
+
+    // Writes all transitions of the round. Returns false, having written nothing, if any of the
+    // jobs is no longer queued, e.g. killed by a user during planning; then none of the launches
+    // must be sent.
+    public boolean commit() throws IOException {
+        try {
+            JobEvents events = new JobEvents(conn);
+            if (events.appendAll(cancelled, Job.JobState.QUEUED) && events.appendAll(starting, Job.JobState.QUEUED)) {
+                conn.commit();
+                committed = true;
+                LOG.debug("Round committed: {} starting, {} cancelled", starting.size(), cancelled.size());
+                return true;
+            }
+            conn.rollback();
+            return false;
+        } catch (SQLException e) {
+            throw new IOException(MessageFormat.format("Round.commit({0}, {1}) failed", starting.size(), cancelled.size()), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!committed) {
+                conn.rollback();
+            }
+            // Connection goes back to the pool
+            conn.setAutoCommit(true);
+            conn.setTransactionIsolation(isolation);
+        } catch (SQLException e) {
+            throw new IOException("Round.close() failed", e);
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                LOG.warn("Closing connection failed: {}", e.toString());
+            }
+        }
+    }
+}
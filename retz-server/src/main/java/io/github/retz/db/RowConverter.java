@@ -0,0 +1,159 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.misc.LogUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Rewrites rows read in a format other than the codec writes, in background and in small
+// transactions, so that an existing database is converted as it is used instead of in a
+// long migration. Each row is locked and decoded again, so that an update made after the
+// read is never overwritten.
+class RowConverter {
+    private static final Logger LOG = LoggerFactory.getLogger(RowConverter.class);
+    static final int BATCH_SIZE = 100;
+    // Rows beyond this are left to later reads, to bound memory while listing many jobs
+    static final int MAX_PENDING = 10000;
+
+    private final DataSource dataSource;
+    private final StorageCodec codec;
+    private final Set<Long> jobs = ConcurrentHashMap.newKeySet();
+    private final Set<String> applications = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private long converted = 0;
+
+    RowConverter(DataSource dataSource, StorageCodec codec) {
+        this.dataSource = Objects.requireNonNull(dataSource);
+        this.codec = Objects.requireNonNull(codec);
+    }
+
+    void job(long id) {
+        if (jobs.size() < MAX_PENDING && jobs.add(id)) {
+            schedule();
+        }
+    }
+
+    void application(String appid) {
+        if (applications.add(appid)) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (!executor.isShutdown() && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::run);
+        }
+    }
+
+    private void run() {
+        scheduled.set(false);
+        try {
+            for (String appid : new ArrayList<>(applications)) {
+                convertApplication(appid);
+                applications.remove(appid);
+            }
+            List<Long> batch = new ArrayList<>(BATCH_SIZE);
+            for (Long id : jobs) {
+                batch.add(id);
+                if (batch.size() == BATCH_SIZE) {
+                    convertJobs(batch);
+                    batch.clear();
+                }
+            }
+            convertJobs(batch);
+        } catch (SQLException | IOException e) {
+            // Those rows are offered again when they are read next time
+            LogUtil.warn(LOG, "Converting rows failed", e);
+            jobs.clear();
+            applications.clear();
+        }
+    }
+
+    private void convertJobs(List<Long> ids) throws SQLException, IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement select = conn.prepareStatement("SELECT json, body FROM jobs WHERE id=? FOR UPDATE");
+             PreparedStatement update = conn.prepareStatement("UPDATE jobs SET json=?, body=? WHERE id=?")) {
+            conn.setAutoCommit(false);
+            for (long id : ids) {
+                select.setLong(1, id);
+                try (ResultSet res = select.executeQuery()) {
+                    // Deleted, or already converted by a write
+                    if (!res.next() || !codec.isStale(res.getBytes(2))) {
+                        continue;
+                    }
+                    codec.setJob(update, 1, 2, codec.getJob(res, 1, 2));
+                }
+                update.setLong(3, id);
+                update.executeUpdate();
+                converted++;
+            }
+            conn.commit();
+        }
+        jobs.removeAll(ids);
+        LOG.debug("{} job rows converted to {}", converted, codec.type());
+    }
+
+    private void convertApplication(String appid) throws SQLException, IOException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement select = conn.prepareStatement("SELECT json, body FROM applications WHERE appid=? FOR UPDATE");
+             PreparedStatement update = conn.prepareStatement("UPDATE applications SET json=?, body=? WHERE appid=?")) {
+            conn.setAutoCommit(false);
+            select.setString(1, appid);
+            try (ResultSet res = select.executeQuery()) {
+                if (!res.next() || !codec.isStale(res.getBytes(2))) {
+                    return;
+                }
+                codec.setApplication(update, 1, 2, codec.getApplication(res, 1, 2));
+            }
+            update.setString(3, appid);
+            update.executeUpdate();
+            conn.commit();
+        }
+    }
+
+    void stop() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Row conversion did not finish in time: {} jobs left", jobs.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
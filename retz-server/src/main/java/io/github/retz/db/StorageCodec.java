@@ -0,0 +1,126 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Encoding of jobs and applications in their rows. JSON goes to 'json' column as text, and
+ * protobuf to 'body' column as bytes, leaving the other column NULL. Rows are decoded by
+ * whichever column is set, so the codec can be switched at any time; rows read in a format
+ * other than the one written are passed to {@link RowConverter} to be rewritten lazily.
+ */
+public abstract class StorageCodec {
+    public enum Type {
+        JSON,
+        PROTOBUF;
+
+        public static Type getType(String s) {
+            switch (s.toLowerCase()) {
+                case "json": return JSON;
+                case "protobuf": return PROTOBUF;
+                default: return null;
+            }
+        }
+    }
+
+    protected final ObjectMapper mapper;
+    private Optional<RowConverter> converter = Optional.empty();
+
+    protected StorageCodec(ObjectMapper mapper) {
+        this.mapper = Objects.requireNonNull(mapper);
+    }
+
+    // @param compressThreshold protobuf larger than this in bytes is deflated; 0 for never
+    public static StorageCodec create(Type type, ObjectMapper mapper, int compressThreshold) {
+        switch (type) {
+            case JSON:
+                return new JsonCodec(mapper);
+            case PROTOBUF:
+                return new ProtobufCodec(mapper, compressThreshold);
+            default:
+                throw new AssertionError("Cannot reach here: " + type);
+        }
+    }
+
+    public abstract Type type();
+
+    // Sets 'json' and 'body' columns of a row
+    public abstract void setJob(PreparedStatement p, int jsonIndex, int bodyIndex, Job job) throws SQLException, IOException;
+
+    public abstract void setApplication(PreparedStatement p, int jsonIndex, int bodyIndex, Application app) throws SQLException, IOException;
+
+    public Job getJob(ResultSet res, int jsonIndex, int bodyIndex) throws SQLException, IOException {
+        byte[] body = res.getBytes(bodyIndex);
+        Job job = (body != null) ? ProtobufCodec.decodeJob(body) : mapper.readValue(res.getString(jsonIndex), Job.class);
+        if (converter.isPresent() && isStale(body)) {
+            converter.get().job(job.id());
+        }
+        return job;
+    }
+
+    public Application getApplication(ResultSet res, int jsonIndex, int bodyIndex) throws SQLException, IOException {
+        byte[] body = res.getBytes(bodyIndex);
+        Application app = (body != null) ? ProtobufCodec.decodeApplication(body) : mapper.readValue(res.getString(jsonIndex), Application.class);
+        if (converter.isPresent() && isStale(body)) {
+            converter.get().application(app.getAppid());
+        }
+        return app;
+    }
+
+    // Whether a row with this body is in other format than this codec writes
+    boolean isStale(byte[] body) {
+        return (body != null) != (type() == Type.PROTOBUF);
+    }
+
+    void setConverter(Optional<RowConverter> converter) {
+        this.converter = converter;
+    }
+
+    private static class JsonCodec extends StorageCodec {
+        JsonCodec(ObjectMapper mapper) {
+            super(mapper);
+        }
+
+        @Override
+        public Type type() {
+            return Type.JSON;
+        }
+
+        @Override
+        public void setJob(PreparedStatement p, int jsonIndex, int bodyIndex, Job job) throws SQLException, IOException {
+            p.setString(jsonIndex, mapper.writeValueAsString(job));
+            p.setNull(bodyIndex, Types.BINARY);
+        }
+
+        @Override
+        public void setApplication(PreparedStatement p, int jsonIndex, int bodyIndex, Application app) throws SQLException, IOException {
+            p.setString(jsonIndex, mapper.writeValueAsString(app));
+            p.setNull(bodyIndex, Types.BINARY);
+        }
+    }
+}
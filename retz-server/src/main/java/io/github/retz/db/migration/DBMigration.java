@@ -29,6 +29,8 @@ public class DBMigration {
     public DBMigration(DataSource dataSource) {
         flyway.setDataSource(dataSource);
         flyway.setBaselineOnMigrate(true);
+        // SQL migrations, and Java migrations in this package
+        flyway.setLocations("classpath:db/migration", "classpath:io/github/retz/db/migration");
     }
 
     public void migrate() throws SQLException, IOException {
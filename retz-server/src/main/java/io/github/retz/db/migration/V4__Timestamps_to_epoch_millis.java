@@ -0,0 +1,80 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db.migration;
+
+import io.github.retz.cli.TimestampHelper;
+import org.flywaydb.core.api.migration.jdbc.JdbcMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.text.ParseException;
+
+// Replaces VARCHAR started/finished columns with BIGINT epoch milliseconds, so that
+// range queries compare numbers instead of strings in whatever timezone they were written.
+// This is in Java because parsing ISO8601 with offsets differs among databases.
+public class V4__Timestamps_to_epoch_millis implements JdbcMigration {
+    private static final Logger LOG = LoggerFactory.getLogger(V4__Timestamps_to_epoch_millis.class);
+    private static final int BATCH_SIZE = 1000;
+
+    @Override
+    public void migrate(Connection conn) throws Exception {
+        try (Statement s = conn.createStatement()) {
+            s.execute("ALTER TABLE jobs ADD COLUMN started_at BIGINT");
+            s.execute("ALTER TABLE jobs ADD COLUMN finished_at BIGINT");
+        }
+
+        int count = 0;
+        try (Statement s = conn.createStatement();
+             ResultSet res = s.executeQuery("SELECT id, started, finished FROM jobs WHERE started IS NOT NULL OR finished IS NOT NULL");
+             PreparedStatement p = conn.prepareStatement("UPDATE jobs SET started_at=?, finished_at=? WHERE id=?")) {
+            while (res.next()) {
+                long id = res.getLong("id");
+                setEpochMillis(p, 1, id, res.getString("started"));
+                setEpochMillis(p, 2, id, res.getString("finished"));
+                p.setLong(3, id);
+                p.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    p.executeBatch();
+                }
+            }
+            p.executeBatch();
+        }
+        LOG.info("Converted timestamps of {} jobs to epoch milliseconds", count);
+
+        try (Statement s = conn.createStatement()) {
+            s.execute("DROP INDEX started");
+            s.execute("DROP INDEX finished");
+            s.execute("ALTER TABLE jobs DROP COLUMN started");
+            s.execute("ALTER TABLE jobs DROP COLUMN finished");
+            s.execute("CREATE INDEX jobs_started_at ON jobs(started_at)");
+            s.execute("CREATE INDEX jobs_finished_at ON jobs(finished_at)");
+        }
+    }
+
+    private static void setEpochMillis(PreparedStatement p, int index, long id, String timestamp) throws SQLException {
+        if (timestamp != null) {
+            try {
+                p.setLong(index, TimestampHelper.toEpochMillis(timestamp));
+                return;
+            } catch (ParseException e) {
+                LOG.warn("Cannot parse timestamp '{}' of job {}: left empty", timestamp, id);
+            }
+        }
+        p.setNull(index, Types.BIGINT);
+    }
+}
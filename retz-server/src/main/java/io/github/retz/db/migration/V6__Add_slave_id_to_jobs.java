@@ -0,0 +1,65 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db.migration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.flywaydb.core.api.migration.jdbc.JdbcMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+
+// Adds slave_id column so that tasks running at a lost agent can be found without parsing
+// JSON of all running jobs. Only running jobs are backfilled, as the column is not used
+// for finished ones; this is in Java because JSON functions differ among databases.
+public class V6__Add_slave_id_to_jobs implements JdbcMigration {
+    private static final Logger LOG = LoggerFactory.getLogger(V6__Add_slave_id_to_jobs.class);
+    private static final int BATCH_SIZE = 1000;
+
+    @Override
+    public void migrate(Connection conn) throws Exception {
+        try (Statement s = conn.createStatement()) {
+            s.execute("ALTER TABLE jobs ADD COLUMN slave_id VARCHAR(128)");
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        int count = 0;
+        try (Statement s = conn.createStatement();
+             ResultSet res = s.executeQuery("SELECT id, json FROM jobs WHERE state='STARTING' OR state='STARTED'");
+             PreparedStatement p = conn.prepareStatement("UPDATE jobs SET slave_id=? WHERE id=?")) {
+            while (res.next()) {
+                JsonNode slaveId = mapper.readTree(res.getString("json")).get("slaveId");
+                if (slaveId == null || slaveId.isNull()) {
+                    continue;
+                }
+                p.setString(1, slaveId.asText());
+                p.setLong(2, res.getLong("id"));
+                p.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    p.executeBatch();
+                }
+            }
+            p.executeBatch();
+        }
+        LOG.info("Set slave_id of {} running jobs", count);
+
+        try (Statement s = conn.createStatement()) {
+            s.execute("CREATE INDEX jobs_slave_id_state ON jobs(slave_id, state)");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db.migration;
+
+import org.flywaydb.core.api.migration.jdbc.JdbcMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+// Adds binary 'body' column for jobs and applications written by protobuf codec, which
+// leaves 'json' column NULL; see StorageCodec. Existing rows are not converted here, but
+// as they are read. This is in Java because dropping NOT NULL differs among databases.
+public class V8__Add_binary_body implements JdbcMigration {
+    private static final Logger LOG = LoggerFactory.getLogger(V8__Add_binary_body.class);
+
+    @Override
+    public void migrate(Connection conn) throws Exception {
+        boolean isH2 = "H2".equals(conn.getMetaData().getDatabaseProductName());
+        try (Statement s = conn.createStatement()) {
+            for (String table : new String[]{"jobs", "applications"}) {
+                s.execute("ALTER TABLE " + table + " ADD COLUMN body BYTEA");
+                if (isH2) {
+                    s.execute("ALTER TABLE " + table + " ALTER COLUMN json SET NULL");
+                } else {
+                    s.execute("ALTER TABLE " + table + " ALTER COLUMN json DROP NOT NULL");
+                }
+            }
+        }
+        LOG.info("Added body column to jobs and applications");
+    }
+}
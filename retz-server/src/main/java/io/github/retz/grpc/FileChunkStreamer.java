@@ -0,0 +1,121 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.grpc;
+
+import com.google.protobuf.ByteString;
+import io.github.retz.grpcgen.GetFileResponse;
+import io.github.retz.mesosc.BufferPool;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+// Streams a sandbox file as GetFileResponse chunks, only while the client can take them.
+// Driven by onReady callbacks so that slow clients never make us buffer the whole file.
+class FileChunkStreamer implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(FileChunkStreamer.class);
+
+    private final ServerCallStreamObserver<GetFileResponse> observer;
+    private final Closeable connection;
+    private final ReadableByteChannel src;
+    private final String file;
+    private long offset;
+    private long remaining;
+    private ByteBuffer buffer;
+    private boolean done = false;
+
+    FileChunkStreamer(ServerCallStreamObserver<GetFileResponse> observer, Closeable connection,
+                      InputStream in, String file, long offset, long length) throws IOException {
+        this.observer = observer;
+        this.connection = connection;
+        this.src = Channels.newChannel(in);
+        this.file = file;
+        this.offset = offset;
+        this.remaining = length;
+        this.buffer = BufferPool.getInstance().acquire();
+    }
+
+    void start() {
+        observer.setOnCancelHandler(this::cancel);
+        observer.setOnReadyHandler(this);
+        // Kick in case the stream is already ready; onReady only fires on transitions
+        run();
+    }
+
+    @Override
+    public synchronized void run() {
+        try {
+            while (!done && observer.isReady()) {
+                if (remaining == 0) {
+                    finish();
+                    observer.onCompleted();
+                    return;
+                }
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                // Fill up the buffer to make chunks as large as possible
+                while (buffer.hasRemaining()) {
+                    if (src.read(buffer) < 0) {
+                        throw new EOFException("Unexpected EOF at offset " + offset + " of " + file);
+                    }
+                }
+                buffer.flip();
+                int size = buffer.remaining();
+                observer.onNext(GetFileResponse.newBuilder()
+                        .setOffset(offset)
+                        .setContent(ByteString.copyFrom(buffer))
+                        .build());
+                offset += size;
+                remaining -= size;
+            }
+        } catch (IOException e) {
+            LOG.error("Streaming {} failed at offset {}: {}", file, offset, e.toString());
+            finish();
+            observer.onError(Status.INTERNAL.withDescription(e.toString()).asRuntimeException());
+        }
+    }
+
+    private synchronized void cancel() {
+        if (!done) {
+            LOG.debug("Streaming {} cancelled by client at offset {}", file, offset);
+            finish();
+        }
+    }
+
+    private void finish() {
+        done = true;
+        if (buffer != null) {
+            BufferPool.getInstance().release(buffer);
+            buffer = null;
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOG.debug("Closing connection for {}: {}", file, e.toString());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.grpc;
+
+import com.google.protobuf.ByteString;
+import io.github.retz.grpcgen.TailFileResponse;
+import io.github.retz.mesosc.FileTailer;
+import io.github.retz.protocol.converter.Retz2Pb;
+import io.github.retz.protocol.data.Job;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Follows a sandbox file as TailFileResponse chunks for the whole life of a job. Polls run on a
+// shared scheduler instead of holding a call thread, and read from the agent only while the
+// client can take more; a paused stream is resumed by onReady as FileChunkStreamer is.
+class FileTailStreamer implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(FileTailStreamer.class);
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(2, r -> {
+        Thread t = new Thread(r, "retz-tail");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ServerCallStreamObserver<TailFileResponse> observer;
+    private final FileTailer tailer;
+    private final long id;
+    private final String file;
+    private boolean done = false;
+    private boolean paused = false;
+
+    FileTailStreamer(ServerCallStreamObserver<TailFileResponse> observer, FileTailer tailer, long id, String file) {
+        this.observer = observer;
+        this.tailer = tailer;
+        this.id = id;
+        this.file = file;
+    }
+
+    void start() {
+        observer.setOnCancelHandler(this::cancel);
+        observer.setOnReadyHandler(this::resume);
+        SCHEDULER.execute(this);
+    }
+
+    @Override
+    public synchronized void run() {
+        if (done) {
+            return;
+        }
+        try {
+            long delay = tailer.poll(new FileTailer.Sink() {
+                @Override
+                public boolean write(long offset, byte[] data) {
+                    if (observer.isCancelled()) {
+                        return false;
+                    }
+                    observer.onNext(TailFileResponse.newBuilder()
+                            .setOffset(offset)
+                            .setContent(ByteString.copyFrom(data))
+                            .build());
+                    return true;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return observer.isReady();
+                }
+            });
+            if (delay == FileTailer.DONE) {
+                complete();
+            } else if (delay == FileTailer.PAUSED) {
+                paused = true;
+            } else {
+                SCHEDULER.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Tailing {} of job (id={}) failed at {}: {}", file, id, tailer.offset(), e.toString());
+            done = true;
+            observer.onError(Status.INTERNAL.withDescription(e.toString()).asRuntimeException());
+        }
+    }
+
+    private synchronized void resume() {
+        if (!done && paused) {
+            paused = false;
+            SCHEDULER.execute(this);
+        }
+    }
+
+    private synchronized void cancel() {
+        if (!done) {
+            LOG.debug("Tailing {} of job (id={}) cancelled at {}", file, id, tailer.offset());
+            done = true;
+        }
+    }
+
+    private void complete() {
+        done = true;
+        if (observer.isCancelled()) {
+            LOG.debug("Tailing {} of job (id={}) cancelled at {}", file, id, tailer.offset());
+            return;
+        }
+        Optional<Job> last = tailer.job();
+        TailFileResponse.Builder builder = TailFileResponse.newBuilder().setOffset(tailer.offset());
+        if (last.isPresent()) {
+            builder.setJob(Retz2Pb.convert(last.get()));
+        } else {
+            builder.setError("Job disappeared");
+        }
+        observer.onNext(builder.build());
+        observer.onCompleted();
+    }
+}
@@ -19,17 +19,19 @@ package io.github.retz.grpc;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
-import com.google.protobuf.ByteString;
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
 import io.github.retz.grpcgen.*;
+import io.github.retz.mesosc.BufferPool;
+import io.github.retz.mesosc.FileTailer;
 import io.github.retz.mesosc.MesosHTTPFetcher;
 import io.github.retz.misc.Pair;
-import io.github.retz.misc.Triad;
 import io.github.retz.planner.AppJobPair;
 import io.github.retz.protocol.converter.Pb2Retz;
 import io.github.retz.protocol.converter.Retz2Pb;
+import io.github.retz.protocol.exception.AdmissionDeniedException;
 import io.github.retz.protocol.exception.DownloadFileSizeExceeded;
+import io.github.retz.scheduler.AdmissionControl;
 import io.github.retz.scheduler.Applications;
 import io.github.retz.scheduler.JobQueue;
 import io.github.retz.scheduler.ServerConfiguration;
@@ -37,12 +39,13 @@ import io.github.retz.scheduler.Stanchion;
 import io.grpc.Context;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import org.apache.commons.io.IOUtils;
+import org.apache.mesos.SchedulerDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -57,6 +60,8 @@ import static java.lang.Integer.MAX_VALUE;
 public class RetzServer {
     private static final Logger LOG = LoggerFactory.getLogger(RetzServer.class);
 
+    private static Optional<SchedulerDriver> driver = Optional.empty();
+
     private int port;
     private Server server;
     private ServerConfiguration config;
@@ -68,6 +73,10 @@ public class RetzServer {
         this.port = config.getGrpcURI().getPort();
     }
 
+    public static void setDriver(SchedulerDriver d) {
+        driver = Optional.ofNullable(d);
+    }
+
     public void start() throws IOException {
         server = ServerBuilder.forPort(port)
                 // TODO: AuthInterceptor pluggable against authenticagtor
@@ -298,6 +307,14 @@ public class RetzServer {
                     return;
                 }
 
+                try {
+                    AdmissionControl.getInstance().admit(user, 1);
+                } catch (AdmissionDeniedException e) {
+                    LOG.info("A job at {} denied: {}", job.appid(), e.getMessage());
+                    responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription(e.getMessage()).asRuntimeException());
+                    return;
+                }
+
                 job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
                 JobQueue.push(job);
 
@@ -320,8 +337,119 @@ public class RetzServer {
             responseObserver.onCompleted();
         }
 
+        @Override
+        public void scheduleBatch(ScheduleBatchRequest request, StreamObserver<ScheduleBatchResponse> responseObserver) {
+            String user = Objects.requireNonNull(USER_ID_KEY.get(Context.current()));
+            ScheduleBatchResponse.Builder builder = ScheduleBatchResponse.newBuilder();
+            try {
+                int size = request.getJobsCount();
+                if (size < 1 || size > io.github.retz.protocol.ScheduleBatchRequest.MAX_JOBS) {
+                    builder.setError("Number of jobs must be in [1, " + io.github.retz.protocol.ScheduleBatchRequest.MAX_JOBS + "]");
+                    responseObserver.onNext(builder.build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+                String appid = request.getJobs(0).getAppid();
+                if (!request.getJobsList().stream().allMatch(job -> appid.equals(job.getAppid()))) {
+                    builder.setError("All jobs in a batch must be of the same application");
+                    responseObserver.onNext(builder.build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+
+                // Validate the application only once for all jobs
+                Optional<io.github.retz.protocol.data.Application> maybeApp = Applications.get(appid);
+                if (!maybeApp.isPresent()) {
+                    LOG.warn("No such application loaded: {}", appid);
+                    builder.setError("No such application");
+                    responseObserver.onNext(builder.build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+
+                if (! maybeApp.get().getOwner().equals(user)) {
+                    builder.setError("Not an owner of the application");
+                    responseObserver.onNext(builder.build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+
+                if (! maybeApp.get().enabled()) {
+                    builder.setError("The application is disabled");
+                    responseObserver.onNext(builder.build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+
+                List<io.github.retz.protocol.data.Job> jobs = request.getJobsList().stream()
+                        .map(Pb2Retz::convert).collect(Collectors.toList());
+                for (io.github.retz.protocol.data.Job job : jobs) {
+                    if (! config.getMaxJobSize().fits(job)) {
+                        builder.setError("Job " + job.toString() + " does not fit system limit " + config.getMaxJobSize());
+                        responseObserver.onNext(builder.build());
+                        responseObserver.onCompleted();
+                        return;
+                    }
+                }
+
+                try {
+                    AdmissionControl.getInstance().admit(user, jobs.size());
+                } catch (AdmissionDeniedException e) {
+                    LOG.info("{} jobs at {} denied: {}", jobs.size(), appid, e.getMessage());
+                    responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription(e.getMessage()).asRuntimeException());
+                    return;
+                }
+
+                long id = JobQueue.issueJobIds(jobs.size());
+                String now = TimestampHelper.now();
+                for (io.github.retz.protocol.data.Job job : jobs) {
+                    job.schedule(id++, now);
+                }
+                JobQueue.pushAll(appid, jobs);
+
+                jobs.forEach(job -> builder.addJobs(Retz2Pb.convert(job)));
+                responseObserver.onNext(builder.build());
+                LOG.info("{} jobs (id={}..{}) at {} have been scheduled at {}.",
+                        jobs.size(), jobs.get(0).id(), jobs.get(jobs.size() - 1).id(), appid, now);
+
+            } catch (IOException e) {
+                responseObserver.onError(e);
+                return;
+            }
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void killMatching(KillMatchingRequest request, StreamObserver<KillMatchingResponse> responseObserver) {
+            String user = Objects.requireNonNull(USER_ID_KEY.get(Context.current()));
+            Optional<String> maybeTag = ("".equals(request.getTag())) ? Optional.empty() : Optional.of(request.getTag());
+            List<io.github.retz.protocol.data.Job.JobState> states = request.getStatesList().stream()
+                    .map(Pb2Retz::convert).collect(Collectors.toList());
+            try {
+                // Chunk by chunk, reporting progress of each
+                long after = -1;
+                boolean more = true;
+                while (more) {
+                    io.github.retz.protocol.KillMatchingResponse res = JobQueue.killMatching(user,
+                            new io.github.retz.protocol.KillMatchingRequest(maybeTag, states, after),
+                            driver, "Canceled by user");
+                    responseObserver.onNext(KillMatchingResponse.newBuilder()
+                            .setKilled(res.killed())
+                            .setSignaled(res.signaled())
+                            .setScanned(res.scanned())
+                            .build());
+                    after = res.next();
+                    more = res.more();
+                }
+            } catch (IOException e) {
+                LOG.error("killMatching failed", e);
+                responseObserver.onNext(KillMatchingResponse.newBuilder().setError(e.toString()).build());
+            }
+            responseObserver.onCompleted();
+        }
+
         private static Optional<Pair<io.github.retz.protocol.data.Application,
-                io.github.retz.protocol.data.Job>> getJobAndVerify(int id, String user) throws IOException {
+                io.github.retz.protocol.data.Job>> getJobAndVerify(long id, String user) throws IOException {
 
             Optional<AppJobPair> maybePair = Database.getInstance().getAppJob(id);
             if (maybePair.isPresent()) {
@@ -336,7 +464,7 @@ public class RetzServer {
         @Override
         public void getJob(GetJobRequest request, StreamObserver<GetJobResponse> responseObserver) {
             String user = Objects.requireNonNull(USER_ID_KEY.get(Context.current()));
-            int id = request.getId();
+            long id = request.getId();
             try {
                 Optional<Pair<io.github.retz.protocol.data.Application, io.github.retz.protocol.data.Job>> maybePair = getJobAndVerify(id, user);
                 GetJobResponse.Builder builder = GetJobResponse.newBuilder();
@@ -358,7 +486,7 @@ public class RetzServer {
         @Override
         public void kill(KillRequest request, StreamObserver<KillResponse> responseObserver) {
             String user = Objects.requireNonNull(USER_ID_KEY.get(Context.current()));
-            int id = request.getId();
+            long id = request.getId();
             try {
                 Optional<Pair<io.github.retz.protocol.data.Application, io.github.retz.protocol.data.Job>> maybePair = getJobAndVerify(id, user);
                 KillResponse.Builder builder = KillResponse.newBuilder();
@@ -369,27 +497,7 @@ public class RetzServer {
                     return;
                 }
 
-                boolean result = Stanchion.call(() -> {
-                    Optional<io.github.retz.protocol.data.Job> maybeJob2 = JobQueue.cancel(id, "Canceled by user");
-
-                        if (maybeJob2.isPresent()) {
-                            io.github.retz.protocol.data.Job job = maybeJob2.get();
-                            // There's a slight pitfall between cancel above and kill below where
-                            // no kill may be sent, RetzScheduler is exactly in resourceOffers and being scheduled.
-                            // Then this protocol returns false for sure.
-                            // TODO: make this work
-                            /**
-                            if (job.taskId() != null && !job.taskId().isEmpty() && driver.isPresent()) {
-                                org.apache.mesos.Protos.TaskID taskId = org.apache.mesos.Protos.TaskID.newBuilder().setValue(job.taskId()).build();
-                                Protos.Status status = driver.get().killTask(taskId);
-                                LOG.info("Job id={} was running and killed. status={}, taskId={}", job.id(), status, job.taskId());
-                            }
-                             */
-                            return job.state() == io.github.retz.protocol.data.Job.JobState.KILLED;
-                        }
-                        // Job is already finished or killed, no more running nor runnable, or something is wrong
-                        return false;
-                    });
+                boolean result = Stanchion.call(() -> JobQueue.kill(id, driver, "Canceled by user"));
 
                 if (!result) {
                     builder.setError("Can't kill job or the job is already killed");
@@ -405,13 +513,14 @@ public class RetzServer {
         @Override
         public void getFile(GetFileRequest request, StreamObserver<GetFileResponse> responseObserver) {
             String user = Objects.requireNonNull(USER_ID_KEY.get(Context.current()));
-            int id = request.getId();
+            long id = request.getId();
             String file = request.getFile();
-            LOG.debug("download: path={}", file);
+            LOG.debug("download: path={}, offset={}, length={}", file, request.getOffset(), request.getLength());
 
-            if (request.getOffset() != 0 || request.getLength() != -1) {
-                LOG.error("Not yet implemented: offset must be 0 and length must be -1");
-                responseObserver.onError(new RuntimeException("not implemented"));
+            if (request.getOffset() < 0) {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("offset must not be negative").asRuntimeException());
+                return;
             }
 
             try {
@@ -439,35 +548,39 @@ public class RetzServer {
                     return;
                 }
 
-                // Go download
-                MesosHTTPFetcher.downloadHTTPFile(job.url(), file, (Triad<Integer, String, Pair<Long, InputStream>> triad) -> {
-                    Integer statusCode = triad.left();
-
-                    if (statusCode == 200) {
-                        Long length = triad.right().left();
-                        InputStream io = triad.right().right();
-                        Long maxFileSize = config.getMaxFileSize();
-                        if (length < 0) {
-                            throw new IOException("content length is negative: " + length);
-                        } else if (0 <= maxFileSize && maxFileSize < length) { // negative maxFileSize indicates no limit
-                            throw new DownloadFileSizeExceeded(length, maxFileSize);
-                        }
-
-                        // TODO: this is not a clean stereaming; make gRPC-friendly OutputStream
-                        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-                        IOUtils.copyLarge(io, buf, 0, length);
-                        builder.setContent(ByteString.copyFrom(buf.toByteArray()))
-                                .setOffset(0)
-                                .build();
-
-                    } else {
-                        builder.setError(triad.center());
+                // Go download; the connection is handed over to the streamer which closes it
+                MesosHTTPFetcher.UrlConnector conn = MesosHTTPFetcher.openHTTPFile(job.url(), file);
+                try {
+                    int statusCode = conn.getResponseCode();
+                    if (statusCode != 200) {
+                        builder.setError(conn.getResponseMessage());
+                        responseObserver.onNext(builder.build());
+                        responseObserver.onCompleted();
+                        conn.close();
+                        return;
+                    }
+                    long length = conn.getContentLength();
+                    long maxFileSize = config.getMaxFileSize();
+                    if (length < 0) {
+                        throw new IOException("content length is negative: " + length);
+                    } else if (0 <= maxFileSize && maxFileSize < length) { // negative maxFileSize indicates no limit
+                        throw new DownloadFileSizeExceeded(length, maxFileSize);
                     }
-                });
 
-                responseObserver.onNext(builder.build());
-                responseObserver.onCompleted();
-                return;
+                    long offset = Math.min(request.getOffset(), length);
+                    long toSend = length - offset;
+                    if (0 <= request.getLength() && request.getLength() < toSend) {
+                        toSend = request.getLength();
+                    }
+                    InputStream in = conn.getInputStream();
+                    // Mesos agents don't honor Range at files/download; skip on our side
+                    BufferPool.getInstance().skip(in, offset);
+                    new FileChunkStreamer((ServerCallStreamObserver<GetFileResponse>) responseObserver,
+                            conn, in, file, offset, toSend).start();
+                } catch (Exception e) {
+                    conn.close();
+                    throw e;
+                }
 
             } catch (Exception e) {
                 responseObserver.onError(e);
@@ -475,10 +588,34 @@ public class RetzServer {
 
         }
 
+        @Override
+        public void tailFile(TailFileRequest request, StreamObserver<TailFileResponse> responseObserver) {
+            String user = Objects.requireNonNull(USER_ID_KEY.get(Context.current()));
+            long id = request.getId();
+            String file = request.getFile();
+            LOG.debug("tail: id={}, path={}, offset={}", id, file, request.getOffset());
+
+            try {
+                Optional<Pair<io.github.retz.protocol.data.Application, io.github.retz.protocol.data.Job>> maybePair = getJobAndVerify(id, user);
+                if (!maybePair.isPresent()) {
+                    responseObserver.onNext(TailFileResponse.newBuilder().setError("No job found").build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+
+                ServerCallStreamObserver<TailFileResponse> observer = (ServerCallStreamObserver<TailFileResponse>) responseObserver;
+                FileTailer tailer = new FileTailer(() -> Database.getInstance().getJob(id), file, request.getOffset());
+                // Polls are scheduled off the call thread and pause while the client is not ready
+                new FileTailStreamer(observer, tailer, id, file).start();
+            } catch (IOException e) {
+                responseObserver.onError(e);
+            }
+        }
+
         @Override
         public void listFiles(ListFilesRequest request, StreamObserver<ListFilesResponse> responseObserver) {
             String user = Objects.requireNonNull(USER_ID_KEY.get(Context.current()));
-            int id = request.getId();
+            long id = request.getId();
             String path = request.getPath();
             LOG.debug("get-path: path={}", path);
 
@@ -91,7 +91,8 @@ public class AdminConsole implements AdminConsoleMXBean {
         try {
             // TODO: do we do mutex to avoid concurrent execution even though it has transaction?
             LOG.info("Job GC invocation from JMX: leeway={}s", leeway);
-            Database.getInstance().deleteOldJobs(leeway);
+            long deleted = Database.getInstance().deleteOldJobs(leeway);
+            LOG.info("Job GC deleted {} jobs", deleted);
             return true;
         } catch (Throwable t) {
             LogUtil.info(LOG, "AdminConsole.gc() failed", t);
@@ -99,6 +100,11 @@ public class AdminConsole implements AdminConsoleMXBean {
         }
     }
 
+    @Override
+    public String getGcStatus() {
+        return maybeEncodeAsJSON(Database.getInstance().getGcStatus());
+    }
+
     private String maybeEncodeAsJSON(Object o) {
         try {
             return mapper.writeValueAsString(o);
@@ -0,0 +1,77 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.jmx;
+
+import io.github.retz.bean.DatabasePoolMXBean;
+import io.github.retz.db.Database;
+import io.github.retz.db.PoolMetrics;
+
+public class DatabasePoolAdapter implements DatabasePoolMXBean {
+    @Override
+    public int getActiveConnections() {
+        return Database.getDataSource().getNumActive();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return Database.getDataSource().getNumIdle();
+    }
+
+    @Override
+    public int getMaxActiveConnections() {
+        return Database.getDataSource().getMaxActive();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return Database.getDataSource().getWaitCount();
+    }
+
+    @Override
+    public long getBorrowedConnections() {
+        return getMetrics().borrowedConnections();
+    }
+
+    @Override
+    public long getTimedOutRequests() {
+        return getMetrics().timedOutRequests();
+    }
+
+    @Override
+    public long getTotalWaitMsec() {
+        return getMetrics().totalWaitMsec();
+    }
+
+    @Override
+    public long getMaxWaitMicros() {
+        return getMetrics().maxWaitMicros();
+    }
+
+    @Override
+    public long getMeanWaitMicros() {
+        return getMetrics().meanWaitMicros();
+    }
+
+    @Override
+    public int getStatementCacheSize() {
+        return Database.getInstance().getStatementCacheSize();
+    }
+
+    private PoolMetrics getMetrics() {
+        return Database.getPoolMetrics();
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.jmx;
+
+import io.github.retz.bean.ReconciliationMXBean;
+import io.github.retz.scheduler.ReconciliationMetrics;
+
+public class ReconciliationAdapter implements ReconciliationMXBean {
+    @Override
+    public int getUnconfirmedTasks() {
+        return getMetrics().unconfirmedTasks();
+    }
+
+    @Override
+    public long getOldestUnconfirmedMsec() {
+        return getMetrics().oldestUnconfirmedMsec();
+    }
+
+    @Override
+    public int getMaxAttempts() {
+        return getMetrics().maxAttempts();
+    }
+
+    @Override
+    public long getExplicitRequestedTasks() {
+        return getMetrics().explicitRequestedTasks();
+    }
+
+    @Override
+    public long getImplicitRequests() {
+        return getMetrics().implicitRequests();
+    }
+
+    @Override
+    public long getConfirmedTasks() {
+        return getMetrics().confirmedTasks();
+    }
+
+    @Override
+    public long getLastLatencyMsec() {
+        return getMetrics().lastLatencyMsec();
+    }
+
+    @Override
+    public long getMaxLatencyMsec() {
+        return getMetrics().maxLatencyMsec();
+    }
+
+    @Override
+    public long getMeanLatencyMsec() {
+        return getMetrics().meanLatencyMsec();
+    }
+
+    private ReconciliationMetrics getMetrics() {
+        return ReconciliationMetrics.getInstance();
+    }
+}
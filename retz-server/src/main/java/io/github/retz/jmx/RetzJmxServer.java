@@ -52,9 +52,11 @@ public final class RetzJmxServer {
 
         registerMBean(new AdminConsole(config.getGcLeeway()), "io.github.retz.scheduler:type=AdminConsole");
         registerMBean(Database.getDataSource().getPool().getJmxPool(), "io.github.retz.db:type=TomcatThreadPool");
+        registerMBean(new DatabasePoolAdapter(), "io.github.retz:type=Stats,name=DatabasePool");
         registerMBean(new StatusAdapter(), "io.github.retz:type=Stats,name=Status");
         registerMBean(ResourceQuantityAdapter.newTotalOfferedQuantityAdapter() , "io.github.retz:type=Stats,name=TotalOffered");
         registerMBean(ResourceQuantityAdapter.newTotalUsedQuantityAdapter(), "io.github.retz:type=Stats,name=TotalUsed");
+        registerMBean(new ReconciliationAdapter(), "io.github.retz:type=Stats,name=Reconciliation");
 
         jmxServer = new JmxServer(jmxPort);
         jmxServer.start();
@@ -0,0 +1,156 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.mesosc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of direct buffers used to pass sandbox files from Mesos agents
+ * through to clients. Whatever the file size or the number of concurrent downloads,
+ * memory used for passthrough never exceeds capacity * bufferSize.
+ */
+public final class BufferPool {
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final Logger LOG = LoggerFactory.getLogger(BufferPool.class);
+    private static final long ACQUIRE_TIMEOUT_MSEC = 30000;
+
+    private static BufferPool instance = new BufferPool(DEFAULT_CAPACITY, DEFAULT_BUFFER_SIZE);
+
+    private final int capacity;
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> free;
+    private final AtomicInteger allocated = new AtomicInteger(0);
+
+    BufferPool(int capacity, int bufferSize) {
+        if (capacity < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("capacity and buffer size must be positive");
+        }
+        this.capacity = capacity;
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public static void init(int capacity, int bufferSize) {
+        LOG.info("Download buffer pool: {} buffers of {} bytes", capacity, bufferSize);
+        instance = new BufferPool(capacity, bufferSize);
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public int available() {
+        return free.size() + capacity - allocated.get();
+    }
+
+    public ByteBuffer acquire() throws IOException {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        // Lazily allocate up to capacity; direct buffers are expensive to create and are never freed
+        while (true) {
+            int current = allocated.get();
+            if (current >= capacity) {
+                break;
+            }
+            if (allocated.compareAndSet(current, current + 1)) {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+        }
+        try {
+            buffer = free.poll(ACQUIRE_TIMEOUT_MSEC, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a download buffer", e);
+        }
+        if (buffer == null) {
+            throw new IOException("All " + capacity + " download buffers are in use");
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        if (!free.offer(buffer)) {
+            LOG.warn("Buffer released twice or not from this pool");
+        }
+    }
+
+    // Copies exactly 'length' bytes from 'in' to 'out' through a pooled buffer
+    public long transfer(InputStream in, OutputStream out, long length) throws IOException {
+        ReadableByteChannel src = Channels.newChannel(in);
+        WritableByteChannel dst = Channels.newChannel(out);
+        ByteBuffer buffer = acquire();
+        long transferred = 0;
+        try {
+            while (transferred < length) {
+                buffer.clear();
+                if (length - transferred < buffer.capacity()) {
+                    buffer.limit((int) (length - transferred));
+                }
+                int read = src.read(buffer);
+                if (read < 0) {
+                    throw new EOFException("Unexpected EOF at " + transferred + "/" + length);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    dst.write(buffer);
+                }
+                transferred += read;
+            }
+            out.flush();
+            return transferred;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    // Discards 'n' bytes from 'in', used when the upstream does not honor ranges
+    public void skip(InputStream in, long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected EOF while skipping " + n + " bytes");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.mesosc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.retz.misc.Pair;
+import io.github.retz.protocol.data.FileContent;
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Follows a file in a job sandbox from an offset and pushes new bytes as they appear,
+ * until the job reaches FINISHED or KILLED and the file is drained. This replaces
+ * clients polling files/read through the API with offsets of their own.
+ */
+public class FileTailer {
+    private static final Logger LOG = LoggerFactory.getLogger(FileTailer.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    static final int CHUNK_SIZE = 65536;
+    static final int INITIAL_INTERVAL_MSEC = 128;
+    static final int MAX_INTERVAL_MSEC = 2048;
+
+    // Returned by poll when following is over
+    public static final long DONE = -1;
+    // Returned by poll when the sink is not ready; poll again once it is
+    public static final long PAUSED = -2;
+
+    // Returns false when the receiver is gone and tailing should stop
+    public interface Sink {
+        boolean write(long offset, byte[] data) throws IOException;
+
+        // No more bytes are read from the sandbox while this is false
+        default boolean isReady() {
+            return true;
+        }
+    }
+
+    private final Callable<Optional<Job>> jobSource;
+    private final String file;
+    private long offset;
+    // Stops after this idle period without new bytes; negative for no limit
+    private long maxIdleMsec = -1;
+    private Optional<Job> job = Optional.empty();
+    private int interval = INITIAL_INTERVAL_MSEC;
+    private long idleSince = System.currentTimeMillis();
+    private boolean paused = false;
+
+    public FileTailer(Callable<Optional<Job>> jobSource, String file, long offset) {
+        this.jobSource = Objects.requireNonNull(jobSource);
+        this.file = Objects.requireNonNull(file);
+        this.offset = offset;
+    }
+
+    public FileTailer setMaxIdle(long msec) {
+        this.maxIdleMsec = msec;
+        return this;
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    public static boolean isFinished(Job job) {
+        return job.state() == Job.JobState.FINISHED || job.state() == Job.JobState.KILLED;
+    }
+
+    // The job as seen last, or empty if it disappeared
+    public Optional<Job> job() {
+        return job;
+    }
+
+    // Follows in the calling thread, sleeping between polls
+    // @return the job as seen last, or empty if it disappeared
+    public Optional<Job> follow(Sink sink) throws IOException {
+        while (true) {
+            long delay = poll(sink);
+            if (delay == DONE) {
+                return job;
+            } else if (delay == PAUSED) {
+                delay = INITIAL_INTERVAL_MSEC;
+            }
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return job;
+                }
+            }
+        }
+    }
+
+    // A round of following: pushes new bytes until the file is drained or the sink is not ready
+    // @return msec to wait until the next round, DONE, or PAUSED
+    public long poll(Sink sink) throws IOException {
+        paused = false;
+        job = fetchJob();
+        if (!job.isPresent()) {
+            return DONE;
+        }
+        // Take the state before reading so that bytes written right before finish are never missed
+        boolean finished = isFinished(job.get());
+
+        long read = 0;
+        if (job.get().url() != null) {
+            read = readUntilEmpty(job.get().url(), sink);
+            if (read < 0) {
+                return DONE;
+            }
+        } else if (finished) {
+            LOG.debug("Job (id={}) finished without sandbox", job.get().id());
+            return DONE;
+        }
+
+        long now = System.currentTimeMillis();
+        if (read > 0) {
+            interval = INITIAL_INTERVAL_MSEC;
+            idleSince = now;
+        }
+        if (paused) {
+            return PAUSED;
+        } else if (finished) {
+            return DONE;
+        } else if (read > 0) {
+            return 0;
+        } else if (0 <= maxIdleMsec && maxIdleMsec < now - idleSince) {
+            LOG.debug("Stop tailing {} of job (id={}) after {}ms idle", file, job.get().id(), now - idleSince);
+            return DONE;
+        }
+        long delay = interval;
+        interval = Math.min(interval * 2, MAX_INTERVAL_MSEC);
+        return delay;
+    }
+
+    // @return bytes pushed to sink, or -1 when the sink stopped taking them
+    private long readUntilEmpty(String url, Sink sink) throws IOException {
+        long start = offset;
+        while (true) {
+            if (!sink.isReady()) {
+                paused = true;
+                return offset - start;
+            }
+            Pair<Integer, String> payload;
+            try {
+                payload = MesosHTTPFetcher.fetchHTTPFile(url, file, offset, CHUNK_SIZE);
+            } catch (FileNotFoundException e) {
+                // Not yet created
+                return offset - start;
+            }
+            if (payload.left() != 200) {
+                LOG.debug("{} {} on reading {} at {}", payload.left(), payload.right(), file, offset);
+                return offset - start;
+            }
+            FileContent content = MAPPER.readValue(payload.right(), FileContent.class);
+            if (content.data().isEmpty()) {
+                return offset - start;
+            }
+            byte[] data = content.data().getBytes(UTF_8);
+            if (!sink.write(offset, data)) {
+                return -1;
+            }
+            offset += data.length;
+        }
+    }
+
+    private Optional<Job> fetchJob() throws IOException {
+        try {
+            return jobSource.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
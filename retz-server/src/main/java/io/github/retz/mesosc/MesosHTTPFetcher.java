@@ -49,6 +49,20 @@ public final class MesosHTTPFetcher {
         return sandboxUri("browse", master, slaveId, frameworkId, executorId, containerId, RETRY_LIMIT);
     }
 
+    // Sandbox of a task launched in a task group, under the sandbox of its default executor
+    public static Optional<String> nestedSandboxBaseUri(String master, String slaveId,
+                                                        String frameworkId, String executorId,
+                                                        String parentContainerId, String taskId) {
+        Optional<String> base = sandboxBaseUri(master, slaveId, frameworkId, executorId, parentContainerId);
+        try {
+            return base.isPresent()
+                    ? Optional.of(base.get() + URLEncoder.encode("/tasks/" + taskId, UTF_8.toString()))
+                    : Optional.empty();
+        } catch (UnsupportedEncodingException e) {
+            return Optional.empty();
+        }
+    }
+
     public static Optional<String> sandboxDownloadUri(String master, String slaveId,
                                                       String frameworkId, String executorId,
                                                       String containerId, String path) {
@@ -236,9 +250,7 @@ public final class MesosHTTPFetcher {
     }
 
     public static void downloadHTTPFile(String url, String name, Receivable<Triad<Integer, String, Pair<Long, InputStream>>, Exception> cb) throws Exception {
-        String addr = url.replace("files/browse", "files/download") + "%2F" + maybeURLEncode(name);
-        LOG.debug("Downloading {}", addr);
-        try (UrlConnector conn = new UrlConnector(addr, "GET")) {
+        try (UrlConnector conn = openHTTPFile(url, name)) {
             Integer statusCode = conn.getResponseCode();
             String message = conn.getResponseMessage();
             Long length = conn.getHeaderFieldLong("Content-Length", -1);
@@ -250,6 +262,14 @@ public final class MesosHTTPFetcher {
     }
 
 
+    // Caller owns the connection and must close it after the body is consumed, for
+    // streaming that outlives the calling thread
+    public static UrlConnector openHTTPFile(String url, String name) throws IOException {
+        String addr = url.replace("files/browse", "files/download") + "%2F" + maybeURLEncode(name);
+        LOG.debug("Downloading {}", addr);
+        return new UrlConnector(addr, "GET");
+    }
+
     // Actually Mesos 1.1.0 returns whole body even if it gets HEAD request.
     public static boolean statHTTPFile(String url, String name) {
         String addr = url.replace("files/browse", "files/download") + "%2F" + maybeURLEncode(name);
@@ -351,7 +371,7 @@ public final class MesosHTTPFetcher {
         }
     }
 
-    static class UrlConnector implements Closeable {
+    public static class UrlConnector implements Closeable {
 
         private HttpURLConnection conn;
 
@@ -0,0 +1,79 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.mesosc;
+
+import com.google.protobuf.CodedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Reads RecordIO framing of Mesos streaming APIs, '<length>\n<bytes>' repeated. Each record
+// is read into a reused buffer and handed over as a CodedInputStream, so that protobuf
+// messages are parsed right from the stream without per-record copies.
+public class RecordIOReader {
+    public static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[64 * 1024];
+
+    public RecordIOReader(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    // Returns next record, or null at the end of stream
+    public CodedInputStream next() throws IOException {
+        long length = 0;
+        int digits = 0;
+        while (true) {
+            int c = in.read();
+            if (c < 0) {
+                if (digits == 0) {
+                    return null;
+                }
+                throw new EOFException("Unexpected EOF in record length");
+            } else if (c == '\n') {
+                break;
+            } else if (c < '0' || '9' < c || length > MAX_RECORD_SIZE) {
+                throw new IOException("Invalid record length: " + (char) c + " after " + length);
+            }
+            length = length * 10 + (c - '0');
+            digits++;
+        }
+        if (digits == 0 || length > MAX_RECORD_SIZE) {
+            throw new IOException("Invalid record length: " + length);
+        }
+        int size = (int) length;
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, buffer.length * 2)];
+        }
+        int read = 0;
+        while (read < size) {
+            int n = in.read(buffer, read, size - read);
+            if (n < 0) {
+                throw new EOFException("Unexpected EOF at " + read + "/" + size + " of a record");
+            }
+            read += n;
+        }
+        return CodedInputStream.newInstance(buffer, 0, size);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -17,12 +17,12 @@
 package io.github.retz.planner;
 
 import io.github.retz.cli.TimestampHelper;
+import io.github.retz.db.Round;
 import io.github.retz.planner.spi.Attribute;
 import io.github.retz.planner.spi.Offer;
 import io.github.retz.planner.spi.Resource;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
-import io.github.retz.scheduler.Applications;
 import io.github.retz.scheduler.TaskBuilder;
 import org.apache.mesos.Protos;
 import org.slf4j.Logger;
@@ -49,7 +49,7 @@ public class ExtensiblePlanner implements Planner {
     }
 
     @Override
-    public List<AppJobPair> filter(List<Job> jobs, List<Job> keep, boolean useGPU) throws IOException {
+    public List<AppJobPair> filter(List<Job> jobs, List<Job> keep, boolean useGPU, Round round) throws IOException {
         extension.setUseGpu(useGPU);
 
         // TODO: better splitter
@@ -66,7 +66,7 @@ public class ExtensiblePlanner implements Planner {
 
         List<AppJobPair> appJobs = new ArrayList<>(run.size());
         for (Job job : run) {
-            Optional<Application> app = Applications.get(job.appid());
+            Optional<Application> app = round.getApplication(job.appid());
             appJobs.add(new AppJobPair(app, job));
         }
 
@@ -106,6 +106,10 @@ public class ExtensiblePlanner implements Planner {
         }
 
         List<Job> jobs = appJobPairs.stream().map(appJobPair -> appJobPair.job()).collect(Collectors.toList());
+        Map<String, Application> applications = new HashMap<>();
+        for (AppJobPair pair : appJobPairs) {
+            applications.put(pair.application().getAppid(), pair.application());
+        }
 
         io.github.retz.planner.spi.Plan p = extension.plan(mapOffers, jobs);
         List<Job> keep = p.getToKeep();
@@ -126,7 +130,7 @@ public class ExtensiblePlanner implements Planner {
                 Resource resource = ResourceConstructor.decode(offer.getResourcesList());
                 int last = resource.lastPort();
                 for (Job job : jobs1) {
-                    Application application = Applications.get(job.appid()).get();
+                    Application application = applications.get(job.appid());
                     TaskBuilder builder = new TaskBuilder();
                     String id = Long.toString(job.id());
 
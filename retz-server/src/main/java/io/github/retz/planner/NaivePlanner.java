@@ -17,10 +17,10 @@
 package io.github.retz.planner;
 
 import io.github.retz.cli.TimestampHelper;
+import io.github.retz.db.Round;
 import io.github.retz.planner.spi.Resource;
 import io.github.retz.protocol.data.Application;
 import io.github.retz.protocol.data.Job;
-import io.github.retz.scheduler.Applications;
 import io.github.retz.scheduler.TaskBuilder;
 import org.apache.mesos.Protos;
 import org.slf4j.Logger;
@@ -124,7 +124,7 @@ public class NaivePlanner implements Planner {
     }
 
     @Override
-    public List<AppJobPair> filter(List<Job> jobs, List<Job> keep, boolean useGPU) throws IOException {
+    public List<AppJobPair> filter(List<Job> jobs, List<Job> keep, boolean useGPU, Round round) throws IOException {
         // TODO: better splitter
         // Not using GPU or (using GPU and GPU enabled)
         List<Job> run = jobs.stream().filter(job -> job.resources().getGpu() == 0 || useGPU).collect(Collectors.toList());
@@ -139,7 +139,7 @@ public class NaivePlanner implements Planner {
 
         List<AppJobPair> appJobs = new ArrayList<>(run.size());
         for (Job job : run) {
-            Optional<Application> app = Applications.get(job.appid());
+            Optional<Application> app = round.getApplication(job.appid());
             appJobs.add(new AppJobPair(app, job));
         }
 
@@ -18,18 +18,26 @@ package io.github.retz.planner;
 
 import io.github.retz.planner.spi.Resource;
 import io.github.retz.protocol.data.Job;
+import io.github.retz.scheduler.DriverDispatcher;
+import io.github.retz.scheduler.ResidentExecutors;
+import io.github.retz.scheduler.ServerConfiguration;
 import org.apache.mesos.Protos;
-import org.apache.mesos.SchedulerDriver;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class OfferAcceptor {
+    // Resources for a default executor of a task group, taken from what tasks left in offers
+    static final double EXECUTOR_CPUS = 0.1;
+    static final int EXECUTOR_MEM_MB = 32;
+
     private final Protos.SlaveID slaveID;
     private final List<Protos.Offer> offers = new ArrayList<>();
-    private final List<Protos.Offer.Operation> operations = new ArrayList<>();
+    private final List<Protos.TaskInfo> tasks = new ArrayList<>();
     private final List<Job> jobs = new ArrayList<>();
 
     public OfferAcceptor(Protos.Offer offer) {
@@ -45,15 +53,97 @@ public class OfferAcceptor {
     }
 
     public void addTask(Protos.TaskInfo task, Job job) {
-        Protos.Offer.Operation.Launch l = Protos.Offer.Operation.Launch.newBuilder()
-                .addTaskInfos(Protos.TaskInfo.newBuilder(task))
-                .build();
+        tasks.add(task);
+        jobs.add(job);
+    }
 
-        operations.add(Protos.Offer.Operation.newBuilder()
-                .setType(Protos.Offer.Operation.Type.LAUNCH)
-                .setLaunch(l).build());
+    // All tasks go in a single LAUNCH operation. With LAUNCH_GROUP, tasks of the same
+    // application in Mesos containers share a default executor, as long as offers have room for
+    // the executor left; the rest go in a LAUNCH. Each task goes in a LAUNCH_GROUP operation of
+    // its own, as the default executor kills all tasks of a group when any of them fails.
+    // With EXECUTOR, such tasks go to the resident Retz executor of the application, which
+    // needs room only when it's not yet running on the agent.
+    public List<Protos.Offer.Operation> operations(ServerConfiguration.LaunchType type) {
+        List<Protos.Offer.Operation> operations = new ArrayList<>();
+        List<Protos.TaskInfo> launch = new ArrayList<>();
+        ResidentExecutors executors = ResidentExecutors.getInstance();
+        if (type == ServerConfiguration.LaunchType.LAUNCH_GROUP
+                || (type == ServerConfiguration.LaunchType.EXECUTOR && executors.enabled())) {
+            Resource left = totalResource();
+            double cpus = left.cpu();
+            int memMB = left.memMB();
+            for (Protos.TaskInfo task : tasks) {
+                Resource r = ResourceConstructor.decode(task.getResourcesList());
+                cpus -= r.cpu();
+                memMB -= r.memMB();
+            }
+            Map<String, List<Protos.TaskInfo>> groups = new LinkedHashMap<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                Protos.TaskInfo task = tasks.get(i);
+                if (task.hasContainer() && task.getContainer().getType() != Protos.ContainerInfo.Type.MESOS) {
+                    // Default executor runs tasks only in Mesos containers
+                    launch.add(task);
+                } else {
+                    groups.computeIfAbsent(jobs.get(i).appid(), k -> new ArrayList<>()).add(task);
+                }
+            }
+            for (Map.Entry<String, List<Protos.TaskInfo>> e : groups.entrySet()) {
+                List<Protos.TaskInfo> group = e.getValue();
+                if (type == ServerConfiguration.LaunchType.EXECUTOR) {
+                    Protos.ExecutorInfo executor = executors.executorInfo(e.getKey(),
+                            offers.get(0).getFrameworkId(), group.get(0).getCommand());
+                    boolean resident = executors.isResident(slaveID, executor.getExecutorId());
+                    if (resident || (ResidentExecutors.EXECUTOR_CPUS <= cpus && ResidentExecutors.EXECUTOR_MEM_MB <= memMB)) {
+                        if (!resident) {
+                            cpus -= ResidentExecutors.EXECUTOR_CPUS;
+                            memMB -= ResidentExecutors.EXECUTOR_MEM_MB;
+                        }
+                        for (Protos.TaskInfo task : group) {
+                            launch.add(ResidentExecutors.wrap(task, executor));
+                        }
+                    } else {
+                        launch.addAll(group);
+                    }
+                } else if (group.size() > 1 && EXECUTOR_CPUS <= cpus && EXECUTOR_MEM_MB <= memMB) {
+                    cpus -= EXECUTOR_CPUS;
+                    memMB -= EXECUTOR_MEM_MB;
+                    Protos.ExecutorInfo executor = defaultExecutor(group.get(0));
+                    for (Protos.TaskInfo task : group) {
+                        operations.add(launchGroup(executor, task));
+                    }
+                } else {
+                    launch.addAll(group);
+                }
+            }
+        } else {
+            launch.addAll(tasks);
+        }
+        if (!launch.isEmpty()) {
+            operations.add(Protos.Offer.Operation.newBuilder()
+                    .setType(Protos.Offer.Operation.Type.LAUNCH)
+                    .setLaunch(Protos.Offer.Operation.Launch.newBuilder().addAllTaskInfos(launch))
+                    .build());
+        }
+        return operations;
+    }
 
-        jobs.add(job);
+    // Operations with the same ExecutorInfo launch their task groups to the same executor
+    private Protos.ExecutorInfo defaultExecutor(Protos.TaskInfo first) {
+        return Protos.ExecutorInfo.newBuilder()
+                .setType(Protos.ExecutorInfo.Type.DEFAULT)
+                .setExecutorId(Protos.ExecutorID.newBuilder().setValue(first.getTaskId().getValue() + "-group"))
+                .setFrameworkId(offers.get(0).getFrameworkId())
+                .addAllResources(ResourceConstructor.construct(new Resource(EXECUTOR_CPUS, EXECUTOR_MEM_MB, 0)))
+                .build();
+    }
+
+    private Protos.Offer.Operation launchGroup(Protos.ExecutorInfo executor, Protos.TaskInfo task) {
+        return Protos.Offer.Operation.newBuilder()
+                .setType(Protos.Offer.Operation.Type.LAUNCH_GROUP)
+                .setLaunchGroup(Protos.Offer.Operation.LaunchGroup.newBuilder()
+                        .setExecutor(executor)
+                        .setTaskGroup(Protos.TaskGroupInfo.newBuilder().addTasks(task)))
+                .build();
     }
 
     public Resource totalResource() {
@@ -64,14 +154,14 @@ public class OfferAcceptor {
         return resource;
     }
 
-    public void acceptOffers(SchedulerDriver driver, Protos.Filters filters) {
-        driver.acceptOffers(offers.stream().map(offer -> offer.getId()).collect(Collectors.toList()),
-                operations, filters);
+    public void acceptOffers(DriverDispatcher dispatcher, Protos.Filters filters, ServerConfiguration.LaunchType type) {
+        dispatcher.accept(offers.stream().map(offer -> offer.getId()).collect(Collectors.toList()),
+                operations(type), filters);
     }
 
-    public int declineOffer(SchedulerDriver driver, Protos.Filters filters) {
+    public int declineOffer(DriverDispatcher dispatcher, Protos.Filters filters) {
         for (Protos.Offer offer : offers) {
-            driver.declineOffer(offer.getId(), filters);
+            dispatcher.decline(offer.getId(), filters);
         }
         return offers.size();
     }
@@ -95,8 +185,8 @@ public class OfferAcceptor {
                         + slaveID.getValue() + "):\t" + offer.getSlaveId().getValue());
             }
         }
-        if (operations.size() != jobs.size()) {
-            throw new AssertionError("Operations and jobs doesn't match in size: " + operations.size() + "/" + jobs.size());
+        if (tasks.size() != jobs.size()) {
+            throw new AssertionError("Tasks and jobs doesn't match in size: " + tasks.size() + "/" + jobs.size());
         }
     }
 
@@ -106,8 +196,8 @@ public class OfferAcceptor {
                 .append("slaveId=").append(slaveID.getValue())
                 .append(",\noffers=[")
                 .append(offers.stream().map((offer) -> offer.toString()).collect(Collectors.joining(",")))
-                .append("],\noperations=[")
-                .append(operations.stream().map((op) -> op.toString()).collect(Collectors.joining(",")))
+                .append("],\ntasks=[")
+                .append(tasks.stream().map((task) -> task.toString()).collect(Collectors.joining(",")))
                 .append("],\njobs=[")
                 .append(jobs.stream().map((job) -> job.pp()).collect(Collectors.joining(",\n")))
                 .append("]}")
@@ -16,6 +16,7 @@
  */
 package io.github.retz.planner;
 
+import io.github.retz.db.Round;
 import io.github.retz.protocol.data.Job;
 import org.apache.mesos.Protos;
 
@@ -27,7 +28,8 @@ public interface Planner {
     List<String> orderBy();
 
     // TODO: make useGPU and maxStock configuration of each instance
-    List<AppJobPair> filter(List<Job> jobs, List<Job> cancel, boolean useGPU) throws IOException;
+    // Applications are read in the round, which jobs have been read in
+    List<AppJobPair> filter(List<Job> jobs, List<Job> cancel, boolean useGPU, Round round) throws IOException;
 
     Plan plan(List<Protos.Offer> offers, List<AppJobPair> jobs, int maxStock, String unixUser) throws IOException;
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.db.Database;
+import io.github.retz.misc.Pair;
+import io.github.retz.protocol.exception.AdmissionDeniedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Admission control in front of JobQueue.push: caps on the number of queued jobs in total and
+ * per user, and a token bucket of submission rate per user. Queue lengths are counters in memory,
+ * added to when jobs are admitted and taken from when jobs are started or cancelled by this
+ * server, so that no request nor timer runs COUNT queries. The leader reconciles its counters
+ * with database once in a while and publishes the count, which the other servers adopt in place
+ * of their own. Frontends never see jobs started by the leader until then, and may reject jobs
+ * early near the caps; jobs admitted by other servers are seen only at reconciliation, where the
+ * queue may go somewhat beyond the caps.
+ */
+public final class AdmissionControl implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionControl.class);
+    private static final int INTERVAL_MSEC = 1000;
+    static final int RECONCILE_INTERVAL_MSEC = 30000;
+    private static boolean on = true;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(1);
+
+    // No limits until started with configuration
+    private static AdmissionControl instance = new AdmissionControl(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 1);
+
+    private final int maxQueue;
+    private final int maxQueuePerUser;
+    private final int rate; // jobs per second per user; 0 for unlimited
+    private final int burst;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private BooleanSupplier leader = () -> false;
+    private long lastReconcile = 0;
+    private int lastEpoch = -1;
+
+    // Guarded by this
+    private Map<String, Integer> queued = new HashMap<>();
+    private int queuedTotal = 0;
+    // Admitted in this interval and the last one, which a count just taken may not include
+    private Map<String, Integer> admitted = new HashMap<>();
+    private Map<String, Integer> admittedBefore = new HashMap<>();
+
+    AdmissionControl(int maxQueue, int maxQueuePerUser, int rate, int burst) {
+        if (maxQueue < 1 || maxQueuePerUser < 1 || rate < 0 || burst < 1) {
+            throw new IllegalArgumentException(String.format("Invalid admission limits: queue=%d, queue per user=%d, rate=%d, burst=%d",
+                    maxQueue, maxQueuePerUser, rate, burst));
+        }
+        this.maxQueue = maxQueue;
+        this.maxQueuePerUser = maxQueuePerUser;
+        this.rate = rate;
+        this.burst = burst;
+    }
+
+    public static AdmissionControl getInstance() {
+        return instance;
+    }
+
+    // Only the server for which leader returns true counts queued jobs in database
+    static void start(ServerConfiguration config, BooleanSupplier leader) {
+        instance = new AdmissionControl(config.getMaxQueue(), config.getMaxQueuePerUser(),
+                config.getSubmissionRate(), config.getSubmissionBurst());
+        instance.leader = leader;
+        LOG.info("Starting admission control: {}={}, {}={}, {}={}/s, {}={}",
+                ServerConfiguration.QUEUE_MAX, config.getMaxQueue(),
+                ServerConfiguration.QUEUE_MAX_PER_USER, config.getMaxQueuePerUser(),
+                ServerConfiguration.SUBMISSION_RATE, config.getSubmissionRate(),
+                ServerConfiguration.SUBMISSION_BURST, config.getSubmissionBurst());
+        SCHEDULER.schedule(instance, 0, TimeUnit.MILLISECONDS);
+    }
+
+    static void stop() {
+        on = false;
+    }
+
+    @Override
+    public void run() {
+        try {
+            rotate();
+            long now = System.currentTimeMillis();
+            if (!leader.getAsBoolean()) {
+                lastReconcile = 0;
+                follow();
+            } else if (now - lastReconcile >= RECONCILE_INTERVAL_MSEC) {
+                lastReconcile = now;
+                reconcile();
+            }
+        } catch (Throwable t) {
+            LOG.warn(t.toString(), t);
+        }
+        if (on) {
+            SCHEDULER.schedule(this, INTERVAL_MSEC, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Starts a new interval of admitted jobs
+    synchronized void rotate() {
+        admittedBefore = admitted;
+        admitted = new HashMap<>();
+    }
+
+    // Counts queued jobs in database and publishes the count; leader only
+    void reconcile() throws IOException {
+        Map<String, Integer> counts = Database.getInstance().countQueuedByOwner();
+        adopt(counts);
+        Database.getInstance().setQueuedByOwner(counts);
+        LOG.debug("Reconciled queued jobs: {}", counts);
+    }
+
+    // Adopts the count published by the leader, once for each time it is published
+    private void follow() throws IOException {
+        Optional<Pair<Map<String, Integer>, Integer>> published = Database.getInstance().getQueuedByOwner();
+        if (published.isPresent() && published.get().right() != lastEpoch) {
+            lastEpoch = published.get().right();
+            adopt(published.get().left());
+        }
+    }
+
+    // Replaces the counters with a count taken just now
+    synchronized void adopt(Map<String, Integer> counts) {
+        queued = new HashMap<>(counts);
+        admittedBefore.forEach((user, n) -> queued.merge(user, n, Integer::sum));
+        admitted.forEach((user, n) -> queued.merge(user, n, Integer::sum));
+        queuedTotal = queued.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    // Admits n jobs to be queued by the user, or throws
+    public synchronized void admit(String user, int n) throws AdmissionDeniedException {
+        long total = queuedTotal;
+        if (total + n > maxQueue) {
+            throw new AdmissionDeniedException(String.format("Job queue is full: %d queued, %d more exceeds %s=%d",
+                    total, n, ServerConfiguration.QUEUE_MAX, maxQueue), 0);
+        }
+        long count = queued.getOrDefault(user, 0);
+        if (count + n > maxQueuePerUser) {
+            throw new AdmissionDeniedException(String.format("Too many jobs queued by %s: %d queued, %d more exceeds %s=%d",
+                    user, count, n, ServerConfiguration.QUEUE_MAX_PER_USER, maxQueuePerUser), 0);
+        }
+        if (rate > 0) {
+            long wait = buckets.computeIfAbsent(user, k -> new TokenBucket(rate, burst)).take(n, System.nanoTime());
+            if (wait > 0) {
+                throw new AdmissionDeniedException(String.format("Jobs submitted too fast by %s: %s=%d/s, %s=%d",
+                        user, ServerConfiguration.SUBMISSION_RATE, rate, ServerConfiguration.SUBMISSION_BURST, burst), wait);
+            }
+        }
+        add(user, n);
+    }
+
+    // Jobs of the user back in queue without admission, e.g. retried
+    public synchronized void add(String user, int n) {
+        queued.merge(user, n, Integer::sum);
+        queuedTotal += n;
+        admitted.merge(user, n, Integer::sum);
+    }
+
+    // Jobs of the user out of queue, i.e. started or cancelled
+    public synchronized void remove(String user, int n) {
+        int count = queued.getOrDefault(user, 0);
+        // Jobs admitted by other servers may not be counted yet
+        int removed = Math.min(count, n);
+        if (count > removed) {
+            queued.put(user, count - removed);
+        } else {
+            queued.remove(user);
+        }
+        queuedTotal -= removed;
+    }
+
+    synchronized int queued(String user) {
+        return queued.getOrDefault(user, 0);
+    }
+
+    static final class TokenBucket {
+        private final int rate;
+        private final int burst;
+        private double tokens;
+        private long last;
+
+        TokenBucket(int rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+            this.tokens = burst;
+            this.last = System.nanoTime();
+        }
+
+        // Takes n tokens and returns 0, or returns seconds to wait for them.
+        // More than burst can be taken at once when the bucket is full, going into debt.
+        long take(int n, long now) {
+            tokens = Math.min(burst, tokens + (now - last) * rate / 1e9);
+            last = now;
+            double needed = Math.min(n, burst);
+            if (tokens >= needed) {
+                tokens -= n;
+                return 0;
+            }
+            return (long) Math.ceil((needed - tokens) / rate);
+        }
+    }
+}
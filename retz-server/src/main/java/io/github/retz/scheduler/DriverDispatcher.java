@@ -0,0 +1,110 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Issues offer calls to the scheduler driver off the planning thread. Calls are queued during a
+ * planning round and sent by flush() as a single task, accepts first and then all declines, so
+ * that latency of libprocess is taken off Stanchion and the next round can be planned while
+ * the calls of the previous round are still in flight. All calls are sent from a single thread
+ * in the order they are flushed.
+ */
+public class DriverDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(DriverDispatcher.class);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "driver-dispatcher");
+        t.setDaemon(true);
+        return t;
+    });
+    // Guarded by this
+    private List<Call> accepts = new ArrayList<>();
+    private List<Call> declines = new ArrayList<>();
+
+    @FunctionalInterface
+    private interface Call {
+        Protos.Status send(SchedulerDriver driver);
+    }
+
+    public synchronized void accept(Collection<Protos.OfferID> offerIds, Collection<Protos.Offer.Operation> operations,
+                                    Protos.Filters filters) {
+        accepts.add(driver -> driver.acceptOffers(offerIds, operations, filters));
+    }
+
+    public synchronized void decline(Protos.OfferID offerId, Protos.Filters filters) {
+        declines.add(driver -> driver.declineOffer(offerId, filters));
+    }
+
+    public synchronized void decline(Protos.OfferID offerId) {
+        declines.add(driver -> driver.declineOffer(offerId));
+    }
+
+    // Sends all calls queued so far, without waiting for them
+    public void flush(SchedulerDriver driver) {
+        List<Call> calls;
+        synchronized (this) {
+            if (accepts.isEmpty() && declines.isEmpty()) {
+                return;
+            }
+            calls = accepts;
+            calls.addAll(declines);
+            accepts = new ArrayList<>();
+            declines = new ArrayList<>();
+        }
+        executor.execute(() -> {
+            int failed = 0;
+            for (Call call : calls) {
+                try {
+                    Protos.Status status = call.send(driver);
+                    if (status != Protos.Status.DRIVER_RUNNING) {
+                        failed++;
+                    }
+                } catch (Throwable t) {
+                    LOG.error("Driver call failed: {}", t.toString());
+                    failed++;
+                }
+            }
+            if (failed > 0) {
+                LOG.warn("{} of {} offer calls failed", failed, calls.size());
+            }
+        });
+    }
+
+    // Waits until all calls flushed so far are sent
+    public void await(long timeoutMsec) throws InterruptedException {
+        try {
+            executor.submit(() -> {
+            }).get(timeoutMsec, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.warn("Waiting for driver calls: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,580 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import io.github.retz.mesosc.RecordIOReader;
+import org.apache.mesos.Protos;
+import org.apache.mesos.Scheduler;
+import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.v1.scheduler.Protos.Call;
+import org.apache.mesos.v1.scheduler.Protos.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+/**
+ * A SchedulerDriver in pure Java over the Mesos v1 scheduler HTTP API, without libmesos.
+ * Events are read from the RecordIO stream of SUBSCRIBE and delivered to the scheduler on a
+ * single thread, as the native driver does. Calls are queued and sent from another single
+ * thread, where consecutive declines with the same filters are batched into one DECLINE.
+ * Status updates are acknowledged implicitly after statusUpdate() returns. v0 and v1 messages
+ * are converted through their wire format, which is compatible between them.
+ *
+ * Only 'host:port' of the leading master is supported as the address; ZooKeeper is not.
+ * Redirects from non-leading masters are followed.
+ */
+public class HttpSchedulerDriver implements SchedulerDriver {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpSchedulerDriver.class);
+    static final String PATH = "/api/v1/scheduler";
+    static final String STREAM_ID = "Mesos-Stream-Id";
+    private static final String CONTENT_TYPE = "application/x-protobuf";
+    private static final int CONNECT_TIMEOUT_MSEC = 10000;
+    // Masters send heartbeats every 15 seconds by default; the stream is dead when missed a few times
+    private static final int READ_TIMEOUT_MSEC = 5 * 15 * 1000;
+    private static final long MIN_BACKOFF_MSEC = 1000;
+    private static final long MAX_BACKOFF_MSEC = 30000;
+
+    private final Scheduler scheduler;
+    private final Optional<String> authorization;
+    private final BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile Protos.FrameworkInfo frameworkInfo;
+    private volatile String master;
+    private volatile Protos.Status status = Protos.Status.DRIVER_NOT_STARTED;
+    private volatile Optional<String> streamId = Optional.empty();
+    private volatile Optional<HttpURLConnection> subscription = Optional.empty();
+    // Accessed only by the event thread
+    private boolean registered = false;
+    private boolean connected = false;
+
+    public HttpSchedulerDriver(Scheduler scheduler, Protos.FrameworkInfo frameworkInfo, String master,
+                               Optional<Protos.Credential> credential) {
+        if (master.startsWith("zk://")) {
+            throw new IllegalArgumentException("HTTP scheduler driver needs host:port of Mesos master: " + master);
+        }
+        this.scheduler = scheduler;
+        this.frameworkInfo = frameworkInfo;
+        this.master = master;
+        this.authorization = credential.map(c -> "Basic " + Base64.getEncoder().encodeToString(
+                (c.getPrincipal() + ":" + c.getSecretBytes().toStringUtf8().trim()).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public synchronized Protos.Status start() {
+        if (status != Protos.Status.DRIVER_NOT_STARTED) {
+            return status;
+        }
+        status = Protos.Status.DRIVER_RUNNING;
+        startThread("mesos-events", this::subscribeLoop);
+        startThread("mesos-calls", this::sendLoop);
+        LOG.info("{} started for {}", getClass().getName(), master);
+        return status;
+    }
+
+    @Override
+    public Protos.Status stop(boolean failover) {
+        if (status != Protos.Status.DRIVER_RUNNING) {
+            return status;
+        }
+        if (!failover && streamId.isPresent()) {
+            // Unregister the framework, killing all its tasks
+            try {
+                send(call(Call.Type.TEARDOWN).build());
+            } catch (IOException e) {
+                LOG.warn("TEARDOWN failed: {}", e.toString());
+            }
+        }
+        return terminate(Protos.Status.DRIVER_STOPPED);
+    }
+
+    @Override
+    public Protos.Status stop() {
+        return stop(false);
+    }
+
+    @Override
+    public Protos.Status abort() {
+        if (status != Protos.Status.DRIVER_RUNNING) {
+            return status;
+        }
+        return terminate(Protos.Status.DRIVER_ABORTED);
+    }
+
+    @Override
+    public Protos.Status join() {
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return status;
+    }
+
+    @Override
+    public Protos.Status run() {
+        Protos.Status s = start();
+        return s != Protos.Status.DRIVER_RUNNING ? s : join();
+    }
+
+    @Override
+    public Protos.Status requestResources(Collection<Protos.Request> requests) {
+        Call.Request.Builder request = Call.Request.newBuilder();
+        for (Protos.Request r : requests) {
+            request.addRequests(convert(r, org.apache.mesos.v1.Protos.Request.parser()));
+        }
+        return enqueue(call(Call.Type.REQUEST).setRequest(request));
+    }
+
+    @Override
+    public Protos.Status launchTasks(Collection<Protos.OfferID> offerIds, Collection<Protos.TaskInfo> tasks,
+                                     Protos.Filters filters) {
+        Protos.Offer.Operation launch = Protos.Offer.Operation.newBuilder()
+                .setType(Protos.Offer.Operation.Type.LAUNCH)
+                .setLaunch(Protos.Offer.Operation.Launch.newBuilder().addAllTaskInfos(tasks))
+                .build();
+        return acceptOffers(offerIds, Collections.singletonList(launch), filters);
+    }
+
+    @Override
+    public Protos.Status launchTasks(Collection<Protos.OfferID> offerIds, Collection<Protos.TaskInfo> tasks) {
+        return launchTasks(offerIds, tasks, Protos.Filters.getDefaultInstance());
+    }
+
+    @Override
+    @Deprecated
+    public Protos.Status launchTasks(Protos.OfferID offerId, Collection<Protos.TaskInfo> tasks, Protos.Filters filters) {
+        return launchTasks(Collections.singletonList(offerId), tasks, filters);
+    }
+
+    @Override
+    @Deprecated
+    public Protos.Status launchTasks(Protos.OfferID offerId, Collection<Protos.TaskInfo> tasks) {
+        return launchTasks(Collections.singletonList(offerId), tasks);
+    }
+
+    @Override
+    public Protos.Status killTask(Protos.TaskID taskId) {
+        return enqueue(call(Call.Type.KILL).setKill(Call.Kill.newBuilder()
+                .setTaskId(convert(taskId, org.apache.mesos.v1.Protos.TaskID.parser()))));
+    }
+
+    @Override
+    public Protos.Status acceptOffers(Collection<Protos.OfferID> offerIds, Collection<Protos.Offer.Operation> operations,
+                                      Protos.Filters filters) {
+        Call.Accept.Builder accept = Call.Accept.newBuilder()
+                .setFilters(convert(filters, org.apache.mesos.v1.Protos.Filters.parser()));
+        for (Protos.OfferID offerId : offerIds) {
+            accept.addOfferIds(convert(offerId, org.apache.mesos.v1.Protos.OfferID.parser()));
+        }
+        for (Protos.Offer.Operation operation : operations) {
+            accept.addOperations(convert(operation, org.apache.mesos.v1.Protos.Offer.Operation.parser()));
+        }
+        return enqueue(call(Call.Type.ACCEPT).setAccept(accept));
+    }
+
+    @Override
+    public Protos.Status declineOffer(Protos.OfferID offerId, Protos.Filters filters) {
+        return enqueue(call(Call.Type.DECLINE).setDecline(Call.Decline.newBuilder()
+                .addOfferIds(convert(offerId, org.apache.mesos.v1.Protos.OfferID.parser()))
+                .setFilters(convert(filters, org.apache.mesos.v1.Protos.Filters.parser()))));
+    }
+
+    @Override
+    public Protos.Status declineOffer(Protos.OfferID offerId) {
+        return declineOffer(offerId, Protos.Filters.getDefaultInstance());
+    }
+
+    @Override
+    public Protos.Status reviveOffers() {
+        return enqueue(call(Call.Type.REVIVE));
+    }
+
+    @Override
+    public Protos.Status suppressOffers() {
+        return enqueue(call(Call.Type.SUPPRESS));
+    }
+
+    @Override
+    public Protos.Status acknowledgeStatusUpdate(Protos.TaskStatus taskStatus) {
+        // Acknowledged implicitly, as the native driver does by default
+        LOG.warn("Explicit acknowledgement is not supported: task {}", taskStatus.getTaskId().getValue());
+        return status;
+    }
+
+    @Override
+    public Protos.Status sendFrameworkMessage(Protos.ExecutorID executorId, Protos.SlaveID slaveId, byte[] data) {
+        return enqueue(call(Call.Type.MESSAGE).setMessage(Call.Message.newBuilder()
+                .setAgentId(convert(slaveId, org.apache.mesos.v1.Protos.AgentID.parser()))
+                .setExecutorId(convert(executorId, org.apache.mesos.v1.Protos.ExecutorID.parser()))
+                .setData(ByteString.copyFrom(data))));
+    }
+
+    @Override
+    public Protos.Status reconcileTasks(Collection<Protos.TaskStatus> statuses) {
+        Call.Reconcile.Builder reconcile = Call.Reconcile.newBuilder();
+        for (Protos.TaskStatus s : statuses) {
+            Call.Reconcile.Task.Builder task = Call.Reconcile.Task.newBuilder()
+                    .setTaskId(convert(s.getTaskId(), org.apache.mesos.v1.Protos.TaskID.parser()));
+            if (s.hasSlaveId()) {
+                task.setAgentId(convert(s.getSlaveId(), org.apache.mesos.v1.Protos.AgentID.parser()));
+            }
+            reconcile.addTasks(task);
+        }
+        return enqueue(call(Call.Type.RECONCILE).setReconcile(reconcile));
+    }
+
+    private Protos.Status terminate(Protos.Status s) {
+        synchronized (this) {
+            if (status != Protos.Status.DRIVER_RUNNING) {
+                return status;
+            }
+            status = s;
+        }
+        // Wake up both threads: the event thread blocked on the stream, and the call thread on the queue
+        subscription.ifPresent(HttpURLConnection::disconnect);
+        calls.offer(call(Call.Type.UNKNOWN).build());
+        stopped.countDown();
+        LOG.info("{} terminated: {}", getClass().getName(), s);
+        return s;
+    }
+
+    private Call.Builder call(Call.Type type) {
+        Call.Builder builder = Call.newBuilder().setType(type);
+        if (frameworkInfo.hasId()) {
+            builder.setFrameworkId(convert(frameworkInfo.getId(), org.apache.mesos.v1.Protos.FrameworkID.parser()));
+        }
+        return builder;
+    }
+
+    private Protos.Status enqueue(Call.Builder call) {
+        if (status == Protos.Status.DRIVER_RUNNING) {
+            calls.offer(call.build());
+        }
+        return status;
+    }
+
+    private void subscribeLoop() {
+        long backoff = MIN_BACKOFF_MSEC;
+        while (status == Protos.Status.DRIVER_RUNNING) {
+            try {
+                if (subscribe()) {
+                    backoff = MIN_BACKOFF_MSEC;
+                }
+            } catch (IOException e) {
+                if (status == Protos.Status.DRIVER_RUNNING) {
+                    LOG.warn("Subscription to {} failed: {}", master, e.toString());
+                }
+            } catch (Throwable t) {
+                LOG.error("Scheduler callback failed", t);
+                abort();
+            }
+            streamId = Optional.empty();
+            subscription = Optional.empty();
+            if (connected) {
+                connected = false;
+                scheduler.disconnected(this);
+            }
+            if (status != Protos.Status.DRIVER_RUNNING) {
+                break;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MSEC);
+        }
+    }
+
+    // Subscribes and delivers events until the stream ends; returns false if not subscribed
+    private boolean subscribe() throws IOException {
+        Call subscribe = call(Call.Type.SUBSCRIBE).setSubscribe(Call.Subscribe.newBuilder()
+                .setFrameworkInfo(convert(frameworkInfo, org.apache.mesos.v1.Protos.FrameworkInfo.parser())))
+                .build();
+        HttpURLConnection conn = post(subscribe, Optional.empty());
+        subscription = Optional.of(conn);
+        int code = conn.getResponseCode();
+        if (code == HttpURLConnection.HTTP_MOVED_TEMP || code == 307) {
+            redirect(conn.getHeaderField("Location"));
+            conn.disconnect();
+            return false;
+        } else if (code != HttpURLConnection.HTTP_OK) {
+            String error = readError(conn);
+            conn.disconnect();
+            throw new IOException("SUBSCRIBE returned " + code + ": " + error);
+        }
+        String id = conn.getHeaderField(STREAM_ID);
+        if (id == null) {
+            conn.disconnect();
+            throw new IOException("No " + STREAM_ID + " in response of SUBSCRIBE");
+        }
+        streamId = Optional.of(id);
+
+        RecordIOReader reader = new RecordIOReader(conn.getInputStream());
+        try {
+            CodedInputStream record;
+            while (status == Protos.Status.DRIVER_RUNNING && (record = reader.next()) != null) {
+                handle(Event.parseFrom(record));
+            }
+        } finally {
+            conn.disconnect();
+        }
+        return true;
+    }
+
+    private void redirect(String location) throws IOException {
+        if (location == null) {
+            throw new IOException("Redirected without Location");
+        }
+        // Location is like '//host:port/api/v1/scheduler'
+        URL url = new URL(location.startsWith("//") ? "http:" + location : location);
+        master = url.getHost() + ":" + url.getPort();
+        LOG.info("Redirected to leading master {}", master);
+    }
+
+    void handle(Event event) {
+        switch (event.getType()) {
+            case SUBSCRIBED: {
+                Event.Subscribed subscribed = event.getSubscribed();
+                Protos.FrameworkID frameworkId = convert(subscribed.getFrameworkId(), Protos.FrameworkID.parser());
+                frameworkInfo = frameworkInfo.toBuilder().setId(frameworkId).build();
+                Protos.MasterInfo masterInfo = subscribed.hasMasterInfo()
+                        ? convert(subscribed.getMasterInfo(), Protos.MasterInfo.parser())
+                        : unknownMaster();
+                connected = true;
+                LOG.info("Subscribed as framework {} (heartbeat={}s)", frameworkId.getValue(),
+                        subscribed.getHeartbeatIntervalSeconds());
+                if (registered) {
+                    scheduler.reregistered(this, masterInfo);
+                } else {
+                    registered = true;
+                    scheduler.registered(this, frameworkId, masterInfo);
+                }
+                break;
+            }
+            case OFFERS:
+                scheduler.resourceOffers(this, event.getOffers().getOffersList().stream()
+                        .map(offer -> convert(offer, Protos.Offer.parser()))
+                        .collect(Collectors.toList()));
+                break;
+            case RESCIND:
+                scheduler.offerRescinded(this, convert(event.getRescind().getOfferId(), Protos.OfferID.parser()));
+                break;
+            case UPDATE: {
+                org.apache.mesos.v1.Protos.TaskStatus s = event.getUpdate().getStatus();
+                scheduler.statusUpdate(this, convert(s, Protos.TaskStatus.parser()));
+                // Updates from reconciliation come without uuid and must not be acknowledged
+                if (s.hasUuid() && s.hasAgentId()) {
+                    enqueue(call(Call.Type.ACKNOWLEDGE).setAcknowledge(Call.Acknowledge.newBuilder()
+                            .setAgentId(s.getAgentId())
+                            .setTaskId(s.getTaskId())
+                            .setUuid(s.getUuid())));
+                }
+                break;
+            }
+            case MESSAGE: {
+                Event.Message message = event.getMessage();
+                scheduler.frameworkMessage(this,
+                        convert(message.getExecutorId(), Protos.ExecutorID.parser()),
+                        convert(message.getAgentId(), Protos.SlaveID.parser()),
+                        message.getData().toByteArray());
+                break;
+            }
+            case FAILURE: {
+                Event.Failure failure = event.getFailure();
+                if (!failure.hasAgentId()) {
+                    break;
+                }
+                Protos.SlaveID slaveId = convert(failure.getAgentId(), Protos.SlaveID.parser());
+                if (failure.hasExecutorId()) {
+                    scheduler.executorLost(this, convert(failure.getExecutorId(), Protos.ExecutorID.parser()),
+                            slaveId, failure.getStatus());
+                } else {
+                    scheduler.slaveLost(this, slaveId);
+                }
+                break;
+            }
+            case ERROR:
+                scheduler.error(this, event.getError().getMessage());
+                abort();
+                break;
+            case HEARTBEAT:
+                break;
+            default:
+                LOG.debug("Ignoring event {}", event.getType());
+        }
+    }
+
+    private Protos.MasterInfo unknownMaster() {
+        String[] hostPort = master.split(":");
+        return Protos.MasterInfo.newBuilder()
+                .setId("unknown").setIp(0)
+                .setHostname(hostPort[0])
+                .setPort(Integer.parseInt(hostPort[1]))
+                .build();
+    }
+
+    private void sendLoop() {
+        List<Call> pending = new ArrayList<>();
+        while (status == Protos.Status.DRIVER_RUNNING) {
+            try {
+                pending.add(calls.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            calls.drainTo(pending);
+            for (Call call : batch(pending)) {
+                if (call.getType() == Call.Type.UNKNOWN || status != Protos.Status.DRIVER_RUNNING) {
+                    continue;
+                }
+                try {
+                    send(call);
+                } catch (IOException e) {
+                    LOG.warn("{} failed: {}", call.getType(), e.toString());
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    // Merges consecutive declines with the same filters into one call
+    static List<Call> batch(List<Call> calls) {
+        List<Call> batched = new ArrayList<>(calls.size());
+        Call.Builder decline = null;
+        for (Call call : calls) {
+            if (call.getType() == Call.Type.DECLINE) {
+                if (decline != null && decline.getDecline().getFilters().equals(call.getDecline().getFilters())) {
+                    decline.getDeclineBuilder().addAllOfferIds(call.getDecline().getOfferIdsList());
+                    continue;
+                }
+                if (decline != null) {
+                    batched.add(decline.build());
+                }
+                decline = call.toBuilder();
+            } else {
+                if (decline != null) {
+                    batched.add(decline.build());
+                    decline = null;
+                }
+                batched.add(call);
+            }
+        }
+        if (decline != null) {
+            batched.add(decline.build());
+        }
+        return batched;
+    }
+
+    private void send(Call call) throws IOException {
+        Optional<String> id = streamId;
+        if (!id.isPresent()) {
+            LOG.warn("Not subscribed; dropping {}", call.getType());
+            return;
+        }
+        HttpURLConnection conn = post(call, id);
+        try {
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_ACCEPTED) {
+                throw new IOException(call.getType() + " returned " + code + ": " + readError(conn));
+            }
+            // Drain to reuse the connection
+            try (InputStream in = conn.getInputStream()) {
+                while (in.read() >= 0) {
+                }
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    private HttpURLConnection post(Call call, Optional<String> id) throws IOException {
+        URL url = new URL("http://" + master + PATH);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setInstanceFollowRedirects(false);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MSEC);
+        conn.setReadTimeout(READ_TIMEOUT_MSEC);
+        conn.setRequestProperty("Content-Type", CONTENT_TYPE);
+        conn.setRequestProperty("Accept", CONTENT_TYPE);
+        authorization.ifPresent(auth -> conn.setRequestProperty("Authorization", auth));
+        id.ifPresent(s -> conn.setRequestProperty(STREAM_ID, s));
+        byte[] body = call.toByteArray();
+        conn.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+        return conn;
+    }
+
+    private static String readError(HttpURLConnection conn) {
+        try (InputStream in = conn.getErrorStream()) {
+            if (in == null) {
+                return "";
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) >= 0 && out.size() < 4096) {
+                out.write(buf, 0, n);
+            }
+            return out.toString("UTF-8");
+        } catch (IOException e) {
+            return e.toString();
+        }
+    }
+
+    private static void startThread(String name, Runnable runnable) {
+        Thread t = new Thread(runnable, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Converts between v0 and v1 messages of the same wire format
+    static <T> T convert(MessageLite message, Parser<T> parser) {
+        try {
+            return parser.parseFrom(message.toByteString());
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Cannot convert " + message.getClass().getName(), e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.db.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Folds job transition events back into job rows periodically; see JobEvents
+public class JobEventCompactor implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(JobEventCompactor.class);
+    private static final int BATCH_SIZE = 1000;
+    private static boolean on = true;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(1);
+
+    private final int age;
+    private final int interval;
+
+    JobEventCompactor(int age, int interval) {
+        this.age = age;
+        this.interval = interval;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int compacted = Database.getInstance().compactEvents(age, BATCH_SIZE);
+            LOG.debug("Compacted events of {} jobs", compacted);
+        } catch (Throwable t) {
+            LOG.warn(t.toString(), t);
+        }
+        if (on) {
+            SCHEDULER.schedule(this, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    static void start(int age, int interval) {
+        LOG.info("Starting job event compactor with age={}s, interval={}s", age, interval);
+        SCHEDULER.schedule(new JobEventCompactor(age, interval), interval, TimeUnit.SECONDS);
+    }
+
+    static void stop() {
+        on = false;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.db.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Moves FINISHED and KILLED jobs to history table periodically; see JobHistory
+public class JobHistoryMover implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(JobHistoryMover.class);
+    private static boolean on = true;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(1);
+
+    private final int batch;
+    private final int interval;
+
+    JobHistoryMover(int batch, int interval) {
+        this.batch = batch;
+        this.interval = interval;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int moved = Database.getInstance().moveToHistory(batch);
+            LOG.debug("Moved {} jobs to history", moved);
+        } catch (Throwable t) {
+            LOG.warn(t.toString(), t);
+        }
+        if (on) {
+            SCHEDULER.schedule(this, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    static void start(int batch, int interval) {
+        LOG.info("Starting job history mover with batch={}, interval={}s", batch, interval);
+        SCHEDULER.schedule(new JobHistoryMover(batch, interval), interval, TimeUnit.SECONDS);
+    }
+
+    static void stop() {
+        on = false;
+    }
+}
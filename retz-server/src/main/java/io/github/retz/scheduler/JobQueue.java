@@ -19,18 +19,25 @@ package io.github.retz.scheduler;
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
 import io.github.retz.misc.LogUtil;
+import io.github.retz.misc.Pair;
+import io.github.retz.misc.Triad;
+import io.github.retz.protocol.KillMatchingRequest;
+import io.github.retz.protocol.KillMatchingResponse;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.ResourceQuantity;
 import io.github.retz.protocol.exception.JobNotFoundException;
 import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * On memory job queue to mediate job execution requests and resources
@@ -39,17 +46,6 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public final class JobQueue {
     private static final Logger LOG = LoggerFactory.getLogger(JobQueue.class);
-    private static final AtomicInteger COUNTER;
-
-    static {
-        int latest;
-        try {
-            latest = Database.getInstance().getLatestJobId();
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
-        COUNTER = new AtomicInteger(latest + 1);
-    }
 
     private JobQueue() {
     }
@@ -58,17 +54,27 @@ public final class JobQueue {
         return Database.getInstance().listJobs(user, state, tag, limit);
     }
 
-    // As this is issued by server without any transaction, this id may have
-    // skip, but monotonically increasing afaik
-    public static int issueJobId() {
-        return COUNTER.getAndIncrement(); // Just have to be unique
+    // Ids are unique among servers sharing the database and increasing within
+    // this server, though they may skip
+    public static long issueJobId() throws IOException {
+        return issueJobIds(1);
+    }
+
+    // Issues a contiguous block of n ids and returns the first one
+    public static long issueJobIds(int n) throws IOException {
+        return Database.getInstance().issueJobIds(n);
     }
 
+    // Jobs must have been admitted by AdmissionControl
     public static void push(Job job) throws IOException {
-        // TODO: set a cap of queue
         Database.getInstance().safeAddJob(job);
     }
 
+    // Jobs must have been admitted by AdmissionControl
+    public static void pushAll(String appid, List<Job> jobs) throws IOException {
+        Database.getInstance().safeAddJobs(appid, jobs);
+    }
+
     public static void cancelAll(List<Job> jobs) {
         for (Job job : jobs) {
             if (job.state() != Job.JobState.KILLED) {
@@ -83,20 +89,106 @@ public final class JobQueue {
         }
     }
 
-    public static Optional<Job> cancel(int id, String reason) throws IOException, JobNotFoundException {
-        Optional<Job> maybeJob = getJob(id);
-        if (maybeJob.isPresent()) {
-            Database.getInstance().updateJob(id, (job -> {
-                if (job.state() == Job.JobState.KILLED || job.state() == Job.JobState.FINISHED) {
-                    return Optional.empty();
+    public static Optional<Job> cancel(long id, String reason) throws IOException, JobNotFoundException {
+        Optional<Job> killed;
+        boolean[] queued = {false};
+        try {
+            killed = Database.getInstance().transition(id, job -> {
+                if (job.state() != Job.JobState.KILLED && job.state() != Job.JobState.FINISHED) {
+                    queued[0] = job.state() == Job.JobState.QUEUED;
+                    job.killed(TimestampHelper.now(), Optional.empty(), reason);
+                    return Optional.of(job);
                 }
-                job.killed(TimestampHelper.now(), Optional.empty(), reason);
-                LOG.info("Job id={} has been canceled.", id);
-                return Optional.of(job);
-            }));
-            return getJob(id);
+                return Optional.empty();
+            });
+        } catch (JobNotFoundException e) {
+            return Optional.empty();
+        }
+        if (killed.isPresent()) {
+            LOG.info("Job id={} has been canceled.", id);
+            if (queued[0]) {
+                Applications.get(killed.get().appid()).ifPresent(app -> AdmissionControl.getInstance().remove(app.getOwner(), 1));
+            }
+            return killed;
+        }
+        return getJob(id);
+    }
+
+    // Cancels the job and kills its task if running. Frontend servers have no driver, where the
+    // whole cancel is queued in database for the scheduler to make both the transition and the
+    // kill, so that job rows are changed only by the scheduler.
+    // @return whether the job has been killed, or is going to be by the scheduler
+    public static boolean kill(long id, Optional<SchedulerDriver> driver, String reason) throws IOException, JobNotFoundException {
+        if (!driver.isPresent()) {
+            Optional<Job> job = getJob(id);
+            if (!job.isPresent() || job.get().state() == Job.JobState.KILLED || job.get().state() == Job.JobState.FINISHED) {
+                return false;
+            }
+            Database.getInstance().enqueueCancel(id, reason);
+            LOG.info("Cancel of job id={} has been queued for the scheduler", id);
+            return true;
+        }
+
+        Optional<Job> maybeJob = cancel(id, reason);
+        if (maybeJob.isPresent()) {
+            Job job = maybeJob.get();
+            // There's a slight pitfall between cancel above and kill below where
+            // no kill may be sent, RetzScheduler is exactly in resourceOffers and being scheduled.
+            // Then this protocol returns false for sure.
+            if (job.taskId() != null && !job.taskId().isEmpty()) {
+                killTasks(driver, Collections.singletonList(job));
+            }
+            return job.state() == Job.JobState.KILLED;
+        }
+        // Job is already finished or killed, no more running nor runnable, or something is wrong
+        return false;
+    }
+
+    // Number of jobs examined in a KillMatching request
+    public static final int KILL_MATCHING_CHUNK = 1000;
+
+    // Kills a chunk of the owner's jobs matching the request, all in a single Stanchion task
+    // rather than a task per job. Kill to Mesos is sent to running ones if the driver is given.
+    public static KillMatchingResponse killMatching(String owner, KillMatchingRequest request,
+                                                    Optional<SchedulerDriver> driver, String reason) throws IOException {
+        // Jobs already finished or killed are never killed again
+        List<Job.JobState> states = request.states().stream()
+                .filter(state -> state == Job.JobState.QUEUED || state == Job.JobState.STARTING || state == Job.JobState.STARTED)
+                .distinct().collect(Collectors.toList());
+
+        return Stanchion.call(() -> {
+            Triad<List<Pair<Job.JobState, Job>>, Integer, Long> result = Database.getInstance().killMatching(
+                    owner, request.tag(), states, request.after(), KILL_MATCHING_CHUNK, reason);
+
+            List<Job> running = result.left().stream()
+                    .filter(pair -> pair.left() != Job.JobState.QUEUED)
+                    .map(Pair::right)
+                    .filter(job -> job.taskId() != null && !job.taskId().isEmpty())
+                    .collect(Collectors.toList());
+            killTasks(driver, running);
+            int dequeued = (int) result.left().stream().filter(pair -> pair.left() == Job.JobState.QUEUED).count();
+            AdmissionControl.getInstance().remove(owner, dequeued);
+            int signaled = running.size();
+            LOG.info("KillMatching(owner={}, tag={}, states={}, after={}): {} scanned, {} killed, {} signaled",
+                    owner, request.tag(), states, request.after(), result.center(), result.left().size(), signaled);
+            return new KillMatchingResponse(result.left().size(), signaled, result.center(), result.right(),
+                    result.center() == KILL_MATCHING_CHUNK);
+        });
+    }
+
+    // Sends kills of running jobs to Mesos. Frontend servers have no driver, where
+    // kills are queued in database for the scheduler to send them.
+    public static void killTasks(Optional<SchedulerDriver> driver, List<Job> jobs) throws IOException {
+        if (driver.isPresent()) {
+            for (Job job : jobs) {
+                Protos.TaskID taskId = Protos.TaskID.newBuilder().setValue(job.taskId()).build();
+                Protos.Status status = driver.get().killTask(taskId);
+                LOG.info("Job id={} was running and killed. status={}, taskId={}", job.id(), status, job.taskId());
+            }
+        } else {
+            Database.getInstance().enqueueKills(jobs.stream().map(Job::taskId).collect(Collectors.toList()));
+            LOG.info("Kills of {} running jobs have been queued for the scheduler", jobs.size());
         }
-        return maybeJob;
     }
 
     public static List<Job> findAll(List<String> orderBy, int limit) throws IOException {
@@ -112,12 +204,12 @@ public final class JobQueue {
         return Database.getInstance().queued(limit);
     }
 
-    public static synchronized Optional<Job> getJob(int id) throws IOException {
+    public static synchronized Optional<Job> getJob(long id) throws IOException {
         return Database.getInstance().getJob(id);
     }
 
     public static synchronized void clear() throws IOException {
-        Database.getInstance().deleteAllJob(Integer.MAX_VALUE);
+        Database.getInstance().deleteAllJob(Long.MAX_VALUE);
     }
 
     public static int size() throws IOException {
@@ -125,21 +217,43 @@ public final class JobQueue {
     }
 
     public static void starting(Job job, Optional<String> url, String taskId) throws IOException {
+        starting(job, url, taskId, Optional.empty());
+    }
+
+    // The transition is applied to the job as in the database, which is returned to the job given
+    public static void starting(Job job, Optional<String> url, String taskId, Optional<String> slaveId) throws IOException {
         try {
-            Database.getInstance().setJobStarting(job.id(), url, taskId);
+            Optional<Job> result = Database.getInstance().transition(job.id(), current -> {
+                current.starting(taskId, slaveId.orElse(current.slaveId()), url, TimestampHelper.now());
+                return Optional.of(current);
+            });
+            job.starting(taskId, result.get().slaveId(), url, result.get().started());
         } catch (JobNotFoundException e) {
             LOG.warn("JobQueue.starting() failed", e);
         }
     }
 
-    static void started(String taskId, String slaveId, Optional<String> maybeUrl) throws IOException, JobNotFoundException {
+    // Transition of the job running as the task. Jobs are read again on conflicts with concurrent
+    // writers, and no transition is made if the job is no longer running as the task, e.g. retried.
+    private static Optional<Job> transition(String taskId, Function<Job, Optional<Job>> fun) throws IOException, JobNotFoundException {
         Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
-        Database.getInstance().updateJob(maybeJob.get().id(), job -> {
+        if (!maybeJob.isPresent()) {
+            return Optional.empty();
+        }
+        return Database.getInstance().transition(maybeJob.get().id(),
+                job -> taskId.equals(job.taskId()) ? fun.apply(job) : Optional.empty());
+    }
+
+    static void started(String taskId, String slaveId, Optional<String> maybeUrl) throws IOException, JobNotFoundException {
+        Optional<Job> job = transition(taskId, current -> {
             // the state of job is already started; don't update timestamp
-            String ts = (job.state() == Job.JobState.STARTED) ? job.started() : TimestampHelper.now();
-            job.started(taskId, slaveId, maybeUrl, ts);
-            return Optional.of(job);
+            String ts = (current.state() == Job.JobState.STARTED) ? current.started() : TimestampHelper.now();
+            current.started(taskId, slaveId, maybeUrl, ts);
+            return Optional.of(current);
         });
+        if (!job.isPresent()) {
+            LOG.warn("No job found running as task {}", taskId);
+        }
     }
 
     public static Optional<Job> getFromTaskId(String taskId) throws IOException {
@@ -147,45 +261,45 @@ public final class JobQueue {
     }
 
     public static void retry(String taskId, String reason) throws IOException, JobNotFoundException {
-        Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
+        int threshold = 5;
+        Optional<Job> maybeJob = transition(taskId, job -> {
+            if (job.retry() > threshold) {
+                job.killed(TimestampHelper.now(), Optional.empty(),
+                        String.format("Giving up Job retry: %d / id=%d, last reason='%s'", threshold, job.id(), reason));
+            } else {
+                job.doRetry();
+            }
+            return Optional.of(job);
+        });
         if (maybeJob.isPresent()) {
-            int threshold = 5;
-            Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                if (job.retry() > threshold) {
-                    String msg = String.format("Giving up Job retry: %d / id=%d, last reason='%s'", threshold, job.id(),
-                            reason);
-                    LOG.warn(msg);
-                    job.killed(TimestampHelper.now(), Optional.empty(), msg);
-
-                } else {
-                    job.doRetry();
-                    LOG.info("Scheduled retry {}/{} of Job(taskId={}), reason='{}'", job.retry(), threshold,
-                            job.taskId(), reason);
-                }
-                return Optional.of(job);
-            });
+            Job job = maybeJob.get();
+            if (job.state() == Job.JobState.KILLED) {
+                LOG.warn(job.reason());
+            } else {
+                LOG.info("Scheduled retry {}/{} of Job(taskId={}), reason='{}'", job.retry(), threshold,
+                        job.taskId(), reason);
+                Applications.get(job.appid()).ifPresent(app -> AdmissionControl.getInstance().add(app.getOwner(), 1));
+            }
         }
     }
 
     // Whether it's success, fail, or killed
     static void finished(String taskId, Optional<String> maybeUrl, int ret, String finished) throws IOException, JobNotFoundException {
-        Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
+        Optional<Job> maybeJob = transition(taskId, job -> {
+            job.finished(finished, maybeUrl, ret);
+            return Optional.of(job);
+        });
         if (maybeJob.isPresent()) {
-            Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                job.finished(finished, maybeUrl, ret);
-                return Optional.of(job);
-            });
             LOG.info("Job id={} has finished at {} with return value={}", maybeJob.get().id(), finished, ret);
         }
     }
 
     public static void failed(String taskId, Optional<String> maybeUrl, String msg) throws IOException, JobNotFoundException {
-        Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
+        Optional<Job> maybeJob = transition(taskId, job -> {
+            job.killed(TimestampHelper.now(), maybeUrl, msg);
+            return Optional.of(job);
+        });
         if (maybeJob.isPresent()) {
-            Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                job.killed(TimestampHelper.now(), maybeUrl, msg);
-                return Optional.of(job);
-            });
             LOG.info("Job id={} has failed: {}", maybeJob.get().id(), msg);
         }
     }
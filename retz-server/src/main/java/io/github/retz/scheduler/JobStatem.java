@@ -224,6 +224,23 @@ public final class JobStatem {
         }
     }
 
+    // Whether the task is no longer running at its agent, whatever the job state is
+    static boolean isTerminal(Protos.TaskState taskState) {
+        switch (taskState.getNumber()) {
+            case Protos.TaskState.TASK_FINISHED_VALUE:
+            case Protos.TaskState.TASK_ERROR_VALUE:
+            case Protos.TaskState.TASK_FAILED_VALUE:
+            case Protos.TaskState.TASK_KILLED_VALUE:
+            case Protos.TaskState.TASK_LOST_VALUE:
+            case Protos.TaskState.TASK_DROPPED_VALUE:
+            case Protos.TaskState.TASK_GONE_VALUE:
+            case Protos.TaskState.TASK_GONE_BY_OPERATOR_VALUE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public enum Action {
         FINISHED,
         FAILED,
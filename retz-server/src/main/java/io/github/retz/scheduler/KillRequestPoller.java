@@ -0,0 +1,82 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.db.Database;
+import io.github.retz.misc.Pair;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Makes cancels and sends kills queued by frontend servers, which have no connection to Mesos
+public class KillRequestPoller implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(KillRequestPoller.class);
+    private static final int INTERVAL_MSEC = 1000;
+    private static final int LIMIT = 1000;
+    private static boolean on = true;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(1);
+
+    private final SchedulerDriver driver;
+
+    KillRequestPoller(SchedulerDriver driver) {
+        this.driver = driver;
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<Pair<Long, String>> cancels;
+            do {
+                cancels = Database.getInstance().takeCancelRequests(LIMIT);
+                for (Pair<Long, String> cancel : cancels) {
+                    boolean killed = Stanchion.call(() -> JobQueue.kill(cancel.left(), Optional.of(driver), cancel.right()));
+                    LOG.info("Canceled job requested by frontend: id={}, killed={}", cancel.left(), killed);
+                }
+            } while (cancels.size() == LIMIT && on);
+
+            List<String> taskIds;
+            do {
+                taskIds = Database.getInstance().takeKillRequests(LIMIT);
+                for (String taskId : taskIds) {
+                    Protos.Status status = driver.killTask(Protos.TaskID.newBuilder().setValue(taskId).build());
+                    LOG.info("Sent kill requested by frontend: taskId={}, status={}", taskId, status);
+                }
+            } while (taskIds.size() == LIMIT && on);
+        } catch (Throwable t) {
+            LOG.warn(t.toString(), t);
+        }
+        if (on) {
+            SCHEDULER.schedule(this, INTERVAL_MSEC, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static void start(SchedulerDriver driver) {
+        LOG.info("Starting kill request poller with interval={}ms", INTERVAL_MSEC);
+        SCHEDULER.schedule(new KillRequestPoller(driver), INTERVAL_MSEC, TimeUnit.MILLISECONDS);
+    }
+
+    static void stop() {
+        on = false;
+    }
+}
@@ -17,8 +17,10 @@
 package io.github.retz.scheduler;
 
 import io.github.retz.db.Database;
+import io.github.retz.db.LeaderLease;
 import io.github.retz.grpc.RetzServer;
 import io.github.retz.jmx.RetzJmxServer;
+import io.github.retz.mesosc.BufferPool;
 import io.github.retz.misc.LogUtil;
 import io.github.retz.web.WebConsole;
 import org.apache.commons.cli.*;
@@ -33,6 +35,8 @@ import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 
 public final class Launcher {
     static final Option OPT_CONFIG;
@@ -44,7 +48,7 @@ public final class Launcher {
         OPT_CONFIG = new Option("C", "config", true, "Configuration file path");
         OPT_CONFIG.setArgName("/path/to/retz.properties");
 
-        OPT_MODE = new Option("M", "mode", true, "Scheduler mode ( local|mesos )");
+        OPT_MODE = new Option("M", "mode", true, "Scheduler mode ( local|mesos|frontend|standby )");
         OPT_MODE.setArgName("mesos");
 
         OPTIONS = new Options();
@@ -68,18 +72,66 @@ public final class Launcher {
                 LOG.warn("Make sure a valid certificate is being used or RetzExecutor may not work.");
             }
             Database.getInstance().init(conf.getServerConfig());
-            if (conf.getServerConfig().getGc()) {
-                GarbageJobCollector.start(conf.getServerConfig().getGcLeeway(), conf.getServerConfig().getGcInterval());
-            } else {
+            AdmissionControl.start(conf.getServerConfig(),
+                    conf.launchMode == Configuration.Mode.LOCAL ? () -> true : LeaderElection::isLeader);
+            if (conf.launchMode == Configuration.Mode.FRONTEND) {
+                LOG.info("Running as a frontend: job garbage collection is left to the scheduler");
+            } else if (!conf.getServerConfig().getGc()) {
                 LOG.info("Automatic garbage collection is turned off; use retz-admin gc to collect old jobs");
             }
 
             RetzJmxServer.start(conf.getServerConfig());
+            BufferPool.init(conf.getServerConfig().getDownloadBuffers(), conf.getServerConfig().getDownloadBufferSize());
+            ResidentExecutors.init(conf.getServerConfig());
         } catch (ParseException | URISyntaxException | IOException | JMException e) {
             LogUtil.error(LOG, "launch error", e);
             return -1;
         }
 
+        if (conf.launchMode == Configuration.Mode.FRONTEND) {
+            return runFrontend(conf);
+        }
+
+        RetzServer server = null;
+        ShutdownThread shutdownThread = null;
+        if (conf.launchMode != Configuration.Mode.LOCAL) {
+            LeaderElection.start(new LeaderLease(Database.getDataSource(), leaseHolder(conf),
+                    conf.getServerConfig().getLeaderLease()));
+        }
+        if (conf.launchMode == Configuration.Mode.STANDBY) {
+            // Serve APIs as a frontend until elected, with database connections and
+            // status cache kept warm
+            WebConsole.start(conf.fileConfig);
+            LOG.info("Web console has started with port {} as a standby", conf.getPort());
+            if (conf.fileConfig.getGrpcURI() != null) {
+                server = new RetzServer(conf.fileConfig);
+                try {
+                    server.start();
+                } catch (IOException e) {
+                    LOG.error("Cannot start gRPC server", e);
+                    return -1;
+                }
+            }
+            shutdownThread = new ShutdownThread();
+            java.lang.Runtime.getRuntime().addShutdownHook(shutdownThread);
+        }
+        if (conf.launchMode != Configuration.Mode.LOCAL) {
+            LOG.info("Waiting for leader lease");
+            try {
+                LeaderElection.awaitElected();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+
+        if (conf.getServerConfig().getGc()) {
+            GarbageJobCollector.start(conf.getServerConfig().getGcLeeway(), conf.getServerConfig().getGcInterval());
+        }
+        JobEventCompactor.start(conf.getServerConfig().getCompactionAge(), conf.getServerConfig().getCompactionInterval());
+        JobHistoryMover.start(conf.getServerConfig().getHistoryBatch(), conf.getServerConfig().getHistoryInterval());
+
+        // FrameworkID must be read after election, as the last leader may have registered it
         Protos.FrameworkInfo fw = buildFrameworkInfo(conf);
         RetzScheduler scheduler;
 
@@ -90,6 +142,7 @@ public final class Launcher {
             return -1;
         }
         SchedulerDriver driver = SchedulerDriverFactory.create(scheduler, conf, fw);
+        LeaderElection.setDriver(driver);
 
         Protos.Status status = driver.start();
 
@@ -102,25 +155,34 @@ public final class Launcher {
         }
 
         LOG.info("Mesos scheduler started: {}", status.name());
-
-        // Start web server
-        WebConsole.start(conf.fileConfig);
-        WebConsole.set(scheduler, driver);
-        LOG.info("Web console has started with port {}", conf.getPort());
-
-        // Start gRPC server
-        RetzServer server = null;
-        if (conf.fileConfig.getGrpcURI() != null) {
-            server = new RetzServer(conf.fileConfig);
-            try {
-                server.start();
-            } catch (IOException e) {
-                LOG.error("Cannot start gRPC server", e);
-                return -1;
+        KillRequestPoller.start(driver);
+
+        if (conf.launchMode == Configuration.Mode.STANDBY) {
+            // Web console and gRPC server are already running; let them use the driver
+            WebConsole.set(scheduler, driver);
+            RetzServer.setDriver(driver);
+            shutdownThread.setDriver(driver);
+            LOG.info("Took over as the scheduler");
+        } else {
+            // Start web server
+            WebConsole.start(conf.fileConfig);
+            WebConsole.set(scheduler, driver);
+            LOG.info("Web console has started with port {}", conf.getPort());
+
+            // Start gRPC server
+            if (conf.fileConfig.getGrpcURI() != null) {
+                server = new RetzServer(conf.fileConfig);
+                RetzServer.setDriver(driver);
+                try {
+                    server.start();
+                } catch (IOException e) {
+                    LOG.error("Cannot start gRPC server", e);
+                    return -1;
+                }
             }
-        }
 
-        java.lang.Runtime.getRuntime().addShutdownHook(new ShutdownThread(driver));
+            java.lang.Runtime.getRuntime().addShutdownHook(new ShutdownThread(driver));
+        }
 
         // Stop them all, usually don't come here
         // Wait for Mesos framework stop
@@ -135,13 +197,55 @@ public final class Launcher {
             server.blockUntilShutdown();
         }
 
+        KillRequestPoller.stop();
         GarbageJobCollector.stop();
+        JobEventCompactor.stop();
+        JobHistoryMover.stop();
+        AdmissionControl.stop();
+        LeaderElection.stop();
         Database.getInstance().stop();
         RetzJmxServer.stop();
 
+        if (LeaderElection.isLost()) {
+            // Restart as a standby, e.g. by a process supervisor
+            return 255;
+        }
         return (status == Protos.Status.DRIVER_STOPPED ? 0 : 255);
     }
 
+    // Unique to each process, while telling where the leader is
+    private static String leaseHolder(Configuration conf) {
+        return conf.fileConfig.getUri().getHost() + ":" + conf.getPort() + "/" + UUID.randomUUID();
+    }
+
+    // Serves HTTP and gRPC APIs without Mesos driver, sharing the database with the scheduler.
+    // New jobs are queued in the database as usual, and kills of running jobs are queued for
+    // the scheduler. Any number of frontends can run to scale reads out of the scheduler process.
+    private static int runFrontend(Configuration conf) {
+        WebConsole.start(conf.fileConfig);
+        LOG.info("Web console has started with port {} as a frontend", conf.getPort());
+
+        if (conf.fileConfig.getGrpcURI() != null) {
+            RetzServer server = new RetzServer(conf.fileConfig);
+            try {
+                server.start();
+            } catch (IOException e) {
+                LOG.error("Cannot start gRPC server", e);
+                return -1;
+            }
+        }
+
+        java.lang.Runtime.getRuntime().addShutdownHook(new ShutdownThread());
+
+        // Serve until the process is terminated; ShutdownThread cleans up
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
     private static Protos.FrameworkInfo buildFrameworkInfo(Configuration conf) {
         String userName = conf.fileConfig.getUserName();
 
@@ -200,6 +304,12 @@ public final class Launcher {
             LOG.warn("Using local mode. This is for *TESTS*, don't use this in production");
         } else if ("mesos".equals(mode)) {
             conf.launchMode = Configuration.Mode.MESOS;
+        } else if ("frontend".equals(mode)) {
+            conf.launchMode = Configuration.Mode.FRONTEND;
+        } else if ("standby".equals(mode)) {
+            conf.launchMode = Configuration.Mode.STANDBY;
+        } else {
+            throw new ParseException("Unknown mode: " + mode);
         }
 
         return conf;
@@ -228,7 +338,9 @@ public final class Launcher {
 
         enum Mode {
             LOCAL,
-            MESOS
+            MESOS,
+            FRONTEND,
+            STANDBY
         }
 
     }
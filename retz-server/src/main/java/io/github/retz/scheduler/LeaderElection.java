@@ -0,0 +1,131 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.db.LeaderLease;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the leader lease. A standby polls the lease and takes it over as soon as it expires,
+// and the leader extends it every third of the lease duration. When the leader fails to
+// extend it in time, Mesos driver is stopped for failover so that there is no second scheduler.
+public class LeaderElection implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(LeaderElection.class);
+    private static final long MIN_INTERVAL_MSEC = 10;
+    private static final CountDownLatch ELECTED = new CountDownLatch(1);
+    private static boolean on = true;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(1);
+    private static volatile Optional<LeaderLease> lease = Optional.empty();
+    private static volatile Optional<SchedulerDriver> driver = Optional.empty();
+    private static volatile boolean lost = false;
+
+    private final LeaderLease leaderLease;
+    private final long renewInterval;
+
+    LeaderElection(LeaderLease leaderLease) {
+        this.leaderLease = leaderLease;
+        this.renewInterval = Math.max(MIN_INTERVAL_MSEC, leaderLease.durationMsec() / 3);
+    }
+
+    @Override
+    public void run() {
+        if (!on) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long next;
+        try {
+            if (leaderLease.tryAcquire()) {
+                if (isLeader()) {
+                    LOG.debug("Leader lease extended until {}", leaderLease.observedExpiry());
+                } else {
+                    LOG.info("Elected as leader: {} holds the lease until {}",
+                            leaderLease.holder(), leaderLease.observedExpiry());
+                    ELECTED.countDown();
+                }
+                next = renewInterval;
+            } else if (isLeader()) {
+                lose("Leader lease was taken over by " + leaderLease.observedHolder().orElse("unknown"));
+                return;
+            } else {
+                // Wake up right after the lease expires to take over
+                next = Math.max(MIN_INTERVAL_MSEC, Math.min(renewInterval, leaderLease.observedExpiry() - now + 1));
+            }
+        } catch (Throwable t) {
+            LOG.warn(t.toString(), t);
+            // Give up before a standby may take over, leaving a margin for clock difference
+            if (isLeader() && now >= leaderLease.observedExpiry() - renewInterval) {
+                lose("Cannot extend leader lease before it expires");
+                return;
+            }
+            next = Math.min(renewInterval, 1000);
+        }
+        if (on) {
+            SCHEDULER.schedule(this, next, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void lose(String reason) {
+        LOG.error("{}: stopping Mesos scheduler for failover", reason);
+        lost = true;
+        on = false;
+        // true - the next leader connects with the same FrameworkID, keeping all tasks
+        driver.ifPresent(d -> d.stop(true));
+    }
+
+    static void start(LeaderLease leaderLease) {
+        LOG.info("Starting leader election as {} with lease={}ms", leaderLease.holder(), leaderLease.durationMsec());
+        lease = Optional.of(leaderLease);
+        SCHEDULER.schedule(new LeaderElection(leaderLease), 0, TimeUnit.MILLISECONDS);
+    }
+
+    static void awaitElected() throws InterruptedException {
+        ELECTED.await();
+    }
+
+    static void setDriver(SchedulerDriver d) {
+        driver = Optional.of(d);
+    }
+
+    static boolean isLeader() {
+        return ELECTED.getCount() == 0 && !lost;
+    }
+
+    static boolean isLost() {
+        return lost;
+    }
+
+    // Releases the lease if held, so that a standby takes over without waiting for expiry
+    static void stop() {
+        on = false;
+        if (isLeader() && lease.isPresent()) {
+            try {
+                lease.get().release();
+            } catch (IOException e) {
+                LOG.warn("Cannot release leader lease: {}", e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters of ReconciliationService; latency is from the first explicit request of a task
+// until any status update of it comes back
+public final class ReconciliationMetrics {
+    private static final ReconciliationMetrics INSTANCE = new ReconciliationMetrics();
+
+    private final AtomicLong explicitRequestedTasks = new AtomicLong(0);
+    private final AtomicLong implicitRequests = new AtomicLong(0);
+    private final AtomicLong confirmedTasks = new AtomicLong(0);
+    private final AtomicLong totalLatency = new AtomicLong(0);
+    private final AtomicLong maxLatency = new AtomicLong(0);
+    private volatile long lastLatency = 0;
+    private volatile int unconfirmedTasks = 0;
+    private volatile long oldestUnconfirmed = 0;
+    private volatile int maxAttempts = 0;
+
+    private ReconciliationMetrics() {
+    }
+
+    public static ReconciliationMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    void explicitRequested(int tasks) {
+        explicitRequestedTasks.addAndGet(tasks);
+    }
+
+    void implicitRequested() {
+        implicitRequests.incrementAndGet();
+    }
+
+    void confirmed(long latency) {
+        confirmedTasks.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+        lastLatency = latency;
+    }
+
+    void unconfirmed(int tasks, long oldest, int attempts) {
+        unconfirmedTasks = tasks;
+        oldestUnconfirmed = oldest;
+        maxAttempts = attempts;
+    }
+
+    public int unconfirmedTasks() {
+        return unconfirmedTasks;
+    }
+
+    public long oldestUnconfirmedMsec() {
+        return oldestUnconfirmed;
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public long explicitRequestedTasks() {
+        return explicitRequestedTasks.get();
+    }
+
+    public long implicitRequests() {
+        return implicitRequests.get();
+    }
+
+    public long confirmedTasks() {
+        return confirmedTasks.get();
+    }
+
+    public long lastLatencyMsec() {
+        return lastLatency;
+    }
+
+    public long maxLatencyMsec() {
+        return maxLatency.get();
+    }
+
+    public long meanLatencyMsec() {
+        long n = confirmedTasks.get();
+        return n == 0 ? 0 : totalLatency.get() / n;
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.misc.Pair;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconciles task states with Mesos master, following the algorithm in
+ * http://mesos.apache.org/documentation/latest/reconciliation/ . Explicit reconciliation is
+ * re-sent with exponential backoff for each task until any status update of it comes back, and
+ * implicit reconciliation is done periodically on its own, even while some tasks are left
+ * unconfirmed, as there always are tasks just launched on a busy cluster. Tasks just
+ * launched are also reconciled if no status update comes back within the minimum backoff, so
+ * that jobs never stay STARTING forever. Explicit requests are sent in chunks, at most one
+ * chunk per pause, so that reconciling many tasks does not bring a flood of status updates.
+ * All reconciliation requests are sent from a single thread.
+ */
+public class ReconciliationService implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReconciliationService.class);
+    private static final long TICK_MSEC = 1000;
+
+    private final int chunkSize;
+    private final int pauseMsec;
+    private final long minBackoffMsec;
+    private final long maxBackoffMsec;
+    private final long implicitIntervalMsec;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "reconciliation");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Optional<SchedulerDriver> driver = Optional.empty();
+    private volatile boolean on = false;
+    // Accessed only by the executor thread
+    private long nextSlot = 0;
+    private long lastImplicit = System.currentTimeMillis();
+
+    ReconciliationService(int chunkSize, int pauseMsec, long minBackoffMsec, long maxBackoffMsec, long implicitIntervalMsec) {
+        if (chunkSize < 1 || pauseMsec < 0 || minBackoffMsec < 1 || maxBackoffMsec < minBackoffMsec || implicitIntervalMsec < 1) {
+            throw new IllegalArgumentException(String.format("Invalid reconciliation parameters: chunk=%d, pause=%d, backoff=[%d, %d], interval=%d",
+                    chunkSize, pauseMsec, minBackoffMsec, maxBackoffMsec, implicitIntervalMsec));
+        }
+        this.chunkSize = chunkSize;
+        this.pauseMsec = pauseMsec;
+        this.minBackoffMsec = minBackoffMsec;
+        this.maxBackoffMsec = maxBackoffMsec;
+        this.implicitIntervalMsec = implicitIntervalMsec;
+    }
+
+    ReconciliationService(ServerConfiguration config) {
+        this(config.getReconcileChunk(), config.getReconcilePause(),
+                config.getReconcileBackoffMin(), config.getReconcileBackoffMax(),
+                config.getReconcileInterval() * 1000L);
+    }
+
+    // Starts periodic reconciliation, or switches to the driver of new registration
+    synchronized void start(SchedulerDriver d) {
+        driver = Optional.of(d);
+        if (!on) {
+            on = true;
+            LOG.info("Starting reconciliation: chunk={}, pause={}ms, backoff=[{}ms, {}ms], implicit interval={}ms",
+                    chunkSize, pauseMsec, minBackoffMsec, maxBackoffMsec, implicitIntervalMsec);
+            executor.execute(() -> lastImplicit = System.currentTimeMillis());
+            executor.scheduleWithFixedDelay(this, TICK_MSEC, TICK_MSEC, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void stop() {
+        on = false;
+        executor.shutdownNow();
+    }
+
+    // Replaces all unconfirmed tasks with pairs of task id and agent id (may be null),
+    // and reconciles them right away; for (re)registration
+    void reconcileAll(List<Pair<String, String>> tasks) {
+        pending.clear();
+        reconcile(tasks);
+    }
+
+    // Reconciles tasks right away, e.g. those at a lost agent
+    void reconcile(List<Pair<String, String>> tasks) {
+        long now = System.currentTimeMillis();
+        for (Pair<String, String> task : tasks) {
+            pending.put(task.left(), new Pending(task.right(), now, now));
+        }
+        if (!tasks.isEmpty()) {
+            executor.execute(this);
+        }
+    }
+
+    // Expects a status update of a task just launched
+    void expect(String taskId, String slaveId) {
+        long now = System.currentTimeMillis();
+        pending.putIfAbsent(taskId, new Pending(slaveId, now, now + minBackoffMsec));
+    }
+
+    // Any status update of the task, including those by reconciliation
+    void confirm(String taskId) {
+        Pending p = pending.remove(taskId);
+        if (p != null && p.attempts > 0) {
+            ReconciliationMetrics.getInstance().confirmed(System.currentTimeMillis() - p.since);
+        }
+    }
+
+    int unconfirmed() {
+        return pending.size();
+    }
+
+    @Override
+    public void run() {
+        if (!on || !driver.isPresent()) {
+            return;
+        }
+        try {
+            reconcileDue(driver.get(), System.currentTimeMillis());
+        } catch (Throwable t) {
+            LOG.warn(t.toString(), t);
+        }
+    }
+
+    void reconcileDue(SchedulerDriver d, long now) {
+        List<Map.Entry<String, Pending>> due = new ArrayList<>();
+        long oldest = now;
+        int maxAttempts = 0;
+        for (Map.Entry<String, Pending> e : pending.entrySet()) {
+            Pending p = e.getValue();
+            if (p.nextAt <= now) {
+                due.add(e);
+            }
+            oldest = Math.min(oldest, p.since);
+            maxAttempts = Math.max(maxAttempts, p.attempts);
+        }
+        ReconciliationMetrics.getInstance().unconfirmed(pending.size(), now - oldest, maxAttempts);
+
+        for (int i = 0; i < due.size(); i += chunkSize) {
+            List<Protos.TaskStatus> chunk = new ArrayList<>();
+            long at = Math.max(now, nextSlot);
+            nextSlot = at + pauseMsec;
+            for (Map.Entry<String, Pending> e : due.subList(i, Math.min(i + chunkSize, due.size()))) {
+                Pending p = e.getValue();
+                p.attempts++;
+                p.nextAt = at + backoff(p.attempts);
+                chunk.add(taskStatus(e.getKey(), p.slaveId));
+            }
+            if (at == now) {
+                send(d, chunk);
+            } else {
+                executor.schedule(() -> send(d, chunk), at - now, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (now - lastImplicit >= implicitIntervalMsec) {
+            LOG.debug("Implicit reconciliation");
+            d.reconcileTasks(Collections.emptyList());
+            lastImplicit = now;
+            ReconciliationMetrics.getInstance().implicitRequested();
+        }
+    }
+
+    long backoff(int attempts) {
+        int shift = Math.min(attempts - 1, 30);
+        return Math.min(maxBackoffMsec, minBackoffMsec << shift);
+    }
+
+    private static void send(SchedulerDriver d, List<Protos.TaskStatus> chunk) {
+        LOG.info("Reconciling {} tasks", chunk.size());
+        d.reconcileTasks(chunk);
+        ReconciliationMetrics.getInstance().explicitRequested(chunk.size());
+    }
+
+    static Protos.TaskStatus taskStatus(String taskId, String slaveId) {
+        Protos.TaskStatus.Builder builder = Protos.TaskStatus.newBuilder()
+                .setTaskId(Protos.TaskID.newBuilder().setValue(taskId))
+                // According to the document the master does not examine state but
+                // is required by protobuf to encode
+                .setState(Protos.TaskState.TASK_RUNNING);
+        if (slaveId != null) {
+            builder.setSlaveId(Protos.SlaveID.newBuilder().setValue(slaveId));
+        }
+        return builder.build();
+    }
+
+    private static final class Pending {
+        private final String slaveId;
+        private final long since;
+        private volatile long nextAt;
+        private volatile int attempts = 0;
+
+        Pending(String slaveId, long since, long nextAt) {
+            this.slaveId = slaveId;
+            this.since = since;
+            this.nextAt = nextAt;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.planner.ResourceConstructor;
+import io.github.retz.planner.spi.Resource;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Retz executors resident on agents, one per application per agent (retz.mesos.launch=executor).
+ * Tasks of an application are launched on its executor, which runs them as child processes
+ * without setting up a container or fetching application files each time. Executors tell
+ * when they come up and go away by framework messages; see RetzExecutor in retz-executor.
+ */
+public final class ResidentExecutors {
+    public static final String EXECUTOR_ID_PREFIX = "retz-executor-";
+    // Resources of the executor itself, taken from what tasks left in offers when it's not yet there
+    public static final double EXECUTOR_CPUS = 0.1;
+    public static final int EXECUTOR_MEM_MB = 128;
+    // Same as RetzExecutor.IDLE_TIMEOUT_ENV
+    private static final String IDLE_TIMEOUT_ENV = "RETZ_EXECUTOR_IDLE_SEC";
+    private static final String JAVA_OPTS = "-Xms16m -Xmx48m -XX:+UseSerialGC";
+    private static final Logger LOG = LoggerFactory.getLogger(ResidentExecutors.class);
+
+    private static ResidentExecutors instance = new ResidentExecutors(Optional.empty(),
+            ServerConfiguration.DEFAULT_EXECUTOR_IDLE_TIMEOUT);
+
+    private final Optional<String> uri;
+    private final int idleTimeoutSec;
+    // Agent ID => IDs of executors registered there
+    private final Map<String, Set<String>> resident = new ConcurrentHashMap<>();
+
+    ResidentExecutors(Optional<String> uri, int idleTimeoutSec) {
+        this.uri = uri;
+        this.idleTimeoutSec = idleTimeoutSec;
+    }
+
+    public static void init(ServerConfiguration conf) {
+        Optional<String> uri = Optional.empty();
+        if (conf.getLaunchType() == ServerConfiguration.LaunchType.EXECUTOR) {
+            uri = conf.getExecutorUri();
+            LOG.info("Launching tasks on resident executors from {}", uri.get());
+        }
+        instance = new ResidentExecutors(uri, conf.getExecutorIdleTimeout());
+    }
+
+    public static ResidentExecutors getInstance() {
+        return instance;
+    }
+
+    public static boolean isRetzExecutor(Protos.ExecutorID executorId) {
+        return executorId.getValue().startsWith(EXECUTOR_ID_PREFIX);
+    }
+
+    public boolean enabled() {
+        return uri.isPresent();
+    }
+
+    // All tasks sharing an executor must carry an identical ExecutorInfo, so it is made only of
+    // application-level parts of the job command: files to fetch and the user. Executor ID has
+    // a digest of them, that an application updated with new files gets a new executor.
+    public Protos.ExecutorInfo executorInfo(String appid, Protos.FrameworkID frameworkId, Protos.CommandInfo job) {
+        String jar = uri.get().substring(uri.get().lastIndexOf('/') + 1);
+        Protos.CommandInfo command = Protos.CommandInfo.newBuilder()
+                .addUris(Protos.CommandInfo.URI.newBuilder().setValue(uri.get()).setCache(true).setExtract(false))
+                .addAllUris(job.getUrisList())
+                .setUser(job.getUser())
+                .setEnvironment(Protos.Environment.newBuilder()
+                        .addVariables(Protos.Environment.Variable.newBuilder()
+                                .setName(IDLE_TIMEOUT_ENV).setValue(Integer.toString(idleTimeoutSec))))
+                .setValue("java " + JAVA_OPTS + " -jar " + jar)
+                .setShell(true)
+                .build();
+        return Protos.ExecutorInfo.newBuilder()
+                .setExecutorId(Protos.ExecutorID.newBuilder().setValue(EXECUTOR_ID_PREFIX + appid + "-" + digest(command)))
+                .setFrameworkId(frameworkId)
+                .setName("Retz executor")
+                .setSource(appid)
+                .setCommand(command)
+                .addAllResources(ResourceConstructor.construct(new Resource(EXECUTOR_CPUS, EXECUTOR_MEM_MB, 0)))
+                .build();
+    }
+
+    // A task with an executor can't have a command; the job command goes in task data instead
+    public static Protos.TaskInfo wrap(Protos.TaskInfo task, Protos.ExecutorInfo executor) {
+        Protos.CommandInfo job = task.getCommand().toBuilder().clearUris().clearUser().build();
+        return task.toBuilder()
+                .clearCommand()
+                .setExecutor(executor)
+                .setData(job.toByteString())
+                .build();
+    }
+
+    public boolean isResident(Protos.SlaveID slaveId, Protos.ExecutorID executorId) {
+        return resident.getOrDefault(slaveId.getValue(), Collections.emptySet()).contains(executorId.getValue());
+    }
+
+    public void registered(Protos.SlaveID slaveId, Protos.ExecutorID executorId) {
+        resident.computeIfAbsent(slaveId.getValue(), k -> ConcurrentHashMap.newKeySet()).add(executorId.getValue());
+    }
+
+    public void lost(Protos.SlaveID slaveId, Protos.ExecutorID executorId) {
+        Set<String> executors = resident.get(slaveId.getValue());
+        if (executors != null) {
+            executors.remove(executorId.getValue());
+        }
+    }
+
+    public void lost(Protos.SlaveID slaveId) {
+        resident.remove(slaveId.getValue());
+    }
+
+    private static String digest(Protos.CommandInfo command) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(command.toByteArray());
+            StringBuilder b = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                b.append(String.format("%02x", hash[i]));
+            }
+            return b.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
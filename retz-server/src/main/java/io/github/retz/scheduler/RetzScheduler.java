@@ -20,10 +20,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
+import io.github.retz.db.Round;
 import io.github.retz.mesosc.MesosHTTPFetcher;
 import io.github.retz.misc.LogUtil;
+import io.github.retz.misc.Pair;
 import io.github.retz.planner.*;
 import io.github.retz.planner.spi.Resource;
+import io.github.retz.protocol.data.ExecutorMessage;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.ResourceQuantity;
 import io.github.retz.protocol.exception.JobNotFoundException;
@@ -63,7 +66,10 @@ public class RetzScheduler implements Scheduler {
     private final Protos.Filters filters;
     private Launcher.Configuration conf;
     private Protos.FrameworkInfo frameworkInfo;
-    private Map<String, List<Protos.SlaveID>> slaves;
+    private final RunningTaskIndex runningTasks = new RunningTaskIndex();
+    private final RunningJobLimit runningJobs;
+    private final DriverDispatcher dispatcher = new DriverDispatcher();
+    private final ReconciliationService reconciliation;
     private Optional<String> master;
 
     public RetzScheduler(Launcher.Configuration conf, Protos.FrameworkInfo frameworkInfo) throws Throwable {
@@ -71,7 +77,9 @@ public class RetzScheduler implements Scheduler {
         planner = PlannerFactory.create(conf.getServerConfig().getPlannerName(), conf.getServerConfig());
         this.conf = Objects.requireNonNull(conf);
         this.frameworkInfo = frameworkInfo;
-        this.slaves = new ConcurrentHashMap<>();
+        this.reconciliation = new ReconciliationService(conf.getServerConfig());
+        this.runningJobs = new RunningJobLimit(conf.getServerConfig().getMaxSimultaneousJobs(),
+                conf.getServerConfig().getMaxSimultaneousJobsPerUser());
         this.filters = Protos.Filters.newBuilder().setRefuseSeconds(conf.getServerConfig().getRefuseSeconds()).build();
         maxJobSize = conf.getServerConfig().getMaxJobSize();
         maxFileSize = conf.getServerConfig().getMaxFileSize();
@@ -94,7 +102,27 @@ public class RetzScheduler implements Scheduler {
 
     @Override
     public void frameworkMessage(SchedulerDriver driver, Protos.ExecutorID executorId, Protos.SlaveID slaveId, byte[] data) {
-        LOG.info("Framework Message ({} bytes)", data.length);
+        if (!ResidentExecutors.isRetzExecutor(executorId)) {
+            LOG.info("Framework Message ({} bytes)", data.length);
+            return;
+        }
+        try {
+            ExecutorMessage message = objectMapper.readValue(data, ExecutorMessage.class);
+            LOG.debug("{} on {}: {}", executorId.getValue(), slaveId.getValue(), message);
+            switch (message.type()) {
+                case REGISTERED:
+                    ResidentExecutors.getInstance().registered(slaveId, executorId);
+                    break;
+                case EXITING:
+                    ResidentExecutors.getInstance().lost(slaveId, executorId);
+                    break;
+                default:
+                    // Usage reports are only logged for now
+                    break;
+            }
+        } catch (IOException e) {
+            LOG.warn("Invalid message from {}: {}", executorId.getValue(), e.toString());
+        }
     }
 
     @Override
@@ -126,6 +154,8 @@ public class RetzScheduler implements Scheduler {
                 .append(masterInfo.getPort())
                 .toString();
 
+        reconciliation.start(driver);
+
         LOG.info("Connected to master {} version={}; Framework ID: {}",
                 newMaster, masterInfo.getVersion(), frameworkId.getValue());
         this.master = Optional.of(newMaster);
@@ -185,6 +215,7 @@ public class RetzScheduler implements Scheduler {
         this.master = Optional.of(newMaster);
         StatusCache.updateMaster(newMaster);
         LOG.info("Reconnected to master {}", newMaster);
+        reconciliation.start(driver);
         reconcileAllRunningJobs(driver);
     }
 
@@ -215,7 +246,7 @@ public class RetzScheduler implements Scheduler {
                         available.add(e.getValue().get(0));
                     } else {
                         for (Protos.Offer dup : e.getValue()) {
-                            driver.declineOffer(dup.getId(), filters);
+                            dispatcher.decline(dup.getId(), filters);
                             declined += 1;
                         }
                     }
@@ -225,76 +256,91 @@ public class RetzScheduler implements Scheduler {
                 }
                 offerStock.clear();
             }
-
-            final List<Job> jobs;
-            switch (conf.getServerConfig().getJobQueueType()) {
-                case FIT:
-                    ResourceQuantity total = new ResourceQuantity();
-                    for (Protos.Offer offer : available) {
-                        LOG.debug("offer: {}", offer);
-                        Resource resource = ResourceConstructor.decode(offer.getResourcesList());
-                        total.add(resource.toQuantity());
-                    }
-                    total.setNodes(offers.size());
-                    // TODO: change findFit to consider not only CPU and Memory, but GPUs and Ports
-                    jobs = JobQueue.findFit(planner.orderBy(), total);
-                    LOG.debug("found {} jobs fit for {}", jobs.size(), total.toString());
-                    break;
-                case ALL:
-                    jobs = JobQueue.findAll(planner.orderBy(), conf.getServerConfig().getJobQueueAllLimit());
-                    LOG.debug("found {} / {} jobs", jobs.size(), conf.getServerConfig().getJobQueueAllLimit());
-                    break;
-                default:
-                    throw new AssertionError("unknown job queue type");
+            dispatcher.flush(driver);
+
+            // Reads and state changes of a whole round go through a single connection and
+            // transaction; see handleAll for how conflicting changes are handled
+            try (Round round = Database.getInstance().beginRound()) {
+                final List<Job> jobs;
+                switch (conf.getServerConfig().getJobQueueType()) {
+                    case FIT:
+                        ResourceQuantity total = new ResourceQuantity();
+                        for (Protos.Offer offer : available) {
+                            LOG.debug("offer: {}", offer);
+                            Resource resource = ResourceConstructor.decode(offer.getResourcesList());
+                            total.add(resource.toQuantity());
+                        }
+                        total.setNodes(offers.size());
+                        // TODO: change findFit to consider not only CPU and Memory, but GPUs and Ports
+                        jobs = round.findFit(planner.orderBy(), total.getCpu(), total.getMemMB());
+                        LOG.debug("found {} jobs fit for {}", jobs.size(), total.toString());
+                        break;
+                    case ALL:
+                        jobs = round.findAll(planner.orderBy(), conf.getServerConfig().getJobQueueAllLimit());
+                        LOG.debug("found {} / {} jobs", jobs.size(), conf.getServerConfig().getJobQueueAllLimit());
+                        break;
+                    default:
+                        throw new AssertionError("unknown job queue type");
+                }
+                handleAll(round, available, jobs, driver);
             }
-            handleAll(available, jobs, driver);
-            // As this section is whole serialized by Stanchion, it is safe to do fetching jobs
-            // from database and updating database state change from queued => starting at
-            // separate transactions
         });
     }
 
     public void maybeInvokeNow(SchedulerDriver driver, Job job) {
+        maybeInvokeNow(driver, Arrays.asList(job));
+    }
+
+    // A single planning pass for jobs just pushed, only if they are at the head of the queue
+    public void maybeInvokeNow(SchedulerDriver driver, List<Job> jobs) {
+        if (jobs.isEmpty()) {
+            return;
+        }
         Stanchion.schedule(() -> {
-            try {
-                List<Job> queued = JobQueue.queued(1);
-                // Make sure it's the only job in the queue - otherwise return
+            try (Round round = Database.getInstance().beginRound()) {
+                List<Job> queued = round.queued(jobs.size());
+                // Make sure they are the only jobs in the queue - otherwise return
                 // and wait in the queue
-                if (!(queued.size() == 1 && queued.get(0).id() == job.id())) {
+                Set<Long> ids = jobs.stream().map(Job::id).collect(Collectors.toSet());
+                if (queued.size() != jobs.size() || !queued.stream().allMatch(j -> ids.contains(j.id()))) {
                     return;
                 }
-            } catch (Exception e) {
-                LOG.error("maybeInvokeNow failed: {}", e.toString());
-                return;
-            }
 
-            List<Protos.Offer> available = new ArrayList<>(offerStock.size());
-            synchronized (offerStock) {
-                available.addAll(offerStock.values());
-                offerStock.clear();
+                List<Protos.Offer> available = new ArrayList<>(offerStock.size());
+                synchronized (offerStock) {
+                    available.addAll(offerStock.values());
+                    offerStock.clear();
+                }
+                // Only if the queue is empty, and with offer stock, try job invocation;
+                // jobs as read in this round are planned
+                handleAll(round, available, queued, driver);
+            } catch (IOException e) {
+                LOG.error("maybeInvokeNow failed: {}", e.toString());
             }
-            // Only if the queue is empty, and with offer stock, try job invocation
-            List<Job> jobs = Arrays.asList(job);
-            handleAll(available, jobs, driver);
         });
     }
 
-    public void handleAll(List<Protos.Offer> offers, List<Job> jobs, SchedulerDriver driver) throws IOException {
-
-        // TODO: this is fleaky limitation, build this into Planner.plan as a constraint
-        // Check if simultaneous jobs exceeded its limit
-        int running = JobQueue.countRunning();
-        if (running >= conf.fileConfig.getMaxSimultaneousJobs()) {
-            LOG.warn("Number of concurrently running jobs has reached its limit: {} >= {} ({})",
-                    running, conf.fileConfig.getMaxSimultaneousJobs(), ServerConfiguration.MAX_SIMULTANEOUS_JOBS);
-            return;
-        }
-
+    // Jobs must have been read in the round, which is committed here before any offer is accepted
+    public void handleAll(Round round, List<Protos.Offer> offers, List<Job> jobs, SchedulerDriver driver) throws IOException {
         // DO MAKE PLANNING
         List<Job> cancel = new ArrayList<>();
-        List<AppJobPair> appJobPairs = planner.filter(jobs, cancel, conf.getServerConfig().useGPU());
-        // update database to change all jobs state to KILLED
-        JobQueue.cancelAll(cancel);
+        List<AppJobPair> filtered = planner.filter(jobs, cancel, conf.getServerConfig().useGPU(), round);
+        // change all jobs state to KILLED at commit of the round
+        round.cancel(cancel);
+
+        // Plan only jobs within limits of simultaneous jobs; offers left unused are
+        // stocked or declined by the planner as usual
+        List<AppJobPair> appJobPairs = runningJobs.fit(filtered);
+        if (appJobPairs.size() < filtered.size()) {
+            LOG.info("{} jobs left in queue by limits: {} running ({}={}, {}={})",
+                    filtered.size() - appJobPairs.size(), runningJobs.running(),
+                    ServerConfiguration.MAX_SIMULTANEOUS_JOBS, runningJobs.maxRunning(),
+                    ServerConfiguration.MAX_SIMULTANEOUS_JOBS_PER_USER, runningJobs.maxRunningPerUser());
+        }
+        Map<Long, String> owners = new HashMap<>();
+        for (AppJobPair pair : appJobPairs) {
+            owners.put(pair.job().id(), pair.application().getOwner());
+        }
 
         // TODO: split pure-planning code and Mesos-related code; don't create TaskInfo and Launches here
         // TODO: unix user name is used for TaskInfo setup and not related to pure planning.
@@ -302,23 +348,53 @@ public class RetzScheduler implements Scheduler {
         Plan bestPlan = planner.plan(offers, appJobPairs, conf.getServerConfig().getMaxStockSize(), conf.getServerConfig().getUserName());
 
         int declined = 0;
-        // Accept offers from mesos
+        List<OfferAcceptor> accepting = new ArrayList<>();
         for (OfferAcceptor acceptor : bestPlan.getOfferAcceptors()) {
             if (acceptor.getJobs().isEmpty()) {
-                declined += acceptor.declineOffer(driver, filters);
+                declined += acceptor.declineOffer(dispatcher, filters);
             } else {
+                String slaveId = acceptor.getSlaveID().getValue();
+                for (Job j : acceptor.getJobs()) {
+                    round.starting(j, j.taskId(), slaveId);
+                }
+                accepting.add(acceptor);
+            }
+        }
+
+        // All state changes of this round are committed at once, before any launch is sent, so
+        // that status updates of them always find their jobs STARTING. If any job has changed
+        // since read in this round, e.g. killed by user, nothing is committed nor launched.
+        boolean committed;
+        try {
+            committed = round.commit();
+        } catch (IOException e) {
+            LOG.error("Commit of a scheduling round failed: {}", e.toString());
+            committed = false;
+        }
+        for (OfferAcceptor acceptor : accepting) {
+            if (committed) {
+                String slaveId = acceptor.getSlaveID().getValue();
                 for (Job j : acceptor.getJobs()) {
-                    // Update local database, to running
-                    JobQueue.starting(j, Optional.empty(), j.taskId());
+                    runningTasks.put(j.taskId(), slaveId);
+                    runningJobs.put(j.taskId(), owners.get(j.id()));
+                    AdmissionControl.getInstance().remove(owners.get(j.id()), 1);
+                    reconciliation.expect(j.taskId(), slaveId);
                 }
-                acceptor.acceptOffers(driver, filters);
+                acceptor.acceptOffers(dispatcher, filters, conf.getServerConfig().getLaunchType());
+            } else {
+                declined += acceptor.declineOffer(dispatcher, filters);
             }
         }
+        if (!committed && !accepting.isEmpty()) {
+            LOG.warn("Jobs changed during a scheduling round: {} offers declined, jobs left to next round",
+                    accepting.size());
+        }
+        dispatcher.flush(driver);
         for (Protos.Offer offer : bestPlan.getToStock()) {
             offerStock.put(offer.getSlaveId().getValue(), offer);
         }
         LOG.info("{} accepted, {} declined ({} offers back in stock)",
-                bestPlan.getOfferAcceptors().stream().mapToInt(offerAcceptor -> offerAcceptor.getJobs().size()).sum(),
+                committed ? accepting.stream().mapToInt(offerAcceptor -> offerAcceptor.getJobs().size()).sum() : 0,
                 declined, bestPlan.getToStock().size());
 
         updateOfferStats();
@@ -328,31 +404,18 @@ public class RetzScheduler implements Scheduler {
     public void executorLost(SchedulerDriver driver, Protos.ExecutorID executorId, Protos.SlaveID slaveId,
                              int status) {
         LOG.info("Executor {} of slave {}  stopped: {}", executorId.getValue(), slaveId.getValue(), status);
-
-        // TODO: do we really need to manage slaves?
-        List<Protos.SlaveID> mySlaves = this.slaves.get(executorId.getValue());
-        if (mySlaves != null) {
-            mySlaves.remove(slaveId);
-            this.slaves.put(executorId.getValue(), mySlaves);
-        }
+        ResidentExecutors.getInstance().lost(slaveId, executorId);
     }
 
-    // @doc Re-schedule **all** running job when a Slave is lost. I know it's a kludge.
+    // Reconcile only tasks running at the lost slave; their status updates will re-schedule them
     @Override
     public void slaveLost(SchedulerDriver driver, Protos.SlaveID slaveId) {
-        LOG.warn("Slave lost: {}", slaveId.getValue());
-        for (Map.Entry<String, List<Protos.SlaveID>> entry : slaves.entrySet()) {
-            List<Protos.SlaveID> list = entry.getValue();
-            for (Protos.SlaveID s : list) {
-                if (s.getValue().equals(slaveId.getValue())) {
-                    list.remove(s);
-                }
-            }
-            slaves.put(entry.getKey(), list);
-        }
-
-        // TODO: remove **ONLY** tasks that is running on the failed slave
-        Stanchion.schedule(() -> reconcileAllRunningJobs(driver));
+        List<String> tasks = runningTasks.tasksOn(slaveId.getValue());
+        LOG.warn("Slave lost: {}, reconciling {} tasks there", slaveId.getValue(), tasks.size());
+        ResidentExecutors.getInstance().lost(slaveId);
+        reconciliation.reconcile(tasks.stream()
+                .map(taskId -> new Pair<String, String>(taskId, slaveId.getValue()))
+                .collect(Collectors.toList()));
 
         // There is a potential race between offerRescinded/slaveLost and using offer stocks;
         // in case handleAll trying to schedule tasks, offers are removed from offerStock
@@ -365,9 +428,10 @@ public class RetzScheduler implements Scheduler {
         synchronized (offerStock) {
             Protos.Offer offer = offerStock.remove(slaveId.getValue());
             if (offer != null) {
-                driver.declineOffer(offer.getId());
+                dispatcher.decline(offer.getId());
             }
         }
+        dispatcher.flush(driver);
         updateOfferStats();
     }
 
@@ -376,7 +440,14 @@ public class RetzScheduler implements Scheduler {
         LOG.info("Status update of task {}: {} / {} ({})",
                 status.getTaskId().getValue(), status.getState().name(), status.getMessage(),
                 status.getReason());
+        reconciliation.confirm(status.getTaskId().getValue());
         Stanchion.schedule(() -> {
+            if (JobStatem.isTerminal(status.getState())) {
+                runningTasks.remove(status.getTaskId().getValue());
+                runningJobs.remove(status.getTaskId().getValue());
+            } else if (status.hasSlaveId()) {
+                runningTasks.put(status.getTaskId().getValue(), status.getSlaveId().getValue());
+            }
             Optional<Job> job = JobQueue.getFromTaskId(status.getTaskId().getValue());
             if (!job.isPresent()) {
                 LOG.warn("Event {} ({}) for unknown job (taskid={})",
@@ -423,7 +494,8 @@ public class RetzScheduler implements Scheduler {
                     if (this.master.isPresent()) {
                         maybeUrl = maybeGetUrl(status);
                     }
-                    JobQueue.starting(job.get(), maybeUrl, status.getTaskId().getValue());
+                    Optional<String> slaveId = status.hasSlaveId() ? Optional.of(status.getSlaveId().getValue()) : Optional.empty();
+                    JobQueue.starting(job.get(), maybeUrl, status.getTaskId().getValue(), slaveId);
                     break;
 
                 case KILLED: // kill by user...
@@ -503,27 +575,32 @@ public class RetzScheduler implements Scheduler {
     // Get all running jobs and reconcile all of them - status update on database
     // will be done after statusUpdate() received. See how reconciliation must work
     // in http://mesos.apache.org/documentation/latest/reconciliation/ .
+    // The index and counts of running tasks are rebuilt here as well, as jobs may have been
+    // launched or finished by another scheduler since.
     private void reconcileAllRunningJobs(SchedulerDriver driver) throws IOException {
-        List<Job> jobs = Database.getInstance().getRunning();
-        List<Protos.TaskStatus> taskStatuses = jobs.stream().map(job -> {
-            Protos.TaskStatus.Builder builder = Protos.TaskStatus.newBuilder()
-                    .setTaskId(Protos.TaskID.newBuilder().setValue(job.taskId()))
-                    // According to the document the master does not examine state but
-                    // is required by protobuf to encode
-                    .setState(Protos.TaskState.TASK_RUNNING);
-            if (job.slaveId() != null) {
-                builder.setSlaveId(Protos.SlaveID.newBuilder().setValue(job.slaveId()));
-            }
-            return builder.build();
-        }).collect(Collectors.toList());
-
-        if (taskStatuses.size() > 0) {
-            driver.reconcileTasks(taskStatuses);
-        }
+        List<Pair<String, String>> tasks = Database.getInstance().getRunningTasks();
+        runningTasks.load(tasks);
+        runningJobs.load(Database.getInstance().getRunningOwners());
+        LOG.info("Reconciling {} running tasks", tasks.size());
+        reconciliation.reconcileAll(tasks);
     }
 
     private Optional<String> maybeGetUrl(Protos.TaskStatus status) {
         if (status.hasSlaveId() && status.hasExecutorId() && status.hasContainerStatus() && status.getContainerStatus().hasContainerId()) {
+            Protos.ContainerID containerId = status.getContainerStatus().getContainerId();
+            if (containerId.hasParent()) {
+                // Launched with LAUNCH_GROUP as a nested container of the default executor
+                return MesosHTTPFetcher.nestedSandboxBaseUri(this.master.get(),
+                        status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
+                        status.getExecutorId().getValue(),
+                        containerId.getParent().getValue(), status.getTaskId().getValue());
+            } else if (ResidentExecutors.isRetzExecutor(status.getExecutorId())) {
+                // Retz executor writes output of each job under tasks/<taskid> of its sandbox
+                return MesosHTTPFetcher.nestedSandboxBaseUri(this.master.get(),
+                        status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
+                        status.getExecutorId().getValue(),
+                        containerId.getValue(), status.getTaskId().getValue());
+            }
             return MesosHTTPFetcher.sandboxBaseUri(this.master.get(),
                     status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
                     status.getExecutorId().getValue(),
@@ -0,0 +1,107 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.misc.Pair;
+import io.github.retz.planner.AppJobPair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Live numbers of running jobs, in total and by owner of their applications, so that
+// planning places jobs only up to the headroom under retz.max.running and retz.max.running.user
+// without counting them in database every offer round. Like RunningTaskIndex, this is
+// rebuilt on every (re)registration and kept up to date with launches and status updates.
+public class RunningJobLimit {
+    private final int maxRunning;
+    private final int maxRunningPerUser;
+    private final Map<String, String> ownerByTask = new HashMap<>();
+    private final Map<String, Integer> countByOwner = new HashMap<>();
+
+    public RunningJobLimit(int maxRunning, int maxRunningPerUser) {
+        this.maxRunning = maxRunning;
+        this.maxRunningPerUser = maxRunningPerUser;
+    }
+
+    // Replaces all entries with pairs of task id and owner, where owner may be null
+    public synchronized void load(List<Pair<String, String>> tasks) {
+        ownerByTask.clear();
+        countByOwner.clear();
+        for (Pair<String, String> task : tasks) {
+            put(task.left(), task.right());
+        }
+    }
+
+    public synchronized void put(String taskId, String owner) {
+        if (ownerByTask.containsKey(taskId)) {
+            return;
+        }
+        ownerByTask.put(taskId, owner);
+        if (owner != null) {
+            countByOwner.merge(owner, 1, Integer::sum);
+        }
+    }
+
+    public synchronized void remove(String taskId) {
+        if (!ownerByTask.containsKey(taskId)) {
+            return;
+        }
+        String owner = ownerByTask.remove(taskId);
+        if (owner != null) {
+            countByOwner.computeIfPresent(owner, (k, v) -> v > 1 ? v - 1 : null);
+        }
+    }
+
+    public synchronized int running() {
+        return ownerByTask.size();
+    }
+
+    public synchronized int running(String owner) {
+        return countByOwner.getOrDefault(owner, 0);
+    }
+
+    // Takes jobs in the order given as long as they are within the headroom, in total and of
+    // their owners; the rest are left in the queue for later rounds. Planner may not place all
+    // of them, but never more, so that the limits hold without checking placed jobs again.
+    public synchronized List<AppJobPair> fit(List<AppJobPair> pairs) {
+        List<AppJobPair> fit = new ArrayList<>();
+        int headroom = maxRunning - ownerByTask.size();
+        Map<String, Integer> taken = new HashMap<>();
+        for (AppJobPair pair : pairs) {
+            if (fit.size() >= headroom) {
+                break;
+            }
+            String owner = pair.application().getOwner();
+            int n = taken.getOrDefault(owner, 0);
+            if (countByOwner.getOrDefault(owner, 0) + n < maxRunningPerUser) {
+                fit.add(pair);
+                taken.put(owner, n + 1);
+            }
+        }
+        return fit;
+    }
+
+    public int maxRunning() {
+        return maxRunning;
+    }
+
+    public int maxRunningPerUser() {
+        return maxRunningPerUser;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.misc.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Running tasks by agent, so that tasks affected by a lost agent are found without database
+// access. This is rebuilt from slave_id column of jobs on every (re)registration, and kept
+// up to date with launches and status updates in between.
+public class RunningTaskIndex {
+    private final Map<String, Set<String>> tasksBySlave = new ConcurrentHashMap<>();
+    private final Map<String, String> slaveByTask = new ConcurrentHashMap<>();
+
+    // Replaces all entries with pairs of task id and agent id, where agent id may be null
+    public synchronized void load(List<Pair<String, String>> tasks) {
+        tasksBySlave.clear();
+        slaveByTask.clear();
+        for (Pair<String, String> task : tasks) {
+            if (task.right() != null) {
+                put(task.left(), task.right());
+            }
+        }
+    }
+
+    public synchronized void put(String taskId, String slaveId) {
+        String old = slaveByTask.put(taskId, slaveId);
+        if (old != null && !old.equals(slaveId)) {
+            removeFromSlave(taskId, old);
+        }
+        tasksBySlave.computeIfAbsent(slaveId, k -> ConcurrentHashMap.newKeySet()).add(taskId);
+    }
+
+    public synchronized void remove(String taskId) {
+        String slaveId = slaveByTask.remove(taskId);
+        if (slaveId != null) {
+            removeFromSlave(taskId, slaveId);
+        }
+    }
+
+    public List<String> tasksOn(String slaveId) {
+        Set<String> tasks = tasksBySlave.get(slaveId);
+        if (tasks == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(tasks);
+    }
+
+    public int size() {
+        return slaveByTask.size();
+    }
+
+    private void removeFromSlave(String taskId, String slaveId) {
+        Set<String> tasks = tasksBySlave.get(slaveId);
+        if (tasks != null) {
+            tasks.remove(taskId);
+            if (tasks.isEmpty()) {
+                tasksBySlave.remove(slaveId);
+            }
+        }
+    }
+}
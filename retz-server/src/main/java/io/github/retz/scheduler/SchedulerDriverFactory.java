@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Optional;
 
 public final class SchedulerDriverFactory {
     private static final Logger LOG = LoggerFactory.getLogger(SchedulerDriverFactory.class);
@@ -41,6 +42,10 @@ public final class SchedulerDriverFactory {
                 case LOCAL:
                     return new LocalSchedulerDriver(scheduler, fw, conf.getServerConfig().getUri().getHost());
                 case MESOS:
+                case STANDBY:
+                    if (conf.getServerConfig().getMesosDriverType() == ServerConfiguration.MesosDriverType.HTTP) {
+                        return createHttpSchedulerDriver(scheduler, conf, fw);
+                    }
                     return createMesosSchedulerDriver(scheduler, conf, fw);
                 default:
                     throw new AssertionError("No scheduler specified");
@@ -56,14 +61,7 @@ public final class SchedulerDriverFactory {
 
     static MesosSchedulerDriver createMesosSchedulerDriver(Scheduler scheduler, Launcher.Configuration conf, Protos.FrameworkInfo fw)
             throws IOException {
-        Protos.Credential credential = null;
-
-        if (conf.fileConfig.hasSecretFile()) {
-            credential = Protos.Credential.newBuilder()
-                    .setPrincipal(conf.fileConfig.getPrincipal())
-                    .setSecretBytes(ByteString.readFrom(new FileInputStream(conf.fileConfig.getSecretFile())))
-                    .build();
-        }
+        Protos.Credential credential = readCredential(conf).orElse(null);
 
         LOG.info("{} starting", MesosSchedulerDriver.class.getName());
         if (credential != null) {
@@ -71,4 +69,23 @@ public final class SchedulerDriverFactory {
         }
         return new MesosSchedulerDriver(scheduler, fw, conf.getMesosMaster());
     }
+
+    // No native library is loaded with this driver
+    static HttpSchedulerDriver createHttpSchedulerDriver(Scheduler scheduler, Launcher.Configuration conf, Protos.FrameworkInfo fw)
+            throws IOException {
+        LOG.info("{} starting", HttpSchedulerDriver.class.getName());
+        return new HttpSchedulerDriver(scheduler, fw, conf.getMesosMaster(), readCredential(conf));
+    }
+
+    private static Optional<Protos.Credential> readCredential(Launcher.Configuration conf) throws IOException {
+        if (!conf.fileConfig.hasSecretFile()) {
+            return Optional.empty();
+        }
+        try (FileInputStream in = new FileInputStream(conf.fileConfig.getSecretFile())) {
+            return Optional.of(Protos.Credential.newBuilder()
+                    .setPrincipal(conf.fileConfig.getPrincipal())
+                    .setSecretBytes(ByteString.readFrom(in))
+                    .build());
+        }
+    }
 }
@@ -17,6 +17,9 @@
 package io.github.retz.scheduler;
 
 import io.github.retz.cli.FileConfiguration;
+import io.github.retz.db.JobCollector;
+import io.github.retz.db.JobIdAllocator;
+import io.github.retz.db.StorageCodec;
 import io.github.retz.protocol.data.ResourceQuantity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +36,7 @@ public class ServerConfiguration extends FileConfiguration {
     // System Limits
     public static final String MAX_SIMULTANEOUS_JOBS = "retz.max.running";
     public static final String DEFAULT_MAX_SIMULTANEOUS_JOBS = "128";
+    public static final String MAX_SIMULTANEOUS_JOBS_PER_USER = "retz.max.running.user";
     public static final String MAX_STOCK_SIZE = "retz.max.stock";
     public static final String DEFAULT_MAX_STOCK_SIZE = "16";
     public static final String MAX_CPUS = "retz.max.cpus";
@@ -50,6 +54,13 @@ public class ServerConfiguration extends FileConfiguration {
     public static final String MAX_FILE_SIZE = "retz.max.file-size";
     public static final String DEFAULT_MAX_FILE_SIZE = Long.toString(65536 * 1024); // in bytes
 
+    // Pool of direct buffers for passing sandbox files through to clients;
+    // bounds memory used for downloads regardless of file size or concurrency
+    static final String DOWNLOAD_BUFFERS = "retz.download.buffers";
+    static final int DEFAULT_DOWNLOAD_BUFFERS = 64;
+    static final String DOWNLOAD_BUFFER_SIZE = "retz.download.buffer-size";
+    static final int DEFAULT_DOWNLOAD_BUFFER_SIZE = 64 * 1024; // in bytes
+
     // Mesos connections and so on
     static final String MESOS_LOC_KEY = "retz.mesos";
     // TODO: Sparkjava (http://sparkjava.com) only binds to 0.0.0.0, but it must be any IP address
@@ -63,9 +74,49 @@ public class ServerConfiguration extends FileConfiguration {
     static final int DEFAULT_MESOS_REFUSE_SECONDS = 3;
     static final String MESOS_FAILOVER_TIMEOUT = "retz.mesos.failover.timeout";
     static final int DEFAULT_MESOS_FAILOVER_TIMEOUT = 3600 * 24 * 7;
+    static final String MESOS_LAUNCH = "retz.mesos.launch";
+    static final String DEFAULT_MESOS_LAUNCH = "launch";
+    public enum LaunchType {
+        LAUNCH, // all tasks to an agent in a single LAUNCH operation
+        LAUNCH_GROUP, // tasks of the same application share a default executor
+        EXECUTOR; // tasks of the same application go to a resident Retz executor
+        static LaunchType getType(String s) {
+            switch (s.toLowerCase()) {
+                case "launch": return LaunchType.LAUNCH;
+                case "group": return LaunchType.LAUNCH_GROUP;
+                case "executor": return LaunchType.EXECUTOR;
+                default: return null;
+            }
+        }
+    }
+    // Location of retz-executor-all.jar fetched by agents; see ResidentExecutors
+    static final String EXECUTOR_URI = "retz.executor.uri";
+    // Seconds a resident executor stays without jobs before exiting
+    static final String EXECUTOR_IDLE_TIMEOUT = "retz.executor.idle";
+    static final int DEFAULT_EXECUTOR_IDLE_TIMEOUT = 60;
+    static final String MESOS_DRIVER = "retz.mesos.driver";
+    static final String DEFAULT_MESOS_DRIVER = "native";
+    public enum MesosDriverType {
+        NATIVE, // libmesos through JNI
+        HTTP; // v1 scheduler HTTP API
+        static MesosDriverType getType(String s) {
+            switch (s.toLowerCase()) {
+                case "native": return MesosDriverType.NATIVE;
+                case "http": return MesosDriverType.HTTP;
+                default: return null;
+            }
+        }
+    }
 
-    // Not yet used
+    // Admission control; see AdmissionControl
     static final String QUEUE_MAX = "retz.max.queue";
+    static final int DEFAULT_QUEUE_MAX = 1000000;
+    static final String QUEUE_MAX_PER_USER = "retz.max.queue.user";
+    static final String SUBMISSION_RATE = "retz.submission.rate"; // jobs per second per user; 0 for unlimited
+    static final String SUBMISSION_BURST = "retz.submission.burst";
+    static final int DEFAULT_SUBMISSION_BURST = 1000;
+
+    // Not yet used
     static final String SCHEDULE_RESULTS = "retz.results";
     static final String SCHEDULE_RETRY = "retz.retry";
     // Persistence
@@ -75,6 +126,27 @@ public class ServerConfiguration extends FileConfiguration {
     static final String DEFAULT_DATABASE_DRIVER_CLASS = "org.h2.Driver";
     static final String DATABASE_USERNAME = "retz.database.user";
     static final String DATABASE_PASSWORD = "retz.database.pass";
+    // How jobs and applications are written, either json or protobuf; existing rows are
+    // converted as they are read. Protobuf larger than compress bytes is deflated, 0 for never.
+    static final String DATABASE_CODEC = "retz.database.codec";
+    static final String DEFAULT_DATABASE_CODEC = "json";
+    static final String DATABASE_CODEC_COMPRESS = "retz.database.codec.compress";
+    static final int DEFAULT_DATABASE_CODEC_COMPRESS = 1024;
+    // Read-only replica for queries of clients and administrators, with the same driver, user
+    // and password; used only while it is no more stale than the bound in milliseconds
+    static final String DATABASE_REPLICA_URL = "retz.database.replica.url";
+    static final String DATABASE_REPLICA_STALENESS = "retz.database.replica.staleness";
+    static final int DEFAULT_DATABASE_REPLICA_STALENESS = 5000;
+    // Connection pool of the primary and the replica each; wait is how long a query waits for
+    // a connection in milliseconds, and statements are prepared statements cached, 0 for none
+    static final String DATABASE_POOL_MAX = "retz.database.pool.max";
+    static final int DEFAULT_DATABASE_POOL_MAX = 100;
+    static final String DATABASE_POOL_IDLE = "retz.database.pool.idle";
+    static final int DEFAULT_DATABASE_POOL_IDLE = 10;
+    static final String DATABASE_POOL_WAIT = "retz.database.pool.wait";
+    static final int DEFAULT_DATABASE_POOL_WAIT = 30000;
+    static final String DATABASE_STATEMENTS = "retz.database.statements";
+    static final int DEFAULT_DATABASE_STATEMENTS = 50;
     // https://github.com/apache/mesos/blob/master/include/mesos/mesos.proto#L208-L210
     static final String USER_NAME = "retz.user";
     // static final String[] INVALID_BIND_ADDRESS = {"0.0.0.0", "localhost", "127.0.0.1"};
@@ -128,6 +200,51 @@ public class ServerConfiguration extends FileConfiguration {
     private static final int DEFAULT_GC_LEEWAY = 7 * 86400; // a week in seconds
     private static final String GC_INTERVAL = "retz.gc.interval";
     private static final int DEFAULT_GC_INTERVAL = 600; // 10 minutes in seconds
+    // Jobs are deleted in id-range batches of this size, each in its own transaction
+    private static final String GC_BATCH = "retz.gc.batch";
+    private static final String GC_PAUSE = "retz.gc.pause"; // in milliseconds between batches
+    private static final String GC_PARALLELISM = "retz.gc.parallelism";
+    // Directory to write deleted jobs as gzipped newline-delimited JSON; no archive if not set
+    private static final String GC_ARCHIVE_DIR = "retz.gc.archive.dir";
+
+    // Job transition events older than age seconds are folded back into job rows every
+    // interval seconds; see JobEvents
+    private static final String COMPACTION_AGE = "retz.compaction.age";
+    private static final int DEFAULT_COMPACTION_AGE = 60;
+    private static final String COMPACTION_INTERVAL = "retz.compaction.interval";
+    private static final int DEFAULT_COMPACTION_INTERVAL = 60;
+
+    // FINISHED and KILLED jobs are moved to history table every interval seconds, in
+    // transactions of batch jobs each, so that jobs table only holds active jobs
+    private static final String HISTORY_INTERVAL = "retz.history.interval";
+    private static final int DEFAULT_HISTORY_INTERVAL = 10;
+    private static final String HISTORY_BATCH = "retz.history.batch";
+    private static final int DEFAULT_HISTORY_BATCH = 1000;
+
+    // Number of job ids a server reserves from database at once; larger blocks mean
+    // fewer round trips, while ids left unused in a block are skipped on restart
+    private static final String JOB_ID_BLOCK = "retz.jobid.block";
+
+    // Milliseconds a scheduler holds leadership without extending it; a standby takes over
+    // registration to Mesos this long after the leader stopped extending at worst
+    private static final String LEADER_LEASE = "retz.leader.lease";
+    private static final int DEFAULT_LEADER_LEASE = 10000;
+
+    // Explicit reconciliation is sent in chunks of this many tasks, pausing milliseconds
+    // between chunks, to avoid a burst of status updates on large clusters
+    private static final String RECONCILE_CHUNK = "retz.reconcile.chunk";
+    private static final int DEFAULT_RECONCILE_CHUNK = 1000;
+    private static final String RECONCILE_PAUSE = "retz.reconcile.pause";
+    private static final int DEFAULT_RECONCILE_PAUSE = 1000;
+    // Explicit reconciliation of a task is retried from min to max milliseconds of backoff,
+    // doubling each time, until any status of it comes back
+    private static final String RECONCILE_BACKOFF_MIN = "retz.reconcile.backoff.min";
+    private static final int DEFAULT_RECONCILE_BACKOFF_MIN = 10000;
+    private static final String RECONCILE_BACKOFF_MAX = "retz.reconcile.backoff.max";
+    private static final int DEFAULT_RECONCILE_BACKOFF_MAX = 600000;
+    // Seconds between implicit reconciliations
+    private static final String RECONCILE_INTERVAL = "retz.reconcile.interval";
+    private static final int DEFAULT_RECONCILE_INTERVAL = 600;
 
 
     public ServerConfiguration(InputStream in) throws IOException, URISyntaxException {
@@ -177,6 +294,21 @@ public class ServerConfiguration extends FileConfiguration {
             throw new IllegalArgumentException(JOB_QUEUE_TYPE + " must be either fir or all");
         }
 
+        if (getLaunchType() == null) {
+            throw new IllegalArgumentException(MESOS_LAUNCH + " must be either launch, group or executor");
+        }
+        if (getLaunchType() == LaunchType.EXECUTOR && !getExecutorUri().isPresent()) {
+            throw new IllegalArgumentException(EXECUTOR_URI + " is required when " + MESOS_LAUNCH + "=executor");
+        }
+
+        if (getDatabaseCodec() == null) {
+            throw new IllegalArgumentException(DATABASE_CODEC + " must be either json or protobuf");
+        }
+
+        if (getMesosDriverType() == null) {
+            throw new IllegalArgumentException(MESOS_DRIVER + " must be either native or http");
+        }
+
         LOG.info("Mesos master={}, principal={}, role={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}",
                 getMesosMaster(), getPrincipal(), getRole(), MAX_SIMULTANEOUS_JOBS, maxSimultaneousJobs,
                 DATABASE_URL, databaseURL,
@@ -188,7 +320,8 @@ public class ServerConfiguration extends FileConfiguration {
                 MAX_LIST_JOB_SIZE, getMaxJobSize(),
                 MAX_FILE_SIZE, getMaxFileSize(),
                 JOB_QUEUE_TYPE, getJobQueueType());
-        LOG.info("{}={}", MESOS_FAILOVER_TIMEOUT, getFailoverTimeout());
+        LOG.info("{}={}, {}={}, {}={}", MESOS_FAILOVER_TIMEOUT, getFailoverTimeout(), MESOS_DRIVER, getMesosDriverType(),
+                MESOS_LAUNCH, getLaunchType());
     }
 
     public ServerConfiguration(String file) throws IOException, URISyntaxException {
@@ -269,6 +402,38 @@ public class ServerConfiguration extends FileConfiguration {
         return Optional.ofNullable(properties.getProperty(DATABASE_PASSWORD));
     }
 
+    public StorageCodec.Type getDatabaseCodec() {
+        return StorageCodec.Type.getType(properties.getProperty(DATABASE_CODEC, DEFAULT_DATABASE_CODEC));
+    }
+
+    public int getDatabaseCodecCompress() {
+        return getLowerboundedIntProperty(DATABASE_CODEC_COMPRESS, DEFAULT_DATABASE_CODEC_COMPRESS, 0);
+    }
+
+    public Optional<String> getDatabaseReplicaURL() {
+        return Optional.ofNullable(properties.getProperty(DATABASE_REPLICA_URL));
+    }
+
+    public int getDatabaseReplicaStaleness() {
+        return getLowerboundedIntProperty(DATABASE_REPLICA_STALENESS, DEFAULT_DATABASE_REPLICA_STALENESS, 100);
+    }
+
+    public int getDatabasePoolMax() {
+        return getLowerboundedIntProperty(DATABASE_POOL_MAX, DEFAULT_DATABASE_POOL_MAX, 1);
+    }
+
+    public int getDatabasePoolIdle() {
+        return Math.min(getDatabasePoolMax(), getLowerboundedIntProperty(DATABASE_POOL_IDLE, DEFAULT_DATABASE_POOL_IDLE, 0));
+    }
+
+    public int getDatabasePoolWait() {
+        return getLowerboundedIntProperty(DATABASE_POOL_WAIT, DEFAULT_DATABASE_POOL_WAIT, 0);
+    }
+
+    public int getDatabaseStatements() {
+        return getLowerboundedIntProperty(DATABASE_STATEMENTS, DEFAULT_DATABASE_STATEMENTS, 0);
+    }
+
     public ResourceQuantity getMaxJobSize() {
         return new ResourceQuantity(
                 Integer.parseInt(properties.getProperty(MAX_CPUS, DEFAULT_MAX_CPUS)),
@@ -283,6 +448,22 @@ public class ServerConfiguration extends FileConfiguration {
         return properties.getProperty(PLANNER_NAME, DEFAULT_PLANNER_NAME);
     }
 
+    public LaunchType getLaunchType() {
+        return LaunchType.getType(properties.getProperty(MESOS_LAUNCH, DEFAULT_MESOS_LAUNCH));
+    }
+
+    public Optional<String> getExecutorUri() {
+        return Optional.ofNullable(properties.getProperty(EXECUTOR_URI));
+    }
+
+    public int getExecutorIdleTimeout() {
+        return getLowerboundedIntProperty(EXECUTOR_IDLE_TIMEOUT, DEFAULT_EXECUTOR_IDLE_TIMEOUT, 1);
+    }
+
+    public MesosDriverType getMesosDriverType() {
+        return MesosDriverType.getType(properties.getProperty(MESOS_DRIVER, DEFAULT_MESOS_DRIVER));
+    }
+
     public JobQueueType getJobQueueType() {
         return JobQueueType.getType(properties.getProperty(JOB_QUEUE_TYPE, DEFAULT_JOB_QUEUE_TYPE));
     }
@@ -307,6 +488,70 @@ public class ServerConfiguration extends FileConfiguration {
         return getLowerboundedIntProperty(GC_INTERVAL, DEFAULT_GC_INTERVAL, 1);
     }
 
+    public int getGcBatchSize() {
+        return getLowerboundedIntProperty(GC_BATCH, JobCollector.DEFAULT_BATCH_SIZE, 1);
+    }
+
+    public int getGcPause() {
+        return getLowerboundedIntProperty(GC_PAUSE, JobCollector.DEFAULT_PAUSE_MSEC, 0);
+    }
+
+    public int getGcParallelism() {
+        return getBoundedIntProperty(GC_PARALLELISM, JobCollector.DEFAULT_PARALLELISM, 1, 64);
+    }
+
+    public Optional<String> getGcArchiveDir() {
+        return Optional.ofNullable(properties.getProperty(GC_ARCHIVE_DIR));
+    }
+
+    public int getJobIdBlockSize() {
+        return getBoundedIntProperty(JOB_ID_BLOCK, JobIdAllocator.DEFAULT_BLOCK_SIZE, 1, 1000000);
+    }
+
+    public int getLeaderLease() {
+        return getLowerboundedIntProperty(LEADER_LEASE, DEFAULT_LEADER_LEASE, 100);
+    }
+
+    public int getMaxSimultaneousJobsPerUser() {
+        return getBoundedIntProperty(MAX_SIMULTANEOUS_JOBS_PER_USER, maxSimultaneousJobs, 1, maxSimultaneousJobs);
+    }
+
+    public int getMaxQueue() {
+        return getLowerboundedIntProperty(QUEUE_MAX, DEFAULT_QUEUE_MAX, 1);
+    }
+
+    public int getMaxQueuePerUser() {
+        return getLowerboundedIntProperty(QUEUE_MAX_PER_USER, getMaxQueue(), 1);
+    }
+
+    public int getSubmissionRate() {
+        return getLowerboundedIntProperty(SUBMISSION_RATE, 0, 0);
+    }
+
+    public int getSubmissionBurst() {
+        return getLowerboundedIntProperty(SUBMISSION_BURST, DEFAULT_SUBMISSION_BURST, 1);
+    }
+
+    public int getReconcileChunk() {
+        return getLowerboundedIntProperty(RECONCILE_CHUNK, DEFAULT_RECONCILE_CHUNK, 1);
+    }
+
+    public int getReconcilePause() {
+        return getLowerboundedIntProperty(RECONCILE_PAUSE, DEFAULT_RECONCILE_PAUSE, 0);
+    }
+
+    public int getReconcileBackoffMin() {
+        return getLowerboundedIntProperty(RECONCILE_BACKOFF_MIN, DEFAULT_RECONCILE_BACKOFF_MIN, 100);
+    }
+
+    public int getReconcileBackoffMax() {
+        return getLowerboundedIntProperty(RECONCILE_BACKOFF_MAX, DEFAULT_RECONCILE_BACKOFF_MAX, getReconcileBackoffMin());
+    }
+
+    public int getReconcileInterval() {
+        return getLowerboundedIntProperty(RECONCILE_INTERVAL, DEFAULT_RECONCILE_INTERVAL, 1);
+    }
+
     public int getMaxListJobSize() {
         return Integer.parseInt(properties.getProperty(MAX_LIST_JOB_SIZE, DEFAULT_MAX_LIST_JOB_SIZE));
     }
@@ -315,6 +560,30 @@ public class ServerConfiguration extends FileConfiguration {
         return Long.parseLong(properties.getProperty(MAX_FILE_SIZE, DEFAULT_MAX_FILE_SIZE));
     }
 
+    public int getDownloadBuffers() {
+        return getLowerboundedIntProperty(DOWNLOAD_BUFFERS, DEFAULT_DOWNLOAD_BUFFERS, 1);
+    }
+
+    public int getDownloadBufferSize() {
+        return getLowerboundedIntProperty(DOWNLOAD_BUFFER_SIZE, DEFAULT_DOWNLOAD_BUFFER_SIZE, 4096);
+    }
+
+    public int getCompactionAge() {
+        return getLowerboundedIntProperty(COMPACTION_AGE, DEFAULT_COMPACTION_AGE, 0);
+    }
+
+    public int getCompactionInterval() {
+        return getLowerboundedIntProperty(COMPACTION_INTERVAL, DEFAULT_COMPACTION_INTERVAL, 1);
+    }
+
+    public int getHistoryInterval() {
+        return getLowerboundedIntProperty(HISTORY_INTERVAL, DEFAULT_HISTORY_INTERVAL, 1);
+    }
+
+    public int getHistoryBatch() {
+        return getLowerboundedIntProperty(HISTORY_BATCH, DEFAULT_HISTORY_BATCH, 1);
+    }
+
     public int getFailoverTimeout() {
         if (properties.containsKey(MESOS_FAILOVER_TIMEOUT)) {
             return Integer.parseInt(properties.getProperty(MESOS_FAILOVER_TIMEOUT));
@@ -22,25 +22,40 @@ import org.apache.mesos.SchedulerDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Optional;
+
 public class ShutdownThread extends Thread {
     private static final Logger LOG = LoggerFactory.getLogger(ShutdownThread.class);
 
-    private SchedulerDriver driver;
+    private volatile Optional<SchedulerDriver> driver;
 
     public ShutdownThread(SchedulerDriver driver) {
-        this.driver = driver;
+        this.driver = Optional.of(driver);
+    }
+
+    // For frontends
+    public ShutdownThread() {
+        this.driver = Optional.empty();
+    }
+
+    // For a standby that has been elected as leader
+    void setDriver(SchedulerDriver driver) {
+        this.driver = Optional.of(driver);
     }
+
     public void run() {
         LOG.info("Retz shutting down");
         // TODO: graceful stop
         // Close up all incoming requests to prevent database update
         WebConsole.stop();
-        // Close all database connections; it may take time
-        Database.getInstance().stop();
         // Shut down connection to Mesos; always will be preserved for failover
         // true - possibly connect with same FrameworkID, Mesos doesn't collect tasks
         // false - Same FrameworkID will never connect again, Mesos would refuse reconnection
-        driver.stop(true);
+        driver.ifPresent(d -> d.stop(true));
+        // Let a standby take over right away
+        LeaderElection.stop();
+        // Close all database connections; it may take time
+        Database.getInstance().stop();
         LOG.info("All clean up finished");
     }
 }
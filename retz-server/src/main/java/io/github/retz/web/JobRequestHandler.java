@@ -22,23 +22,27 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.auth.AuthHeader;
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
+import io.github.retz.mesosc.BufferPool;
+import io.github.retz.mesosc.FileTailer;
 import io.github.retz.mesosc.MesosHTTPFetcher;
 import io.github.retz.misc.Pair;
 import io.github.retz.misc.Triad;
 import io.github.retz.planner.AppJobPair;
 import io.github.retz.protocol.*;
 import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.ByteRange;
 import io.github.retz.protocol.data.DirEntry;
 import io.github.retz.protocol.data.FileContent;
 import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.ResourceQuantity;
+import io.github.retz.protocol.exception.AdmissionDeniedException;
 import io.github.retz.protocol.exception.DownloadFileSizeExceeded;
 import io.github.retz.protocol.exception.JobNotFoundException;
+import io.github.retz.scheduler.AdmissionControl;
 import io.github.retz.scheduler.Applications;
 import io.github.retz.scheduler.JobQueue;
 import io.github.retz.scheduler.RetzScheduler;
 import io.github.retz.scheduler.Stanchion;
-import org.apache.commons.io.IOUtils;
-import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +51,7 @@ import spark.Request;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -62,6 +67,11 @@ public final class JobRequestHandler {
     private static Optional<RetzScheduler> scheduler = Optional.empty();
     private static Optional<SchedulerDriver> driver = Optional.empty();
     private static int maxListJobSize = Integer.MAX_VALUE;
+    // Limits from configuration rather than scheduler, as frontends have no scheduler
+    private static Optional<ResourceQuantity> maxJobSize = Optional.empty();
+    private static long maxFileSize = -1;
+    // Shorter than idle timeout of the HTTP server
+    static final long TAIL_MAX_IDLE_MSEC = 20000;
 
     static {
         MAPPER.registerModule(new Jdk8Module());
@@ -83,6 +93,14 @@ public final class JobRequestHandler {
         maxListJobSize = v;
     }
 
+    static void setMaxJobSize(ResourceQuantity v) {
+        maxJobSize = Optional.ofNullable(v);
+    }
+
+    static void setMaxFileSize(long v) {
+        maxFileSize = v;
+    }
+
     static String listJob(spark.Request req, spark.Response res) throws IOException {
         Optional<AuthHeader> authHeaderValue = WebConsole.getAuthInfo(req);
         LOG.debug("list jobs owned by {}", authHeaderValue.get().key());
@@ -105,7 +123,7 @@ public final class JobRequestHandler {
     }
 
     private static Optional<Job> getJobAndVerify(Request req) throws IOException {
-        int id = Integer.parseInt(req.params(":id"));
+        long id = Long.parseLong(req.params(":id"));
         Optional<AuthHeader> authHeaderValue = WebConsole.getAuthInfo(req);
 
         if (!authHeaderValue.isPresent()) {
@@ -205,7 +223,7 @@ public final class JobRequestHandler {
     static String downloadFile(spark.Request req, spark.Response res) throws Exception {
         Optional<Job> maybeJob = getJobAndVerify(req);
         if (!maybeJob.isPresent()) {
-            throw new JobNotFoundException(Integer.parseInt(req.params(":id")));
+            throw new JobNotFoundException(Long.parseLong(req.params(":id")));
         }
         String file = req.queryParams("path");
         LOG.debug("download: path={}", file);
@@ -227,21 +245,46 @@ public final class JobRequestHandler {
         }
 
         // Go download
+        String rangeHeader = req.headers("Range");
         MesosHTTPFetcher.downloadHTTPFile(job.url(), file, (Triad<Integer, String, Pair<Long, InputStream>> triad) -> {
             Integer statusCode = triad.left();
             res.status(statusCode);
             if (statusCode == 200) {
                 Long length = triad.right().left();
                 InputStream io = triad.right().right();
-                Long maxFileSize = scheduler.get().maxFileSize();
                 if (length < 0) {
                     throw new IOException("content length is negative: " + length);
                 } else if (0 <= maxFileSize && maxFileSize < length) { // negative maxFileSize indicates no limit
                     throw new DownloadFileSizeExceeded(length, maxFileSize);
                 }
-                res.raw().setHeader("Content-Length", length.toString());
-                LOG.debug("start streaming of {} bytes for {}", length, file);
-                IOUtils.copyLarge(io, res.raw().getOutputStream(), 0, length);
+                // Ranges are served for resuming, but by reading the file from its head; tell
+                // clients not to split downloads into ranges
+                res.raw().setHeader("Accept-Ranges", ByteRange.NONE);
+
+                Optional<ByteRange> range;
+                try {
+                    range = ByteRange.parseRangeHeader(rangeHeader, length);
+                } catch (IllegalArgumentException e) {
+                    LOG.debug("Unsatisfiable range {} for {} ({} bytes)", rangeHeader, file, length);
+                    res.status(416);
+                    res.raw().setHeader("Content-Range", ByteRange.unsatisfiedContentRange(length));
+                    return;
+                }
+
+                BufferPool pool = BufferPool.getInstance();
+                if (range.isPresent()) {
+                    // Mesos agents don't honor Range at files/download; skip on our side
+                    res.status(206);
+                    res.raw().setHeader("Content-Range", range.get().toContentRange(length));
+                    res.raw().setHeader("Content-Length", Long.toString(range.get().length()));
+                    LOG.debug("start streaming of {} for {}", range.get(), file);
+                    pool.skip(io, range.get().first());
+                    pool.transfer(io, res.raw().getOutputStream(), range.get().length());
+                } else {
+                    res.raw().setHeader("Content-Length", length.toString());
+                    LOG.debug("start streaming of {} bytes for {}", length, file);
+                    pool.transfer(io, res.raw().getOutputStream(), length);
+                }
                 LOG.debug("end streaming for {}", file);
             } else {
                 res.body(triad.center());
@@ -250,6 +293,40 @@ public final class JobRequestHandler {
         return "";
     }
 
+    // Streams new bytes of a file as chunked response until the job finishes; the stream is
+    // also closed after TAIL_MAX_IDLE_MSEC without new bytes, then clients resume from their offset
+    static String tailFile(spark.Request req, spark.Response res) throws Exception {
+        Optional<Job> maybeJob = getJobAndVerify(req);
+        if (!maybeJob.isPresent()) {
+            throw new JobNotFoundException(Long.parseLong(req.params(":id")));
+        }
+        long id = maybeJob.get().id();
+        String file = req.queryParams("path");
+        String offsetParam = req.queryParams("offset");
+        long offset = offsetParam == null ? 0 : Long.parseLong(offsetParam);
+        LOG.debug("tail: id={}, path={}, offset={}", id, file, offset);
+
+        res.status(200);
+        res.type("application/octet-stream");
+        OutputStream out = res.raw().getOutputStream();
+        // Flush headers right away so that clients can start waiting for bytes
+        out.flush();
+
+        FileTailer tailer = new FileTailer(() -> Database.getInstance().getJob(id), file, offset)
+                .setMaxIdle(TAIL_MAX_IDLE_MSEC);
+        try {
+            tailer.follow((o, data) -> {
+                out.write(data);
+                out.flush();
+                return true;
+            });
+        } catch (IOException e) {
+            // Mostly the client has gone away
+            LOG.debug("Tailing {} of job (id={}) stopped at {}: {}", file, id, tailer.offset(), e.toString());
+        }
+        return "";
+    }
+
     static String getDir(spark.Request req, spark.Response res) throws IOException {
         Optional<Job> job;
         try {
@@ -295,7 +372,7 @@ public final class JobRequestHandler {
     static String kill(Request req, spark.Response res) throws IOException {
         LOG.debug("kill", req.params(":id"));
         res.type("application/json");
-        int id = Integer.parseInt(req.params(":id"));
+        long id = Long.parseLong(req.params(":id"));
 
         Optional<Job> maybeJob;
         try {
@@ -311,24 +388,7 @@ public final class JobRequestHandler {
             return MAPPER.writeValueAsString(response);
         }
 
-        boolean result = Stanchion.call(() -> {
-            Optional<Job> maybeJob2 = JobQueue.cancel(id, "Canceled by user");
-
-            if (maybeJob2.isPresent()) {
-                Job job = maybeJob2.get();
-                // There's a slight pitfall between cancel above and kill below where
-                // no kill may be sent, RetzScheduler is exactly in resourceOffers and being scheduled.
-                // Then this protocol returns false for sure.
-                if (job.taskId() != null && !job.taskId().isEmpty() && driver.isPresent()) {
-                    Protos.TaskID taskId = Protos.TaskID.newBuilder().setValue(job.taskId()).build();
-                    Protos.Status status = driver.get().killTask(taskId);
-                    LOG.info("Job id={} was running and killed. status={}, taskId={}", job.id(), status, job.taskId());
-                }
-                return job.state() == Job.JobState.KILLED;
-            }
-            // Job is already finished or killed, no more running nor runnable, or something is wrong
-            return false;
-        });
+        boolean result = Stanchion.call(() -> JobQueue.kill(id, driver, "Canceled by user"));
 
         Response response;
         if (result) {
@@ -344,6 +404,35 @@ public final class JobRequestHandler {
         return MAPPER.writeValueAsString(response);
     }
 
+    static String killMatching(spark.Request req, spark.Response res) throws IOException {
+        Optional<AuthHeader> authHeaderValue = WebConsole.getAuthInfo(req);
+        KillMatchingRequest killMatchingRequest = MAPPER.readValue(req.body(), KillMatchingRequest.class);
+        String user = Objects.requireNonNull(authHeaderValue.get().key());
+        LOG.debug("kill-matching by {}: tag={}, states={}, after={}", user,
+                killMatchingRequest.tag(), killMatchingRequest.states(), killMatchingRequest.after());
+
+        KillMatchingResponse response = JobQueue.killMatching(user, killMatchingRequest, driver, "Canceled by user");
+        response.ok();
+        res.status(200);
+        res.type("application/json");
+        return MAPPER.writeValueAsString(response);
+    }
+
+    // Returns error response body with status 429 if jobs are not admitted
+    private static Optional<String> admit(Application app, int n, spark.Response res) throws IOException {
+        try {
+            AdmissionControl.getInstance().admit(app.getOwner(), n);
+            return Optional.empty();
+        } catch (AdmissionDeniedException e) {
+            LOG.info("{} jobs at {} denied: {}", n, app.getAppid(), e.getMessage());
+            res.status(429);
+            if (e.retryAfterSec() > 0) {
+                res.header("Retry-After", Long.toString(e.retryAfterSec()));
+            }
+            return Optional.of(MAPPER.writeValueAsString(new ErrorResponse(e.getMessage())));
+        }
+    }
+
     static String schedule(spark.Request req, spark.Response res) throws IOException {
         ScheduleRequest scheduleRequest = MAPPER.readValue(req.bodyAsBytes(), ScheduleRequest.class);
         res.type("application/json");
@@ -360,13 +449,16 @@ public final class JobRequestHandler {
             validateOwner(req, maybeApp.get());
 
             Job job = scheduleRequest.job();
-            if (scheduler.isPresent()) {
-                if (!scheduler.get().validateJob(job)) {
-                    String msg = "Job " + job.toString() + " does not fit system limit " + scheduler.get().maxJobSize();
-                    // TODO: this warn log cannot be written in real stable release
-                    LOG.warn(msg);
-                    halt(400, msg);
-                }
+            if (maxJobSize.isPresent() && !maxJobSize.get().fits(job)) {
+                String msg = "Job " + job.toString() + " does not fit system limit " + maxJobSize.get();
+                // TODO: this warn log cannot be written in real stable release
+                LOG.warn(msg);
+                halt(400, msg);
+            }
+
+            Optional<String> denied = admit(maybeApp.get(), 1, res);
+            if (denied.isPresent()) {
+                return denied.get();
             }
 
             job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
@@ -393,4 +485,74 @@ public final class JobRequestHandler {
             return MAPPER.writeValueAsString(response);
         }
     }
+
+    static String scheduleBatch(spark.Request req, spark.Response res) throws IOException {
+        ScheduleBatchRequest batchRequest = MAPPER.readValue(req.bodyAsBytes(), ScheduleBatchRequest.class);
+        res.type("application/json");
+        List<Job> jobs = batchRequest.jobs();
+        if (jobs.isEmpty() || jobs.size() > ScheduleBatchRequest.MAX_JOBS) {
+            res.status(400);
+            return MAPPER.writeValueAsString(new ErrorResponse(
+                    "Number of jobs must be in [1, " + ScheduleBatchRequest.MAX_JOBS + "]: " + jobs.size()));
+        }
+        String appid = jobs.get(0).appid();
+        if (!jobs.stream().allMatch(job -> appid.equals(job.appid()))) {
+            res.status(400);
+            return MAPPER.writeValueAsString(new ErrorResponse("All jobs in a batch must be of the same application"));
+        }
+
+        // Validate the application only once for all jobs
+        Optional<Application> maybeApp = Applications.get(appid);
+        if (!maybeApp.isPresent()) {
+            LOG.warn("No such application loaded: {}", appid);
+            ErrorResponse response = new ErrorResponse("No such application: " + appid);
+            res.status(404);
+            return MAPPER.writeValueAsString(response);
+
+        } else if (maybeApp.get().enabled()) {
+
+            validateOwner(req, maybeApp.get());
+
+            if (maxJobSize.isPresent()) {
+                for (Job job : jobs) {
+                    if (!maxJobSize.get().fits(job)) {
+                        String msg = "Job " + job.toString() + " does not fit system limit " + maxJobSize.get();
+                        LOG.warn(msg);
+                        halt(400, msg);
+                    }
+                }
+            }
+
+            Optional<String> denied = admit(maybeApp.get(), jobs.size(), res);
+            if (denied.isPresent()) {
+                return denied.get();
+            }
+
+            long id = JobQueue.issueJobIds(jobs.size());
+            String now = TimestampHelper.now();
+            for (Job job : jobs) {
+                job.schedule(id++, now);
+            }
+
+            JobQueue.pushAll(appid, jobs);
+            if (scheduler.isPresent() && driver.isPresent()) {
+                LOG.info("Trying invocation of {} jobs from offer stock", jobs.size());
+                scheduler.get().maybeInvokeNow(driver.get(), jobs);
+            }
+
+            ScheduleBatchResponse batchResponse = new ScheduleBatchResponse(jobs);
+            batchResponse.ok();
+            LOG.info("{} jobs (id={}..{}) at {} have been scheduled at {}.",
+                    jobs.size(), jobs.get(0).id(), jobs.get(jobs.size() - 1).id(), appid, now);
+
+            res.status(201);
+            return MAPPER.writeValueAsString(batchResponse);
+
+        } else {
+            // Application is currently disabled
+            res.status(401);
+            ErrorResponse response = new ErrorResponse("Application " + maybeApp.get().getAppid() + " is disabled");
+            return MAPPER.writeValueAsString(response);
+        }
+    }
 }
@@ -86,6 +86,8 @@ public final class WebConsole {
 
         WebConsole.serverConfiguration = config;
         JobRequestHandler.setMaxListJobSize(config.getMaxListJobSize());
+        JobRequestHandler.setMaxJobSize(config.getMaxJobSize());
+        JobRequestHandler.setMaxFileSize(config.getMaxFileSize());
 
         before(WebConsole::authenticate);
 
@@ -125,10 +127,13 @@ public final class WebConsole {
         // /job  PUT -> schedule, GET -> get-job, DELETE -> kill
         get(GetJobRequest.resourcePattern(), JobRequestHandler::getJob);
         post(ScheduleRequest.resourcePattern(), JobRequestHandler::schedule);
+        post(ScheduleBatchRequest.resourcePattern(), JobRequestHandler::scheduleBatch);
         delete(KillRequest.resourcePattern(), JobRequestHandler::kill);
+        post(KillMatchingRequest.resourcePattern(), JobRequestHandler::killMatching);
         // Get a file
         get(GetFileRequest.resourcePattern(), JobRequestHandler::getFile);
         get(DownloadFileRequest.resourcePattern(), JobRequestHandler::downloadFile);
+        get(TailFileRequest.resourcePattern(), JobRequestHandler::tailFile);
         // Get file list
         get(ListFilesRequest.resourcePattern(), JobRequestHandler::getDir);
 
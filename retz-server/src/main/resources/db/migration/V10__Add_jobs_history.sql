@@ -0,0 +1,39 @@
+--
+--    Retz
+--    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--        http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+-- FINISHED and KILLED jobs moved out of jobs, so that jobs and its indexes only hold
+-- jobs queued or running; see JobHistory. Columns are those of jobs, without version
+-- as jobs are never changed here.
+CREATE TABLE jobs_history (
+    id BIGINT NOT NULL,
+    name VARCHAR(32),
+    appid VARCHAR(32) NOT NULL,
+    priority INTEGER NOT NULL,
+    taskid VARCHAR(128),
+    state VARCHAR(16) NOT NULL,
+    started_at BIGINT,
+    finished_at BIGINT,
+    slave_id VARCHAR(128),
+    json TEXT,
+    body BYTEA,
+    PRIMARY KEY (id)
+);
+
+-- listJobs: j.appid = a.appid AND a.owner = ? AND j.state = ? ORDER BY j.id DESC
+CREATE INDEX jobs_history_appid_state_id ON jobs_history(appid, state, id);
+-- finishedJobs (usage) and job GC
+CREATE INDEX jobs_history_finished_at ON jobs_history(finished_at);
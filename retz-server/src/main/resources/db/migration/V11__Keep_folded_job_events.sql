@@ -0,0 +1,23 @@
+--
+--    Retz
+--    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--        http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+-- Events folded into JSON of their job are marked instead of deleted, so that they tell
+-- the whole history of the job until it is deleted by GC; see JobEvents
+ALTER TABLE job_events ADD COLUMN folded BOOLEAN NOT NULL DEFAULT FALSE;
+
+-- compact: folded = FALSE AND ts < ?
+CREATE INDEX job_events_folded_ts ON job_events(folded, ts);
@@ -0,0 +1,21 @@
+--
+--    Retz
+--    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--        http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+-- Cancels of jobs accepted by frontend servers, made by the scheduler as it takes them;
+-- job_id is NULL for kills of tasks only, and taskid is empty for cancels
+ALTER TABLE kill_requests ADD COLUMN job_id BIGINT;
+ALTER TABLE kill_requests ADD COLUMN reason VARCHAR(1024);
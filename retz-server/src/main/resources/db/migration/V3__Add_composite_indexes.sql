@@ -0,0 +1,25 @@
+--
+--    Retz
+--    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--        http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+-- Indexes matching the shapes of hot queries; see QueryPlanTest
+-- Queue scan for planning: WHERE state='QUEUED' ORDER BY priority, id
+CREATE INDEX jobs_state_priority_id ON jobs(state, priority, id);
+-- countByState, getByState, running jobs, queue listing ordered by id
+CREATE INDEX jobs_state_id ON jobs(state, id);
+-- listJobs: j.appid = a.appid AND a.owner = ? AND j.state = ? ORDER BY j.id DESC
+CREATE INDEX jobs_appid_state_id ON jobs(appid, state, id);
+CREATE INDEX applications_owner ON applications(owner);
@@ -0,0 +1,25 @@
+--
+--    Retz
+--    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--        http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+-- Kills of running tasks accepted by frontend servers, which have no Mesos driver;
+-- the scheduler polls this table and sends kills to Mesos
+CREATE TABLE kill_requests (
+    taskid VARCHAR(128) NOT NULL,
+    requested_at BIGINT NOT NULL
+);
+
+CREATE INDEX kill_requests_requested_at ON kill_requests(requested_at);
@@ -0,0 +1,34 @@
+--
+--    Retz
+--    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--        http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+-- Append-only journal of job state transitions; see JobEvents. The current job is
+-- jobs.json folded with its events here, and compaction folds old events back into
+-- jobs.json. ts is in epoch milliseconds as other timestamps.
+CREATE TABLE job_events (
+    job_id BIGINT NOT NULL,
+    seq BIGINT NOT NULL,
+    state VARCHAR(16) NOT NULL,
+    ts BIGINT NOT NULL,
+    taskid VARCHAR(128),
+    slave_id VARCHAR(128),
+    url VARCHAR(1024),
+    reason VARCHAR(1024),
+    result INTEGER,
+    PRIMARY KEY (job_id, seq)
+);
+
+CREATE INDEX job_events_ts ON job_events(ts);
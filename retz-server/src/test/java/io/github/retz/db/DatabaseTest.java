@@ -18,6 +18,7 @@ package io.github.retz.db;
 
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.protocol.data.*;
+import io.github.retz.misc.Pair;
 import io.github.retz.planner.AppJobPair;
 import io.github.retz.scheduler.JobQueue;
 import org.hamcrest.Matchers;
@@ -25,10 +26,17 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
@@ -130,14 +138,14 @@ public class DatabaseTest {
                 Optional.empty(), u.keyId(), 0, new MesosContainer(), true);
         db.addApplication(a);
 
-        int id = -1;
+        long id = -1;
         {
             Job job = new Job(a.getAppid(), "uname -a", new Properties(), 1, 32, 32);
             job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
 
             db.safeAddJob(job);
 
-            assertThat(db.getLatestJobId(), Matchers.greaterThanOrEqualTo(1));
+            assertThat(db.getLatestJobId(), Matchers.greaterThanOrEqualTo(1L));
             Job job2 = db.getJob(job.id()).get();
 
             assertEquals(job.id(), job2.id());
@@ -158,7 +166,13 @@ public class DatabaseTest {
             for (Job j : db.getAllJobs(u.keyId())) {
                 System.err.println(j.id() + j.taskId() + j.state());
             }
-            db.setJobStarting(id, Optional.empty(), taskId);
+            assertTrue(db.getRunningTasks().isEmpty());
+            db.setJobStarting(id, Optional.empty(), taskId, Optional.of("slave-1"));
+            assertEquals("slave-1", db.getJob(id).get().slaveId());
+            List<Pair<String, String>> tasks = db.getRunningTasks();
+            assertEquals(1, tasks.size());
+            assertEquals(taskId, tasks.get(0).left());
+            assertEquals("slave-1", tasks.get(0).right());
 
             for (Job j : db.getAllJobs(u.keyId())) {
                 System.out.println(j.pp());
@@ -258,7 +272,7 @@ public class DatabaseTest {
             assertEquals(users.get(i).keyId(), jobs.get(0).name());
         }
 
-        db.deleteAllJob(Integer.MAX_VALUE);
+        db.deleteAllJob(Long.MAX_VALUE);
     }
 
     @Test
@@ -269,8 +283,147 @@ public class DatabaseTest {
         assertThat(db.getFrameworkId().get(), is(frameworkId));
     }
 
+    @Test
+    public void pool() throws Exception {
+        assertEquals(Database.DEFAULT_STATEMENT_CACHE_SIZE, db.getStatementCacheSize());
+
+        // Autocommit turned off by a transaction is back on as returned to the pool
+        int idle = Database.getDataSource().getNumIdle();
+        for (int i = 0; i <= idle; i++) {
+            try (Connection conn = Database.getDataSource().getConnection()) {
+                assertTrue(conn.getAutoCommit());
+                conn.setAutoCommit(false);
+            }
+        }
+
+        // Work left uncommitted is rolled back on return, not committed at next borrow
+        try (Connection conn = Database.getDataSource().getConnection()) {
+            conn.setAutoCommit(false);
+            assertTrue(new Property(conn).insertProperty("uncommitted", "value"));
+        }
+        for (int i = 0; i <= idle; i++) {
+            try (Connection conn = Database.getDataSource().getConnection()) {
+                assertFalse(new Property(conn).getPropertyWithEpoch("uncommitted").isPresent());
+            }
+        }
+
+        long borrowed = Database.getPoolMetrics().borrowedConnections();
+        db.getFrameworkId();
+        assertThat(Database.getPoolMetrics().borrowedConnections(), greaterThanOrEqualTo(borrowed + 1));
+
+        // Borrows by those given the pool directly are counted as well
+        borrowed = Database.getPoolMetrics().borrowedConnections();
+        LeaderLease lease = new LeaderLease(Database.getDataSource(), "pool", 1000);
+        assertTrue(lease.tryAcquire());
+        lease.release();
+        assertThat(Database.getPoolMetrics().borrowedConnections(), greaterThanOrEqualTo(borrowed + 2));
+    }
+
     @Test
     public void gc() throws IOException {
         db.deleteOldJobs(1024);
     }
+
+    @Test
+    public void batchedGc() throws Exception {
+        User u = db.createUser("gc user");
+        Application a = new Application("gcapp", Collections.emptyList(), Collections.emptyList(),
+                Optional.empty(), u.keyId(), 0, new MesosContainer(), true);
+        db.addApplication(a);
+
+        String old = TimestampHelper.past(3600);
+        List<Job> finished = new ArrayList<>();
+        List<Long> queued = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            Job job = new Job(a.getAppid(), "true", new Properties(), 1, 32, 32);
+            job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+            db.safeAddJob(job);
+            // Leave some of them queued, which must survive GC
+            if (i % 5 != 0) {
+                job.finished(old, Optional.empty(), 0);
+                finished.add(job);
+            } else {
+                queued.add(job.id());
+            }
+        }
+        db.updateJobs(finished);
+
+        // Range is compared in epoch millis, whatever offset the bounds are written in
+        {
+            long t = System.currentTimeMillis();
+            String start = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX")
+                    .withZone(ZoneOffset.ofHours(-5)).format(Instant.ofEpochMilli(t - 7200 * 1000));
+            List<Long> ids = db.finishedJobs(start, TimestampHelper.past(1800)).stream()
+                    .map(Job::id).collect(Collectors.toList());
+            for (Job job : finished) {
+                assertTrue(ids.contains(job.id()));
+            }
+        }
+
+        Path dir = Files.createTempDirectory("retz-gc");
+        try {
+            JobCollector collector = db.newJobCollector(3, 0, 2, Optional.of(dir.toString()));
+            assertEquals(20, collector.collect(60));
+
+            GcStatus status = collector.status();
+            assertFalse(status.running());
+            assertEquals(20, status.deleted());
+            assertEquals(20, status.archived());
+            assertThat(status.batches(), greaterThanOrEqualTo(7L));
+
+            int lines = 0;
+            for (File f : dir.toFile().listFiles()) {
+                try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(new FileInputStream(f)), "UTF-8"))) {
+                    while (r.readLine() != null) {
+                        lines++;
+                    }
+                }
+            }
+            assertEquals(20, lines);
+            for (long id : queued) {
+                assertTrue(db.getJob(id).isPresent());
+            }
+
+            // Nothing left to collect
+            assertEquals(0, collector.collect(60));
+        } finally {
+            for (File f : dir.toFile().listFiles()) {
+                f.delete();
+            }
+            Files.delete(dir);
+        }
+        db.deleteAllJob(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void killRequests() throws Exception {
+        assertTrue(db.takeKillRequests(10).isEmpty());
+
+        db.enqueueKills(Arrays.asList("task-1", "task-2", "task-3"));
+        db.enqueueKills(Collections.emptyList());
+        Set<String> taken = new HashSet<>(db.takeKillRequests(2));
+        assertEquals(2, taken.size());
+        taken.addAll(db.takeKillRequests(2));
+        assertEquals(new HashSet<>(Arrays.asList("task-1", "task-2", "task-3")), taken);
+        assertTrue(db.takeKillRequests(2).isEmpty());
+    }
+
+    @Test
+    public void cancelRequests() throws Exception {
+        db.enqueueKills(Arrays.asList("task-1"));
+        db.enqueueCancel(42, "Canceled by user");
+        db.enqueueCancel(43, "Canceled by admin");
+        db.enqueueCancel(42, "Canceled by user");
+
+        // Cancels and kills are taken apart
+        List<Pair<Long, String>> cancels = db.takeCancelRequests(10);
+        assertEquals(3, cancels.size());
+        Map<Long, String> reasons = new HashMap<>();
+        cancels.forEach(cancel -> reasons.put(cancel.left(), cancel.right()));
+        assertEquals("Canceled by user", reasons.get(42L));
+        assertEquals("Canceled by admin", reasons.get(43L));
+        assertTrue(db.takeCancelRequests(10).isEmpty());
+        assertEquals(Arrays.asList("task-1"), db.takeKillRequests(10));
+    }
 }
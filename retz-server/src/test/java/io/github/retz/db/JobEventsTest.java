@@ -0,0 +1,207 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JobEventsTest {
+    private Database db = Database.getInstance();
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void before() throws Exception {
+        mapper.registerModule(new Jdk8Module());
+        db.initOnMem("job-events");
+        User u = db.createUser("test user");
+        db.addApplication(new Application("evapp", Collections.emptyList(), Collections.emptyList(),
+                Optional.empty(), u.keyId(), 0, new MesosContainer(), true));
+    }
+
+    @After
+    public void after() throws Exception {
+        db.clear();
+        db.stop();
+    }
+
+    @Test
+    public void foldAndCompact() throws Exception {
+        Job job = new Job("evapp", "true", new Properties(), 1, 32, 32);
+        job.schedule(1, TimestampHelper.now());
+        db.safeAddJob(job);
+
+        db.setJobStarting(1, Optional.empty(), "task-1", Optional.of("slave-1"));
+        Job j = db.getJob(1).get();
+        j.started("task-1", "slave-1", Optional.of("http://example.com/sandbox"), TimestampHelper.now());
+        db.appendEvent(j);
+        j = db.getJobFromTaskId("task-1").get();
+        j.finished(TimestampHelper.now(), Optional.empty(), 0);
+        db.appendEvent(j);
+
+        // JSON in the row is not rewritten by transitions, while the job read is up to date
+        assertEquals(3, countEvents(1));
+        assertEquals(Job.JobState.QUEUED, rowJson(1).state());
+        Job folded = db.getJob(1).get();
+        assertEquals(Job.JobState.FINISHED, folded.state());
+        assertEquals("task-1", folded.taskId());
+        assertEquals("slave-1", folded.slaveId());
+        assertEquals("http://example.com/sandbox", folded.url());
+        assertEquals(0, db.countRunning());
+
+        // Events not old enough are left
+        assertEquals(0, db.compactEvents(3600, 10));
+        assertEquals(3, countEvents(1));
+
+        // Compaction only takes events strictly older than now
+        Thread.sleep(10);
+        assertEquals(1, db.compactEvents(0, 10));
+        assertEquals(0, countEvents(1));
+        // Folded events are kept as history of the job
+        assertEquals(3, countAllEvents(1));
+        assertEquals(0, db.compactEvents(0, 10));
+        Job compacted = rowJson(1);
+        assertEquals(Job.JobState.FINISHED, compacted.state());
+        assertEquals(folded.taskId(), compacted.taskId());
+        assertEquals(folded.started(), compacted.started());
+        assertEquals(folded.finished(), compacted.finished());
+        assertEquals(folded.url(), compacted.url());
+        assertEquals(Job.JobState.FINISHED, db.getJob(1).get().state());
+    }
+
+    @Test
+    public void retryAndRewrite() throws Exception {
+        Job job = new Job("evapp", "true", new Properties(), 1, 32, 32);
+        job.schedule(2, TimestampHelper.now());
+        db.safeAddJob(job);
+
+        db.setJobStarting(2, Optional.empty(), "task-2", Optional.empty());
+        Job j = db.getJob(2).get();
+        j.doRetry();
+        db.appendEvent(j);
+        assertEquals(1, db.queued(10).size());
+        assertEquals(1, db.queued(10).get(0).retry());
+
+        // A whole row rewrite folds events and marks them folded
+        j = db.getJob(2).get();
+        j.setPriority(3);
+        db.updateJobs(Collections.singletonList(j));
+        assertEquals(0, countEvents(2));
+        assertEquals(2, countAllEvents(2));
+        Job rewritten = rowJson(2);
+        assertEquals(Job.JobState.QUEUED, rewritten.state());
+        assertEquals(1, rewritten.retry());
+        assertEquals(3, rewritten.priority());
+    }
+
+    @Test
+    public void compareAndSwap() throws Exception {
+        Job job = new Job("evapp", "true", new Properties(), 1, 32, 32);
+        job.schedule(4, TimestampHelper.now());
+        db.safeAddJob(job);
+
+        // Killed by another writer between read and write of the first attempt
+        AtomicInteger attempts = new AtomicInteger(0);
+        Optional<Job> result = db.transition(4, j -> {
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    Job other = db.getJob(4).get();
+                    other.killed(TimestampHelper.now(), Optional.empty(), "killed concurrently");
+                    db.appendEvent(other);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+            if (j.state() != Job.JobState.QUEUED) {
+                return Optional.empty();
+            }
+            j.starting("task-4", "slave-1", Optional.empty(), TimestampHelper.now());
+            return Optional.of(j);
+        });
+        assertEquals(2, attempts.get());
+        assertFalse(result.isPresent());
+        assertEquals(Job.JobState.KILLED, db.getJob(4).get().state());
+        assertEquals(1, countEvents(4));
+
+        // Whole row rewrites are also swapped only at the version read
+        db.updateJob(4, j -> {
+            j.setPriority(2);
+            return Optional.of(j);
+        });
+        assertEquals(0, countEvents(4));
+        assertEquals(2, rowJson(4).priority());
+        assertEquals(Job.JobState.KILLED, rowJson(4).state());
+    }
+
+    @Test(expected = io.github.retz.protocol.exception.JobNotFoundException.class)
+    public void noSuchJob() throws Exception {
+        Job job = new Job("evapp", "true", new Properties(), 1, 32, 32);
+        job.schedule(3, TimestampHelper.now());
+        job.killed(TimestampHelper.now(), Optional.empty(), "never queued");
+        db.appendEvent(job);
+    }
+
+    // Events not yet folded into JSON
+    private int countEvents(long id) throws Exception {
+        return countEvents(id, " AND folded = FALSE");
+    }
+
+    private int countAllEvents(long id) throws Exception {
+        return countEvents(id, "");
+    }
+
+    private int countEvents(long id, String condition) throws Exception {
+        try (Connection conn = Database.getDataSource().getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT COUNT(*) FROM job_events WHERE job_id=?" + condition)) {
+            p.setLong(1, id);
+            try (ResultSet res = p.executeQuery()) {
+                assertTrue(res.next());
+                return res.getInt(1);
+            }
+        }
+    }
+
+    private Job rowJson(long id) throws Exception {
+        try (Connection conn = Database.getDataSource().getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE id=?")) {
+            p.setLong(1, id);
+            try (ResultSet res = p.executeQuery()) {
+                assertTrue(res.next());
+                return mapper.readValue(res.getString(1), Job.class);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class JobHistoryTest {
+    private Database db = Database.getInstance();
+    private User user;
+
+    @Before
+    public void before() throws Exception {
+        db.initOnMem("job-history");
+        user = db.createUser("test user");
+        db.addApplication(new Application("histapp", Collections.emptyList(), Collections.emptyList(),
+                Optional.empty(), user.keyId(), 0, new MesosContainer(), true));
+        for (int i = 1; i <= 5; i++) {
+            Job job = new Job("histapp", "true", new Properties(), 1, 32, 32);
+            job.schedule(i, TimestampHelper.now());
+            db.safeAddJob(job);
+        }
+    }
+
+    @After
+    public void after() throws Exception {
+        db.clear();
+        db.stop();
+    }
+
+    @Test
+    public void move() throws Exception {
+        // 1, 2: finished, 3: killed, 4: running, 5: queued
+        for (long id = 1; id <= 4; id++) {
+            db.setJobStarting(id, Optional.empty(), "task-" + id, Optional.of("slave-1"));
+        }
+        finish(1, 0);
+        finish(2, 1);
+        db.transition(3, job -> {
+            job.killed(TimestampHelper.now(), Optional.empty(), "test");
+            return Optional.of(job);
+        });
+
+        assertEquals(3, db.moveToHistory(2));
+        assertEquals(0, db.moveToHistory(2));
+        assertEquals(2, countRows("jobs"));
+        assertEquals(3, countRows(JobHistory.TABLE));
+        // Events are kept folded as history of the jobs
+        assertEquals(0, countRows("job_events WHERE job_id <= 3 AND folded = FALSE"));
+        assertTrue(countRows("job_events WHERE job_id <= 3") > 0);
+
+        // Jobs moved are read as they were
+        Job finished = db.getJob(2).get();
+        assertEquals(Job.JobState.FINISHED, finished.state());
+        assertEquals(1, finished.result());
+        assertEquals("task-2", finished.taskId());
+        assertEquals(Job.JobState.KILLED, db.getJob(3).get().state());
+        assertEquals(Job.JobState.STARTING, db.getJob(4).get().state());
+        assertTrue(db.getAppJob(1).isPresent());
+        assertEquals(5, db.countJobs());
+        assertEquals(5, db.getLatestJobId());
+
+        List<Job> list = db.listJobs(user.keyId(), Job.JobState.FINISHED, Optional.empty(), 10);
+        assertEquals(2, list.size());
+        assertEquals(2, list.get(0).id());
+        assertEquals(1, list.get(1).id());
+        assertEquals(1, db.listJobs(user.keyId(), Job.JobState.FINISHED, Optional.empty(), 1).size());
+        assertEquals(1, db.listJobs(user.keyId(), Job.JobState.QUEUED, Optional.empty(), 10).size());
+
+        String start = TimestampHelper.fromEpochMillis(System.currentTimeMillis() - 60000);
+        String end = TimestampHelper.fromEpochMillis(System.currentTimeMillis() + 60000);
+        assertEquals(3, db.finishedJobs(start, end).size());
+
+        // Garbage collection deletes jobs in history as well
+        Thread.sleep(10);
+        assertEquals(3, db.deleteOldJobs(0));
+        assertEquals(0, countRows(JobHistory.TABLE));
+        assertEquals(0, countRows("job_events WHERE job_id <= 3"));
+        assertTrue(countRows("job_events WHERE job_id = 4") > 0);
+        assertFalse(db.getJob(1).isPresent());
+    }
+
+    @Test
+    public void merge() throws Exception {
+        List<Job> active = jobs(9, 7, 4);
+        List<Job> history = jobs(8, 7, 3, 1);
+        List<Job> merged = JobHistory.merge(active, history, 10);
+        long[] ids = merged.stream().mapToLong(Job::id).toArray();
+        assertArrayEquals(new long[]{9, 8, 7, 4, 3, 1}, ids);
+        assertSame(active.get(1), merged.get(2));
+        assertEquals(3, JobHistory.merge(active, history, 3).size());
+    }
+
+    private void finish(long id, int result) throws Exception {
+        db.transition(id, job -> {
+            job.finished(TimestampHelper.now(), Optional.empty(), result);
+            return Optional.of(job);
+        });
+    }
+
+    private List<Job> jobs(long... ids) {
+        List<Job> jobs = new ArrayList<>();
+        for (long id : ids) {
+            Job job = new Job("histapp", "true", new Properties(), 1, 32, 32);
+            job.schedule(id, TimestampHelper.now());
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    private int countRows(String table) throws Exception {
+        try (Connection conn = Database.getDataSource().getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT COUNT(*) FROM " + table);
+             ResultSet res = p.executeQuery()) {
+            assertTrue(res.next());
+            return res.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JobIdAllocatorTest {
+    private Database db = Database.getInstance();
+
+    @After
+    public void after() throws Exception {
+        db.stop();
+    }
+
+    @Test
+    public void blocks() throws Exception {
+        db.initOnMem("jobid-blocks");
+
+        // Counter starts after the latest job, which may be beyond 32bit
+        User u = db.createUser("test user");
+        db.addApplication(new Application("idapp", Collections.emptyList(), Collections.emptyList(),
+                Optional.empty(), u.keyId(), 0, new MesosContainer(), true));
+        Job job = new Job("idapp", "true", new Properties(), 1, 32, 32);
+        long latest = 5000000000L;
+        job.schedule(latest, TimestampHelper.now());
+        db.safeAddJob(job);
+        assertEquals(latest, db.getJob(latest).get().id());
+
+        JobIdAllocator allocator = new JobIdAllocator(Database.getDataSource(), 10);
+        assertEquals(latest + 1, allocator.issue(1));
+        assertEquals(latest + 2, allocator.issue(3));
+        assertEquals(latest + 5, allocator.issue(5));
+        // Does not fit in the rest of the block; a larger one is reserved
+        assertEquals(latest + 11, allocator.issue(12));
+
+        // Another server reserves its own block after those
+        JobIdAllocator other = new JobIdAllocator(Database.getDataSource(), 10);
+        assertEquals(latest + 23, other.issue(1));
+        assertEquals(latest + 33, allocator.issue(1));
+    }
+
+    @Test
+    public void seedFromHistory() throws Exception {
+        db.initOnMem("jobid-history");
+        User u = db.createUser("test user");
+        db.addApplication(new Application("idapp", Collections.emptyList(), Collections.emptyList(),
+                Optional.empty(), u.keyId(), 0, new MesosContainer(), true));
+        Job job = new Job("idapp", "true", new Properties(), 1, 32, 32);
+        job.schedule(42, TimestampHelper.now());
+        db.safeAddJob(job);
+        db.transition(42, j -> {
+            j.killed(TimestampHelper.now(), Optional.empty(), "test");
+            return Optional.of(j);
+        });
+        assertEquals(1, db.moveToHistory(10));
+
+        // The counter deleted, ids are issued after the latest job in history
+        db.deleteAllProperties();
+        JobIdAllocator allocator = new JobIdAllocator(Database.getDataSource(), 10);
+        assertEquals(43, allocator.issue(1));
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        db.initOnMem("jobid-concurrent");
+
+        // Two servers sharing the database, each issuing ids from many threads
+        List<JobIdAllocator> allocators = Arrays.asList(
+                new JobIdAllocator(Database.getDataSource(), 7),
+                new JobIdAllocator(Database.getDataSource(), 13));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                JobIdAllocator allocator = allocators.get(i % 2);
+                int n = i % 3 + 1;
+                futures.add(executor.submit(() -> {
+                    List<Long> ids = new ArrayList<>();
+                    for (int j = 0; j < 500; j++) {
+                        long first = allocator.issue(n);
+                        for (int k = 0; k < n; k++) {
+                            ids.add(first + k);
+                        }
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> all = new HashSet<>();
+            int total = 0;
+            for (Future<List<Long>> future : futures) {
+                List<Long> ids = future.get();
+                total += ids.size();
+                all.addAll(ids);
+            }
+            assertEquals(total, all.size());
+            assertTrue(all.stream().allMatch(id -> id > 0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LeaderLeaseTest {
+    private Database db = Database.getInstance();
+
+    @Before
+    public void before() throws Exception {
+        db.initOnMem("leader-lease");
+    }
+
+    @After
+    public void after() throws Exception {
+        db.stop();
+    }
+
+    @Test
+    public void takeover() throws Exception {
+        LeaderLease leader = new LeaderLease(Database.getDataSource(), "leader", 1000);
+        LeaderLease standby = new LeaderLease(Database.getDataSource(), "standby", 1000);
+        long now = 1000000;
+
+        assertTrue(leader.tryAcquire(now));
+        assertEquals(now + 1000, leader.observedExpiry());
+        assertFalse(standby.tryAcquire(now + 1));
+        assertEquals(Optional.of("leader"), standby.observedHolder());
+        assertEquals(now + 1000, standby.observedExpiry());
+
+        // Leader extends the lease before it expires
+        assertTrue(leader.tryAcquire(now + 500));
+        assertFalse(standby.tryAcquire(now + 1200));
+
+        // Standby takes over once it has expired, and the old leader cannot extend it
+        assertTrue(standby.tryAcquire(now + 1500));
+        assertFalse(leader.tryAcquire(now + 1600));
+        assertEquals(Optional.of("standby"), leader.observedHolder());
+    }
+
+    @Test
+    public void release() throws Exception {
+        LeaderLease leader = new LeaderLease(Database.getDataSource(), "leader", 60000);
+        LeaderLease standby = new LeaderLease(Database.getDataSource(), "standby", 60000);
+
+        assertTrue(leader.tryAcquire());
+        assertFalse(standby.tryAcquire());
+        // Releasing a lease held by others does nothing
+        standby.release();
+        assertFalse(standby.tryAcquire());
+
+        leader.release();
+        assertTrue(standby.tryAcquire());
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+// Fails if any hot query shape of Database or Jobs does a full scan on H2
+public class QueryPlanTest {
+    // H2 annotates each table in a plan like "/* PUBLIC.JOBS_STATE_ID: STATE = 'QUEUED' */";
+    // full scans appear as "/* PUBLIC.JOBS.tableScan */" or an index name without conditions
+    private static final Pattern SCAN = Pattern.compile("/\\* (PUBLIC\\.[^*]*) \\*/");
+
+    static final List<String> HOT_QUERIES = Arrays.asList(
+            // findFit, queued
+            "SELECT * FROM jobs WHERE state='QUEUED' ORDER BY priority ASC, id ASC",
+            "SELECT * FROM jobs WHERE state='QUEUED' ORDER BY id ASC LIMIT 10",
+            // countByState, getByState
+            "SELECT count(id) FROM jobs WHERE state = 'STARTED'",
+            "SELECT id, json FROM jobs WHERE state = 'FINISHED'",
+            // Jobs.getRunning
+            "SELECT json FROM jobs WHERE state='STARTING' OR state='STARTED'",
+            // listJobs
+            "SELECT j.json FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = 'user0' AND j.state='FINISHED' ORDER BY j.id DESC LIMIT 10",
+            // finishedJobs (usage)
+            "SELECT * FROM jobs WHERE 1483196400000 <= finished_at AND finished_at < 1483282800000",
+            // Job GC
+            "SELECT MIN(id), MAX(id) FROM jobs WHERE finished_at < 1483196400000 AND (state='FINISHED' OR state='KILLED')",
+            // getJobFromTaskId
+            "SELECT json FROM jobs WHERE taskid='task-1'",
+            // getAppJob
+            "SELECT j.json, a.json FROM jobs j, applications a WHERE id = 1 AND j.appid = a.appid",
+            // JobHistory.move
+            "SELECT json, body, version FROM jobs WHERE state IN ('FINISHED', 'KILLED') ORDER BY id LIMIT 1000",
+            // JobHistory: listJobs, finishedJobs, job GC and getJob
+            "SELECT j.json FROM jobs_history j, applications a WHERE j.appid = a.appid AND a.owner = 'user0' AND j.state='FINISHED' ORDER BY j.id DESC LIMIT 10",
+            "SELECT * FROM jobs_history WHERE 1483196400000 <= finished_at AND finished_at < 1483282800000",
+            "SELECT MIN(id), MAX(id) FROM jobs_history WHERE finished_at < 1483196400000 AND (state='FINISHED' OR state='KILLED')",
+            "SELECT json FROM jobs_history WHERE id = 1");
+
+    private Database db;
+
+    @Before
+    public void before() throws Exception {
+        db = Database.getInstance();
+        db.initOnMem("queryplan");
+
+        String[] states = {"QUEUED", "STARTING", "STARTED", "FINISHED", "KILLED"};
+        try (Connection conn = DriverManager.getConnection(db.databaseURL);
+             PreparedStatement app = conn.prepareStatement("INSERT INTO applications(appid, owner, json) VALUES (?, ?, '{}')");
+             PreparedStatement job = conn.prepareStatement("INSERT INTO jobs(id, appid, priority, taskid, state, finished_at, json) VALUES (?, ?, ?, ?, ?, ?, '{}')");
+             PreparedStatement history = conn.prepareStatement("INSERT INTO jobs_history(id, appid, priority, taskid, state, finished_at, json) VALUES (?, ?, ?, ?, ?, ?, '{}')")) {
+            for (int i = 0; i < 16; i++) {
+                app.setString(1, "app" + i);
+                app.setString(2, "user" + (i % 4));
+                app.executeUpdate();
+            }
+            for (int i = 0; i < 2000; i++) {
+                job.setLong(1, i);
+                job.setString(2, "app" + (i % 16));
+                job.setInt(3, i % 3);
+                job.setString(4, "task-" + i);
+                job.setString(5, states[i % states.length]);
+                job.setLong(6, 1483196400000L + (i % 28) * 86400000L);
+                job.executeUpdate();
+            }
+            for (int i = 2000; i < 4000; i++) {
+                history.setLong(1, i);
+                history.setString(2, "app" + (i % 16));
+                history.setInt(3, i % 3);
+                history.setString(4, "task-" + i);
+                history.setString(5, i % 2 == 0 ? "FINISHED" : "KILLED");
+                history.setLong(6, 1483196400000L + (i % 28) * 86400000L);
+                history.executeUpdate();
+            }
+        }
+    }
+
+    @After
+    public void after() throws Exception {
+        try (Connection conn = DriverManager.getConnection(db.databaseURL);
+             Statement s = conn.createStatement()) {
+            s.executeUpdate("DELETE FROM jobs");
+            s.executeUpdate("DELETE FROM jobs_history");
+            s.executeUpdate("DELETE FROM applications");
+        }
+        db.stop();
+    }
+
+    @Test
+    public void noFullScan() throws Exception {
+        try (Connection conn = DriverManager.getConnection(db.databaseURL);
+             Statement s = conn.createStatement()) {
+            for (String query : HOT_QUERIES) {
+                String plan;
+                try (ResultSet r = s.executeQuery("EXPLAIN " + query)) {
+                    assertTrue(r.next());
+                    plan = r.getString(1);
+                }
+                System.err.println(plan);
+
+                Matcher m = SCAN.matcher(plan);
+                int tables = 0;
+                while (m.find()) {
+                    String scan = m.group(1);
+                    assertFalse("Full scan: " + query + "\n" + plan, scan.endsWith("tableScan"));
+                    assertTrue("No index condition: " + query + "\n" + plan, scan.contains(":"));
+                    tables++;
+                }
+                assertTrue(plan, tables > 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+// Primary and replica are two H2 instances which are never replicated; the replica is
+// set up with a part of data of the primary, to see which one a query went to
+public class ReplicaTest {
+    private static final long STALENESS_MSEC = 500;
+    private Database db = Database.getInstance();
+    private Database replica;
+    private User user = new User("cafebabe", "deadbeef", true, "replica test");
+
+    @Before
+    public void before() throws Exception {
+        db.initOnMem("replica-primary");
+        replica = Database.newMemInstance("replica-secondary");
+        for (Database d : new Database[]{db, replica}) {
+            d.addUser(user);
+            d.addApplication(new Application("repapp", Collections.emptyList(), Collections.emptyList(),
+                    Optional.empty(), user.keyId(), 0, new MesosContainer(), true));
+            d.safeAddJob(job(1));
+        }
+        db.safeAddJob(job(2));
+
+        PoolProperties props = new PoolProperties();
+        props.setUrl(replica.databaseURL);
+        props.setDriverClassName("org.h2.Driver");
+        db.setReplica(props, STALENESS_MSEC);
+    }
+
+    @After
+    public void after() throws Exception {
+        db.clear();
+        db.stop();
+        replica.clear();
+        replica.stop();
+    }
+
+    @Test
+    public void routing() throws Exception {
+        // No heartbeat has been replicated yet
+        assertEquals(2, countQueued());
+
+        // Heartbeats of other servers never count, whatever their clocks say
+        try (Connection conn = DriverManager.getConnection(replica.databaseURL)) {
+            new Property(conn).setHeartbeat(Property.heartbeatKey("other"), System.currentTimeMillis() + 60000);
+        }
+        Thread.sleep(STALENESS_MSEC);
+        assertEquals(2, countQueued());
+
+        replicate();
+        long deadline = System.currentTimeMillis() + 10 * STALENESS_MSEC;
+        while (countQueued() != 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, countQueued());
+        // Not yet replicated, but found in primary
+        assertTrue(db.getAppJob(2).isPresent());
+        // Scheduling always reads primary
+        assertEquals(2, db.queued(10).size());
+
+        // Replication has stopped for longer than the bound
+        Thread.sleep(STALENESS_MSEC * 2);
+        assertEquals(2, countQueued());
+    }
+
+    private int countQueued() throws Exception {
+        return db.listJobs(user.keyId(), Job.JobState.QUEUED, Optional.empty(), 10).size();
+    }
+
+    // Heartbeat written to primary has been replicated, with everything before
+    private void replicate() throws Exception {
+        try (Connection conn = DriverManager.getConnection(replica.databaseURL)) {
+            new Property(conn).setHeartbeat(db.getReplica().get().heartbeatKey(), System.currentTimeMillis());
+        }
+    }
+
+    private static Job job(long id) {
+        Job job = new Job("repapp", "true", new Properties(), 1, 32, 32);
+        job.schedule(id, TimestampHelper.now());
+        return job;
+    }
+}
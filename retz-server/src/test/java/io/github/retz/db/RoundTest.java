@@ -0,0 +1,114 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class RoundTest {
+    private Database db = Database.getInstance();
+
+    @Before
+    public void before() throws Exception {
+        db.initOnMem("round");
+        User u = db.createUser("test user");
+        db.addApplication(new Application("roundapp", Collections.emptyList(), Collections.emptyList(),
+                Optional.empty(), u.keyId(), 0, new MesosContainer(), true));
+        for (int i = 1; i <= 3; i++) {
+            Job job = new Job("roundapp", "true", new Properties(), 1, 32, 32);
+            job.schedule(i, TimestampHelper.now());
+            db.safeAddJob(job);
+        }
+    }
+
+    @After
+    public void after() throws Exception {
+        db.clear();
+        db.stop();
+    }
+
+    @Test
+    public void commit() throws Exception {
+        try (Round round = db.beginRound()) {
+            List<Job> jobs = round.findFit(Arrays.asList("id"), 100, 1000);
+            assertEquals(3, jobs.size());
+            assertEquals(3, round.queued(10).size());
+            assertTrue(round.getApplication("roundapp").isPresent());
+            assertFalse(round.getApplication("no-such-app").isPresent());
+
+            round.starting(jobs.get(0), "task-1", "slave-1");
+            Job cancelled = jobs.get(1);
+            cancelled.killed(TimestampHelper.now(), Optional.empty(), "test");
+            round.cancel(Arrays.asList(cancelled));
+            assertTrue(round.commit());
+        }
+
+        Job starting = db.getJob(1).get();
+        assertEquals(Job.JobState.STARTING, starting.state());
+        assertEquals("task-1", starting.taskId());
+        assertEquals("slave-1", starting.slaveId());
+        assertEquals(Job.JobState.KILLED, db.getJob(2).get().state());
+        assertEquals(Job.JobState.QUEUED, db.getJob(3).get().state());
+    }
+
+    @Test
+    public void conflict() throws Exception {
+        List<Job> jobs;
+        try (Round round = db.beginRound()) {
+            jobs = round.findAll(Arrays.asList("id"), -1);
+            assertEquals(3, jobs.size());
+            round.starting(jobs.get(0), "task-1", "slave-1");
+            round.starting(jobs.get(1), "task-2", "slave-1");
+
+            // Killed by a user after read in the round
+            Job killed = db.getJob(2).get();
+            killed.killed(TimestampHelper.now(), Optional.empty(), "killed by user");
+            db.appendEvent(killed);
+
+            assertFalse(round.commit());
+        }
+
+        // None of the round has been written
+        assertEquals(Job.JobState.QUEUED, db.getJob(1).get().state());
+        assertEquals(Job.JobState.KILLED, db.getJob(2).get().state());
+        assertEquals(Job.JobState.QUEUED, db.getJob(3).get().state());
+    }
+
+    @Test
+    public void rollbackOnClose() throws Exception {
+        try (Round round = db.beginRound()) {
+            List<Job> jobs = round.queued(1);
+            round.starting(jobs.get(0), "task-1", "slave-1");
+        }
+        assertEquals(Job.JobState.QUEUED, db.getJob(1).get().state());
+        assertEquals(3, db.queued(10).size());
+    }
+}
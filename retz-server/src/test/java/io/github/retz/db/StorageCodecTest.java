@@ -0,0 +1,164 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.DockerContainer;
+import io.github.retz.protocol.data.DockerVolume;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StorageCodecTest {
+    private Database db = Database.getInstance();
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void before() throws Exception {
+        mapper.registerModule(new Jdk8Module());
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        ProtobufCodec codec = (ProtobufCodec) StorageCodec.create(StorageCodec.Type.PROTOBUF, mapper, 0);
+        {
+            // Nulls are kept, as JSON does, except env that is decoded empty
+            Job job = new Job("app", "echo $FOO", null, 1, 32, 0);
+            job.schedule(42, TimestampHelper.now());
+            Job decoded = ProtobufCodec.decodeJob(codec.encode(job));
+            assertEquals(mapper.writeValueAsString(job).replace("\"props\":null", "\"props\":{}"),
+                    mapper.writeValueAsString(decoded));
+            assertNull(decoded.started());
+            assertNull(decoded.taskId());
+            assertFalse(decoded.attributes().isPresent());
+        }
+        {
+            Properties env = new Properties();
+            env.setProperty("FOO", "bar");
+            Job job = new Job("app", "echo $FOO", env, 2, 64, 10, 1, 2, "attr=x");
+            job.schedule(4294967296L, TimestampHelper.now());
+            job.addTags("a", "b");
+            job.starting("task-1", "slave-1", Optional.of("http://example.com"), TimestampHelper.now());
+            job.started("task-1", "slave-1", Optional.empty(), TimestampHelper.now());
+            job.finished(TimestampHelper.now(), Optional.empty(), 3);
+            Job decoded = ProtobufCodec.decodeJob(codec.encode(job));
+            assertEquals(mapper.writeValueAsString(job), mapper.writeValueAsString(decoded));
+        }
+        {
+            Application app = new Application("app", Arrays.asList("http://example.com/large.tar.gz"),
+                    Collections.emptyList(), Optional.empty(), "deadbeef", 30,
+                    new DockerContainer("centos:7", Arrays.asList(
+                            new DockerVolume("local", "/data", DockerVolume.Mode.RW, "vol", new Properties()))),
+                    true);
+            Application decoded = ProtobufCodec.decodeApplication(codec.encode(app));
+            assertEquals(mapper.writeValueAsString(app), mapper.writeValueAsString(decoded));
+        }
+    }
+
+    @Test
+    public void compress() throws Exception {
+        Properties env = new Properties();
+        for (int i = 0; i < 100; i++) {
+            env.setProperty("VARIABLE_" + i, "/some/long/path/to/directory/" + i);
+        }
+        Job job = new Job("app", "env", env, 1, 32, 0);
+        job.schedule(1, TimestampHelper.now());
+
+        byte[] plain = ((ProtobufCodec) StorageCodec.create(StorageCodec.Type.PROTOBUF, mapper, 0)).encode(job);
+        byte[] deflated = ((ProtobufCodec) StorageCodec.create(StorageCodec.Type.PROTOBUF, mapper, 1024)).encode(job);
+        assertEquals(ProtobufCodec.PLAIN, plain[0]);
+        assertEquals(ProtobufCodec.DEFLATED, deflated[0]);
+        assertTrue(deflated.length < plain.length);
+        assertEquals(mapper.writeValueAsString(ProtobufCodec.decodeJob(plain)),
+                mapper.writeValueAsString(ProtobufCodec.decodeJob(deflated)));
+        assertEquals(env, ProtobufCodec.decodeJob(deflated).props());
+    }
+
+    @Test
+    public void convertOnRead() throws Exception {
+        db.initOnMem("storage-codec");
+        try {
+            User u = db.createUser("codec user");
+            Application app = new Application("codecapp", Collections.emptyList(), Collections.emptyList(),
+                    Optional.empty(), u.keyId(), 0, new MesosContainer(), true);
+            db.addApplication(app);
+            Job job = new Job("codecapp", "true", new Properties(), 1, 32, 32);
+            job.schedule(1, TimestampHelper.now());
+            db.safeAddJob(job);
+            assertFalse(hasBody("jobs", "id", 1));
+
+            db.setCodec(StorageCodec.create(StorageCodec.Type.PROTOBUF, mapper, 1024));
+            Job job2 = new Job("codecapp", "false", new Properties(), 1, 32, 32);
+            job2.schedule(2, TimestampHelper.now());
+            db.safeAddJob(job2);
+            assertTrue(hasBody("jobs", "id", 2));
+
+            // Rows in both formats are read, and JSON ones are converted in background
+            assertEquals(2, db.queued(10).size());
+            assertEquals("codecapp", db.getAppJob(1).get().application().getAppid());
+            for (int i = 0; i < 100 && !(hasBody("jobs", "id", 1) && hasBody("applications", "appid", "codecapp")); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(hasBody("jobs", "id", 1));
+            assertTrue(hasBody("applications", "appid", "codecapp"));
+            assertEquals("true", db.getJob(1).get().cmd());
+
+            // And back
+            db.setCodec(StorageCodec.create(StorageCodec.Type.JSON, mapper, 0));
+            assertEquals("false", db.getJob(2).get().cmd());
+            for (int i = 0; i < 100 && hasBody("jobs", "id", 2); i++) {
+                Thread.sleep(100);
+            }
+            assertFalse(hasBody("jobs", "id", 2));
+        } finally {
+            db.clear();
+            db.stop();
+        }
+    }
+
+    private boolean hasBody(String table, String key, Object value) throws Exception {
+        try (Connection conn = Database.getDataSource().getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT json, body FROM " + table + " WHERE " + key + "=?")) {
+            p.setObject(1, value);
+            try (ResultSet res = p.executeQuery()) {
+                assertTrue(res.next());
+                byte[] body = res.getBytes(2);
+                // Exactly one of them is set
+                assertEquals(body == null, res.getString(1) != null);
+                return body != null;
+            }
+        }
+    }
+}
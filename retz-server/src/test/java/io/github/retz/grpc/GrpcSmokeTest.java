@@ -26,8 +26,11 @@ import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.MesosContainer;
 import io.github.retz.scheduler.JobQueue;
 import io.github.retz.scheduler.Launcher;
+import io.github.retz.scheduler.MesosSchedulerDummyDriver;
+import io.github.retz.scheduler.RetzScheduler;
 import io.github.retz.scheduler.ServerConfiguration;
 import io.grpc.StatusRuntimeException;
+import org.apache.mesos.Protos;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -55,10 +58,19 @@ public class GrpcSmokeTest {
 
         this.server = new RetzServer(config);
         this.server.start();
+
+        // Kills without a driver are left to the scheduler as done by frontends
+        Protos.FrameworkInfo frameworkInfo = Protos.FrameworkInfo.newBuilder()
+                .setUser("")
+                .setName(RetzScheduler.FRAMEWORK_NAME)
+                .build();
+        RetzScheduler scheduler = new RetzScheduler(new Launcher.Configuration(config), frameworkInfo);
+        RetzServer.setDriver(new MesosSchedulerDummyDriver(scheduler, frameworkInfo, config.getMesosMaster()));
     }
 
     @After
     public void after() {
+        RetzServer.setDriver(null);
         this.server.stop();
         this.server.blockUntilShutdown();
         Database.getInstance().stop();
@@ -97,7 +109,7 @@ public class GrpcSmokeTest {
                 assertEquals(app.getAppid(), apps.get(0).getAppid());
             }
 
-            int id = 0;
+            long id = 0;
             {
                 Job job = new Job(app.getAppid(), "ls -l", new Properties(), 1, 32, 32);
                 Optional<Job> maybeJob = client.schedule(job);
@@ -160,7 +160,7 @@ public class GrpcTests {
             Optional<Job> maybeJob = client.schedule(new Job("foobar", cmd, null, 1, 200, 32));
 
             assertTrue(maybeJob.isPresent());
-            int id = maybeJob.get().id();
+            long id = maybeJob.get().id();
             //assertThat(sres.job.id(), is(greaterThanOrEqualTo(0)));
             //System.err.println(sres.job.scheduled());
 
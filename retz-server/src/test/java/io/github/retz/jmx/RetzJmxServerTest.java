@@ -94,6 +94,9 @@ public class RetzJmxServerTest {
                 assertNotEquals(0, jmxClient.getAttributesInfo(new ObjectName("io.github.retz:type=Stats,name=Status")).length);
                 assertNotEquals(0, jmxClient.getAttributesInfo(new ObjectName("io.github.retz:type=Stats,name=TotalOffered")).length);
                 assertNotEquals(0, jmxClient.getAttributesInfo(new ObjectName("io.github.retz:type=Stats,name=TotalUsed")).length);
+                assertNotEquals(0, jmxClient.getAttributesInfo(new ObjectName("io.github.retz:type=Stats,name=Reconciliation")).length);
+                assertNotEquals(0, jmxClient.getAttributesInfo(new ObjectName("io.github.retz:type=Stats,name=DatabasePool")).length);
+                assertTrue((Long) jmxClient.getAttribute(new ObjectName("io.github.retz:type=Stats,name=DatabasePool"), "BorrowedConnections") > 0);
             }
         }
     }
@@ -0,0 +1,71 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.mesosc;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void transfer() throws IOException {
+        BufferPool pool = new BufferPool(2, 4096);
+        byte[] data = new byte[10000];
+        new Random(42).nextBytes(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new ByteArrayInputStream(data);
+        pool.skip(in, 1000);
+        assertEquals(5000, pool.transfer(in, out, 5000));
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 6000), out.toByteArray());
+        assertEquals(2, pool.available());
+
+        try {
+            pool.transfer(new ByteArrayInputStream(data), new ByteArrayOutputStream(), 20000);
+            fail();
+        } catch (EOFException e) {
+        }
+        // Buffer is returned even on failure
+        assertEquals(2, pool.available());
+    }
+
+    @Test
+    public void bounded() throws IOException {
+        BufferPool pool = new BufferPool(2, 4096);
+        ByteBuffer b1 = pool.acquire();
+        ByteBuffer b2 = pool.acquire();
+        assertTrue(b1.isDirect());
+        assertEquals(0, pool.available());
+        pool.release(b1);
+        assertEquals(1, pool.available());
+        // Reused, not newly allocated
+        assertSame(b1, pool.acquire());
+        pool.release(b1);
+        pool.release(b2);
+        assertEquals(2, pool.available());
+    }
+}
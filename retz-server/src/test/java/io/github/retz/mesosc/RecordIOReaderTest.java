@@ -0,0 +1,65 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.mesosc;
+
+import com.google.protobuf.CodedInputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RecordIOReaderTest {
+
+    @Test
+    public void records() throws IOException {
+        char[] large = new char[100000];
+        Arrays.fill(large, 'x');
+        String stream = "5\nhello0\n" + large.length + "\n" + new String(large) + "3\nfoo";
+        RecordIOReader reader = new RecordIOReader(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("hello", read(reader.next()));
+        assertEquals("", read(reader.next()));
+        assertEquals(new String(large), read(reader.next()));
+        assertEquals("foo", read(reader.next()));
+        assertNull(reader.next());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncated() throws IOException {
+        RecordIOReader reader = new RecordIOReader(new ByteArrayInputStream("10\nshort".getBytes(StandardCharsets.UTF_8)));
+        reader.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidLength() throws IOException {
+        RecordIOReader reader = new RecordIOReader(new ByteArrayInputStream("1x\na".getBytes(StandardCharsets.UTF_8)));
+        reader.next();
+    }
+
+    private static String read(CodedInputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        while (!in.isAtEnd()) {
+            builder.append((char) in.readRawByte());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.planner;
+
+import io.github.retz.protocol.data.Job;
+import io.github.retz.scheduler.Launcher;
+import io.github.retz.scheduler.ResidentExecutors;
+import io.github.retz.scheduler.RetzSchedulerTest;
+import io.github.retz.scheduler.ServerConfiguration;
+import io.github.retz.scheduler.ServerConfiguration.LaunchType;
+import org.apache.mesos.Protos;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OfferAcceptorTest {
+
+    @Test
+    public void singleLaunch() {
+        OfferAcceptor acceptor = acceptor(4, 512);
+        add(acceptor, "a", 1, null);
+        add(acceptor, "a", 2, null);
+        add(acceptor, "b", 3, null);
+
+        List<Protos.Offer.Operation> ops = acceptor.operations(LaunchType.LAUNCH);
+        assertEquals(1, ops.size());
+        assertEquals(Protos.Offer.Operation.Type.LAUNCH, ops.get(0).getType());
+        assertEquals(3, ops.get(0).getLaunch().getTaskInfosCount());
+    }
+
+    @Test
+    public void launchGroup() {
+        OfferAcceptor acceptor = acceptor(8, 512);
+        add(acceptor, "a", 1, null);
+        add(acceptor, "b", 2, null);
+        add(acceptor, "a", 3, null);
+        // Docker containers cannot be in task groups
+        add(acceptor, "c", 4, Protos.ContainerInfo.Type.DOCKER);
+
+        List<Protos.Offer.Operation> ops = acceptor.operations(LaunchType.LAUNCH_GROUP);
+        assertEquals(3, ops.size());
+        // A group per task, so that a failing job doesn't kill others, in the same executor
+        for (int i = 0; i < 2; i++) {
+            Protos.Offer.Operation group = ops.get(i);
+            assertEquals(Protos.Offer.Operation.Type.LAUNCH_GROUP, group.getType());
+            assertEquals(Protos.ExecutorInfo.Type.DEFAULT, group.getLaunchGroup().getExecutor().getType());
+            assertEquals("fw", group.getLaunchGroup().getExecutor().getFrameworkId().getValue());
+            assertEquals(ops.get(0).getLaunchGroup().getExecutor(), group.getLaunchGroup().getExecutor());
+            assertEquals(1, group.getLaunchGroup().getTaskGroup().getTasksCount());
+        }
+        assertEquals("task-1", ops.get(0).getLaunchGroup().getTaskGroup().getTasks(0).getTaskId().getValue());
+        assertEquals("task-3", ops.get(1).getLaunchGroup().getTaskGroup().getTasks(0).getTaskId().getValue());
+
+        // A group of a single task is not worth an executor
+        assertEquals(Protos.Offer.Operation.Type.LAUNCH, ops.get(2).getType());
+        assertEquals(2, ops.get(2).getLaunch().getTaskInfosCount());
+    }
+
+    @Test
+    public void noRoomForExecutor() {
+        OfferAcceptor acceptor = acceptor(2, 512);
+        add(acceptor, "a", 1, null);
+        add(acceptor, "a", 2, null);
+
+        List<Protos.Offer.Operation> ops = acceptor.operations(LaunchType.LAUNCH_GROUP);
+        assertEquals(1, ops.size());
+        assertEquals(Protos.Offer.Operation.Type.LAUNCH, ops.get(0).getType());
+        assertEquals(2, ops.get(0).getLaunch().getTaskInfosCount());
+    }
+
+    @Test
+    public void residentExecutor() throws Exception {
+        ResidentExecutors.init(configuration(LaunchType.EXECUTOR));
+        try {
+            OfferAcceptor acceptor = acceptor(4, 512);
+            add(acceptor, "a", 1, null);
+            add(acceptor, "a", 2, null);
+            add(acceptor, "c", 3, Protos.ContainerInfo.Type.DOCKER);
+
+            List<Protos.Offer.Operation> ops = acceptor.operations(LaunchType.EXECUTOR);
+            assertEquals(1, ops.size());
+            assertEquals(Protos.Offer.Operation.Type.LAUNCH, ops.get(0).getType());
+            List<Protos.TaskInfo> tasks = ops.get(0).getLaunch().getTaskInfosList();
+            assertEquals(3, tasks.size());
+
+            // Docker containers run by the command executor, added before tasks of applications
+            assertFalse(tasks.get(0).hasExecutor());
+
+            Protos.TaskInfo task = tasks.get(1);
+            assertFalse(task.hasCommand());
+            assertEquals("ls", Protos.CommandInfo.parseFrom(task.getData()).getValue());
+            Protos.ExecutorInfo executor = task.getExecutor();
+            assertTrue(ResidentExecutors.isRetzExecutor(executor.getExecutorId()));
+            assertEquals("a", executor.getSource());
+            assertEquals("http://example.com/retz-executor-all.jar", executor.getCommand().getUris(0).getValue());
+            // Same executor for tasks of the same application
+            assertEquals(executor, tasks.get(2).getExecutor());
+        } finally {
+            ResidentExecutors.init(configuration(LaunchType.LAUNCH));
+        }
+    }
+
+    @Test
+    public void noRoomForResidentExecutor() throws Exception {
+        ResidentExecutors.init(configuration(LaunchType.EXECUTOR));
+        try {
+            OfferAcceptor acceptor = acceptor(2, 512);
+            add(acceptor, "a", 1, null);
+            add(acceptor, "a", 2, null);
+
+            Protos.TaskInfo task = acceptor.operations(LaunchType.EXECUTOR).get(0).getLaunch().getTaskInfos(0);
+            assertFalse(task.hasExecutor());
+
+            // No room needed once the executor is up on the agent
+            ResidentExecutors.getInstance().registered(acceptor.getSlaveID(),
+                    ResidentExecutors.getInstance().executorInfo("a", Protos.FrameworkID.newBuilder().setValue("fw").build(),
+                            task.getCommand()).getExecutorId());
+            task = acceptor.operations(LaunchType.EXECUTOR).get(0).getLaunch().getTaskInfos(0);
+            assertTrue(task.hasExecutor());
+        } finally {
+            ResidentExecutors.init(configuration(LaunchType.LAUNCH));
+        }
+    }
+
+    private static ServerConfiguration configuration(LaunchType type) throws Exception {
+        Properties properties = new Properties();
+        try (InputStream in = Launcher.class.getResourceAsStream("/retz.properties")) {
+            properties.load(in);
+        }
+        if (type == LaunchType.EXECUTOR) {
+            properties.setProperty("retz.mesos.launch", "executor");
+            properties.setProperty("retz.executor.uri", "http://example.com/retz-executor-all.jar");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        properties.store(out, null);
+        return new ServerConfiguration(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static OfferAcceptor acceptor(int cpus, int mem) {
+        return new OfferAcceptor(RetzSchedulerTest.buildOffer("fw", "agent", "offer", cpus, mem));
+    }
+
+    private static void add(OfferAcceptor acceptor, String appid, int id, Protos.ContainerInfo.Type container) {
+        Protos.TaskInfo.Builder task = Protos.TaskInfo.newBuilder()
+                .setName("task-" + id)
+                .setTaskId(Protos.TaskID.newBuilder().setValue("task-" + id))
+                .setSlaveId(acceptor.getSlaveID())
+                .addAllResources(ResourceConstructor.construct(1, 32))
+                .setCommand(Protos.CommandInfo.newBuilder().setValue("ls"));
+        if (container != null) {
+            task.setContainer(Protos.ContainerInfo.newBuilder().setType(container));
+        }
+        acceptor.addTask(task.build(), new Job(appid, "ls", null, 1, 32, 0));
+    }
+}
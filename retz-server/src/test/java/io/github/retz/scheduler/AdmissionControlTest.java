@@ -0,0 +1,107 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.exception.AdmissionDeniedException;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void unlimited() throws Exception {
+        AdmissionControl admission = AdmissionControl.getInstance();
+        for (int i = 0; i < 1000; i++) {
+            admission.admit("deadbeef", 1000);
+        }
+    }
+
+    @Test
+    public void queueCaps() throws Exception {
+        AdmissionControl admission = new AdmissionControl(10, 6, 0, 1);
+        admission.admit("alice", 5);
+        admission.admit("alice", 1);
+        try {
+            admission.admit("alice", 1);
+            fail();
+        } catch (AdmissionDeniedException e) {
+            assertThat(e.getMessage(), containsString(ServerConfiguration.QUEUE_MAX_PER_USER));
+        }
+        admission.admit("bob", 4);
+        try {
+            admission.admit("charlie", 1);
+            fail();
+        } catch (AdmissionDeniedException e) {
+            assertThat(e.getMessage(), containsString(ServerConfiguration.QUEUE_MAX));
+        }
+    }
+
+    @Test
+    public void counters() throws Exception {
+        AdmissionControl admission = new AdmissionControl(10, 6, 0, 1);
+        admission.admit("alice", 6);
+        // Started or cancelled jobs make room without any count from database
+        admission.remove("alice", 2);
+        assertThat(admission.queued("alice"), is(4));
+        admission.admit("alice", 2);
+        // Never below zero, e.g. jobs admitted by other servers
+        admission.remove("bob", 3);
+        assertThat(admission.queued("bob"), is(0));
+        admission.admit("bob", 4);
+
+        // A count from database replaces the counters, keeping jobs admitted since the last two intervals
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("alice", 1);
+        counts.put("charlie", 2);
+        admission.rotate();
+        admission.adopt(counts);
+        assertThat(admission.queued("alice"), is(9));
+        assertThat(admission.queued("bob"), is(4));
+        assertThat(admission.queued("charlie"), is(2));
+        admission.rotate();
+        admission.rotate();
+        admission.adopt(counts);
+        assertThat(admission.queued("alice"), is(1));
+        assertThat(admission.queued("bob"), is(0));
+        admission.admit("bob", 6);
+    }
+
+    @Test
+    public void tokenBucket() {
+        long sec = 1000000000L;
+        AdmissionControl.TokenBucket bucket = new AdmissionControl.TokenBucket(10, 20);
+        long now = System.nanoTime();
+        assertThat(bucket.take(15, now), is(0L));
+        assertThat(bucket.take(5, now), is(0L));
+        // Empty: one token per 100 ms
+        assertThat(bucket.take(1, now), is(1L));
+        assertThat(bucket.take(1, now + sec / 10), is(0L));
+        assertThat(bucket.take(10, now + sec / 10), is(1L));
+
+        // Full again, where a batch larger than burst is taken at once with debt
+        now += 10 * sec;
+        assertThat(bucket.take(50, now), is(0L));
+        assertThat(bucket.take(1, now + sec), greaterThan(0L));
+        assertThat(bucket.take(1, now + 4 * sec), is(0L));
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import com.google.protobuf.ByteString;
+import org.apache.mesos.Protos;
+import org.apache.mesos.Scheduler;
+import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.v1.Protos.AgentID;
+import org.apache.mesos.v1.Protos.Filters;
+import org.apache.mesos.v1.Protos.FrameworkID;
+import org.apache.mesos.v1.Protos.MasterInfo;
+import org.apache.mesos.v1.Protos.Offer;
+import org.apache.mesos.v1.Protos.OfferID;
+import org.apache.mesos.v1.Protos.TaskID;
+import org.apache.mesos.v1.Protos.TaskState;
+import org.apache.mesos.v1.Protos.TaskStatus;
+import org.apache.mesos.v1.scheduler.Protos.Call;
+import org.apache.mesos.v1.scheduler.Protos.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class HttpSchedulerDriverTest {
+    private LocalMesosMaster master;
+    private RecordingScheduler scheduler;
+    private HttpSchedulerDriver driver;
+
+    @Before
+    public void before() throws Exception {
+        master = new LocalMesosMaster();
+        scheduler = new RecordingScheduler();
+        Protos.FrameworkInfo fw = Protos.FrameworkInfo.newBuilder().setUser("retz").setName("Retz-test").build();
+        driver = new HttpSchedulerDriver(scheduler, fw, master.address(), Optional.empty());
+    }
+
+    @After
+    public void after() {
+        driver.abort();
+        master.stop();
+    }
+
+    @Test
+    public void events() throws Exception {
+        assertEquals(Protos.Status.DRIVER_RUNNING, driver.start());
+        Call subscribe = master.await(Call.Type.SUBSCRIBE);
+        assertEquals("Retz-test", subscribe.getSubscribe().getFrameworkInfo().getName());
+
+        master.send(Event.newBuilder().setType(Event.Type.SUBSCRIBED)
+                .setSubscribed(Event.Subscribed.newBuilder()
+                        .setFrameworkId(FrameworkID.newBuilder().setValue("fw-1"))
+                        .setHeartbeatIntervalSeconds(15)
+                        .setMasterInfo(MasterInfo.newBuilder().setId("master").setIp(0)
+                                .setHostname("localhost").setPort(5050).setVersion("1.3.0")))
+                .build());
+        assertEquals("registered fw-1 1.3.0", scheduler.poll());
+
+        master.send(Event.newBuilder().setType(Event.Type.OFFERS)
+                .setOffers(Event.Offers.newBuilder().addOffers(offer("o-1")).addOffers(offer("o-2")))
+                .build());
+        assertEquals("offers o-1,o-2", scheduler.poll());
+
+        // Calls carry framework ID given by master
+        driver.killTask(Protos.TaskID.newBuilder().setValue("t-1").build());
+        Call kill = master.await(Call.Type.KILL);
+        assertEquals("fw-1", kill.getFrameworkId().getValue());
+        assertEquals("t-1", kill.getKill().getTaskId().getValue());
+
+        ByteString uuid = ByteString.copyFromUtf8("uuid-1");
+        master.send(Event.newBuilder().setType(Event.Type.UPDATE)
+                .setUpdate(Event.Update.newBuilder().setStatus(TaskStatus.newBuilder()
+                        .setTaskId(TaskID.newBuilder().setValue("t-1"))
+                        .setAgentId(AgentID.newBuilder().setValue("agent-1"))
+                        .setState(TaskState.TASK_RUNNING)
+                        .setUuid(uuid)))
+                .build());
+        assertEquals("update t-1 TASK_RUNNING agent-1", scheduler.poll());
+        Call ack = master.await(Call.Type.ACKNOWLEDGE);
+        assertEquals(uuid, ack.getAcknowledge().getUuid());
+        assertEquals("agent-1", ack.getAcknowledge().getAgentId().getValue());
+
+        driver.reconcileTasks(Arrays.asList(Protos.TaskStatus.newBuilder()
+                .setTaskId(Protos.TaskID.newBuilder().setValue("t-2"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("agent-2"))
+                .setState(Protos.TaskState.TASK_STAGING)
+                .build()));
+        Call reconcile = master.await(Call.Type.RECONCILE);
+        assertEquals("t-2", reconcile.getReconcile().getTasks(0).getTaskId().getValue());
+        assertEquals("agent-2", reconcile.getReconcile().getTasks(0).getAgentId().getValue());
+
+        master.send(Event.newBuilder().setType(Event.Type.FAILURE)
+                .setFailure(Event.Failure.newBuilder().setAgentId(AgentID.newBuilder().setValue("agent-1")))
+                .build());
+        assertEquals("slaveLost agent-1", scheduler.poll());
+
+        // Failover keeps the framework: no TEARDOWN
+        assertEquals(Protos.Status.DRIVER_STOPPED, driver.stop(true));
+        assertEquals(Protos.Status.DRIVER_STOPPED, driver.join());
+        assertEquals("disconnected", scheduler.poll());
+    }
+
+    @Test
+    public void batch() {
+        Call.Builder base = Call.newBuilder().setFrameworkId(FrameworkID.newBuilder().setValue("fw-1"));
+        Filters filters = Filters.newBuilder().setRefuseSeconds(3).build();
+        List<Call> calls = Arrays.asList(
+                decline(base, "o-1", filters), decline(base, "o-2", filters),
+                decline(base, "o-3", Filters.getDefaultInstance()),
+                base.clone().setType(Call.Type.REVIVE).build(),
+                decline(base, "o-4", filters), decline(base, "o-5", filters));
+        List<Call> batched = HttpSchedulerDriver.batch(calls);
+        assertThat(batched.stream().map(Call::getType).collect(Collectors.toList()),
+                contains(Call.Type.DECLINE, Call.Type.DECLINE, Call.Type.REVIVE, Call.Type.DECLINE));
+        assertEquals(Arrays.asList("o-1", "o-2"), offerIds(batched.get(0)));
+        assertEquals(Collections.singletonList("o-3"), offerIds(batched.get(1)));
+        assertEquals(Arrays.asList("o-4", "o-5"), offerIds(batched.get(3)));
+        assertEquals(3.0, batched.get(3).getDecline().getFilters().getRefuseSeconds(), 0);
+    }
+
+    @Test
+    public void convert() {
+        Protos.Offer.Operation op = Protos.Offer.Operation.newBuilder()
+                .setType(Protos.Offer.Operation.Type.LAUNCH)
+                .setLaunch(Protos.Offer.Operation.Launch.newBuilder().addTaskInfos(Protos.TaskInfo.newBuilder()
+                        .setName("task").setTaskId(Protos.TaskID.newBuilder().setValue("t-1"))
+                        .setSlaveId(Protos.SlaveID.newBuilder().setValue("agent-1"))))
+                .build();
+        Offer.Operation op1 = HttpSchedulerDriver.convert(op, Offer.Operation.parser());
+        assertEquals("agent-1", op1.getLaunch().getTaskInfos(0).getAgentId().getValue());
+        assertNotNull(HttpSchedulerDriver.convert(op1, Protos.Offer.Operation.parser()));
+    }
+
+    private static Call decline(Call.Builder base, String offerId, Filters filters) {
+        return base.clone().setType(Call.Type.DECLINE)
+                .setDecline(Call.Decline.newBuilder().addOfferIds(OfferID.newBuilder().setValue(offerId)).setFilters(filters))
+                .build();
+    }
+
+    private static List<String> offerIds(Call call) {
+        return call.getDecline().getOfferIdsList().stream().map(OfferID::getValue).collect(Collectors.toList());
+    }
+
+    private static Offer offer(String id) {
+        return Offer.newBuilder()
+                .setId(OfferID.newBuilder().setValue(id))
+                .setFrameworkId(FrameworkID.newBuilder().setValue("fw-1"))
+                .setAgentId(AgentID.newBuilder().setValue("agent-1"))
+                .setHostname("localhost")
+                .build();
+    }
+
+    static class RecordingScheduler implements Scheduler {
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        String poll() throws InterruptedException {
+            String event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull("No callback", event);
+            return event;
+        }
+
+        @Override
+        public void registered(SchedulerDriver driver, Protos.FrameworkID frameworkId, Protos.MasterInfo masterInfo) {
+            events.offer("registered " + frameworkId.getValue() + " " + masterInfo.getVersion());
+        }
+
+        @Override
+        public void reregistered(SchedulerDriver driver, Protos.MasterInfo masterInfo) {
+            events.offer("reregistered");
+        }
+
+        @Override
+        public void resourceOffers(SchedulerDriver driver, List<Protos.Offer> offers) {
+            events.offer("offers " + offers.stream().map(o -> o.getId().getValue()).collect(Collectors.joining(",")));
+        }
+
+        @Override
+        public void offerRescinded(SchedulerDriver driver, Protos.OfferID offerId) {
+            events.offer("rescinded " + offerId.getValue());
+        }
+
+        @Override
+        public void statusUpdate(SchedulerDriver driver, Protos.TaskStatus status) {
+            events.offer("update " + status.getTaskId().getValue() + " " + status.getState() + " " + status.getSlaveId().getValue());
+        }
+
+        @Override
+        public void frameworkMessage(SchedulerDriver driver, Protos.ExecutorID executorId, Protos.SlaveID slaveId, byte[] data) {
+            events.offer("message");
+        }
+
+        @Override
+        public void disconnected(SchedulerDriver driver) {
+            events.offer("disconnected");
+        }
+
+        @Override
+        public void slaveLost(SchedulerDriver driver, Protos.SlaveID slaveId) {
+            events.offer("slaveLost " + slaveId.getValue());
+        }
+
+        @Override
+        public void executorLost(SchedulerDriver driver, Protos.ExecutorID executorId, Protos.SlaveID slaveId, int status) {
+            events.offer("executorLost");
+        }
+
+        @Override
+        public void error(SchedulerDriver driver, String message) {
+            events.offer("error " + message);
+        }
+    }
+}
@@ -48,7 +48,7 @@ public class JobQueueTest {
     }
     @After
     public void after() throws Exception {
-        Database.getInstance().deleteAllJob(Integer.MAX_VALUE);
+        Database.getInstance().deleteAllJob(Long.MAX_VALUE);
         Database.getInstance().deleteAllProperties();
         Database.getInstance().clear(); // Deleting users and applications?
         Database.getInstance().stop();
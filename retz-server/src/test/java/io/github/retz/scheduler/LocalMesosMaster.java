@@ -0,0 +1,98 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.mesos.v1.scheduler.Protos.Call;
+import org.apache.mesos.v1.scheduler.Protos.Event;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// A stand-in Mesos master serving v1 scheduler HTTP API, to test HttpSchedulerDriver.
+// It records all calls, and sends events given by tests to the subscriber.
+public class LocalMesosMaster {
+    private final HttpServer server;
+    private final BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+    private volatile HttpExchange subscriber;
+
+    public LocalMesosMaster() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext(HttpSchedulerDriver.PATH, this::handle);
+        server.start();
+    }
+
+    public String address() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Call call = Call.parseFrom(exchange.getRequestBody());
+        if (call.getType() == Call.Type.SUBSCRIBE) {
+            exchange.getResponseHeaders().add(HttpSchedulerDriver.STREAM_ID, "stream-1");
+            exchange.getResponseHeaders().add("Content-Type", "application/x-protobuf");
+            // Chunked; kept open as the event stream
+            exchange.sendResponseHeaders(200, 0);
+            subscriber = exchange;
+            calls.offer(call);
+            return;
+        }
+        calls.offer(call);
+        if (subscriber == null || !"stream-1".equals(exchange.getRequestHeaders().getFirst(HttpSchedulerDriver.STREAM_ID))) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+        } else {
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        }
+    }
+
+    public void send(Event event) throws IOException {
+        byte[] body = event.toByteArray();
+        OutputStream out = subscriber.getResponseBody();
+        out.write((body.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(body);
+        out.flush();
+    }
+
+    // Waits for the next call of the type, skipping others
+    public Call await(Call.Type type) throws InterruptedException {
+        while (true) {
+            Call call = calls.poll(10, TimeUnit.SECONDS);
+            if (call == null) {
+                throw new AssertionError("No " + type + " call received");
+            } else if (call.getType() == type) {
+                return call;
+            }
+        }
+    }
+
+    public void stop() {
+        if (subscriber != null) {
+            subscriber.close();
+        }
+        server.stop(0);
+    }
+}
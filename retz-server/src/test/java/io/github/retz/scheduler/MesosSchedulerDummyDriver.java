@@ -41,13 +41,14 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
 
     private final List<Protos.OfferID> accepted;
     private final List<Protos.TaskInfo> tasks;
+    private final List<List<Protos.TaskStatus>> reconciled;
 
 //    List<Protos.Resource> reserved;
 //    List<Protos.Resource> volumes;
 //
 //    Map<Protos.OfferID, Protos.Offer> offers;
 
-    MesosSchedulerDummyDriver(Scheduler scheduler,
+    public MesosSchedulerDummyDriver(Scheduler scheduler,
                               Protos.FrameworkInfo frameworkInfo,
                               String mesosMaster)
             throws InvalidProtocolBufferException {
@@ -75,6 +76,7 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
         declined = new ArrayList<>();
         accepted = new ArrayList<>();
         tasks = new ArrayList<>();
+        reconciled = new ArrayList<>();
     }
 
     public Protos.Status start() {
@@ -221,6 +223,9 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
     }
 
     public Protos.Status reconcileTasks(Collection<Protos.TaskStatus> statuses) {
+        synchronized (reconciled) {
+            reconciled.add(new ArrayList<>(statuses));
+        }
         return Protos.Status.DRIVER_RUNNING;
     }
 
@@ -236,6 +241,12 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
         return declined;
     }
 
+    public List<List<Protos.TaskStatus>> getReconciled() {
+        synchronized (reconciled) {
+            return new ArrayList<>(reconciled);
+        }
+    }
+
     public List<Protos.OfferID> getAccepted() {
         return accepted;
     }
@@ -248,6 +259,9 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
         declined.clear();
         accepted.clear();
         tasks.clear();
+        synchronized (reconciled) {
+            reconciled.clear();
+        }
     }
 
     public void dummyTaskStarted() {
@@ -0,0 +1,152 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.db.Database;
+import io.github.retz.misc.Pair;
+import org.apache.mesos.Protos;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReconciliationServiceTest {
+    MesosSchedulerDummyDriver driver;
+
+    @Before
+    public void before() throws Throwable {
+        Protos.FrameworkInfo frameworkInfo = Protos.FrameworkInfo.newBuilder()
+                .setUser("")
+                .setName(RetzScheduler.FRAMEWORK_NAME)
+                .build();
+
+        InputStream in = Launcher.class.getResourceAsStream("/retz.properties");
+        Launcher.Configuration conf = new Launcher.Configuration(new ServerConfiguration(in));
+
+        Database.getInstance().init(conf.getServerConfig());
+        RetzScheduler scheduler = new RetzScheduler(conf, frameworkInfo);
+        driver = new MesosSchedulerDummyDriver(scheduler, frameworkInfo, conf.getMesosMaster());
+    }
+
+    @After
+    public void after() {
+        driver.clear();
+        Database.getInstance().clear();
+        Database.getInstance().stop();
+    }
+
+    @Test
+    public void backoff() {
+        ReconciliationService service = new ReconciliationService(2, 0, 100, 400, 1000);
+        assertEquals(100, service.backoff(1));
+        assertEquals(200, service.backoff(2));
+        assertEquals(400, service.backoff(3));
+        assertEquals(400, service.backoff(100));
+    }
+
+    @Test
+    public void reconcile() {
+        ReconciliationMetrics metrics = ReconciliationMetrics.getInstance();
+        long confirmed = metrics.confirmedTasks();
+        long implicit = metrics.implicitRequests();
+
+        ReconciliationService service = new ReconciliationService(2, 0, 100, 400, 1000);
+        service.reconcileAll(Arrays.asList(new Pair<>("t1", "s1"), new Pair<>("t2", "s1"), new Pair<>("t3", null)));
+        long now = System.currentTimeMillis();
+
+        // Sent in chunks
+        service.reconcileDue(driver, now);
+        List<List<Protos.TaskStatus>> reconciled = driver.getReconciled();
+        assertEquals(2, reconciled.size());
+        assertEquals(2, reconciled.get(0).size());
+        assertEquals(1, reconciled.get(1).size());
+
+        service.confirm("t1");
+        assertEquals(2, service.unconfirmed());
+        assertEquals(confirmed + 1, metrics.confirmedTasks());
+
+        // Not re-sent until backoff
+        driver.clear();
+        service.reconcileDue(driver, now + 50);
+        assertTrue(driver.getReconciled().isEmpty());
+        service.reconcileDue(driver, now + 100);
+        assertEquals(1, driver.getReconciled().size());
+        assertEquals(2, driver.getReconciled().get(0).size());
+
+        // Backoff doubles
+        driver.clear();
+        service.reconcileDue(driver, now + 250);
+        assertTrue(driver.getReconciled().isEmpty());
+        assertEquals(2, metrics.maxAttempts());
+        assertEquals(2, metrics.unconfirmedTasks());
+        service.reconcileDue(driver, now + 300);
+        assertEquals(1, driver.getReconciled().size());
+
+        // Implicit reconciliation on its interval
+        service.confirm("t2");
+        service.confirm("t3");
+        assertEquals(0, service.unconfirmed());
+        driver.clear();
+        service.reconcileDue(driver, now + 2000);
+        assertEquals(1, driver.getReconciled().size());
+        assertTrue(driver.getReconciled().get(0).isEmpty());
+        assertEquals(implicit + 1, metrics.implicitRequests());
+        assertEquals(0, metrics.unconfirmedTasks());
+    }
+
+    @Test
+    public void launched() {
+        ReconciliationService service = new ReconciliationService(10, 0, 100, 400, 1000000);
+        long now = System.currentTimeMillis();
+        service.expect("t1", "s1");
+        service.expect("t2", "s1");
+        // Status of t1 comes back in time
+        service.confirm("t1");
+
+        service.reconcileDue(driver, now);
+        assertTrue(driver.getReconciled().isEmpty());
+        service.reconcileDue(driver, now + 1000);
+        assertEquals(1, driver.getReconciled().size());
+        assertEquals("t2", driver.getReconciled().get(0).get(0).getTaskId().getValue());
+        assertEquals("s1", driver.getReconciled().get(0).get(0).getSlaveId().getValue());
+    }
+
+    @Test
+    public void implicitWhileLaunching() {
+        ReconciliationService service = new ReconciliationService(10, 0, 100, 400, 1000);
+        long now = System.currentTimeMillis();
+        service.reconcileDue(driver, now);
+        assertTrue(driver.getReconciled().isEmpty());
+
+        // Tasks launched all the time never hold implicit reconciliation back
+        service.expect("t1", "s1");
+        service.reconcileDue(driver, now + 50);
+        assertTrue(driver.getReconciled().isEmpty());
+        service.expect("t2", "s1");
+        service.reconcileDue(driver, now + 1000);
+        List<List<Protos.TaskStatus>> reconciled = driver.getReconciled();
+        assertEquals(2, reconciled.size());
+        assertEquals(1, reconciled.stream().filter(List::isEmpty).count());
+        assertEquals(2, service.unconfirmed());
+    }
+}
@@ -89,6 +89,28 @@ public class RetzSchedulerTest {
         driver.run();
     }
 
+    @Test
+    public void dispatcher() throws InterruptedException {
+        DriverDispatcher dispatcher = new DriverDispatcher();
+        Protos.Filters filters = Protos.Filters.newBuilder().setRefuseSeconds(1).build();
+        for (int i = 0; i < 3; i++) {
+            dispatcher.decline(Protos.OfferID.newBuilder().setValue("offer-" + i).build(), filters);
+        }
+        // Dummy driver fails on accept, which must not keep declines from being sent
+        dispatcher.accept(Collections.emptyList(), Collections.emptyList(), filters);
+        assertTrue(driver.getDeclined().isEmpty());
+
+        dispatcher.flush(driver);
+        dispatcher.await(10000);
+        assertThat(driver.getDeclined().size(), is(3));
+        assertThat(driver.getDeclined().get(2).getValue(), is("offer-2"));
+
+        // Nothing sent twice
+        dispatcher.flush(driver);
+        dispatcher.await(10000);
+        assertThat(driver.getDeclined().size(), is(3));
+    }
+
     // @Test
     public void decline() {
         driver.start();
@@ -0,0 +1,91 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.misc.Pair;
+import io.github.retz.planner.AppJobPair;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class RunningJobLimitTest {
+
+    @Test
+    public void counts() {
+        RunningJobLimit limit = new RunningJobLimit(10, 10);
+        limit.load(Arrays.asList(new Pair<>("t1", "alice"), new Pair<>("t2", "alice"),
+                new Pair<>("t3", "bob"), new Pair<>("t4", null)));
+        assertEquals(4, limit.running());
+        assertEquals(2, limit.running("alice"));
+
+        // Status updates may come twice
+        limit.put("t5", "bob");
+        limit.put("t5", "bob");
+        limit.remove("t1");
+        limit.remove("t1");
+        limit.remove("t4");
+        assertEquals(3, limit.running());
+        assertEquals(1, limit.running("alice"));
+        assertEquals(2, limit.running("bob"));
+    }
+
+    @Test
+    public void fit() {
+        RunningJobLimit limit = new RunningJobLimit(5, 3);
+        limit.load(Arrays.asList(new Pair<>("t1", "alice"), new Pair<>("t2", "alice")));
+
+        List<AppJobPair> pairs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pairs.add(pair("alice", i));
+        }
+        for (int i = 3; i < 6; i++) {
+            pairs.add(pair("bob", i));
+        }
+        // Headroom is 3 in total and 1 for alice
+        assertEquals(Arrays.asList(0L, 3L, 4L), ids(limit.fit(pairs)));
+
+        limit.put("t3", "bob");
+        limit.put("t4", "bob");
+        limit.put("t5", "bob");
+        assertEquals(Collections.emptyList(), ids(limit.fit(pairs)));
+
+        limit.remove("t1");
+        assertEquals(Arrays.asList(0L), ids(limit.fit(pairs)));
+    }
+
+    private static AppJobPair pair(String owner, long id) {
+        Application app = new Application("app-" + owner, Collections.emptyList(), Collections.emptyList(),
+                Optional.empty(), owner, 0, new MesosContainer(), true);
+        Job job = new Job(app.getAppid(), "ls", null, 1, 32, 32);
+        job.schedule(id, "now");
+        return new AppJobPair(Optional.of(app), job);
+    }
+
+    private static List<Long> ids(List<AppJobPair> pairs) {
+        return pairs.stream().map(p -> p.job().id()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.misc.Pair;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RunningTaskIndexTest {
+
+    @Test
+    public void index() {
+        RunningTaskIndex index = new RunningTaskIndex();
+        index.load(Arrays.asList(new Pair<>("t1", "s1"), new Pair<>("t2", "s1"),
+                new Pair<>("t3", "s2"), new Pair<>("t4", null)));
+        // Tasks not yet assigned to any agent are not indexed
+        assertEquals(3, index.size());
+        assertEquals(new HashSet<>(Arrays.asList("t1", "t2")), new HashSet<>(index.tasksOn("s1")));
+        assertEquals(Arrays.asList("t3"), index.tasksOn("s2"));
+
+        index.put("t4", "s2");
+        index.remove("t3");
+        assertEquals(Arrays.asList("t4"), index.tasksOn("s2"));
+
+        // Task moved to another agent, e.g. on retry
+        index.put("t1", "s3");
+        assertEquals(Arrays.asList("t2"), index.tasksOn("s1"));
+        assertEquals(Arrays.asList("t1"), index.tasksOn("s3"));
+
+        index.remove("t2");
+        index.remove("unknown");
+        assertTrue(index.tasksOn("s1").isEmpty());
+        assertEquals(2, index.size());
+
+        index.load(Arrays.asList(new Pair<>("t5", "s1")));
+        assertEquals(1, index.size());
+        assertTrue(index.tasksOn("s2").isEmpty());
+    }
+}
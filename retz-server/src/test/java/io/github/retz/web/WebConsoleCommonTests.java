@@ -78,7 +78,8 @@ public class WebConsoleCommonTests {
         Database.getInstance().init(config);
         assertTrue(Database.getMigrator().isFinished());
 
-        WebConsole.set(scheduler, null);
+        // Kills without a driver are left to the scheduler as done by frontends
+        WebConsole.set(scheduler, new MesosSchedulerDummyDriver(scheduler, frameworkInfo, config.getMesosMaster()));
         WebConsole.start(config);
         awaitInitialization();
 
@@ -202,7 +203,7 @@ public class WebConsoleCommonTests {
             assertThat(res, instanceOf(ScheduleResponse.class));
             ScheduleResponse sres = (ScheduleResponse) res;
             assertNotNull(sres.job.scheduled());
-            assertThat(sres.job.id(), is(greaterThanOrEqualTo(0)));
+            assertThat(sres.job.id(), is(greaterThanOrEqualTo(0L)));
             System.err.println(sres.job.scheduled());
 
             assertThat(ClientHelper.queue(webClient).size(), is(1));
@@ -269,6 +270,102 @@ public class WebConsoleCommonTests {
         }
     }
 
+    @Test
+    public void scheduleBatch() throws Exception {
+        {
+            // Batch without app must fail
+            Response res = webClient.scheduleBatch(Arrays.asList(new Job("batchapp", "true", null, 1, 32, 0)));
+            assertThat(res, instanceOf(ErrorResponse.class));
+        }
+        Application app = new ApplicationBuilder("batchapp", config.getUser().keyId()).build();
+        LoadAppResponse loadAppResponse = (LoadAppResponse) webClient.load(app);
+        assertEquals("ok", loadAppResponse.status());
+        {
+            // Jobs of different applications in a batch must fail
+            Response res = webClient.scheduleBatch(Arrays.asList(
+                    new Job("batchapp", "true", null, 1, 32, 0),
+                    new Job("app", "true", null, 1, 32, 0)));
+            assertThat(res, instanceOf(ErrorResponse.class));
+        }
+        {
+            List<Job> jobs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                jobs.add(new Job("batchapp", "echo " + i, new Properties(), 1, 32, 0));
+            }
+            Response res = webClient.scheduleBatch(jobs);
+            assertThat(res, instanceOf(ScheduleBatchResponse.class));
+            List<Job> scheduled = ((ScheduleBatchResponse) res).jobs();
+            assertEquals(100, scheduled.size());
+            for (int i = 0; i < scheduled.size(); i++) {
+                // Ids are contiguous and in the order of the request
+                assertEquals(scheduled.get(0).id() + i, scheduled.get(i).id());
+                assertEquals("echo " + i, scheduled.get(i).cmd());
+                assertEquals(Job.JobState.QUEUED, scheduled.get(i).state());
+            }
+            GetJobResponse getJobResponse = (GetJobResponse) webClient.getJob(scheduled.get(99).id());
+            assertEquals("echo 99", getJobResponse.job().get().cmd());
+        }
+    }
+
+    @Test
+    public void killMatching() throws Exception {
+        Application app = new ApplicationBuilder("killapp", config.getUser().keyId()).build();
+        LoadAppResponse loadAppResponse = (LoadAppResponse) webClient.load(app);
+        assertEquals("ok", loadAppResponse.status());
+
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            Job job = new Job("killapp", "sleep 1000", new Properties(), 1, 32, 0);
+            if (i % 3 == 0) {
+                job.addTags("sweep");
+            }
+            jobs.add(job);
+        }
+        List<Job> scheduled = ((ScheduleBatchResponse) webClient.scheduleBatch(jobs)).jobs();
+
+        List<Job.JobState> states = Arrays.asList(Job.JobState.QUEUED, Job.JobState.STARTING, Job.JobState.STARTED);
+        Response res = webClient.killMatching(Optional.of("sweep"), states, -1);
+        assertThat(res, instanceOf(KillMatchingResponse.class));
+        KillMatchingResponse killMatchingResponse = (KillMatchingResponse) res;
+        assertEquals("ok", killMatchingResponse.status());
+        assertEquals(10, killMatchingResponse.killed());
+        assertEquals(0, killMatchingResponse.signaled());
+        assertFalse(killMatchingResponse.more());
+
+        for (Job job : scheduled) {
+            Job.JobState expected = job.tags().contains("sweep") ? Job.JobState.KILLED : Job.JobState.QUEUED;
+            GetJobResponse getJobResponse = (GetJobResponse) webClient.getJob(job.id());
+            assertEquals(expected, getJobResponse.job().get().state());
+        }
+
+        // Killed jobs are never killed again
+        killMatchingResponse = (KillMatchingResponse) webClient.killMatching(Optional.of("sweep"), states, -1);
+        assertEquals(0, killMatchingResponse.killed());
+    }
+
+    @Test
+    public void tailFile() throws Exception {
+        Application app = new ApplicationBuilder("app", config.getUser().keyId()).build();
+        LoadAppResponse loadAppResponse = (LoadAppResponse) webClient.load(app);
+        assertEquals("ok", loadAppResponse.status());
+
+        Job job = new Job("app", "sleep 1000", new Properties(), 1, 64, 0);
+        ScheduleResponse scheduleResponse = (ScheduleResponse) webClient.schedule(job);
+        KillResponse killResponse = (KillResponse) webClient.kill(scheduleResponse.job().id());
+        assertEquals("ok", killResponse.status());
+
+        // The job has finished without running; the stream ends right away
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, webClient.tailFile(scheduleResponse.job().id(), "stdout", 0, out));
+        assertEquals(0, out.size());
+
+        try {
+            webClient.tailFile(scheduleResponse.job().id() + 1, "stdout", 0, out);
+            fail();
+        } catch (FileNotFoundException e) {
+        }
+    }
+
     @Test
     public void ping() throws IOException {
         Client c = Client.newBuilder(config.getUri())